@@ -1,5 +1,7 @@
 package com.mycompany.app;
 
+import java.io.IOException;
+
 /** Entry of the CLI Application. */
 public class App {
   /**
@@ -14,11 +16,28 @@ public class App {
     System.out.println("Type '.exit' to exit the program.");
 
     Engine e = new Engine();
-    if (args.length != 0) {
-      for (String dbName : args) {
-        e.loadDatabase(dbName);
+    String listen = null;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("--mmap")) {
+        e.mapped = true; // serve queries from memory mapped files, read only
+      } else if (arg.startsWith("--pool=")) {
+        e.poolFrames = Integer.parseInt(arg.substring("--pool=".length()));
+      } else if (arg.equals("--listen") && i + 1 < args.length) {
+        listen = args[++i]; // serve clients over TCP instead of reading the prompt
+      } else {
+        e.loadDatabase(arg);
       }
     }
-    e.evalLoop();
+    if (listen == null) {
+      e.evalLoop();
+      return;
+    }
+    try (Server server = new Server(e, Server.address(listen))) {
+      System.out.println("Listening on port " + server.getPort() + ".");
+      server.serve();
+    } catch (IOException ex) {
+      System.out.println("Could not listen on " + listen + ": " + ex.getMessage());
+    }
   }
 }
@@ -0,0 +1,406 @@
+package com.mycompany.app;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Ordered map from keys to values, stored as a B+ tree.
+ *
+ * <p>Every value lives in a leaf and the leaves are linked in key order, so a range scan is a
+ * descent to the first key followed by a walk along the leaves. Nodes hold up to {@code order}
+ * keys, wide enough that a tree over millions of rows is only three or four levels deep.
+ *
+ * <p>Removing a key does not merge nodes, leaves are allowed to run empty. Rows are only removed
+ * when a transaction is rolled back, so the space is reused by the inserts that follow.
+ *
+ * <p>An iterator may be left while keys are added or removed and then carry on. It notices the tree
+ * changed and finds its place again after the last key it returned, so the keys that were there all
+ * along are each returned once.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+final class BPlusTree<K extends Comparable<? super K>, V> implements Iterable<Map.Entry<K, V>> {
+
+  static final int DEFAULT_ORDER = 128;
+
+  private abstract static class Node<K> {
+    final ArrayList<K> keys = new ArrayList<>();
+  }
+
+  private static final class Leaf<K, V> extends Node<K> {
+    final ArrayList<V> values = new ArrayList<>();
+    Leaf<K, V> next;
+  }
+
+  // child i holds keys below keys[i], child i + 1 holds keys from keys[i] up
+  private static final class Inner<K> extends Node<K> {
+    final ArrayList<Node<K>> children = new ArrayList<>();
+  }
+
+  // a node that split in two, the separator is the lowest key of the new right node
+  private record Split<K>(K separator, Node<K> right) {}
+
+  private final int order;
+  private Node<K> root;
+  private Leaf<K, V> first;
+  private int size = 0;
+  private int changes = 0; // keys added or removed, for iterators to see their place has moved
+
+  /** Create an empty tree with the default node size. */
+  BPlusTree() {
+    this(DEFAULT_ORDER);
+  }
+
+  /**
+   * Create an empty tree.
+   *
+   * @param order most keys a node holds before it splits
+   */
+  BPlusTree(int order) {
+    if (order < 3) {
+      throw new RuntimeException("[INDEX] B+ tree order must be at least 3");
+    }
+    this.order = order;
+    this.first = new Leaf<>();
+    this.root = first;
+  }
+
+  /**
+   * Build a tree from entries that are already sorted, filling each node instead of inserting one
+   * key at a time.
+   *
+   * @param order most keys a node holds
+   * @param sorted entries in strictly increasing key order
+   * @return the loaded tree
+   */
+  static <K extends Comparable<? super K>, V> BPlusTree<K, V> bulkLoad(
+      int order, List<? extends Map.Entry<K, V>> sorted) {
+    BPlusTree<K, V> tree = new BPlusTree<>(order);
+    if (sorted.isEmpty()) {
+      return tree;
+    }
+
+    List<Node<K>> level = new ArrayList<>();
+    List<K> lowest = new ArrayList<>(); // lowest key under each node of the level
+    Leaf<K, V> leaf = null;
+    K previous = null;
+    for (Map.Entry<K, V> entry : sorted) {
+      if (previous != null && previous.compareTo(entry.getKey()) >= 0) {
+        throw new RuntimeException("[INDEX] Bulk loaded keys must be sorted and unique");
+      }
+      previous = entry.getKey();
+      if (leaf == null || leaf.keys.size() == order) {
+        Leaf<K, V> next = new Leaf<>();
+        if (leaf == null) {
+          tree.first = next;
+        } else {
+          leaf.next = next;
+        }
+        leaf = next;
+        level.add(leaf);
+        lowest.add(entry.getKey());
+      }
+      leaf.keys.add(entry.getKey());
+      leaf.values.add(entry.getValue());
+    }
+
+    while (level.size() > 1) {
+      List<Node<K>> parents = new ArrayList<>();
+      List<K> parentLowest = new ArrayList<>();
+      for (int start = 0; start < level.size(); start += order + 1) {
+        Inner<K> parent = new Inner<>();
+        int end = Math.min(start + order + 1, level.size());
+        for (int i = start; i < end; i++) {
+          if (i > start) {
+            parent.keys.add(lowest.get(i));
+          }
+          parent.children.add(level.get(i));
+        }
+        parents.add(parent);
+        parentLowest.add(lowest.get(start));
+      }
+      level = parents;
+      lowest = parentLowest;
+    }
+    tree.root = level.get(0);
+    tree.size = sorted.size();
+    return tree;
+  }
+
+  /**
+   * Build a tree from entries in any order, later entries replacing earlier ones with the same key.
+   *
+   * @param order most keys a node holds
+   * @param entries the entries, e.g. in the order they were written to disk
+   * @return the loaded tree
+   */
+  static <K extends Comparable<? super K>, V> BPlusTree<K, V> load(
+      int order, List<Map.Entry<K, V>> entries) {
+    return bulkLoad(order, sortUnique(entries));
+  }
+
+  /**
+   * Sort entries by key, keeping only the last entry for each key.
+   *
+   * @param entries the entries, e.g. in the order they were written to disk
+   * @return the entries in strictly increasing key order
+   */
+  static <K extends Comparable<? super K>, V> List<Map.Entry<K, V>> sortUnique(
+      List<Map.Entry<K, V>> entries) {
+    List<Map.Entry<K, V>> sorted = new ArrayList<>(entries);
+    sorted.sort(Map.Entry.comparingByKey()); // stable, so duplicates stay in their written order
+    List<Map.Entry<K, V>> unique = new ArrayList<>(sorted.size());
+    for (Map.Entry<K, V> entry : sorted) {
+      int last = unique.size() - 1;
+      if (last >= 0 && unique.get(last).getKey().compareTo(entry.getKey()) == 0) {
+        unique.set(last, entry);
+      } else {
+        unique.add(entry);
+      }
+    }
+    return unique;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Find the value stored under a key.
+   *
+   * @param key the key to look up
+   * @return the value, or null if the key is not in the tree
+   */
+  V get(K key) {
+    Leaf<K, V> leaf = leafFor(key);
+    int index = Collections.binarySearch(leaf.keys, key);
+    return index >= 0 ? leaf.values.get(index) : null;
+  }
+
+  /**
+   * Insert a key, or replace the value stored under it.
+   *
+   * @param key the key
+   * @param value the value to store
+   * @return the value that was replaced, or null if the key is new
+   */
+  V put(K key, V value) {
+    List<V> replaced = new ArrayList<>(1);
+    Split<K> split = insert(root, key, value, replaced);
+    if (split != null) {
+      Inner<K> grown = new Inner<>();
+      grown.keys.add(split.separator());
+      grown.children.add(root);
+      grown.children.add(split.right());
+      root = grown;
+    }
+    return replaced.isEmpty() ? null : replaced.get(0);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Split<K> insert(Node<K> node, K key, V value, List<V> replaced) {
+    if (node instanceof Inner<K> inner) {
+      int child = childIndex(inner, key);
+      Split<K> split = insert(inner.children.get(child), key, value, replaced);
+      if (split == null) {
+        return null;
+      }
+      inner.keys.add(child, split.separator());
+      inner.children.add(child + 1, split.right());
+      if (inner.keys.size() <= order) {
+        return null;
+      }
+      int middle = inner.keys.size() / 2;
+      Inner<K> right = new Inner<>();
+      K separator = inner.keys.get(middle);
+      right.keys.addAll(inner.keys.subList(middle + 1, inner.keys.size()));
+      right.children.addAll(inner.children.subList(middle + 1, inner.children.size()));
+      inner.keys.subList(middle, inner.keys.size()).clear();
+      inner.children.subList(middle + 1, inner.children.size()).clear();
+      return new Split<>(separator, right);
+    }
+
+    Leaf<K, V> leaf = (Leaf<K, V>) node;
+    int index = Collections.binarySearch(leaf.keys, key);
+    if (index >= 0) {
+      replaced.add(leaf.values.set(index, value));
+      return null;
+    }
+    index = -index - 1;
+    leaf.keys.add(index, key);
+    leaf.values.add(index, value);
+    size++;
+    changes++;
+    if (leaf.keys.size() <= order) {
+      return null;
+    }
+    int middle = leaf.keys.size() / 2;
+    Leaf<K, V> right = new Leaf<>();
+    right.keys.addAll(leaf.keys.subList(middle, leaf.keys.size()));
+    right.values.addAll(leaf.values.subList(middle, leaf.values.size()));
+    leaf.keys.subList(middle, leaf.keys.size()).clear();
+    leaf.values.subList(middle, leaf.values.size()).clear();
+    right.next = leaf.next;
+    leaf.next = right;
+    return new Split<>(right.keys.get(0), right);
+  }
+
+  /**
+   * Remove a key from the tree.
+   *
+   * @param key the key to remove
+   * @return the value that was stored under it, or null if there was none
+   */
+  V remove(K key) {
+    Leaf<K, V> leaf = leafFor(key);
+    int index = Collections.binarySearch(leaf.keys, key);
+    if (index < 0) {
+      return null;
+    }
+    leaf.keys.remove(index);
+    size--;
+    changes++;
+    return leaf.values.remove(index);
+  }
+
+  /**
+   * Every entry with a key between two bounds, in key order.
+   *
+   * @param low lowest key, or null to start from the first entry
+   * @param lowInclusive if an entry with key {@code low} is included
+   * @param high highest key, or null to carry on to the last entry
+   * @param highInclusive if an entry with key {@code high} is included
+   * @return the entries, read lazily from the leaves
+   */
+  Iterable<Map.Entry<K, V>> range(K low, boolean lowInclusive, K high, boolean highInclusive) {
+    return () -> new EntryIterator(low, lowInclusive, high, highInclusive);
+  }
+
+  @Override
+  public Iterator<Map.Entry<K, V>> iterator() {
+    return new EntryIterator(null, true, null, false);
+  }
+
+  /**
+   * The keys of the tree in order, as a read only view.
+   *
+   * @return the keys
+   */
+  Collection<K> keys() {
+    return new AbstractCollection<>() {
+      @Override
+      public Iterator<K> iterator() {
+        Iterator<Map.Entry<K, V>> entries = BPlusTree.this.iterator();
+        return new Iterator<>() {
+          @Override
+          public boolean hasNext() {
+            return entries.hasNext();
+          }
+
+          @Override
+          public K next() {
+            return entries.next().getKey();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private Leaf<K, V> leafFor(K key) {
+    Node<K> node = root;
+    while (node instanceof Inner<K> inner) {
+      node = inner.children.get(childIndex(inner, key));
+    }
+    return (Leaf<K, V>) node;
+  }
+
+  // the child to follow for a key, the number of separators at or below it
+  private static <K extends Comparable<? super K>> int childIndex(Inner<K> inner, K key) {
+    int index = Collections.binarySearch(inner.keys, key);
+    return index >= 0 ? index + 1 : -index - 1;
+  }
+
+  private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+    private Leaf<K, V> leaf;
+    private int index;
+    private K from; // where the iterator carries on from if the tree changes
+    private boolean fromInclusive;
+    private int seen; // changes to the tree when the place was found
+    private final K high;
+    private final boolean highInclusive;
+
+    EntryIterator(K low, boolean lowInclusive, K high, boolean highInclusive) {
+      this.from = low;
+      this.fromInclusive = lowInclusive;
+      this.high = high;
+      this.highInclusive = highInclusive;
+      seek();
+    }
+
+    // the first entry at or after the key carried on from
+    private void seek() {
+      seen = changes;
+      if (from == null) {
+        leaf = first;
+        index = 0;
+        return;
+      }
+      leaf = leafFor(from);
+      index = Collections.binarySearch(leaf.keys, from);
+      if (index < 0) {
+        index = -index - 1;
+      } else if (!fromInclusive) {
+        index++;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (seen != changes && leaf != null) {
+        seek();
+      }
+      while (leaf != null && index >= leaf.keys.size()) {
+        leaf = leaf.next;
+        index = 0;
+      }
+      if (leaf == null) {
+        return false;
+      }
+      if (high != null) {
+        int compared = leaf.keys.get(index).compareTo(high);
+        if (compared > 0 || (compared == 0 && !highInclusive)) {
+          leaf = null;
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public Map.Entry<K, V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<K, V> entry =
+          new AbstractMap.SimpleImmutableEntry<>(leaf.keys.get(index), leaf.values.get(index));
+      index++;
+      from = entry.getKey();
+      fromInclusive = false;
+      return entry;
+    }
+  }
+}
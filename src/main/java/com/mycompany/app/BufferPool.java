@@ -0,0 +1,196 @@
+package com.mycompany.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Caches pages of a database file in a fixed number of off heap frames.
+ *
+ * <p>A page has to be pinned while it is being used and unpinned afterwards, marking it dirty if it
+ * was changed. When every frame is full the unpinned page with the oldest second most recent access
+ * is evicted (LRU-2), so a page only read once by a scan is thrown out before one that is used
+ * repeatedly. Dirty pages are written back when evicted or flushed.
+ */
+final class BufferPool {
+
+  private final PageFile file;
+  private final ByteBuffer[] frames;
+  private final int[] pageOf; // page held by each frame
+  private final int[] pins;
+  private final boolean[] dirty;
+  private final long[] lastAccess; // LRU-2 history, 0 means never
+  private final long[] previousAccess;
+  private final HashMap<Integer, Integer> frameOf = new HashMap<>();
+  private long clock = 0;
+  private long reads = 0; // pages read from the file, for seeing how well the pool caches
+
+  /**
+   * Create a pool of frames over an open file.
+   *
+   * @param file the database file
+   * @param frameCount number of pages that can be cached at once
+   */
+  BufferPool(PageFile file, int frameCount) {
+    if (frameCount < 2 || frameCount > Integer.MAX_VALUE / PageFile.PAGE_SIZE) {
+      throw new RuntimeException("[BUFFER POOL] Frame count must be between 2 and 524287");
+    }
+    this.file = file;
+    ByteBuffer slab = ByteBuffer.allocateDirect(frameCount * PageFile.PAGE_SIZE);
+    this.frames = new ByteBuffer[frameCount];
+    for (int i = 0; i < frameCount; i++) {
+      frames[i] = slab.slice(i * PageFile.PAGE_SIZE, PageFile.PAGE_SIZE);
+    }
+    this.pageOf = new int[frameCount];
+    Arrays.fill(pageOf, PageFile.NO_PAGE);
+    this.pins = new int[frameCount];
+    this.dirty = new boolean[frameCount];
+    this.lastAccess = new long[frameCount];
+    this.previousAccess = new long[frameCount];
+  }
+
+  PageFile file() {
+    return file;
+  }
+
+  /**
+   * Pin a page, reading it from the file if it is not cached.
+   *
+   * @param pageNo the page to pin
+   * @return the frame holding the page, valid until it is unpinned
+   */
+  synchronized ByteBuffer pin(int pageNo) throws IOException {
+    Integer cached = frameOf.get(pageNo);
+    int frame;
+    if (cached != null) {
+      frame = cached;
+    } else {
+      frame = victim();
+      file.read(pageNo, frames[frame]);
+      reads++;
+      install(frame, pageNo);
+    }
+    pins[frame]++;
+    touch(frame);
+    return frames[frame];
+  }
+
+  /**
+   * Allocate a new page in the file and pin it as an empty, dirty data page.
+   *
+   * @return the page number, pinned
+   */
+  synchronized int pinNew() throws IOException {
+    int pageNo = file.allocate();
+    int frame = victim();
+    DataPage.init(frames[frame]);
+    install(frame, pageNo);
+    dirty[frame] = true;
+    pins[frame]++;
+    touch(frame);
+    return pageNo;
+  }
+
+  /**
+   * The frame of a page that is already pinned.
+   *
+   * @param pageNo the pinned page
+   * @return the frame holding the page
+   */
+  synchronized ByteBuffer pinned(int pageNo) {
+    Integer frame = frameOf.get(pageNo);
+    if (frame == null || pins[frame] == 0) {
+      throw new RuntimeException("[BUFFER POOL] Page " + pageNo + " is not pinned");
+    }
+    return frames[frame];
+  }
+
+  /**
+   * Release a pinned page.
+   *
+   * @param pageNo the page to unpin
+   * @param changed if the page was modified while pinned
+   */
+  synchronized void unpin(int pageNo, boolean changed) {
+    Integer frame = frameOf.get(pageNo);
+    if (frame == null || pins[frame] == 0) {
+      throw new RuntimeException("[BUFFER POOL] Page " + pageNo + " is not pinned");
+    }
+    pins[frame]--;
+    dirty[frame] |= changed;
+  }
+
+  /** Write every dirty page back to the file. */
+  synchronized void flush() throws IOException {
+    for (int frame = 0; frame < frames.length; frame++) {
+      if (dirty[frame]) {
+        file.write(pageOf[frame], frames[frame]);
+        dirty[frame] = false;
+      }
+    }
+  }
+
+  /**
+   * Forget a page that is no longer in use without writing it back, so that a new page given the
+   * same number starts afresh.
+   *
+   * @param pageNo the page, which must not be pinned
+   */
+  synchronized void discard(int pageNo) {
+    Integer frame = frameOf.remove(pageNo);
+    if (frame != null) {
+      if (pins[frame] > 0) {
+        throw new RuntimeException("[BUFFER POOL] Page " + pageNo + " is still pinned");
+      }
+      pageOf[frame] = PageFile.NO_PAGE;
+      dirty[frame] = false;
+    }
+  }
+
+  synchronized long readCount() {
+    return reads;
+  }
+
+  private void touch(int frame) {
+    previousAccess[frame] = lastAccess[frame];
+    lastAccess[frame] = ++clock;
+  }
+
+  private void install(int frame, int pageNo) {
+    pageOf[frame] = pageNo;
+    frameOf.put(pageNo, frame);
+    previousAccess[frame] = 0;
+    lastAccess[frame] = 0;
+  }
+
+  // find a frame to reuse, writing back the page that was in it
+  private int victim() throws IOException {
+    int best = -1;
+    for (int frame = 0; frame < frames.length; frame++) {
+      if (pageOf[frame] == PageFile.NO_PAGE) {
+        return frame;
+      }
+      if (pins[frame] > 0) {
+        continue;
+      }
+      // largest backward 2-distance first, pages seen only once count as infinitely far back
+      if (best == -1
+          || previousAccess[frame] < previousAccess[best]
+          || (previousAccess[frame] == previousAccess[best]
+              && lastAccess[frame] < lastAccess[best])) {
+        best = frame;
+      }
+    }
+    if (best == -1) {
+      throw new RuntimeException("[BUFFER POOL] Every frame is pinned");
+    }
+    if (dirty[best]) {
+      file.write(pageOf[best], frames[best]);
+      dirty[best] = false;
+    }
+    frameOf.remove(pageOf[best]);
+    pageOf[best] = PageFile.NO_PAGE;
+    return best;
+  }
+}
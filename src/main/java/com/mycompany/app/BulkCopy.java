@@ -0,0 +1,398 @@
+package com.mycompany.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads the rows of a file to load into a table with COPY, and writes the rows of a table out to
+ * one, without going through SQL.
+ *
+ * <p>A file being read is mapped into memory and split into ranges that are parsed on the cores of
+ * a fork join pool, each range into its own list of rows, which are joined back in file order.
+ * Every row is checked against the table's columns before any of them is loaded.
+ *
+ * <p>A table being written is split into ranges of primary keys. Each range is streamed from its
+ * cursor into a segment file of its own, in parallel, and the segments are then joined into the
+ * file in key order.
+ *
+ * <p>A CSV file has one row per line, values in column order separated by commas. A value may be
+ * put in double quotes, with a double quote inside written twice, but may not span lines. An empty
+ * value is null.
+ *
+ * <p>A binary file starts with {@link #MAGIC}, followed by each row as its encoded length and then
+ * the row as encoded by {@link RowCodec}.
+ */
+final class BulkCopy {
+
+  static final int MAGIC = 0x44424350; // "DBCP"
+  static final int ROWS_PER_RANGE = 16384; // fewest rows worth writing on a core of their own
+  private static final int SPLIT_SIZE = 1 << 20; // bytes of a file parsed by one task
+  private static final int BUFFER_SIZE = 1 << 16; // bytes gathered before a write to a segment
+
+  private BulkCopy() {}
+
+  /**
+   * Read every row of a file.
+   *
+   * @param file the file to read
+   * @param columns the columns of the table the rows are for
+   * @param binary if the file is in the binary format rather than CSV
+   * @return the rows, each a list of values in column order
+   */
+  static List<List<String>> read(Path file, List<Column> columns, boolean binary) {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new RuntimeException("[COPY] " + file + " is too large to load in one go");
+      }
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return ForkJoinPool.commonPool()
+          .invoke(
+              binary
+                  ? new BinaryRange(buf, columns, rowOffsets(buf, file), 0, -1)
+                  : new CsvRange(buf, columns, 0, buf.limit()));
+    } catch (IOException e) {
+      throw new RuntimeException("[COPY] Failed to read " + file, e);
+    }
+  }
+
+  /**
+   * Write rows to a file, each range of rows to its own segment in parallel.
+   *
+   * @param file the file to write, replaced if it exists
+   * @param ranges a cursor over each range of rows, in the order they go in the file
+   * @param binary if the file is written in the binary format rather than CSV
+   * @return the number of rows written
+   */
+  static long write(Path file, List<Cursor> ranges, boolean binary) {
+    Path[] segments = new Path[ranges.size()];
+    try {
+      List<Callable<Long>> tasks = new ArrayList<>(ranges.size());
+      for (int i = 0; i < segments.length; i++) {
+        segments[i] = file.resolveSibling(file.getFileName() + ".part" + i);
+        Path segment = segments[i];
+        Cursor range = ranges.get(i);
+        tasks.add(() -> writeSegment(segment, range, binary));
+      }
+      long rows = 0;
+      for (Future<Long> written : ForkJoinPool.commonPool().invokeAll(tasks)) {
+        rows += written.get();
+      }
+
+      try (FileChannel out =
+          FileChannel.open(
+              file,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE)) {
+        if (binary) {
+          out.write(ByteBuffer.allocate(4).putInt(0, MAGIC));
+        }
+        for (Path segment : segments) {
+          try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long size = in.size();
+            for (long done = 0; done < size; ) {
+              done += in.transferTo(done, size - done, out);
+            }
+          }
+        }
+      }
+      return rows;
+    } catch (ExecutionException e) {
+      throw new RuntimeException("[COPY] Failed to write " + file, e.getCause());
+    } catch (IOException | InterruptedException e) {
+      throw new RuntimeException("[COPY] Failed to write " + file, e);
+    } finally {
+      for (Path segment : segments) {
+        if (segment != null) {
+          segment.toFile().delete();
+        }
+      }
+    }
+  }
+
+  // stream the rows of a cursor into a segment file, returning how many there were
+  private static long writeSegment(Path segment, Cursor rows, boolean binary) throws IOException {
+    try (FileChannel out =
+        FileChannel.open(
+            segment,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      ByteArrayOutputStream length = new ByteArrayOutputStream(5);
+      long count = 0;
+      while (rows.hasNext()) {
+        List<String> row = rows.next();
+        byte[] bytes;
+        if (binary) {
+          bytes = RowCodec.encode(row);
+          length.reset();
+          RowCodec.writeVarInt(length, bytes.length);
+          put(out, buffer, length.toByteArray());
+        } else {
+          bytes = csvLine(row);
+        }
+        put(out, buffer, bytes);
+        count++;
+      }
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        out.write(buffer);
+      }
+      return count;
+    }
+  }
+
+  // add bytes to the buffer, writing it out first if they do not fit
+  private static void put(FileChannel out, ByteBuffer buffer, byte[] bytes) throws IOException {
+    if (bytes.length > buffer.remaining()) {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        out.write(buffer);
+      }
+      buffer.clear();
+      if (bytes.length > buffer.capacity()) {
+        ByteBuffer large = ByteBuffer.wrap(bytes);
+        while (large.hasRemaining()) {
+          out.write(large);
+        }
+        return;
+      }
+    }
+    buffer.put(bytes);
+  }
+
+  private static byte[] csvLine(List<String> row) {
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < row.size(); i++) {
+      String value = row.get(i);
+      if (i > 0) {
+        line.append(',');
+      }
+      if (value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+        throw new RuntimeException("[COPY] A CSV value cannot span lines: " + value);
+      }
+      if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+        line.append('"').append(value.replace("\"", "\"\"")).append('"');
+      } else {
+        line.append(value);
+      }
+    }
+    return line.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Check a row against the columns of its table.
+   *
+   * @param row the values of the row
+   * @param columns the columns of the table
+   * @param where where the row came from, for the error message
+   */
+  static void check(List<String> row, List<Column> columns, String where) {
+    if (row.size() != columns.size()) {
+      throw new RuntimeException(
+          "[COPY] Row "
+              + where
+              + " has "
+              + row.size()
+              + " values for "
+              + columns.size()
+              + " columns");
+    }
+    for (int i = 0; i < row.size(); i++) {
+      Column column = columns.get(i);
+      String value = row.get(i);
+      if (value.isEmpty()) {
+        if (!column.nullable()) {
+          throw new RuntimeException(
+              "[COPY] Row " + where + " has no value for non-nullable column " + column.name());
+        }
+      } else if (column.type() == TokenType.NUMBER
+          && !HeapRowStore.isLong(value)
+          && !HeapRowStore.isDouble(value)) {
+        throw new RuntimeException(
+            "[COPY] Row " + where + " has " + value + " for number column " + column.name());
+      }
+    }
+  }
+
+  // where each row of a binary file starts, its length included, found by hopping from row to row
+  private static int[] rowOffsets(ByteBuffer buf, Path file) {
+    if (buf.limit() < 4 || buf.getInt(0) != MAGIC) {
+      throw new RuntimeException("[COPY] " + file + " is not a binary copy file");
+    }
+    int[] offsets = new int[1024];
+    int count = 0;
+    int[] pos = {4};
+    while (pos[0] < buf.limit()) {
+      if (count + 1 >= offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      offsets[count++] = pos[0];
+      int length = RowCodec.readVarInt(buf, pos);
+      pos[0] += length;
+    }
+    if (pos[0] != buf.limit()) {
+      throw new RuntimeException("[COPY] " + file + " ends part way through a row");
+    }
+    offsets[count] = pos[0]; // the end of the last row
+    return Arrays.copyOf(offsets, count + 1);
+  }
+
+  /** Parses the lines of a CSV file between two byte offsets. */
+  private static final class CsvRange extends RecursiveTask<List<List<String>>> {
+    private final ByteBuffer buf;
+    private final List<Column> columns;
+    private final int from;
+    private final int to;
+
+    CsvRange(ByteBuffer buf, List<Column> columns, int from, int to) {
+      this.buf = buf;
+      this.columns = columns;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected List<List<String>> compute() {
+      if (to - from > SPLIT_SIZE) {
+        int middle = lineAfter(from + (to - from) / 2);
+        if (middle < to) {
+          CsvRange second = new CsvRange(buf, columns, middle, to);
+          second.fork();
+          List<List<String>> rows = new CsvRange(buf, columns, from, middle).compute();
+          rows.addAll(second.join());
+          return rows;
+        }
+      }
+      List<List<String>> rows = new ArrayList<>();
+      int start = from;
+      while (start < to) {
+        int end = start;
+        while (end < to && buf.get(end) != '\n') {
+          end++;
+        }
+        int last = end > start && buf.get(end - 1) == '\r' ? end - 1 : end;
+        if (last > start) {
+          List<String> row = line(start, last);
+          check(row, columns, "at byte " + start);
+          rows.add(row);
+        }
+        start = end + 1;
+      }
+      return rows;
+    }
+
+    // the start of the line after the one holding offset
+    private int lineAfter(int offset) {
+      while (offset < to && buf.get(offset) != '\n') {
+        offset++;
+      }
+      return Math.min(offset + 1, to);
+    }
+
+    private List<String> line(int start, int end) {
+      List<String> row = new ArrayList<>(columns.size());
+      int pos = start;
+      while (true) {
+        if (pos < end && buf.get(pos) == '"') {
+          // quoted, running to the next quote that is not doubled
+          StringBuilder value = new StringBuilder();
+          int run = ++pos;
+          while (true) {
+            if (pos >= end) {
+              throw new RuntimeException("[COPY] Unterminated quote at byte " + run);
+            }
+            if (buf.get(pos) == '"') {
+              value.append(text(run, pos));
+              if (pos + 1 < end && buf.get(pos + 1) == '"') {
+                value.append('"');
+                pos += 2;
+                run = pos;
+                continue;
+              }
+              pos++;
+              break;
+            }
+            pos++;
+          }
+          row.add(value.toString());
+          if (pos < end && buf.get(pos) != ',') {
+            throw new RuntimeException("[COPY] Expected ',' after quoted value at byte " + pos);
+          }
+        } else {
+          int valueStart = pos;
+          while (pos < end && buf.get(pos) != ',') {
+            pos++;
+          }
+          row.add(text(valueStart, pos));
+        }
+        if (pos >= end) {
+          return row;
+        }
+        pos++; // the comma
+      }
+    }
+
+    private String text(int start, int end) {
+      byte[] bytes = new byte[end - start];
+      buf.get(start, bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  /** Decodes the rows of a binary file between two row numbers. */
+  private static final class BinaryRange extends RecursiveTask<List<List<String>>> {
+    private final ByteBuffer buf;
+    private final List<Column> columns;
+    private final int[] offsets; // where each row and its length start, then where the last ends
+    private final int from;
+    private final int to;
+
+    BinaryRange(ByteBuffer buf, List<Column> columns, int[] offsets, int from, int to) {
+      this.buf = buf;
+      this.columns = columns;
+      this.offsets = offsets;
+      this.from = from;
+      this.to = to == -1 ? offsets.length - 1 : to;
+    }
+
+    @Override
+    protected List<List<String>> compute() {
+      if (offsets[to] - offsets[from] > SPLIT_SIZE && to - from > 1) {
+        int middle = from + (to - from) / 2;
+        BinaryRange second = new BinaryRange(buf, columns, offsets, middle, to);
+        second.fork();
+        List<List<String>> rows = new BinaryRange(buf, columns, offsets, from, middle).compute();
+        rows.addAll(second.join());
+        return rows;
+      }
+      List<List<String>> rows = new ArrayList<>(to - from);
+      for (int i = from; i < to; i++) {
+        int[] pos = {offsets[i]};
+        int length = RowCodec.readVarInt(buf, pos);
+        if (pos[0] + length != offsets[i + 1]) {
+          throw new RuntimeException("[COPY] Corrupt row " + (i + 1));
+        }
+        List<String> row = RowCodec.decode(buf, pos[0], length);
+        check(row, columns, String.valueOf(i + 1));
+        rows.add(row);
+      }
+      return rows;
+    }
+  }
+}
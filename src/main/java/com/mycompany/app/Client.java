@@ -0,0 +1,115 @@
+package com.mycompany.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A connection to a {@link Server}. Queries may be sent ahead of reading their replies, which come
+ * back in the order the queries were sent.
+ */
+public final class Client implements Closeable {
+
+  /**
+   * The server's answer to one query.
+   *
+   * @param rows rows selected by a SELECT, otherwise empty
+   * @param message what the server said once it was done, or why the query failed
+   * @param failed if the query failed
+   */
+  public record Reply(List<List<String>> rows, String message, boolean failed) {}
+
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+
+  /**
+   * Connect to a server.
+   *
+   * @param host the server's host
+   * @param port the server's port
+   * @throws IOException if the connection could not be made
+   */
+  public Client(String host, int port) throws IOException {
+    socket = new Socket(host, port);
+    socket.setTcpNoDelay(true);
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+  }
+
+  /**
+   * Queue a query to be sent without waiting for its reply.
+   *
+   * @param query a statement, or an engine command before a database is entered
+   * @throws IOException if the query could not be sent
+   */
+  public void send(String query) throws IOException {
+    Server.writeFrame(out, Server.QUERY, query.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Wait for the reply to the oldest query not yet answered, sending any still queued first.
+   *
+   * @return the reply
+   * @throws IOException if the connection failed
+   */
+  public Reply receive() throws IOException {
+    out.flush();
+    List<List<String>> rows = new ArrayList<>();
+    while (true) {
+      Server.Frame frame = Server.readFrame(in);
+      if (frame == null) {
+        throw new EOFException("Server closed the connection");
+      }
+      if (frame.type() == Server.ROW) {
+        rows.add(row(frame.payload()));
+      } else {
+        String message = new String(frame.payload(), StandardCharsets.UTF_8);
+        return new Reply(rows, message, frame.type() == Server.ERROR);
+      }
+    }
+  }
+
+  /**
+   * Send a query and wait for its reply.
+   *
+   * @param query a statement, or an engine command before a database is entered
+   * @return the reply
+   * @throws IOException if the connection failed
+   */
+  public Reply run(String query) throws IOException {
+    send(query);
+    return receive();
+  }
+
+  private static List<String> row(byte[] payload) throws IOException {
+    DataInputStream values = new DataInputStream(new ByteArrayInputStream(payload));
+    int count = values.readInt();
+    List<String> row = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int length = values.readInt();
+      if (length < 0) {
+        row.add(null);
+      } else {
+        byte[] bytes = new byte[length];
+        values.readFully(bytes);
+        row.add(new String(bytes, StandardCharsets.UTF_8));
+      }
+    }
+    return row;
+  }
+
+  @Override
+  public void close() throws IOException {
+    socket.close();
+  }
+}
@@ -1,7 +1,5 @@
 package com.mycompany.app;
 
-import java.io.Serializable;
-
 /**
  * Column of database definition.
  *
@@ -12,8 +10,7 @@ import java.io.Serializable;
  * @param dependsOn is it a foreign key
  */
 public record Column(
-    String name, TokenType type, boolean nullable, boolean primary, String dependsOn)
-    implements Serializable {
+    String name, TokenType type, boolean nullable, boolean primary, String dependsOn) {
 
   /**
    * Get if a column is foreign key.
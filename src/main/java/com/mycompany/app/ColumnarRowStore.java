@@ -0,0 +1,569 @@
+package com.mycompany.app;
+
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * Rows held on the java heap one column at a time, for tables that are mostly scanned a few columns
+ * at a time.
+ *
+ * <p>Each column is a vector of 8 byte values with a kind per value. Number columns keep their
+ * values as a {@code long} or the bits of a {@code double}, text is dictionary encoded so a value
+ * repeated across many rows is held once. Rows are appended, and the vectors are split into chunks
+ * of {@link #CHUNK_SIZE} rows that each record the lowest and highest value of every column, so a
+ * scan can skip a chunk that cannot hold a matching row without reading it.
+ *
+ * <p>A replaced row is overwritten where it is and a removed row leaves a hole, chunk bounds only
+ * ever widen. Scans return rows in the order they were added rather than primary key order, and
+ * each row is handed out as a copy of its values so it stays as it was when it is later replaced.
+ */
+final class ColumnarRowStore implements RowStore {
+
+  static final int CHUNK_SIZE = 1024;
+
+  private static final byte NULL = 0;
+  private static final byte LONG = 1;
+  private static final byte DOUBLE = 2;
+  private static final byte TEXT = 3; // the value is a code into the column's dictionary
+  private static final byte LEFT_OUT = 4; // a column the scan copying the row did not need
+
+  // bounds of one column over one chunk, in the order keys of the column sort
+  private static final class Bounds {
+    boolean nulls;
+    boolean numbers;
+    double min = Double.POSITIVE_INFINITY; // widened a step so rounding never excludes a value
+    double max = Double.NEGATIVE_INFINITY;
+    boolean texts; // text that is not a number, which sorts after every number
+    String minText;
+    String maxText;
+  }
+
+  private final int width; // columns per row
+  private final boolean[] numeric; // which columns are number columns
+  private long[][] values; // column c of row position p is values[c][p]
+  private byte[][] kinds;
+  private final List<ArrayList<String>> dictionaries = new ArrayList<>();
+  private final List<HashMap<String, Integer>> codes = new ArrayList<>();
+  private final List<ArrayList<Bounds>> bounds = new ArrayList<>(); // per column, per chunk
+  private Key[] keys; // key of each row position
+  private final BitSet removed = new BitSet();
+  private int positions = 0; // row positions handed out
+  private BPlusTree<Key, Integer> directory = new BPlusTree<>();
+  private final LongAdder skipped = new LongAdder(); // chunks left unread, by every scan at once
+
+  /**
+   * Create an empty store.
+   *
+   * @param numeric if each column, in column order, is a number column
+   */
+  ColumnarRowStore(boolean[] numeric) {
+    this.width = numeric.length;
+    this.numeric = numeric.clone();
+    this.values = new long[width][CHUNK_SIZE];
+    this.kinds = new byte[width][CHUNK_SIZE];
+    this.keys = new Key[CHUNK_SIZE];
+    for (int c = 0; c < width; c++) {
+      dictionaries.add(new ArrayList<>());
+      codes.add(new HashMap<>());
+      bounds.add(new ArrayList<>());
+    }
+  }
+
+  /**
+   * Load rows read back from disk, appending them in primary key order and building the primary key
+   * index in one go.
+   *
+   * @param numeric if each column, in column order, is a number column
+   * @param rows each row by its primary key, later rows replacing earlier ones with the same key
+   */
+  ColumnarRowStore(boolean[] numeric, List<Map.Entry<Key, List<String>>> rows) {
+    this(numeric);
+    List<Map.Entry<Key, List<String>>> sorted = BPlusTree.sortUnique(rows);
+    List<Map.Entry<Key, Integer>> entries = new ArrayList<>(sorted.size());
+    for (Map.Entry<Key, List<String>> entry : sorted) {
+      entries.add(Map.entry(entry.getKey(), append(entry.getKey(), entry.getValue())));
+    }
+    directory = BPlusTree.bulkLoad(BPlusTree.DEFAULT_ORDER, entries);
+  }
+
+  @Override
+  public List<String> get(Key key) {
+    Integer position = directory.get(key);
+    return position == null ? null : new Row(position);
+  }
+
+  @Override
+  public List<String> put(Key key, List<String> row) {
+    Integer existing = directory.get(key);
+    if (existing != null) {
+      List<String> previous = new Row(existing);
+      write(existing, row);
+      keys[existing] = key;
+      return previous;
+    }
+    directory.put(key, append(key, row));
+    return null;
+  }
+
+  @Override
+  public void reserve(int rows) {
+    int needed = positions + rows;
+    if (needed > keys.length) {
+      keys = Arrays.copyOf(keys, needed);
+      for (int c = 0; c < width; c++) {
+        values[c] = Arrays.copyOf(values[c], needed);
+        kinds[c] = Arrays.copyOf(kinds[c], needed);
+      }
+    }
+  }
+
+  @Override
+  public void remove(Key key) {
+    Integer position = directory.remove(key);
+    if (position != null) {
+      removed.set(position);
+      keys[position] = null;
+    }
+  }
+
+  @Override
+  public Collection<Key> keys() {
+    return directory.keys();
+  }
+
+  @Override
+  public int size() {
+    return directory.size();
+  }
+
+  @Override
+  public Iterable<List<String>> range(
+      Key low, boolean lowInclusive, Key high, boolean highInclusive) {
+    Iterable<Map.Entry<Key, Integer>> entries =
+        directory.range(low, lowInclusive, high, highInclusive);
+    return () -> {
+      Iterator<Map.Entry<Key, Integer>> iterator = entries.iterator();
+      return new Iterator<>() {
+        @Override
+        public boolean hasNext() {
+          return iterator.hasNext();
+        }
+
+        @Override
+        public List<String> next() {
+          return new Row(iterator.next().getValue());
+        }
+      };
+    };
+  }
+
+  /** Every row, in the order the rows were added. */
+  @Override
+  public Iterator<List<String>> iterator() {
+    return scan(List.of(), name -> 0, List.of()).iterator();
+  }
+
+  /**
+   * Number of chunks the rows added so far fill.
+   *
+   * @return the chunk count
+   */
+  int chunks() {
+    return (positions + CHUNK_SIZE - 1) / CHUNK_SIZE;
+  }
+
+  /**
+   * The rows that might pass every comparison, read a chunk at a time. Chunks whose bounds rule out
+   * every row are skipped, then each number filter is run over the chunk's column vector to narrow
+   * down a selection of the rows, so most rows that fail are thrown out without being looked at one
+   * by one. The rows returned still have to be tested against the whole clause.
+   *
+   * @param comparisons tests that a matching row passes, e.g. from {@link Condition#comparisons()}
+   * @param columnIndex where each column sits in the internal layout
+   * @param filters number tests that a matching row passes, from {@link Condition#numberFilters()}
+   * @return the rows, in the order they were added
+   */
+  Scan scan(
+      List<Condition.Comparison> comparisons,
+      ToIntFunction<String> columnIndex,
+      List<Condition.NumberTest> filters) {
+    int[] columns = new int[comparisons.size()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = columnIndex.applyAsInt(comparisons.get(i).column()) - 1;
+    }
+    return new Scan(comparisons, columns, filters, null, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * The rows of a {@link #scan}, narrowed down to the columns a query reads or to a run of chunks.
+   */
+  final class Scan implements Iterable<List<String>> {
+    private final List<Condition.Comparison> comparisons;
+    private final int[] columns; // column vector of each comparison
+    private final List<Condition.NumberTest> filters;
+    private final BitSet needed; // positions in the internal layout decoded, null for every one
+    private final int from; // first chunk read
+    private final int to; // chunk the scan stops before
+
+    private Scan(
+        List<Condition.Comparison> comparisons,
+        int[] columns,
+        List<Condition.NumberTest> filters,
+        BitSet needed,
+        int from,
+        int to) {
+      this.comparisons = comparisons;
+      this.columns = columns;
+      this.filters = filters;
+      this.needed = needed;
+      this.from = from;
+      this.to = to;
+    }
+
+    /**
+     * The same scan decoding only some columns of each row, the others read as empty text.
+     *
+     * @param needed positions in the internal layout of the columns wanted
+     * @return the narrowed scan
+     */
+    Scan only(BitSet needed) {
+      return new Scan(comparisons, columns, filters, needed, from, to);
+    }
+
+    /**
+     * Split the scan into runs of chunks that can be read in parallel. The last run carries on to
+     * whatever rows are added after the split.
+     *
+     * @param count most runs to split into
+     * @return the runs, in the order the rows were added
+     */
+    List<Scan> split(int count) {
+      int total = Math.max(chunks(), 1);
+      int per = (total + count - 1) / count;
+      List<Scan> runs = new ArrayList<>(count);
+      for (int start = 0; start < total; start += per) {
+        int end = start + per >= total ? Integer.MAX_VALUE : start + per;
+        runs.add(new Scan(comparisons, columns, filters, needed, start, end));
+      }
+      return runs;
+    }
+
+    @Override
+    public Iterator<List<String>> iterator() {
+      return new Iterator<>() {
+        private final int[] selection = new int[CHUNK_SIZE]; // positions of the current chunk
+        private int selected = 0;
+        private int index = 0;
+        private int chunk = from; // next chunk to read
+
+        @Override
+        public boolean hasNext() {
+          while (index < selected && removed.get(selection[index])) {
+            index++; // removed since its chunk was read
+          }
+          while (index == selected) {
+            if (chunk >= to || (long) chunk * CHUNK_SIZE >= positions) {
+              return false;
+            }
+            select(chunk++);
+          }
+          return true;
+        }
+
+        @Override
+        public List<String> next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return new Row(selection[index++], needed);
+        }
+
+        private void select(int chunk) {
+          index = 0;
+          selected = 0;
+          if (!mightMatch(chunk, comparisons, columns)) {
+            skipped.increment();
+            return;
+          }
+          int end = Math.min((chunk + 1) * CHUNK_SIZE, positions);
+          for (int p = chunk * CHUNK_SIZE; p < end; p++) {
+            selection[selected] = p;
+            selected += removed.get(p) ? 0 : 1;
+          }
+          for (int f = 0; f < filters.size() && selected > 0; f++) {
+            selected = filter(filters.get(f), selection, selected);
+          }
+        }
+      };
+    }
+  }
+
+  // keep the selected rows that pass or might pass a number test, in one loop over the column
+  private int filter(Condition.NumberTest test, int[] selection, int count) {
+    long[] vector = values[test.index() - 1];
+    byte[] kind = kinds[test.index() - 1];
+    int kept = 0;
+    for (int i = 0; i < count; i++) {
+      int p = selection[i];
+      int passes =
+          kind[p] == LONG
+              ? test.testLong(vector[p])
+              : kind[p] == DOUBLE ? test.testDouble(Double.longBitsToDouble(vector[p])) : -1;
+      selection[kept] = p;
+      kept += passes == 0 ? 0 : 1;
+    }
+    return kept;
+  }
+
+  /**
+   * Copy some columns of every row, reading each column's vector from start to end rather than
+   * every row in turn.
+   *
+   * @param indexes the columns wanted, by position in the internal layout
+   * @param limit most rows to copy, or -1 for every row
+   * @return the values, one list per row in the order the rows were added
+   */
+  List<List<String>> project(int[] indexes, int limit) {
+    int wanted = limit < 0 ? directory.size() : Math.min(limit, directory.size());
+    int[] live = new int[wanted];
+    int count = 0;
+    for (int p = removed.nextClearBit(0); count < wanted && p < positions; ) {
+      live[count++] = p;
+      p = removed.nextClearBit(p + 1);
+    }
+    String[][] copied = new String[count][indexes.length];
+    for (int i = 0; i < indexes.length; i++) {
+      int c = indexes[i] - 1;
+      for (int r = 0; r < count; r++) {
+        copied[r][i] = c < 0 ? keys[live[r]].toString() : value(c, live[r]);
+      }
+    }
+    List<List<String>> rows = new ArrayList<>(count);
+    for (String[] row : copied) {
+      rows.add(Arrays.asList(row));
+    }
+    return rows;
+  }
+
+  long skippedChunks() {
+    return skipped.sum();
+  }
+
+  private int append(Key key, List<String> row) {
+    int position = positions++;
+    if (position == keys.length) {
+      keys = Arrays.copyOf(keys, keys.length * 2);
+      for (int c = 0; c < width; c++) {
+        values[c] = Arrays.copyOf(values[c], keys.length);
+        kinds[c] = Arrays.copyOf(kinds[c], keys.length);
+      }
+    }
+    if (position % CHUNK_SIZE == 0) {
+      for (int c = 0; c < width; c++) {
+        bounds.get(c).add(new Bounds());
+      }
+    }
+    write(position, row);
+    keys[position] = key;
+    return position;
+  }
+
+  // store the attribute values of a row, slot 0 of the internal layout is skipped
+  private void write(int position, List<String> row) {
+    if (row.size() != width + 1) {
+      throw new RuntimeException(
+          "Row has " + (row.size() - 1) + " values but the table has " + width + " columns");
+    }
+    for (int c = 0; c < width; c++) {
+      String value = row.get(c + 1);
+      Bounds chunk = bounds.get(c).get(position / CHUNK_SIZE);
+      if (value == null) {
+        kinds[c][position] = NULL;
+        chunk.nulls = true;
+      } else if (numeric[c] && HeapRowStore.isLong(value)) {
+        kinds[c][position] = LONG;
+        values[c][position] = Long.parseLong(value);
+        widen(chunk, values[c][position]);
+      } else if (numeric[c] && HeapRowStore.isDouble(value)) {
+        kinds[c][position] = DOUBLE;
+        values[c][position] = Double.doubleToRawLongBits(Double.parseDouble(value));
+        widen(chunk, Double.parseDouble(value));
+      } else {
+        kinds[c][position] = TEXT;
+        values[c][position] = code(c, value);
+        widen(chunk, c, value);
+      }
+    }
+  }
+
+  private int code(int column, String value) {
+    Integer code = codes.get(column).get(value);
+    if (code == null) {
+      code = dictionaries.get(column).size();
+      dictionaries.get(column).add(value);
+      codes.get(column).put(value, code);
+    }
+    return code;
+  }
+
+  private String value(int column, int position) {
+    return switch (kinds[column][position]) {
+      case NULL -> null;
+      case LONG -> Long.toString(values[column][position]);
+      case DOUBLE -> Double.toString(Double.longBitsToDouble(values[column][position]));
+      default -> dictionaries.get(column).get((int) values[column][position]);
+    };
+  }
+
+  private static void widen(Bounds chunk, double value) {
+    chunk.numbers = true;
+    chunk.min = Math.min(chunk.min, Math.nextDown(value));
+    chunk.max = Math.max(chunk.max, Math.nextUp(value));
+  }
+
+  // text in a number column still sorts as a number when it is written as one, e.g. 007
+  private void widen(Bounds chunk, int column, String value) {
+    if (numeric[column]) {
+      try {
+        widen(chunk, new BigDecimal(value).doubleValue());
+        return;
+      } catch (NumberFormatException e) {
+        // not a number, so it sorts as text after every number
+      }
+    }
+    chunk.texts = true;
+    if (chunk.minText == null || value.compareTo(chunk.minText) < 0) {
+      chunk.minText = value;
+    }
+    if (chunk.maxText == null || value.compareTo(chunk.maxText) > 0) {
+      chunk.maxText = value;
+    }
+  }
+
+  private boolean mightMatch(int chunk, List<Condition.Comparison> comparisons, int[] columns) {
+    for (int i = 0; i < columns.length; i++) {
+      if (columns[i] >= 0
+          && !mightMatch(bounds.get(columns[i]).get(chunk), columns[i], comparisons.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // compared the way keys are, nulls first then numbers then text
+  private boolean mightMatch(Bounds chunk, int column, Condition.Comparison comparison) {
+    String value = comparison.value();
+    if (value == null) {
+      return true;
+    }
+    TokenType op = comparison.operator();
+    boolean below = chunk.nulls; // holds a value that sorts before the constant
+    boolean above;
+    boolean equal;
+    if (numeric[column]) {
+      double number;
+      try {
+        number = new BigDecimal(value).doubleValue();
+      } catch (NumberFormatException e) {
+        return true; // compared with text, left to the row by row test
+      }
+      below |= chunk.numbers && chunk.min <= number;
+      above = chunk.texts || (chunk.numbers && chunk.max >= number);
+      equal = chunk.numbers && chunk.min <= number && chunk.max >= number;
+    } else {
+      boolean fromBelow = chunk.texts && chunk.minText.compareTo(value) <= 0;
+      above = chunk.texts && chunk.maxText.compareTo(value) >= 0;
+      below |= fromBelow;
+      equal = fromBelow && above;
+    }
+    return switch (op) {
+      case EQUALS -> equal;
+      case GREATER_THAN, GREATER_OR_EQ -> above;
+      default -> below;
+    };
+  }
+
+  /**
+   * A copy of a row of the store in the table's internal layout, decoding numbers when asked. A
+   * scan that only needs some columns copies just those, the others read as empty text.
+   */
+  final class Row extends AbstractList<String> implements TypedRow {
+    private final Key key;
+    private final long[] numbers;
+    private final byte[] types;
+    private final String[] texts; // looked up in the dictionary when the copy was made
+
+    private Row(int position) {
+      this(position, null);
+    }
+
+    private Row(int position, BitSet needed) {
+      this.key = keys[position];
+      this.numbers = new long[width];
+      this.types = new byte[width];
+      this.texts = new String[width];
+      for (int c = 0; c < width; c++) {
+        if (needed != null && !needed.get(c + 1)) {
+          types[c] = LEFT_OUT;
+          continue;
+        }
+        numbers[c] = values[c][position];
+        types[c] = kinds[c][position];
+        if (types[c] == TEXT) {
+          texts[c] = dictionaries.get(c).get((int) numbers[c]);
+        }
+      }
+    }
+
+    @Override
+    public String get(int index) {
+      if (index == 0) {
+        return key.toString();
+      }
+      int c = index - 1;
+      return switch (types[c]) {
+        case NULL -> null;
+        case LONG -> Long.toString(numbers[c]);
+        case DOUBLE -> Double.toString(Double.longBitsToDouble(numbers[c]));
+        case LEFT_OUT -> "";
+        default -> texts[c];
+      };
+    }
+
+    @Override
+    public int size() {
+      return width + 1;
+    }
+
+    @Override
+    public boolean isLong(int index) {
+      return index > 0 && types[index - 1] == LONG;
+    }
+
+    @Override
+    public boolean isDouble(int index) {
+      return index > 0 && types[index - 1] == DOUBLE;
+    }
+
+    @Override
+    public long longAt(int index) {
+      return numbers[index - 1];
+    }
+
+    @Override
+    public double doubleAt(int index) {
+      return Double.longBitsToDouble(numbers[index - 1]);
+    }
+  }
+}
@@ -0,0 +1,451 @@
+package com.mycompany.app;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * A WHERE or ON clause bound to the rows it filters, those of a table or of a join.
+ *
+ * <p>A bare word names a column when the table has a column called that, otherwise it is a value,
+ * so {@code name = john} compares the name column with the text john. Values are compared the same
+ * way primary keys are, numerically when the column is a number column.
+ *
+ * <p>The clause is compiled once, when it is bound, into a tree of lambdas. Column positions are
+ * looked up and parts that do not depend on the row are worked out up front, so testing a row does
+ * not walk the parsed expression. A number column compared with a number is tested on the primitive
+ * value when the row is a {@link TypedRow}, without decoding the value into a string.
+ */
+final class Condition {
+
+  /**
+   * A single {@code column op value} test that is ANDed with the rest of the clause, the kind an
+   * index can answer.
+   *
+   * @param column the column being tested
+   * @param operator one of EQUALS, GREATER_THAN, GREATER_OR_EQ, LESS_THAN or LESS_THAN_OR_EQ
+   * @param value the value it is compared with
+   */
+  record Comparison(String column, TokenType operator, String value) {}
+
+  /**
+   * A number column compared with a number constant, written with the column on the left.
+   *
+   * @param index position of the column in the internal layout
+   * @param operator the comparison
+   * @param whole if the constant is a whole number that fits in a long
+   * @param wholeValue the constant as a long
+   * @param exact if the constant is exactly {@link #value} as a double
+   * @param value the constant as a double
+   */
+  record NumberTest(
+      int index, TokenType operator, boolean whole, long wholeValue, boolean exact, double value) {
+
+    private static final long EXACT_DOUBLE = 1L << 53; // longs up to here convert to double exactly
+
+    /**
+     * Test a value held as a long.
+     *
+     * @param v the value
+     * @return 1 if it passes, 0 if it fails, -1 if the general path has to decide
+     */
+    int testLong(long v) {
+      if (whole) {
+        return passes(Long.compare(v, wholeValue));
+      } else if (exact && Math.abs(v) <= EXACT_DOUBLE) {
+        return passes(Double.compare(v, value));
+      }
+      return -1;
+    }
+
+    /**
+     * Test a value held as a double.
+     *
+     * @param v the value
+     * @return 1 if it passes, 0 if it fails, -1 if the general path has to decide
+     */
+    int testDouble(double v) {
+      if (!exact) {
+        return -1;
+      }
+      return passes(v < value ? -1 : (v > value ? 1 : 0)); // -0.0 equals 0.0, as BigDecimal has it
+    }
+
+    private int passes(int compared) {
+      boolean passes =
+          switch (operator) {
+            case EQUALS -> compared == 0;
+            case GREATER_THAN -> compared > 0;
+            case GREATER_OR_EQ -> compared >= 0;
+            case LESS_THAN -> compared < 0;
+            default -> compared <= 0;
+          };
+      return passes ? 1 : 0;
+    }
+
+    // null when the row's value is not held as a number, and the general path has to be taken
+    Boolean test(TypedRow row) {
+      int result = -1;
+      if (row.isLong(index)) {
+        result = testLong(row.longAt(index));
+      } else if (row.isDouble(index)) {
+        result = testDouble(row.doubleAt(index));
+      }
+      return result < 0 ? null : result == 1;
+    }
+  }
+
+  private final Schema table;
+  private final Expr expr;
+  private final IdentityHashMap<Expr, NumberTest> numberTests = new IdentityHashMap<>();
+  private final BitSet columns = new BitSet(); // positions of the columns the clause reads
+  private final Predicate<List<String>> compiled;
+
+  /**
+   * Bind a WHERE clause to a table, or to the rows of a join.
+   *
+   * @param table the layout of the rows filtered
+   * @param expr the parsed clause
+   */
+  Condition(Schema table, Expr expr) {
+    this.table = table;
+    this.expr = expr;
+    findNumberTests(expr);
+    this.compiled =
+        isCondition(expr)
+            ? condition(expr)
+            : row -> {
+              throw new RuntimeException("WHERE clause must be a condition, not a value");
+            };
+  }
+
+  private void findNumberTests(Expr e) {
+    if (e instanceof Expr.Grouping grouping) {
+      findNumberTests(grouping.expression);
+    } else if (e instanceof Expr.Logical logical) {
+      findNumberTests(logical.left);
+      findNumberTests(logical.right);
+    } else if (e instanceof Expr.Binary binary && isComparison(binary.operator.type)) {
+      if (isColumn(binary.left) && isConstant(binary.right)) {
+        addNumberTest(binary, (Expr.Variable) binary.left, binary.operator.type, binary.right);
+      } else if (isConstant(binary.left) && isColumn(binary.right)) {
+        addNumberTest(
+            binary, (Expr.Variable) binary.right, flip(binary.operator.type), binary.left);
+      }
+    }
+  }
+
+  private void addNumberTest(Expr.Binary binary, Expr.Variable column, TokenType op, Expr value) {
+    if (!table.isNumeric(column.name)) {
+      return;
+    }
+    BigDecimal constant;
+    try {
+      constant = new BigDecimal(constant(value));
+    } catch (RuntimeException e) {
+      return; // compared with text, left to the general path
+    }
+    boolean whole = constant.signum() == 0 || constant.stripTrailingZeros().scale() <= 0;
+    long wholeValue = 0;
+    if (whole) {
+      try {
+        wholeValue = constant.longValueExact();
+      } catch (ArithmeticException e) {
+        whole = false;
+      }
+    }
+    // the constant must be the shortest form of its double, the form stored values are written in
+    double asDouble = constant.doubleValue();
+    boolean exact =
+        Double.isFinite(asDouble) && BigDecimal.valueOf(asDouble).compareTo(constant) == 0;
+    if (whole || exact) {
+      columns.set(table.columnIndex(column.name));
+      numberTests.put(
+          binary,
+          new NumberTest(table.columnIndex(column.name), op, whole, wholeValue, exact, asDouble));
+    }
+  }
+
+  /**
+   * Check if a row satisfies the clause.
+   *
+   * @param row the row in the table's internal layout
+   * @return if the row matches
+   */
+  boolean test(List<String> row) {
+    return compiled.test(row);
+  }
+
+  /**
+   * Positions of the columns the clause reads, so a scan can leave the other columns out.
+   *
+   * @return the positions in the layout of the rows filtered
+   */
+  BitSet columns() {
+    return (BitSet) columns.clone();
+  }
+
+  /**
+   * The column tests that every matching row has to pass, found by splitting the clause on its top
+   * level ANDs.
+   *
+   * @return the comparisons, empty if there are none an index could use
+   */
+  List<Comparison> comparisons() {
+    List<Comparison> comparisons = new ArrayList<>();
+    collect(expr, comparisons);
+    return comparisons;
+  }
+
+  /**
+   * The number tests that every matching row has to pass, so a row failing any of them can be
+   * thrown out without evaluating the rest of the clause.
+   *
+   * @return the tests, found by splitting the clause on its top level ANDs
+   */
+  List<NumberTest> numberFilters() {
+    List<NumberTest> filters = new ArrayList<>();
+    collectNumberTests(expr, filters);
+    return filters;
+  }
+
+  private void collectNumberTests(Expr e, List<NumberTest> filters) {
+    if (e instanceof Expr.Grouping grouping) {
+      collectNumberTests(grouping.expression, filters);
+    } else if (e instanceof Expr.Logical logical && logical.operator.type == TokenType.AND) {
+      collectNumberTests(logical.left, filters);
+      collectNumberTests(logical.right, filters);
+    } else if (numberTests.containsKey(e)) {
+      filters.add(numberTests.get(e));
+    }
+  }
+
+  private void collect(Expr e, List<Comparison> comparisons) {
+    if (e instanceof Expr.Grouping grouping) {
+      collect(grouping.expression, comparisons);
+    } else if (e instanceof Expr.Logical logical && logical.operator.type == TokenType.AND) {
+      collect(logical.left, comparisons);
+      collect(logical.right, comparisons);
+    } else if (e instanceof Expr.Binary binary && isComparison(binary.operator.type)) {
+      if (isColumn(binary.left) && isConstant(binary.right)) {
+        comparisons.add(
+            new Comparison(
+                ((Expr.Variable) binary.left).name, binary.operator.type, constant(binary.right)));
+      } else if (isConstant(binary.left) && isColumn(binary.right)) {
+        comparisons.add(
+            new Comparison(
+                ((Expr.Variable) binary.right).name,
+                flip(binary.operator.type),
+                constant(binary.left)));
+      }
+    }
+  }
+
+  private static boolean isComparison(TokenType type) {
+    return switch (type) {
+      case EQUALS, GREATER_THAN, GREATER_OR_EQ, LESS_THAN, LESS_THAN_OR_EQ -> true;
+      default -> false;
+    };
+  }
+
+  // the same test with its operands swapped, 5 < col is col > 5
+  private static TokenType flip(TokenType type) {
+    return switch (type) {
+      case GREATER_THAN -> TokenType.LESS_THAN;
+      case GREATER_OR_EQ -> TokenType.LESS_THAN_OR_EQ;
+      case LESS_THAN -> TokenType.GREATER_THAN;
+      case LESS_THAN_OR_EQ -> TokenType.GREATER_OR_EQ;
+      default -> type;
+    };
+  }
+
+  private boolean isColumn(Expr e) {
+    return e instanceof Expr.Variable variable && table.hasColumn(variable.name);
+  }
+
+  // an expression that does not depend on the row
+  private boolean isConstant(Expr e) {
+    if (e instanceof Expr.Literal) {
+      return true;
+    } else if (e instanceof Expr.Variable) {
+      return !isColumn(e);
+    } else if (e instanceof Expr.Grouping grouping) {
+      return isConstant(grouping.expression);
+    } else if (e instanceof Expr.Unary unary) {
+      return isConstant(unary.right);
+    } else if (e instanceof Expr.Binary binary) {
+      return !isComparison(binary.operator.type)
+          && isConstant(binary.left)
+          && isConstant(binary.right);
+    }
+    return false;
+  }
+
+  private static boolean isCondition(Expr e) {
+    if (e instanceof Expr.Grouping grouping) {
+      return isCondition(grouping.expression);
+    }
+    return e instanceof Expr.Logical
+        || (e instanceof Expr.Binary binary && isComparison(binary.operator.type));
+  }
+
+  // compile a part of the clause that is true or false for each row
+  private Predicate<List<String>> condition(Expr e) {
+    if (e instanceof Expr.Grouping grouping) {
+      return condition(grouping.expression);
+    } else if (e instanceof Expr.Logical logical) {
+      if (!isCondition(logical.left) || !isCondition(logical.right)) {
+        return row -> {
+          throw new RuntimeException("AND and OR need conditions on both sides");
+        };
+      }
+      Predicate<List<String>> left = condition(logical.left);
+      Predicate<List<String>> right = condition(logical.right);
+      return logical.operator.type == TokenType.AND ? left.and(right) : left.or(right);
+    }
+
+    Expr.Binary binary = (Expr.Binary) e;
+    IntPredicate passes =
+        switch (binary.operator.type) {
+          case EQUALS -> compared -> compared == 0;
+          case GREATER_THAN -> compared -> compared > 0;
+          case GREATER_OR_EQ -> compared -> compared >= 0;
+          case LESS_THAN -> compared -> compared < 0;
+          default -> compared -> compared <= 0;
+        };
+    // compare as keys of the column being tested so the result agrees with an index on it
+    boolean[] numeric = {numeric(binary.left, binary.right)};
+    Function<List<String>, String> left = value(binary.left);
+    Function<List<String>, String> right = value(binary.right);
+    Predicate<List<String>> general =
+        row -> passes.test(key(left.apply(row), numeric).compareTo(key(right.apply(row), numeric)));
+    if (isConstant(binary.right)) {
+      try {
+        Key constant = key(constant(binary.right), numeric);
+        Predicate<List<String>> againstConstant =
+            row -> passes.test(key(left.apply(row), numeric).compareTo(constant));
+        general = againstConstant;
+      } catch (RuntimeException error) {
+        // the constant is not a valid value, left to fail when a row is tested
+      }
+    }
+    Predicate<List<String>> generalTest = general;
+
+    NumberTest numberTest = numberTests.get(binary);
+    if (numberTest == null) {
+      return general;
+    }
+    return row -> {
+      if (row instanceof TypedRow typed) {
+        Boolean result = numberTest.test(typed);
+        if (result != null) {
+          return result;
+        }
+      }
+      return generalTest.test(row);
+    };
+  }
+
+  // compile a part of the clause that gives a value for each row, folding it if it is constant
+  private Function<List<String>, String> value(Expr e) {
+    if (!isConstant(e)) {
+      return unfolded(e);
+    }
+    try {
+      String folded = unfolded(e).apply(null);
+      return row -> folded;
+    } catch (RuntimeException error) {
+      return row -> {
+        throw error; // e.g. text used as a number, only an error once a row is tested
+      };
+    }
+  }
+
+  private String constant(Expr e) {
+    return unfolded(e).apply(null);
+  }
+
+  private static Key key(String value, boolean[] numeric) {
+    return new Key(new String[] {value}, numeric);
+  }
+
+  private Function<List<String>, String> unfolded(Expr e) {
+    if (e instanceof Expr.Literal literal) {
+      String text = literal.value instanceof Double number ? number(number) : text(literal.value);
+      return row -> text;
+    } else if (e instanceof Expr.Variable variable) {
+      if (!isColumn(variable)) {
+        return row -> variable.name;
+      }
+      int index = table.columnIndex(variable.name);
+      columns.set(index);
+      return row -> row.get(index);
+    } else if (e instanceof Expr.Grouping grouping) {
+      return value(grouping.expression);
+    } else if (e instanceof Expr.Unary unary) {
+      Function<List<String>, String> operand = value(unary.right);
+      return row -> text(decimal(operand.apply(row)).negate());
+    } else if (isCondition(e)) {
+      Predicate<List<String>> condition = condition(e);
+      return row -> String.valueOf(condition.test(row));
+    } else if (e instanceof Expr.Binary binary) {
+      Function<List<String>, String> left = value(binary.left);
+      Function<List<String>, String> right = value(binary.right);
+      BinaryOperator<BigDecimal> operator =
+          switch (binary.operator.type) {
+            case PLUS -> BigDecimal::add;
+            case MINUS -> BigDecimal::subtract;
+            case STAR -> BigDecimal::multiply;
+            case SLASH -> (x, y) -> x.divide(y, MathContext.DECIMAL64);
+            default ->
+                (x, y) -> {
+                  throw new RuntimeException("Unsupported operator " + binary.operator.lexeme);
+                };
+          };
+      return row -> text(operator.apply(decimal(left.apply(row)), decimal(right.apply(row))));
+    }
+    String message =
+        e instanceof Expr.Parameter
+            ? "? placeholders need a value, run the query as a prepared statement"
+            : "Unsupported expression in WHERE clause";
+    return row -> {
+      throw new RuntimeException(message);
+    };
+  }
+
+  private boolean numeric(Expr left, Expr right) {
+    if (isColumn(left)) {
+      return table.isNumeric(((Expr.Variable) left).name);
+    }
+    if (isColumn(right)) {
+      return table.isNumeric(((Expr.Variable) right).name);
+    }
+    return true; // two values, numbers compare as numbers and text as text
+  }
+
+  private static BigDecimal decimal(Object value) {
+    try {
+      return new BigDecimal(text(value));
+    } catch (NumberFormatException | NullPointerException e) {
+      throw new RuntimeException("Expected a number but found " + value);
+    }
+  }
+
+  private static String number(Double value) {
+    return text(BigDecimal.valueOf(value));
+  }
+
+  private static String text(Object value) {
+    if (value instanceof BigDecimal number) {
+      return number.stripTrailingZeros().toPlainString();
+    }
+    return value == null ? null : value.toString();
+  }
+}
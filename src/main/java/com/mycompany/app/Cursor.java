@@ -0,0 +1,175 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * The rows of a query, read from the table one at a time as they are asked for.
+ *
+ * <p>Only the row being returned is held, so a query over any number of rows runs in the memory of
+ * a single row, or of one batch when rows are taken with {@link #fetch}. A limit stops the table
+ * being read as soon as enough rows have been returned. A cursor sees the table as it is when each
+ * row is read, so rows inserted while it is open may or may not be returned, while the rows that
+ * were there all along are each returned once.
+ *
+ * <p>The tables are read locked while each row, or each batch of rows, is found, and not while the
+ * cursor sits between reads.
+ */
+public final class Cursor implements Iterator<List<String>> {
+
+  private static final int BATCH_SIZE = 1024; // rows found for each time the tables are locked
+
+  private final List<String> columns;
+  private final int[] indexes; // where each selected column sits in the internal layout, or null
+  private final Iterator<List<String>> candidates;
+  private final Predicate<List<String>> filter;
+  private final List<Table> tables; // read locked while rows are found
+  private long remaining; // rows still allowed by the limit
+  private List<String> next; // the next row, already projected, or null if not yet found
+
+  /**
+   * Open a cursor over some rows of a table.
+   *
+   * @param columns names of the selected columns
+   * @param indexes where each selected column sits in the internal layout
+   * @param candidates rows in the internal layout that might match
+   * @param filter the test each candidate must pass
+   * @param limit most rows to return, or null for no limit
+   * @param tables the tables the rows are read from
+   */
+  Cursor(
+      List<String> columns,
+      int[] indexes,
+      Iterator<List<String>> candidates,
+      Predicate<List<String>> filter,
+      Integer limit,
+      List<Table> tables) {
+    if (limit != null && limit < 0) {
+      throw new RuntimeException("LIMIT must not be negative");
+    }
+    this.columns = List.copyOf(columns);
+    this.indexes = indexes;
+    this.candidates = candidates;
+    this.filter = filter;
+    this.remaining = limit == null ? Long.MAX_VALUE : limit;
+    this.tables = List.copyOf(tables);
+  }
+
+  /**
+   * Open a cursor over rows that are already filtered and projected, e.g. those of a {@link Plan}.
+   *
+   * @param columns names of the values in each row
+   * @param rows the rows
+   * @param tables the tables the rows are read from
+   */
+  Cursor(List<String> columns, Iterator<List<String>> rows, List<Table> tables) {
+    this.columns = List.copyOf(columns);
+    this.indexes = null;
+    this.candidates = rows;
+    this.filter = row -> true;
+    this.remaining = Long.MAX_VALUE;
+    this.tables = List.copyOf(tables);
+  }
+
+  /**
+   * Names of the selected columns, in the order their values appear in each row.
+   *
+   * @return the column names
+   */
+  public List<String> columns() {
+    return columns;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next != null) {
+      return true;
+    }
+    return Table.reading(tables, this::find);
+  }
+
+  // look for the next row, with the tables locked
+  private boolean find() {
+    if (next != null) {
+      return true;
+    }
+    if (remaining == 0) {
+      return false;
+    }
+    while (candidates.hasNext()) {
+      List<String> row = candidates.next();
+      if (filter.test(row)) {
+        next = indexes == null ? row : project(row);
+        remaining--;
+        return true;
+      }
+    }
+    remaining = 0;
+    return false;
+  }
+
+  private List<String> project(List<String> row) {
+    List<String> projected = new ArrayList<>(indexes.length);
+    for (int index : indexes) {
+      projected.add(row.get(index));
+    }
+    return projected;
+  }
+
+  @Override
+  public List<String> next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    List<String> row = next;
+    next = null;
+    return row;
+  }
+
+  /**
+   * Take up to {@code count} more rows.
+   *
+   * @param count most rows to take
+   * @return the rows, empty once the cursor is used up
+   */
+  public List<List<String>> fetch(int count) {
+    List<List<String>> batch = new ArrayList<>(Math.min(count, BATCH_SIZE));
+    boolean more = true;
+    while (batch.size() < count && more) {
+      // lock once for a batch of rows rather than once a row
+      int until = (int) Math.min(count, (long) batch.size() + BATCH_SIZE);
+      more =
+          Table.reading(
+              tables,
+              () -> {
+                while (batch.size() < until) {
+                  if (!find()) {
+                    return false;
+                  }
+                  batch.add(next);
+                  next = null;
+                }
+                return true;
+              });
+    }
+    return batch;
+  }
+
+  /**
+   * Take every remaining row.
+   *
+   * @return the rows
+   */
+  public List<List<String>> fetchAll() {
+    List<List<String>> rows = new ArrayList<>();
+    for (List<List<String>> batch = fetch(BATCH_SIZE);
+        !batch.isEmpty();
+        batch = fetch(BATCH_SIZE)) {
+      rows.addAll(batch);
+    }
+    return rows;
+  }
+}
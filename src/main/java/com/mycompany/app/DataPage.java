@@ -0,0 +1,150 @@
+package com.mycompany.app;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Layout of a table data page.
+ *
+ * <p>{next page} {row count} {free offset} then the encoded rows back to back, each prefixed by its
+ * length.
+ */
+final class DataPage {
+
+  static final int HEADER = 8;
+  static final int MAX_ROW = PageFile.PAGE_SIZE - HEADER - 2;
+
+  private DataPage() {}
+
+  /**
+   * Reset a buffer to an empty data page.
+   *
+   * @param page the buffer to reset
+   */
+  static void init(ByteBuffer page) {
+    page.clear();
+    page.put(new byte[PageFile.PAGE_SIZE]);
+    page.putInt(0, PageFile.NO_PAGE);
+    page.putShort(4, (short) 0);
+    page.putShort(6, (short) HEADER);
+  }
+
+  static int next(ByteBuffer page) {
+    return page.getInt(0);
+  }
+
+  static void setNext(ByteBuffer page, int next) {
+    page.putInt(0, next);
+  }
+
+  static int rowCount(ByteBuffer page) {
+    return Short.toUnsignedInt(page.getShort(4));
+  }
+
+  static int freeOffset(ByteBuffer page) {
+    return Short.toUnsignedInt(page.getShort(6));
+  }
+
+  /**
+   * Append an encoded row to the page if there is space for it.
+   *
+   * @param page the data page
+   * @param row the encoded row
+   * @return false if the page is full
+   */
+  static boolean append(ByteBuffer page, byte[] row) {
+    if (row.length > MAX_ROW) {
+      throw new RuntimeException(
+          "[DISK OPERATION] Row of " + row.length + " bytes does not fit in a page");
+    }
+    int offset = freeOffset(page);
+    if (offset + 2 + row.length > PageFile.PAGE_SIZE) {
+      return false;
+    }
+    page.putShort(offset, (short) row.length);
+    page.put(offset + 2, row);
+    page.putShort(4, (short) (rowCount(page) + 1));
+    page.putShort(6, (short) (offset + 2 + row.length));
+    return true;
+  }
+
+  /**
+   * Drop every row after the first few, e.g. ones written ahead of a save that never happened.
+   *
+   * @param page the data page
+   * @param count how many rows to keep
+   */
+  static void truncate(ByteBuffer page, int count) {
+    int offset = HEADER;
+    for (int i = 0; i < count; i++) {
+      offset += 2 + Short.toUnsignedInt(page.getShort(offset));
+    }
+    page.putShort(4, (short) count);
+    page.putShort(6, (short) offset);
+  }
+
+  /**
+   * Decode every row stored on a page.
+   *
+   * @param page the data page
+   * @return the rows in insertion order
+   */
+  static List<List<String>> rows(ByteBuffer page) {
+    return rows(page, rowCount(page));
+  }
+
+  /**
+   * Decode the first rows stored on a page.
+   *
+   * @param page the data page
+   * @param count how many rows to decode
+   * @return the rows in insertion order
+   */
+  static List<List<String>> rows(ByteBuffer page, int count) {
+    int[] offsets = offsets(page, count);
+    List<List<String>> rows = new ArrayList<>(offsets.length);
+    for (int offset : offsets) {
+      rows.add(row(page, offset));
+    }
+    return rows;
+  }
+
+  /**
+   * Offsets of every row stored on a page.
+   *
+   * @param page the data page
+   * @return offset of each row's length prefix, in insertion order
+   */
+  static int[] offsets(ByteBuffer page) {
+    return offsets(page, rowCount(page));
+  }
+
+  /**
+   * Offsets of the first rows stored on a page.
+   *
+   * @param page the data page
+   * @param count how many rows
+   * @return offset of each row's length prefix, in insertion order
+   */
+  static int[] offsets(ByteBuffer page, int count) {
+    int[] offsets = new int[count];
+    int offset = HEADER;
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = offset;
+      offset += 2 + Short.toUnsignedInt(page.getShort(offset));
+    }
+    return offsets;
+  }
+
+  /**
+   * Decode the row at an offset returned by {@link #offsets}.
+   *
+   * @param page the data page
+   * @param offset offset of the row's length prefix
+   * @return the row values
+   */
+  static List<String> row(ByteBuffer page, int offset) {
+    return RowCodec.decode(page, offset + 2, Short.toUnsignedInt(page.getShort(offset)));
+  }
+}
@@ -1,17 +1,114 @@
 package com.mycompany.app;
 
 import com.mycompany.app.Expr.Create;
-import java.io.Serializable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
-/** Database Object. */
-public final class Database implements Serializable {
+/**
+ * Database Object.
+ *
+ * <p>Each user of a database works in a {@link Session} of its own, holding the changes it has made
+ * since it last committed and whether it has a transaction open, so one session's commit or
+ * rollback leaves the others' changes alone. Work is done in the session bound to the calling
+ * thread by {@link #within}, or in the database's own session when none is.
+ */
+public final class Database {
 
-  private HashMap<String, Table> tables;
+  private final Map<String, Table> tables = new ConcurrentHashMap<>();
   private String name;
   private String filepath;
+  private String storedAt; // file the tables' page chains refer to, null if never saved
+
+  private final ReentrantLock lock = new ReentrantLock(); // guards the sessions and the log
+  private final Session shared = new Session(); // for threads without a session of their own
+  private final ThreadLocal<Session> bound = new ThreadLocal<>();
+  private int transactions; // sessions with a transaction open
+  private boolean saving; // being written to its file, so no transaction may open or be logged
+  private final java.util.concurrent.locks.Condition saved = lock.newCondition(); // save ended
+  private WriteAheadLog log; // opened on the first commit once the database is on disk
+  private BufferPool pool; // set when the tables live in pages of an open file
+  private long workMemory = 64L << 20; // bytes a join, aggregate or sort may hold before spilling
+  private Path spillDirectory; // where spill files go, null for the system's temporary directory
+  private int parallelism = 1; // most workers a query's scan is split among
+
+  private static final int STATEMENT_CACHE_SIZE = 256;
+  // prepared statements by their normalized SQL, least recently used first
+  private final LinkedHashMap<String, PreparedStatement> statementCache =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+          return size() > STATEMENT_CACHE_SIZE;
+        }
+      };
+
+  /**
+   * A change made by the current transaction.
+   *
+   * @param table the table that was created, inserted into or indexed
+   * @param row the inserted attribute values, null if the table or an index was created
+   * @param previous the attribute values replaced by the insert, or null
+   * @param index the index that was created, or null
+   */
+  private record Change(Table table, List<String> row, List<String> previous, Index index) {}
+
+  /** What one user of a database is in the middle of. */
+  static final class Session {
+    // changes made since the last commit, undone by rollback and logged by commit
+    private final List<Change> changes = new ArrayList<>();
+    private boolean inTransaction; // explicit transaction, otherwise queries autocommit
+  }
+
+  /**
+   * Do some work in a session, so that the changes it makes, and any commit or rollback, are that
+   * session's alone.
+   *
+   * @param session the session
+   * @param work what to do
+   * @param <T> what the work returns
+   * @return what the work returned
+   */
+  <T> T within(Session session, Supplier<T> work) {
+    Session previous = bound.get();
+    bound.set(session);
+    try {
+      return work.get();
+    } finally {
+      if (previous == null) {
+        bound.remove();
+      } else {
+        bound.set(previous);
+      }
+    }
+  }
+
+  // the session of the calling thread
+  private Session session() {
+    Session session = bound.get();
+    return session == null ? shared : session;
+  }
+
+  // if the calling thread's session has a transaction open
+  private boolean inTransaction() {
+    lock.lock();
+    try {
+      return session().inTransaction;
+    } finally {
+      lock.unlock();
+    }
+  }
 
   /**
    * Create a database based on name and filepath to store it.
@@ -23,7 +120,6 @@ public final class Database implements Serializable {
     // read the database into memory
     this.name = name;
     this.filepath = filepath;
-    this.tables = new HashMap<>();
   }
 
   /**
@@ -44,41 +140,224 @@ public final class Database implements Serializable {
    * @return true if the query was successful, false otherwise
    */
   public boolean runQuery(String query, boolean debug) {
-    // scan query into tokens
-    Scanner scanner = new Scanner(query);
-    List<Token> tokens = scanner.scanTokens();
+    PreparedStatement prepared;
     if (debug) {
+      // scan query into tokens
+      List<Token> tokens = new Scanner(query).scanTokens();
       System.out.println("Tokens: ");
       for (Token token : tokens) {
         System.out.println(token.toString());
       }
-    }
 
-    // parse the tokens into an AST
-    Parser parser = new Parser(tokens);
-    if (debug) {
+      // parse the tokens into an AST
+      Parser parser = new Parser(tokens);
+      List<Expr> statements = parser.parse();
       System.out.println("Parsed AST: ");
       // TODO: some sort of AST pretty printing
-      for (Expr expr : parser.parse()) {
+      for (Expr expr : statements) {
         System.out.println(expr.toString());
       }
+      prepared = new PreparedStatement(this, statements, parser.parameterCount());
+    } else {
+      prepared = prepare(query);
+    }
+    prepared.execute();
+    return false;
+  }
+
+  /**
+   * Scan and parse a statement once so that it can be run many times, e.g. with different values
+   * for its {@code ?} placeholders. Recently prepared statements are cached by their SQL text, so
+   * preparing the same SQL again does not parse it again.
+   *
+   * @param query the SQL statement
+   * @return the prepared statement
+   */
+  public PreparedStatement prepare(String query) {
+    String key = normalize(query);
+    synchronized (statementCache) {
+      PreparedStatement cached = statementCache.get(key);
+      if (cached != null) {
+        return cached;
+      }
     }
+    Parser parser = new Parser(new Scanner(query).scanTokens());
+    PreparedStatement prepared =
+        new PreparedStatement(this, parser.parse(), parser.parameterCount());
+    synchronized (statementCache) {
+      statementCache.put(key, prepared);
+    }
+    return prepared;
+  }
+
+  // the same statement written with different spacing shares a cache entry
+  private static String normalize(String query) {
+    StringBuilder normalized = new StringBuilder(query.length());
+    char quote = 0; // the quote mark of the string being copied, or 0 outside a string
+    boolean space = false;
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if (quote == 0 && Character.isWhitespace(c)) {
+        space = normalized.length() > 0;
+        continue;
+      }
+      if (space) {
+        normalized.append(' ');
+        space = false;
+      }
+      if (quote == 0 && (c == '"' || c == '\'')) {
+        quote = c;
+      } else if (c == quote) {
+        quote = 0;
+      }
+      normalized.append(c);
+    }
+    return normalized.toString();
+  }
+
+  /**
+   * Run a script of semicolon separated statements as one batch. Statements are scanned, parsed and
+   * run one at a time as the script is read, so a script of any size runs in the memory of its
+   * largest statement. The script is a single transaction that is committed, and made durable, once
+   * at the end. If a statement fails, or cannot be parsed, every change the script made is rolled
+   * back. When a transaction is already open the script becomes part of it instead.
+   *
+   * @param script the SQL statements
+   * @return the number of statements run
+   */
+  public int runScript(Reader script) {
+    Parser parser = new Parser(new Scanner(script));
+    boolean batch = !inTransaction();
+    if (batch) {
+      startTransaction();
+    }
+    int count = 0;
+    try {
+      for (Expr statement = parser.next(false); statement != null; statement = parser.next(false)) {
+        execute(List.of(statement), null, false);
+        count++;
+      }
+    } catch (RuntimeException e) {
+      if (batch) {
+        rollback();
+      }
+      throw e;
+    }
+    if (batch) {
+      commit();
+    }
+    return count;
+  }
+
+  /**
+   * Execute parsed statements, committing them unless a transaction is open.
+   *
+   * @param statements the statements, with every placeholder given a value
+   * @param prepared the prepared statement they came from, or null
+   */
+  void execute(List<Expr> statements, PreparedStatement prepared) {
+    execute(statements, prepared, true);
+  }
 
-    List<Expr> statements = parser.parse();
+  private void execute(List<Expr> statements, PreparedStatement prepared, boolean verbose) {
+    boolean autocommit = !inTransaction();
+    try {
+      run(statements, prepared, verbose);
+    } catch (RuntimeException e) {
+      if (autocommit) {
+        rollback(); // a statement that fails part way leaves nothing behind
+      }
+      throw e;
+    }
+    if (autocommit) {
+      commit();
+    }
+  }
 
-    // execute the statements
+  private void run(List<Expr> statements, PreparedStatement prepared, boolean verbose) {
     for (Expr statement : statements) {
       if (statement instanceof Expr.Select) {
-        executeSelect((Expr.Select) statement);
+        Cursor rows = executeSelect((Expr.Select) statement, prepared);
+        while (rows != null && rows.hasNext()) {
+          System.out.println(String.join(", ", rows.next()));
+        }
+      } else if (statement instanceof Expr.CreateIndex) {
+        if (verbose) {
+          System.out.println("Executing CREATE INDEX statement: " + statement.toString());
+        }
+        executeCreateIndex((Expr.CreateIndex) statement);
       } else if (statement instanceof Expr.Create) {
-        System.out.println("Executing CREATE statement: " + statement.toString());
+        if (verbose) {
+          System.out.println("Executing CREATE statement: " + statement.toString());
+        }
         executeCreateTable((Expr.Create) statement, false);
       } else if (statement instanceof Expr.Insert) {
-        System.out.println("Executing Insert statement: " + statement.toString());
+        if (verbose) {
+          System.out.println("Executing Insert statement: " + statement.toString());
+        }
+        executeInsert((Expr.Insert) statement);
+      } else if (statement instanceof Expr.Analyze analyze) {
+        if (verbose) {
+          System.out.println("Executing ANALYZE statement: " + statement.toString());
+        }
+        analyze(analyze.tableName);
+      } else if (statement instanceof Expr.Copy copy) {
+        if (verbose) {
+          System.out.println("Executing COPY statement: " + statement.toString());
+        }
+        if (copy.export) {
+          copyTo(copy.tableName, Path.of(copy.path), copy.binary);
+        } else {
+          load(copy.tableName, Path.of(copy.path), copy.binary); // execute commits it
+        }
       }
     }
+  }
 
-    return false;
+  /**
+   * Run a SELECT statement and return its rows.
+   *
+   * @param query the SELECT statement
+   * @return the selected values of each matching row, or null if the query was invalid
+   */
+  public List<List<String>> query(String query) {
+    Cursor rows = cursor(query);
+    return rows == null ? null : rows.fetchAll();
+  }
+
+  /**
+   * Run a SELECT statement, reading its rows only as they are taken from the cursor.
+   *
+   * @param query the SELECT statement
+   * @return a cursor over the selected values of each matching row, or null if the query was
+   *     invalid
+   */
+  public Cursor cursor(String query) {
+    return prepare(query).query();
+  }
+
+  private void executeCreateIndex(Expr.CreateIndex statement) {
+    Table table = getTable(statement.tableName);
+    if (table == null) {
+      System.err.println("Table " + statement.tableName + " does not exist.");
+      return;
+    }
+    createIndex(table, statement.indexName, statement.columns, statement.unique, statement.kind);
+  }
+
+  /**
+   * Add a secondary index to a table as part of the current transaction.
+   *
+   * @param table the table to index
+   * @param indexName name of the index
+   * @param columns the columns to index
+   * @param unique if two rows may not hold the same values
+   * @param kind how the index organises its values
+   */
+  void createIndex(
+      Table table, String indexName, List<String> columns, boolean unique, Index.Kind kind) {
+    Index index = table.createIndex(indexName, columns, unique, kind);
+    record(new Change(table, null, null, index));
   }
 
   private void executeCreateTable(Create statement, boolean debug) {
@@ -144,30 +423,126 @@ public final class Database implements Serializable {
     }
 
     // create the table
-    tables.put(statement.tableName, new Table(statement.tableName, statement.columns));
+    createTable(statement.tableName, statement.columns, statement.layout);
+  }
+
+  /**
+   * Run a parsed SELECT statement.
+   *
+   * @param select the statement, with every placeholder given a value
+   * @param prepared the prepared statement it came from, which may hold its compiled WHERE clause,
+   *     or null
+   * @return a cursor over the selected rows, or null if the query was invalid
+   */
+  Cursor executeSelect(Expr.Select select, PreparedStatement prepared) {
+    Plan plan = Table.reading(tablesOf(select), () -> planSelect(select, prepared));
+    return plan == null ? null : plan.cursor();
+  }
+
+  // the tables a SELECT reads that exist, locked while it is planned
+  private List<Table> tablesOf(Expr.Select select) {
+    List<Table> read = new ArrayList<>(select.joins.size() + 1);
+    Table first = getTable(select.table.lexeme);
+    if (first != null) {
+      read.add(first);
+    }
+    for (Expr.Join join : select.joins) {
+      Table table = getTable(join.table.lexeme);
+      if (table != null) {
+        read.add(table);
+      }
+    }
+    return read;
   }
 
-  private void executeSelect(Expr.Select select) {
+  /**
+   * Describe the plan a SELECT statement would run with, a line per step.
+   *
+   * @param query the SELECT statement
+   * @return the plan, or null if the query was invalid
+   */
+  public String explain(String query) {
+    List<Expr> statements = prepare(query).statements();
+    if (statements.isEmpty() || !(statements.get(0) instanceof Expr.Select select)) {
+      throw new RuntimeException("Expected a SELECT statement");
+    }
+    Plan plan = Table.reading(tablesOf(select), () -> planSelect(select, null));
+    return plan == null ? null : plan.explain();
+  }
+
+  /**
+   * Gather statistics for the planner about the rows of a table.
+   *
+   * @param tableName the table, or null for every table
+   */
+  public void analyze(String tableName) {
+    if (tableName == null) {
+      for (Table table : tables.values()) {
+        table.analyze();
+      }
+      return;
+    }
+    Table table = getTable(tableName);
+    if (table == null) {
+      throw new RuntimeException("Table " + tableName + " does not exist.");
+    }
+    table.analyze();
+  }
+
+  private Plan planSelect(Expr.Select select, PreparedStatement prepared) {
     // get the table from the database
     Table table = getTable(select.table.lexeme);
     if (table == null) {
       System.err.println("Table " + select.table.lexeme + " does not exist.");
-      return;
+      return null;
+    }
+    if (!select.joins.isEmpty()
+        || !select.groupBy.isEmpty()
+        || select.having != null
+        || !select.orderBy.isEmpty()
+        || select.variables.stream().anyMatch(v -> v instanceof Expr.Aggregate)) {
+      return planQuery(table, select);
     }
     // check that each of the columns exists
+    List<String> columns = new ArrayList<>(select.variables.size());
     for (Expr variable : select.variables) {
       if (variable instanceof Expr.Literal) { // to allow for having expresions like `col + 1`
         String columnName = ((Expr.Literal) variable).value.toString();
-        if (!table.hasColumn(columnName)) {
+        if (!columnName.equals("*") && !table.hasColumn(columnName)) {
           System.err.println(
               "Column " + columnName + " does not exist in table " + table.getName());
-          return;
+          return null;
         }
+        columns.add(columnName);
       } else {
         System.err.println("Invalid column name: " + variable.toString());
-        return;
+        return null;
       }
     }
+
+    if (select.whereClause.isEmpty()) {
+      return table.plan(columns, null, select.limit);
+    }
+    Expr clause = select.whereClause.get(0);
+    Condition where =
+        prepared == null ? new Condition(table, clause) : prepared.plan(table, clause);
+    return table.plan(columns, where, select.limit, parallelism);
+  }
+
+  // a SELECT that joins tables, works out aggregates or sorts
+  private Plan planQuery(Table first, Expr.Select select) {
+    List<Table> tables = new ArrayList<>(select.joins.size() + 1);
+    tables.add(first);
+    for (Expr.Join join : select.joins) {
+      Table table = getTable(join.table.lexeme);
+      if (table == null) {
+        System.err.println("Table " + join.table.lexeme + " does not exist.");
+        return null;
+      }
+      tables.add(table);
+    }
+    return Planner.select(
+        tables, select, new SpillFiles.Budget(workMemory, spillDirectory), parallelism);
   }
 
   private void executeInsert(Expr.Insert stmt) {
@@ -178,41 +553,118 @@ public final class Database implements Serializable {
       return;
     }
 
-    List<Column> nonNullableInserted = new ArrayList<>();
-
-    // check that each column provided exists
-    for (Expr column : stmt.columns) {
-      Expr.Literal col = (Expr.Literal) column;
-      if (!table.hasColumn(col.value.toString())) {
+    List<Expr> columns = stmt.columns;
+    if (columns.size() == 1 && ((Expr.Literal) columns.get(0)).value instanceof Token) {
+      // `*` gives a value for every column in table order
+      columns = new ArrayList<>();
+      for (Column column : table.getColumns()) {
+        columns.add(new Expr.Literal(column.name()));
+      }
+    }
+    for (List<Expr> values : stmt.rows) {
+      if (columns.size() != values.size()) {
         System.err.println(
-            "Table " + stmt.table.lexeme + " does not contain column " + col.value.toString());
+            "Insert gives " + values.size() + " values for " + columns.size() + " columns");
         return;
       }
-      if (!table.getColumn(name).nullable()) {
-        nonNullableInserted.add(table.getColumn(name));
+    }
+
+    // where each column of the table takes its value from in a row of the statement, or -1
+    List<Column> tableColumns = table.getColumns();
+    int[] sources = new int[tableColumns.size()];
+    Arrays.fill(sources, -1);
+    for (int i = 0; i < columns.size(); i++) {
+      String name = ((Expr.Literal) columns.get(i)).value.toString();
+      if (!table.hasColumn(name)) {
+        System.err.println("Table " + stmt.table.lexeme + " does not contain column " + name);
+        return;
       }
+      sources[table.columnIndex(name) - 1] = i; // the internal layout starts with the key copy
     }
     // check that any unspecified columns are nullable
-    // by comparing nonNullableInserted and nonNullable
-    List<Column> nonNullable = table.getNonNullableColumns();
-    if (nonNullable.size() != nonNullableInserted.size()) {
-      System.err.println(
-          "There is 1 or more columns that are non nullable that have not been given a value");
-      return;
+    for (int c = 0; c < sources.length; c++) {
+      if (sources[c] == -1 && !tableColumns.get(c).nullable()) {
+        System.err.println(
+            "Column " + tableColumns.get(c).name() + " is non-nullable and has no value.");
+        return;
+      }
     }
 
     // Actually insert into the table
-    List<String> row = new ArrayList<>();
-    for (Column column : table.getColumns()) {
-      if (stmt.columns.contains(new Expr.Literal(column.name()))) {
-        row.add(stmt.values.get(stmt.columns.indexOf(new Expr.Literal(column.name()))).toString());
-      } else if (column.nullable()) {
-        row.add(""); // or some default value
-      } else {
-        System.err.println("Column " + column.name() + " is non-nullable and has no value.");
-        return;
+    List<List<String>> rows = new ArrayList<>(stmt.rows.size());
+    for (List<Expr> values : stmt.rows) {
+      List<String> row = new ArrayList<>(sources.length);
+      for (int source : sources) {
+        row.add(source == -1 ? "" : ((Expr.Literal) values.get(source)).value.toString());
+      }
+      rows.add(row);
+    }
+    if (rows.size() == 1) {
+      table.insert(rows.get(0));
+    } else {
+      table.insertBatch(rows);
+    }
+  }
+
+  /**
+   * Load the rows of a CSV or binary file into a table as part of the current transaction, or as a
+   * transaction of its own if none is open. The file is parsed in parallel and checked against the
+   * table's columns before any row is inserted, and the rows go in as one batch.
+   *
+   * @param tableName the table to load
+   * @param file the file holding the rows
+   * @param binary if the file is in the binary copy format rather than CSV
+   * @return the number of rows loaded
+   */
+  public int copyFrom(String tableName, Path file, boolean binary) {
+    boolean autocommit = !inTransaction();
+    int loaded;
+    try {
+      loaded = load(tableName, file, binary);
+    } catch (RuntimeException e) {
+      if (autocommit) {
+        rollback();
       }
+      throw e;
+    }
+    if (autocommit) {
+      commit();
+    }
+    return loaded;
+  }
+
+  // load a file's rows, leaving the commit or rollback to the caller
+  private int load(String tableName, Path file, boolean binary) {
+    Table table = getTable(tableName);
+    if (table == null) {
+      throw new RuntimeException("Table " + tableName + " does not exist.");
+    }
+    List<List<String>> rows = BulkCopy.read(file, table.getColumns(), binary);
+    table.insertBatch(rows);
+    return rows.size();
+  }
+
+  /**
+   * Write every row of a table to a CSV or binary file that {@link #copyFrom} can load. Ranges of
+   * the table are written in parallel, so the table should not change while it is being copied.
+   *
+   * @param tableName the table to copy
+   * @param file the file to write, replaced if it exists
+   * @param binary if the file is written in the binary copy format rather than CSV
+   * @return the number of rows written
+   */
+  public long copyTo(String tableName, Path file, boolean binary) {
+    Table table = getTable(tableName);
+    if (table == null) {
+      throw new RuntimeException("Table " + tableName + " does not exist.");
     }
+    int ranges =
+        Math.max(
+            1,
+            Math.min(
+                Runtime.getRuntime().availableProcessors(),
+                table.primaryKeys().size() / BulkCopy.ROWS_PER_RANGE));
+    return BulkCopy.write(file, table.partitions(List.of("*"), ranges), binary);
   }
 
   /**
@@ -225,6 +677,87 @@ public final class Database implements Serializable {
     return tables.get(name);
   }
 
+  /**
+   * Every table in the database.
+   *
+   * @return view of the tables
+   */
+  Collection<Table> getTables() {
+    return tables.values();
+  }
+
+  BufferPool getBufferPool() {
+    return pool;
+  }
+
+  void setBufferPool(BufferPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Set how much memory the rows a join or sort holds, or the groups an aggregate holds, may take
+   * before it spills them to disk.
+   *
+   * @param bytes the budget for each join, aggregate and sort, 64MB by default
+   */
+  public void setWorkMemory(long bytes) {
+    if (bytes < 0) {
+      throw new RuntimeException("Work memory must not be negative");
+    }
+    this.workMemory = bytes;
+  }
+
+  /**
+   * Set how many workers a query may split a large table among, each filtering, projecting and
+   * aggregating its own range of rows on the shared fork join pool.
+   *
+   * @param workers most workers for each query, 1 by default to read on the calling thread
+   */
+  public void setParallelism(int workers) {
+    if (workers < 1) {
+      throw new RuntimeException("Parallelism must be at least 1");
+    }
+    this.parallelism = workers;
+  }
+
+  /**
+   * Set where joins, aggregates and sorts write the rows that do not fit in their work memory.
+   *
+   * @param directory an existing directory, or null for the system's temporary directory
+   */
+  public void setSpillDirectory(String directory) {
+    if (directory != null && !Files.isDirectory(Path.of(directory))) {
+      throw new RuntimeException("[SPILL] " + directory + " is not a directory");
+    }
+    this.spillDirectory = directory == null ? null : Path.of(directory);
+  }
+
+  /** Release the database file and log if they are held open. */
+  public void close() {
+    lock.lock();
+    try {
+      if (log != null) {
+        log.close();
+        log = null;
+      }
+      if (pool != null) {
+        pool.file().close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("[DISK OPERATION] Failed to close database", e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  String getStoredAt() {
+    return storedAt;
+  }
+
+  void setStoredAt(String path) {
+    this.storedAt = path;
+  }
+
   /**
    * Return the location of the database file on the local disk.
    *
@@ -250,7 +783,41 @@ public final class Database implements Serializable {
    * @param definitions Definition of each columns
    */
   public void createTable(String name, List<Column> definitions) {
-    tables.put(name, new Table(name, definitions));
+    createTable(name, definitions, Table.Layout.ROW);
+  }
+
+  /**
+   * Create table from definitions of columns and name, keeping its rows in the given layout. Tables
+   * of a database opened with a buffer pool always keep their rows in pages.
+   *
+   * @param name Name of the table
+   * @param definitions Definition of each columns
+   * @param layout how the rows are kept in memory
+   */
+  public void createTable(String name, List<Column> definitions, Table.Layout layout) {
+    Table table = new Table(name, definitions, layout);
+    if (pool != null) {
+      try {
+        table.setStore(new PagedRowStore(pool, table.pageChain(), table::keyOf));
+      } catch (IOException e) {
+        throw new RuntimeException("[BUFFER POOL] Failed to create table " + name, e);
+      }
+    }
+    table.setListener((t, row, previous) -> record(new Change(t, row, previous, null)));
+    if (tables.putIfAbsent(name, table) != null) {
+      throw new RuntimeException("Table " + name + " already exists.");
+    }
+    record(new Change(table, null, null, null));
+  }
+
+  // add a change to the calling thread's session
+  private void record(Change change) {
+    lock.lock();
+    try {
+      session().changes.add(change);
+    } finally {
+      lock.unlock();
+    }
   }
 
   /**
@@ -261,14 +828,193 @@ public final class Database implements Serializable {
    */
   public void alterTable(String tableName, List<Column> definitions) {}
 
-  /** Commit the changes as a transaction and write to the filesystem. */
-  public void commit() {}
+  /**
+   * Commit the session's changes as a transaction and write to the filesystem.
+   *
+   * <p>Once the database has been saved to disk the changes are appended to its write ahead log,
+   * returning once they are durable. Commits from several threads are grouped into one sync.
+   */
+  public void commit() {
+    WriteAheadLog wal;
+    long position;
+    lock.lock();
+    try {
+      Session session = session();
+      List<Change> changes = session.changes;
+      end(session);
+      if (changes.isEmpty()) {
+        return;
+      }
+      while (saving) {
+        // the save may have written its tables already, and its checkpoint empties the log
+        saved.awaitUninterruptibly();
+      }
+      if (storedAt == null) {
+        // nothing on disk yet, the next save writes everything
+        changes.clear();
+        return;
+      }
+      try {
+        if (log == null) {
+          log = WriteAheadLog.open(WriteAheadLog.pathFor(storedAt));
+        }
+        List<WriteAheadLog.Record> records = new ArrayList<>(changes.size());
+        for (Change change : changes) {
+          records.add(logRecord(change));
+        }
+        wal = log;
+        position = log.append(records);
+      } catch (IOException e) {
+        throw new RuntimeException("[DISK OPERATION] Failed to write to the log", e);
+      }
+      changes.clear();
+    } finally {
+      lock.unlock();
+    }
+
+    // wait outside the lock so other committers can join the same sync
+    try {
+      wal.sync(position);
+    } catch (IOException e) {
+      throw new RuntimeException("[DISK OPERATION] Failed to sync the log", e);
+    }
+  }
 
-  /** Rollback the database to the first transaction. */
-  public void rollback() {}
+  private static WriteAheadLog.Record logRecord(Change change) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(change.table().getName());
+    if (change.index() != null) {
+      Disk.writeIndex(out, change.index());
+      out.flush();
+      return new WriteAheadLog.Record(WriteAheadLog.INDEX, bytes.toByteArray());
+    }
+    if (change.row() == null) {
+      Disk.writeColumns(out, change.table().getColumns());
+      out.writeUTF(change.table().getLayout().name());
+      out.flush();
+      return new WriteAheadLog.Record(WriteAheadLog.CREATE, bytes.toByteArray());
+    }
+    out.write(RowCodec.encode(change.row()));
+    out.flush();
+    return new WriteAheadLog.Record(WriteAheadLog.INSERT, bytes.toByteArray());
+  }
 
-  /** Begin a database Transaction. */
-  public void startTransaction() {}
+  /** Rollback the changes the session made since it last committed. */
+  public void rollback() {
+    List<Change> undone;
+    lock.lock();
+    try {
+      Session session = session();
+      undone = new ArrayList<>(session.changes);
+      session.changes.clear();
+      end(session);
+    } finally {
+      lock.unlock();
+    }
+    // undone outside the lock, as a writer may hold a table while it waits to record a change
+    for (int i = undone.size() - 1; i >= 0; i--) {
+      Change change = undone.get(i);
+      if (change.index() != null) {
+        change.table().dropIndex(change.index().name());
+      } else if (change.row() == null) {
+        tables.remove(change.table().getName());
+      } else {
+        change.table().undoInsert(change.row(), change.previous());
+      }
+    }
+  }
+
+  // close the session's transaction, if it has one open, with the lock held
+  private void end(Session session) {
+    if (session.inTransaction) {
+      session.inTransaction = false;
+      transactions--;
+    }
+  }
+
+  /** Begin a database Transaction in the session. */
+  public void startTransaction() {
+    if (inTransaction()) {
+      throw new RuntimeException("A transaction is already in progress");
+    }
+    commit(); // anything changed before the transaction began is committed on its own
+    lock.lock();
+    try {
+      if (saving) {
+        throw new RuntimeException("A transaction cannot begin while the database is being saved");
+      }
+      session().inTransaction = true;
+      transactions++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Called before the database is saved to its file, which would take in the changes of any open
+   * transaction. Until {@link #endSave} no transaction may begin and commits wait.
+   */
+  void startSave() {
+    lock.lock();
+    try {
+      if (transactions > 0) {
+        throw new RuntimeException(
+            "[DISK OPERATION] Cannot save while a transaction is open, commit or roll it back"
+                + " first");
+      }
+      if (saving) {
+        throw new RuntimeException("[DISK OPERATION] The database is already being saved");
+      }
+      saving = true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Called once a save started by {@link #startSave} has finished or failed. */
+  void endSave() {
+    lock.lock();
+    try {
+      saving = false;
+      saved.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Forget changes loaded from disk so they are not logged a second time. */
+  void markCommitted() {
+    lock.lock();
+    try {
+      session().changes.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Called once the whole database has been saved to its file, the log is no longer needed.
+   *
+   * @throws IOException if the log could not be emptied
+   */
+  void checkpoint() throws IOException {
+    lock.lock();
+    try {
+      if (transactions > 0) {
+        throw new RuntimeException(
+            "[DISK OPERATION] Cannot checkpoint while a transaction is open");
+      }
+      session().changes.clear();
+      if (log != null) {
+        log.truncate();
+      } else if (storedAt != null) {
+        Files.deleteIfExists(WriteAheadLog.pathFor(storedAt));
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
 
   /** Print the name of the database. */
   public void printAbout() {
@@ -1,12 +1,30 @@
 package com.mycompany.app;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
-/** Set of utilities for writing/reading databae from files. */
+/**
+ * Set of utilities for writing/reading databae from files.
+ *
+ * <p>A database file is a sequence of {@link PageFile#PAGE_SIZE} byte pages: a header page, a chain
+ * of catalog pages describing each table, and a chain of {@link DataPage}s per table. Saving only
+ * writes the pages of tables that changed, appending new rows to the end of their chain.
+ *
+ * <p>Saving never writes over anything the file's header refers to until the new header is written,
+ * and a database saved to a file for the first time is written beside it and then moved over it, so
+ * a crash part way through a save leaves the file as it was.
+ */
 public class Disk {
 
   /**
@@ -16,13 +34,28 @@ public class Disk {
    * @return the database object to be used by the program
    */
   public static Database readDatabase(String filepath) {
-    try {
-      ObjectInputStream objectInputStream = new ObjectInputStream(new FileInputStream(filepath));
-      Database retrieved = (Database) objectInputStream.readObject();
-      objectInputStream.close();
-      if (retrieved.getFilePath() == null || retrieved.getFilePath().isEmpty()) {
-        throw new RuntimeException("[DISK OPERATION] No database found at " + filepath);
+    try (PageFile file = PageFile.open(Path.of(filepath), false)) {
+      Database retrieved = new Database(file.name(), filepath);
+      for (CatalogEntry entry : readCatalog(file)) {
+        retrieved.createTable(entry.name(), entry.columns(), entry.layout());
+        Table table = retrieved.getTable(entry.name());
+        PageChain chain = table.pageChain();
+        entry.attach(chain);
+        List<List<String>> rows = new ArrayList<>();
+        int pageNo = chain.first;
+        while (pageNo != PageFile.NO_PAGE) {
+          ByteBuffer page = file.read(pageNo);
+          rows.addAll(DataPage.rows(page, chain.rowsOn(pageNo, page)));
+          pageNo = chain.next(pageNo, page);
+        }
+        table.load(rows);
+        entry.createIndexes(table);
+        chain.clean();
       }
+      // changes committed since the last save only made it into the log
+      replayLog(retrieved, WriteAheadLog.replay(WriteAheadLog.pathFor(filepath)));
+      retrieved.markCommitted();
+      retrieved.setStoredAt(filepath);
       System.out.println("[DISK OPERATION] Read Database ");
       return retrieved;
     } catch (Exception e) {
@@ -31,26 +64,132 @@ public class Disk {
   }
 
   /**
-   * Write the specified database object to Disk.
+   * Open a database with its pages cached in a buffer pool instead of reading every row onto the
+   * heap. Only the pages a query touches are read, and at most {@code frames} pages are held in
+   * memory at once. The file stays open until {@link Database#close} is called.
+   *
+   * @param filepath Filepath of disk db
+   * @param frames number of pages the buffer pool can hold
+   * @return the database object to be used by the program
+   */
+  public static Database openDatabase(String filepath, int frames) {
+    PageFile file = null;
+    try {
+      file = PageFile.open(Path.of(filepath), true);
+      Database retrieved = new Database(file.name(), filepath);
+      BufferPool pool = new BufferPool(file, frames);
+      for (CatalogEntry entry : readCatalog(file)) {
+        retrieved.createTable(entry.name(), entry.columns(), entry.layout());
+        Table table = retrieved.getTable(entry.name());
+        entry.attach(table.pageChain());
+        table.setStore(new PagedRowStore(pool, table.pageChain(), table::keyOf));
+        entry.createIndexes(table);
+      }
+      retrieved.setBufferPool(pool);
+      replayLog(retrieved, WriteAheadLog.replay(WriteAheadLog.pathFor(filepath)));
+      retrieved.markCommitted();
+      retrieved.setStoredAt(filepath);
+      System.out.println("[DISK OPERATION] Opened Database ");
+      return retrieved;
+    } catch (Exception e) {
+      try {
+        if (file != null) {
+          file.close();
+        }
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw new RuntimeException("[DISK OPERATION] Failed to open database", e);
+    }
+  }
+
+  /**
+   * Open a database by memory mapping its file. Only the catalog is read up front, queries are
+   * served straight from the mapped pages so the rows are never copied onto the heap. Tables opened
+   * this way are read only, so a database whose log still holds committed changes has to be opened
+   * some other way and saved before it can be mapped.
+   *
+   * @param filepath Filepath of disk db
+   * @return the database object to be used by the program
+   */
+  public static Database mapDatabase(String filepath) {
+    try (PageFile file = PageFile.open(Path.of(filepath), false)) {
+      if (!WriteAheadLog.replay(WriteAheadLog.pathFor(filepath)).isEmpty()) {
+        throw new RuntimeException(
+            "[DISK OPERATION] "
+                + filepath
+                + " has committed changes only in its log, open and save it before mapping it");
+      }
+      Database retrieved = new Database(file.name(), filepath);
+      MappedFile mapped = MappedFile.map(file.channel(), file.pageCount());
+      for (CatalogEntry entry : readCatalog(file)) {
+        retrieved.createTable(entry.name(), entry.columns(), entry.layout());
+        Table table = retrieved.getTable(entry.name());
+        entry.attach(table.pageChain());
+        table.setStore(new MappedRowStore(mapped, table.pageChain(), table::keyOf));
+        entry.createIndexes(table);
+      }
+      retrieved.markCommitted();
+      retrieved.setStoredAt(filepath);
+      System.out.println("[DISK OPERATION] Mapped Database ");
+      return retrieved;
+    } catch (Exception e) {
+      throw new RuntimeException("[DISK OPERATION] Failed to map database", e);
+    }
+  }
+
+  /**
+   * Write the specified database object to Disk. It cannot be saved while a transaction is open, as
+   * the file would hold changes that may yet be rolled back.
    *
    * @param db the database in memory
    */
   public static void writeDatabase(Database db) {
+    db.startSave();
+    try {
+      if (db.getBufferPool() != null) {
+        savePooled(db);
+      } else {
+        save(db);
+      }
+    } finally {
+      db.endSave();
+    }
+  }
+
+  private static void save(Database db) {
+    Path target = Path.of(db.getFilePath());
+    Path written = target;
     try {
-      // check to make sure that the if the file exists then it is a database file
-      File f = new File(db.getFilePath());
-      if (f.exists() && f.isFile()) {
-        var fileRead = readDatabase(db.getFilePath());
-        if (!fileRead.getName().equals(db.getName())) {
-          throw new RuntimeException("The file already exists and is not a database file");
+      PageFile existing = openForWrite(db);
+      if (existing == null) {
+        // a new file is written beside the old one, which stays until it is replaced whole
+        written = target.resolveSibling(target.getFileName() + ".new");
+      }
+      try (PageFile file = existing != null ? existing : PageFile.create(written, db.getName())) {
+        for (Table table : db.getTables()) {
+          writeTable(file, table);
         }
+        writeCatalog(file, db.getTables());
+        file.force();
+      }
+      if (written != target) {
+        Files.move(
+            written, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
       }
-      FileOutputStream fileOutputStream = new FileOutputStream(db.getFilePath());
-      ObjectOutputStream objectOutputStream = new ObjectOutputStream(fileOutputStream);
-      objectOutputStream.writeObject(db);
-      objectOutputStream.close();
+      db.setStoredAt(db.getFilePath());
+      db.checkpoint(); // everything in the log is now in the file
       System.out.println("[DISK OPERATION] Saved Database");
     } catch (Exception e) {
+      // the chains may point at pages the file never took in, so the next save writes them afresh
+      detachAll(db.getTables());
+      if (written != target) {
+        try {
+          Files.deleteIfExists(written);
+        } catch (IOException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+      }
       throw new RuntimeException("[DISK OPERATION] Failed to save database", e);
     }
   }
@@ -72,8 +211,303 @@ public class Disk {
                 + filepath
                 + ". Please check if the file is in use or if you have the necessary permissions.");
       }
+      Files.deleteIfExists(WriteAheadLog.pathFor(filepath));
     } catch (Exception e) {
       throw new RuntimeException("[DISK OPERATION] Failed to delete database", e);
     }
   }
+
+  // pages were written in place through the pool, so flush them and describe where they end
+  private static void savePooled(Database db) {
+    BufferPool pool = db.getBufferPool();
+    try {
+      for (Table table : db.getTables()) {
+        table.compactPages(); // replaced and rolled back rows are not saved as live
+      }
+      pool.flush();
+      for (Table table : db.getTables()) {
+        PageChain chain = table.pageChain();
+        if (chain.last != PageFile.NO_PAGE) {
+          chain.lastRows = DataPage.rowCount(pool.pin(chain.last));
+          pool.unpin(chain.last, false);
+        }
+        chain.clean();
+      }
+      writeCatalog(pool.file(), db.getTables());
+      pool.file().force();
+      db.checkpoint(); // everything in the log is now in the file
+      System.out.println("[DISK OPERATION] Saved Database");
+    } catch (Exception e) {
+      throw new RuntimeException("[DISK OPERATION] Failed to save database", e);
+    }
+  }
+
+  // the file the database was saved to, or null if it needs a new one
+  private static PageFile openForWrite(Database db) throws IOException {
+    // check to make sure that the if the file exists then it is a database file
+    File f = new File(db.getFilePath());
+    if (f.exists() && f.isFile()) {
+      PageFile file;
+      try {
+        file = PageFile.open(f.toPath(), true);
+      } catch (IOException e) {
+        throw new RuntimeException("The file already exists and is not a database file", e);
+      }
+      if (!file.name().equals(db.getName())) {
+        file.close();
+        throw new RuntimeException("The file already exists and is not a database file");
+      }
+      if (db.getFilePath().equals(db.getStoredAt())) {
+        return file;
+      }
+      // the tables were never saved to this file so their page chains mean nothing here
+      file.close();
+    }
+    detachAll(db.getTables());
+    return null;
+  }
+
+  private static void detachAll(Collection<Table> tables) {
+    for (Table table : tables) {
+      table.pageChain().detach();
+    }
+  }
+
+  private static void writeTable(PageFile file, Table table) throws IOException {
+    PageChain chain = table.pageChain();
+    if (!chain.isDirty()) {
+      return;
+    }
+    if (chain.first == PageFile.NO_PAGE || chain.rewrite) {
+      if (chain.first != PageFile.NO_PAGE) {
+        file.freeChain(chain.first);
+      }
+      chain.first = PageFile.NO_PAGE;
+      chain.last = PageFile.NO_PAGE;
+      appendRows(file, table, table.primaryKeys());
+    } else {
+      appendRows(file, table, chain.pending);
+    }
+    chain.clean();
+  }
+
+  // add rows to the last page of the chain, linking on new pages as each one fills
+  private static void appendRows(PageFile file, Table table, Collection<Key> keys)
+      throws IOException {
+    PageChain chain = table.pageChain();
+    ByteBuffer page;
+    int pageNo;
+    if (chain.last == PageFile.NO_PAGE) {
+      pageNo = file.allocate();
+      page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+      DataPage.init(page);
+      chain.first = pageNo;
+      chain.last = pageNo;
+    } else {
+      pageNo = chain.last;
+      page = file.read(pageNo);
+      // rows written after the saved ones by a save that never finished are not kept
+      DataPage.truncate(page, chain.lastRows);
+      DataPage.setNext(page, PageFile.NO_PAGE);
+    }
+
+    for (Key key : keys) {
+      byte[] row = RowCodec.encode(table.storedRow(key));
+      if (!DataPage.append(page, row)) {
+        int next = file.allocate();
+        DataPage.setNext(page, next);
+        file.write(pageNo, page);
+        DataPage.init(page);
+        DataPage.append(page, row);
+        pageNo = next;
+        chain.last = next;
+      }
+    }
+    file.write(pageNo, page);
+    chain.lastRows = DataPage.rowCount(page);
+  }
+
+  private static void writeCatalog(PageFile file, Collection<Table> tables) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(tables.size());
+    for (Table table : tables) {
+      out.writeUTF(table.getName());
+      writeColumns(out, table.getColumns());
+      out.writeUTF(table.getLayout().name());
+      out.writeInt(table.pageChain().first);
+      out.writeInt(table.pageChain().last);
+      out.writeInt(table.pageChain().lastRows);
+      out.writeInt(table.getIndexes().size());
+      for (Index index : table.getIndexes()) {
+        writeIndex(out, index);
+      }
+    }
+    out.flush();
+
+    if (file.catalogPage() != PageFile.NO_PAGE) {
+      file.freeChain(file.catalogPage());
+    }
+    file.setCatalogPage(file.writeChain(bytes.toByteArray()));
+  }
+
+  private static List<CatalogEntry> readCatalog(PageFile file) throws IOException {
+    List<CatalogEntry> entries = new ArrayList<>();
+    if (file.catalogPage() == PageFile.NO_PAGE) {
+      return entries;
+    }
+    DataInputStream in =
+        new DataInputStream(new ByteArrayInputStream(file.readChain(file.catalogPage())));
+    int tableCount = in.readInt();
+    for (int t = 0; t < tableCount; t++) {
+      String name = in.readUTF();
+      List<Column> columns = readColumns(in);
+      Table.Layout layout = Table.Layout.valueOf(in.readUTF());
+      int first = in.readInt();
+      int last = in.readInt();
+      int lastRows = in.readInt();
+      int indexCount = in.readInt();
+      List<IndexEntry> indexes = new ArrayList<>(indexCount);
+      for (int i = 0; i < indexCount; i++) {
+        indexes.add(readIndex(in));
+      }
+      entries.add(new CatalogEntry(name, columns, layout, first, last, lastRows, indexes));
+    }
+    return entries;
+  }
+
+  /**
+   * Encode a table schema, shared by the catalog and the write ahead log.
+   *
+   * @param out where to write
+   * @param columns the schema
+   */
+  static void writeColumns(DataOutputStream out, List<Column> columns) throws IOException {
+    out.writeInt(columns.size());
+    for (Column column : columns) {
+      out.writeUTF(column.name());
+      out.writeUTF(column.type() == null ? "" : column.type().name());
+      out.writeBoolean(column.nullable());
+      out.writeBoolean(column.primary());
+      out.writeBoolean(column.dependsOn() != null);
+      if (column.dependsOn() != null) {
+        out.writeUTF(column.dependsOn());
+      }
+    }
+  }
+
+  /**
+   * Decode a table schema written by {@link #writeColumns}.
+   *
+   * @param in where to read from
+   * @return the schema
+   */
+  static List<Column> readColumns(DataInputStream in) throws IOException {
+    int columnCount = in.readInt();
+    List<Column> columns = new ArrayList<>(columnCount);
+    for (int c = 0; c < columnCount; c++) {
+      String columnName = in.readUTF();
+      String type = in.readUTF();
+      boolean nullable = in.readBoolean();
+      boolean primary = in.readBoolean();
+      String dependsOn = in.readBoolean() ? in.readUTF() : null;
+      columns.add(
+          new Column(
+              columnName,
+              type.isEmpty() ? null : TokenType.valueOf(type),
+              nullable,
+              primary,
+              dependsOn));
+    }
+    return columns;
+  }
+
+  /**
+   * Encode the definition of a secondary index, shared by the catalog and the write ahead log.
+   *
+   * @param out where to write
+   * @param index the index
+   */
+  static void writeIndex(DataOutputStream out, Index index) throws IOException {
+    out.writeUTF(index.name());
+    out.writeBoolean(index.unique());
+    out.writeUTF(index.kind().name());
+    out.writeInt(index.columns().size());
+    for (String column : index.columns()) {
+      out.writeUTF(column);
+    }
+  }
+
+  private static IndexEntry readIndex(DataInputStream in) throws IOException {
+    String name = in.readUTF();
+    boolean unique = in.readBoolean();
+    Index.Kind kind = Index.Kind.valueOf(in.readUTF());
+    int columnCount = in.readInt();
+    List<String> columns = new ArrayList<>(columnCount);
+    for (int c = 0; c < columnCount; c++) {
+      columns.add(in.readUTF());
+    }
+    return new IndexEntry(name, columns, unique, kind);
+  }
+
+  private static void replayLog(Database db, List<List<WriteAheadLog.Record>> transactions)
+      throws IOException {
+    for (List<WriteAheadLog.Record> transaction : transactions) {
+      for (WriteAheadLog.Record record : transaction) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.payload()));
+        String tableName = in.readUTF();
+        if (record.type() == WriteAheadLog.CREATE) {
+          List<Column> columns = readColumns(in);
+          Table.Layout layout = Table.Layout.valueOf(in.readUTF());
+          if (db.getTable(tableName) == null) {
+            db.createTable(tableName, columns, layout);
+          }
+        } else if (record.type() == WriteAheadLog.INDEX) {
+          IndexEntry index = readIndex(in);
+          if (db.getTable(tableName).getIndex(index.name()) == null) {
+            index.create(db.getTable(tableName));
+          }
+        } else if (record.type() == WriteAheadLog.INSERT) {
+          int offset = record.payload().length - in.available();
+          db.getTable(tableName)
+              .insert(
+                  RowCodec.decode(
+                      ByteBuffer.wrap(record.payload()), offset, record.payload().length - offset));
+        }
+      }
+    }
+  }
+
+  // a table as described by the catalog pages
+  private record CatalogEntry(
+      String name,
+      List<Column> columns,
+      Table.Layout layout,
+      int first,
+      int last,
+      int lastRows,
+      List<IndexEntry> indexes) {
+
+    void attach(PageChain chain) {
+      chain.first = first;
+      chain.last = last;
+      chain.lastRows = lastRows;
+      chain.clean();
+    }
+
+    // indexes are not stored, they are rebuilt from the rows once the table is open
+    void createIndexes(Table table) {
+      for (IndexEntry index : indexes) {
+        index.create(table);
+      }
+    }
+  }
+
+  // definition of a secondary index
+  private record IndexEntry(String name, List<String> columns, boolean unique, Index.Kind kind) {
+
+    void create(Table table) {
+      table.createIndex(name, columns, unique, kind);
+    }
+  }
 }
@@ -10,11 +10,15 @@ public class Engine implements Serializable {
 
   List<String> databases;
   Database current;
+  boolean mapped; // open databases read only through a memory map
+  int poolFrames; // if above 0, open databases through a buffer pool of this many pages
 
   Engine() {
     // Initialise with a default database
     databases = new ArrayList<>();
     current = null;
+    mapped = false;
+    poolFrames = 0;
   }
 
   /** Run the Evaluation loop of the main database engine entry point. */
@@ -66,6 +70,9 @@ public class Engine implements Serializable {
     }
 
     in.close();
+    if (current != null) {
+      current.close();
+    }
     System.out.println(input + " - Exiting dbengine.");
   }
 
@@ -85,7 +92,24 @@ public class Engine implements Serializable {
     current = null;
   }
 
-  private void createDatabase(String databaseName) {
+  /**
+   * Open a database from its file, read only through a memory map or through a buffer pool when the
+   * engine was started that way.
+   *
+   * @param databaseName name of the database
+   * @return the opened database
+   */
+  Database open(String databaseName) {
+    String filepath = String.format("%s.db", databaseName);
+    if (mapped) {
+      return Disk.mapDatabase(filepath);
+    } else if (poolFrames > 0) {
+      return Disk.openDatabase(filepath, poolFrames);
+    }
+    return Disk.readDatabase(filepath);
+  }
+
+  void createDatabase(String databaseName) {
     // Create a new database and add it to the list
     databases.add(databaseName);
     Database newDb = new Database(databaseName, databaseName + ".db");
@@ -96,7 +120,8 @@ public class Engine implements Serializable {
   private void dropDatabase(String databaseName) {
     // Find and remove the database from the list
     databases.removeIf(db -> db.equals(databaseName));
-    if (current.getName().equals(databaseName)) {
+    if (current != null && current.getName().equals(databaseName)) {
+      current.close();
       current = null; // Clear current if it was the one being dropped
       Disk.deleteDatabase(databaseName);
     }
@@ -107,7 +132,10 @@ public class Engine implements Serializable {
     // Find the database and set it as the current database
     for (String db : databases) {
       if (db.equals(databaseName)) {
-        current = Disk.readDatabase(String.format("%s.db", databaseName));
+        if (current != null) {
+          current.close();
+        }
+        current = open(databaseName);
         System.out.println("Entered database " + databaseName + ".");
         return;
       }
@@ -1,6 +1,7 @@
 package com.mycompany.app;
 
 import java.util.List;
+import java.util.Objects;
 
 abstract class Expr {
 
@@ -12,38 +13,203 @@ abstract class Expr {
     final List<Expr> variables;
     final Token table;
     final List<Expr> whereClause;
+    final Integer limit; // null when there is no LIMIT
+    final List<Join> joins; // tables joined to the first, in the order written
+    final List<String> groupBy; // empty when there is no GROUP BY
+    final Expr having; // null when there is no HAVING
+    final List<OrderBy> orderBy; // empty when there is no ORDER BY
 
     Select(List<Expr> variables, Token table, List<Expr> whereClause) {
+      this(variables, table, whereClause, null);
+    }
+
+    Select(List<Expr> variables, Token table, List<Expr> whereClause, Integer limit) {
+      this(variables, table, List.of(), whereClause, limit);
+    }
+
+    Select(
+        List<Expr> variables,
+        Token table,
+        List<Join> joins,
+        List<Expr> whereClause,
+        Integer limit) {
+      this(variables, table, joins, whereClause, List.of(), null, List.of(), limit);
+    }
+
+    Select(
+        List<Expr> variables,
+        Token table,
+        List<Join> joins,
+        List<Expr> whereClause,
+        List<String> groupBy,
+        Expr having,
+        List<OrderBy> orderBy,
+        Integer limit) {
       this.variables = variables;
       this.table = table;
+      this.joins = joins;
       this.whereClause = whereClause;
+      this.groupBy = groupBy;
+      this.having = having;
+      this.orderBy = orderBy;
+      this.limit = limit;
+    }
+  }
+
+  /**
+   * An aggregate function over the rows of a group, such as {@code sum(amount)}. In HAVING it names
+   * the value worked out for the group, so it is a variable named after the call.
+   */
+  static class Aggregate extends Variable {
+    final String function; // count, sum, min, max or avg
+    final String column; // null for count(*)
+
+    Aggregate(String function, String column) {
+      super(function + "(" + (column == null ? "*" : column) + ")");
+      this.function = function;
+      this.column = column;
+    }
+  }
+
+  /** A column or aggregate of an ORDER BY, with the direction its values are sorted in. */
+  static class OrderBy extends Expr {
+    final Variable column; // an Aggregate when sorting on one
+    final boolean descending;
+
+    OrderBy(Variable column, boolean descending) {
+      this.column = column;
+      this.descending = descending;
+    }
+  }
+
+  /** A {@code [LEFT] JOIN table ON condition} following the FROM table of a SELECT. */
+  static class Join extends Expr {
+    final Token table;
+    final boolean left; // keep rows with no match, with empty values for the joined table
+    final Expr on;
+
+    Join(Token table, boolean left, Expr on) {
+      this.table = table;
+      this.left = left;
+      this.on = on;
     }
   }
 
   static class Insert extends Expr {
     final Token table;
     final List<Expr> columns;
-    final List<Expr> values;
+    final List<Expr> values; // the first row of values
+    final List<List<Expr>> rows; // every row of values, in the order given
 
-    Insert(List<Expr> columns, Token table, List<Expr> values) {
+    Insert(List<Expr> columns, Token table, List<List<Expr>> rows) {
       this.columns = columns;
       this.table = table;
-      this.values = values;
+      this.rows = rows;
+      this.values = rows.isEmpty() ? List.of() : rows.get(0);
     }
   }
 
   static class Create extends Expr {
     final String tableName;
     final List<Column> columns;
+    final Table.Layout layout;
 
     Create(String tableName, List<Column> cols) {
+      this(tableName, cols, Table.Layout.ROW);
+    }
+
+    Create(String tableName, List<Column> cols, Table.Layout layout) {
       this.tableName = tableName;
       this.columns = cols;
+      this.layout = layout;
+    }
+
+    @Override
+    public String toString() {
+      return "Create{"
+          + "tableName='"
+          + tableName
+          + '\''
+          + ", columns="
+          + columns
+          + ", layout="
+          + layout
+          + '}';
+    }
+  }
+
+  static class Analyze extends Expr {
+    final String tableName; // null to analyze every table
+
+    Analyze(String tableName) {
+      this.tableName = tableName;
     }
 
     @Override
     public String toString() {
-      return "Create{" + "tableName='" + tableName + '\'' + ", columns=" + columns + '}';
+      return "Analyze{tableName='" + tableName + "'}";
+    }
+  }
+
+  static class Copy extends Expr {
+    final String tableName;
+    final String path;
+    final boolean binary;
+    final boolean export; // COPY ... TO a file rather than FROM one
+
+    Copy(String tableName, String path, boolean binary, boolean export) {
+      this.tableName = tableName;
+      this.path = path;
+      this.binary = binary;
+      this.export = export;
+    }
+
+    @Override
+    public String toString() {
+      return "Copy{tableName='"
+          + tableName
+          + "', path='"
+          + path
+          + "', binary="
+          + binary
+          + ", export="
+          + export
+          + '}';
+    }
+  }
+
+  static class CreateIndex extends Expr {
+    final String indexName;
+    final String tableName;
+    final List<String> columns;
+    final boolean unique;
+    final Index.Kind kind;
+
+    CreateIndex(
+        String indexName, String tableName, List<String> columns, boolean unique, Index.Kind kind) {
+      this.indexName = indexName;
+      this.tableName = tableName;
+      this.columns = columns;
+      this.unique = unique;
+      this.kind = kind;
+    }
+
+    @Override
+    public String toString() {
+      return "CreateIndex{"
+          + "indexName='"
+          + indexName
+          + '\''
+          + ", tableName='"
+          + tableName
+          + '\''
+          + ", columns="
+          + columns
+          + ", unique="
+          + unique
+          + ", kind="
+          + kind
+          + '}';
     }
   }
 
@@ -81,6 +247,44 @@ abstract class Expr {
     public String toString() {
       return "Literal(" + value.toString() + ")";
     }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Literal && Objects.equals(value, ((Literal) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(value);
+    }
+  }
+
+  // represents a bare word, a column if the table has one by that name, otherwise a value
+  static class Variable extends Expr {
+    final String name;
+
+    Variable(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String toString() {
+      return "Variable(" + name + ")";
+    }
+  }
+
+  // a ? placeholder for a value given when a prepared statement is run
+  static class Parameter extends Expr {
+    final int index; // position among the statement's placeholders, from 0
+
+    Parameter(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public String toString() {
+      return "Parameter(" + index + ")";
+    }
   }
 
   static class EngineExpr extends Expr {
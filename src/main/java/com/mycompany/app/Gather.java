@@ -0,0 +1,192 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The rows of several copies of a plan run at once on the shared fork join pool, each over its own
+ * range of a table's rows. Every copy is started when the first row is asked for and hands its rows
+ * over in batches through a queue of its own, and the queues are read one after another in the
+ * order of the copies, so ranges split in key order come back in key order.
+ *
+ * <p>A copy whose queue is full stops until the queue is read from, rather than holding a thread of
+ * the pool, so no more than {@link #QUEUED} batches of each copy are held at once and copies that
+ * are never read to the end are simply left behind. Each copy read locks its table for every batch
+ * it finds, the way a {@link Cursor} does, so the caller holds no lock while it waits for them.
+ *
+ * <p>The copies do the filtering and, under an aggregate, the partial aggregation, so the work left
+ * on the calling thread is only what passes them.
+ */
+final class Gather extends Plan {
+
+  static final int ROWS_PER_WORKER = 16384; // fewest rows worth reading on a core of their own
+  static final int QUEUED = 4; // most batches a copy finds ahead of the caller
+
+  private static final int BATCH_SIZE = 256; // rows handed over at a time
+
+  final List<Plan> workers;
+
+  Gather(List<Plan> workers) {
+    super(rows(workers), cost(workers));
+    this.workers = List.copyOf(workers);
+  }
+
+  private static double rows(List<Plan> workers) {
+    double rows = 0;
+    for (Plan worker : workers) {
+      rows += worker.rows;
+    }
+    return rows;
+  }
+
+  // the slowest copy, then a unit a row to hand the rows over
+  private static double cost(List<Plan> workers) {
+    double slowest = 0;
+    for (Plan worker : workers) {
+      slowest = Math.max(slowest, worker.cost);
+    }
+    return slowest + rows(workers);
+  }
+
+  @Override
+  List<String> columns() {
+    return workers.get(0).columns();
+  }
+
+  @Override
+  List<Plan> inputs() {
+    return List.of(workers.get(0)); // the copies only differ in their range
+  }
+
+  @Override
+  String describe() {
+    return "gather from " + workers.size() + " workers";
+  }
+
+  @Override
+  Iterator<List<String>> iterator() {
+    return new Iterator<>() {
+      private List<Worker> started; // each copy, once the first row is asked for
+      private int reading; // the copy whose rows are being returned
+      private Iterator<List<String>> current = Collections.emptyIterator();
+
+      @Override
+      public boolean hasNext() {
+        if (started == null) {
+          started = new ArrayList<>(workers.size());
+          for (Plan worker : workers) {
+            started.add(new Worker(worker));
+          }
+          started.forEach(Worker::resume);
+        }
+        while (!current.hasNext() && reading < started.size()) {
+          List<List<String>> batch = started.get(reading).take();
+          if (batch == null) {
+            started.set(reading++, null); // let the copy go once read
+          } else {
+            current = batch.iterator();
+          }
+        }
+        return current.hasNext();
+      }
+
+      @Override
+      public List<String> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return current.next();
+      }
+    };
+  }
+
+  // one copy of the plan, run a batch at a time on the pool while its queue has room
+  private static final class Worker implements Runnable {
+    private static final List<List<String>> END = List.of();
+
+    private final List<Table> tables;
+    private final Plan plan;
+    private final BlockingQueue<List<List<String>>> queue = new ArrayBlockingQueue<>(QUEUED);
+    private final AtomicBoolean running = new AtomicBoolean();
+    private Iterator<List<String>> rows; // only touched by the task while it is running
+    private volatile boolean done;
+    private volatile RuntimeException failure;
+
+    Worker(Plan plan) {
+      this.plan = plan;
+      this.tables = plan.tables();
+    }
+
+    // start the task again if it stopped for want of room
+    void resume() {
+      if (!done && queue.remainingCapacity() > 0 && running.compareAndSet(false, true)) {
+        ForkJoinPool.commonPool().execute(this);
+      }
+    }
+
+    // the next batch, waiting for it if need be, or null once every row has been taken
+    List<List<String>> take() {
+      List<List<String>> batch;
+      try {
+        batch = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for a parallel worker", e);
+      }
+      if (batch == END) {
+        queue.add(END); // for anyone asking again
+        if (failure != null) {
+          throw failure;
+        }
+        return null;
+      }
+      resume();
+      return batch;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        if (queue.remainingCapacity() == 0) {
+          running.set(false);
+          // the queue may have been read from before the task was marked stopped
+          if (queue.remainingCapacity() == 0 || !running.compareAndSet(false, true)) {
+            return;
+          }
+        }
+        List<List<String>> batch;
+        try {
+          batch = Table.reading(tables, this::batch);
+        } catch (RuntimeException e) {
+          failure = e;
+          batch = List.of();
+        }
+        if (batch.isEmpty()) {
+          done = true;
+          queue.add(END); // there is always room, as only this task adds to the queue
+          return;
+        }
+        queue.add(batch);
+      }
+    }
+
+    // the next rows of the copy, with its table locked
+    private List<List<String>> batch() {
+      if (rows == null) {
+        rows = plan.iterator();
+      }
+      List<List<String>> batch = new ArrayList<>(BATCH_SIZE);
+      while (batch.size() < BATCH_SIZE && rows.hasNext()) {
+        batch.add(rows.next());
+      }
+      return batch;
+    }
+  }
+}
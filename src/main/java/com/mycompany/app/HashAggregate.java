@@ -0,0 +1,487 @@
+package com.mycompany.app;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/**
+ * Rows of its input gathered into groups by their GROUP BY values, returning a row per group: the
+ * group's values followed by each aggregate worked out over its rows. With no GROUP BY every row is
+ * in one group, which is returned even when there are no rows.
+ *
+ * <p>Groups are kept in an open addressing hash table of group numbers, and each aggregate keeps
+ * its running values in primitive arrays indexed by group number, so no objects are made to add a
+ * row to its group beyond the key it is looked up by. Sums of whole numbers are kept exactly as
+ * longs, falling back to doubles when a value has a fraction or the sum overflows. Empty (null)
+ * values are left out of every aggregate but {@code count(*)}.
+ *
+ * <p>Once the groups take more than the memory budget, rows that belong to a group already held
+ * carry on being added to it, and the other rows are written out to {@link #PARTITIONS} spill files
+ * by the hash of their group. After the input runs out the groups held are returned, then each
+ * partition is aggregated in turn the same way.
+ */
+final class HashAggregate extends Plan {
+
+  static final int PARTITIONS = 16;
+
+  private static final int MAX_DEPTH = 6; // past this a partition is held whatever its size
+  private static final int GROUP_OVERHEAD = 64; // guessed bytes a group costs besides its values
+
+  /** An aggregate function. */
+  enum Function {
+    COUNT,
+    SUM,
+    MIN,
+    MAX,
+    AVG
+  }
+
+  /**
+   * An aggregate worked out for each group.
+   *
+   * @param function what is worked out
+   * @param input where the value aggregated sits in an input row, or -1 for {@code count(*)}
+   * @param numeric if the values compare as numbers, for MIN and MAX
+   * @param count for an AVG of partial sums, where the number of values each sum is over sits in an
+   *     input row, otherwise -1
+   */
+  record Call(Function function, int input, boolean numeric, int count) {
+
+    Call(Function function, int input, boolean numeric) {
+      this(function, input, numeric, -1);
+    }
+  }
+
+  final Plan input;
+  private final List<String> columns;
+  private final int[] groups; // where each GROUP BY value sits in an input row
+  private final boolean[] numeric; // which GROUP BY values compare as numbers
+  private final List<Call> calls;
+  private final SpillFiles.Budget budget; // what the groups may take before spilling
+  private final boolean partial; // if any aggregate is an AVG of partial sums
+
+  HashAggregate(
+      Plan input,
+      List<String> columns,
+      int[] groups,
+      boolean[] numeric,
+      List<Call> calls,
+      SpillFiles.Budget budget,
+      double rows) {
+    super(rows, input.cost + input.rows);
+    this.input = input;
+    this.columns = List.copyOf(columns);
+    this.groups = groups;
+    this.numeric = numeric;
+    this.calls = List.copyOf(calls);
+    this.budget = budget;
+    this.partial = calls.stream().anyMatch(call -> call.count() >= 0);
+  }
+
+  @Override
+  List<String> columns() {
+    return columns;
+  }
+
+  /**
+   * Check if an aggregate's values compare as numbers.
+   *
+   * @param call position of the aggregate
+   * @return true for COUNT, SUM and AVG, and for MIN and MAX of a number column
+   */
+  boolean numeric(int call) {
+    return calls.get(call).function() == Function.COUNT
+        || calls.get(call).function() == Function.SUM
+        || calls.get(call).function() == Function.AVG
+        || calls.get(call).numeric();
+  }
+
+  /**
+   * The same aggregate worked out in parallel: each part of the input is aggregated on its own by a
+   * {@link Gather} worker, and the partial results are combined. Counts are added up, sums added,
+   * the least and greatest kept, and an average is carried as a partial sum and count.
+   *
+   * @param parts plans that between them return the rows of this aggregate's input
+   * @return the aggregate combining the partial results
+   */
+  HashAggregate parallel(List<Plan> parts) {
+    List<Call> partials = new ArrayList<>();
+    List<Call> combined = new ArrayList<>();
+    for (Call call : calls) {
+      int at = groups.length + partials.size(); // where the partial result sits
+      switch (call.function()) {
+        case COUNT -> {
+          partials.add(call);
+          combined.add(new Call(Function.SUM, at, true));
+        }
+        case AVG -> {
+          partials.add(new Call(Function.SUM, call.input(), true));
+          partials.add(new Call(Function.COUNT, call.input(), true));
+          combined.add(new Call(Function.AVG, at, true, at + 1));
+        }
+        default -> {
+          partials.add(call);
+          combined.add(new Call(call.function(), at, call.numeric()));
+        }
+      }
+    }
+    List<String> names = new ArrayList<>(columns.subList(0, groups.length));
+    for (int i = 0; i < partials.size(); i++) {
+      names.add("partial" + i);
+    }
+    SpillFiles.Budget share =
+        new SpillFiles.Budget(budget.memory() / parts.size(), budget.directory());
+    List<Plan> workers = new ArrayList<>(parts.size());
+    for (Plan part : parts) {
+      double groupsRows = groups.length == 0 ? 1 : Math.min(part.rows, rows);
+      workers.add(new HashAggregate(part, names, groups, numeric, partials, share, groupsRows));
+    }
+    int[] positions = new int[groups.length];
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = i;
+    }
+    return new HashAggregate(
+        new Gather(workers), columns, positions, numeric, combined, budget, rows);
+  }
+
+  @Override
+  List<Plan> inputs() {
+    return List.of(input);
+  }
+
+  @Override
+  String describe() {
+    List<String> names = columns.subList(groups.length, columns.size());
+    return "hash aggregate "
+        + String.join(", ", names)
+        + (groups.length == 0 ? "" : " by " + String.join(", ", columns.subList(0, groups.length)));
+  }
+
+  @Override
+  Iterator<List<String>> iterator() {
+    // the aggregator works on rows of just the group values, each aggregate's value, then each
+    // partial average's count
+    Iterator<List<String>> rows = input.iterator();
+    Iterator<List<String>> narrowed =
+        new Iterator<>() {
+          @Override
+          public boolean hasNext() {
+            return rows.hasNext();
+          }
+
+          @Override
+          public List<String> next() {
+            List<String> row = rows.next();
+            String[] values = new String[groups.length + (partial ? 2 : 1) * calls.size()];
+            for (int i = 0; i < groups.length; i++) {
+              values[i] = row.get(groups[i]);
+            }
+            for (int i = 0; i < calls.size(); i++) {
+              int at = calls.get(i).input();
+              values[groups.length + i] = at < 0 ? "" : row.get(at);
+              if (partial) {
+                int count = calls.get(i).count();
+                values[groups.length + calls.size() + i] = count < 0 ? "" : row.get(count);
+              }
+            }
+            return Arrays.asList(values);
+          }
+        };
+    Deque<Supplier<Iterator<List<String>>>> passes = new ArrayDeque<>();
+    passes.add(() -> new Groups(0).aggregate(narrowed, passes));
+    return new Iterator<>() {
+      private Iterator<List<String>> current = Collections.emptyIterator();
+
+      @Override
+      public boolean hasNext() {
+        while (!current.hasNext() && !passes.isEmpty()) {
+          current = passes.poll().get();
+        }
+        return current.hasNext();
+      }
+
+      @Override
+      public List<String> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return current.next();
+      }
+    };
+  }
+
+  // the groups of one pass over the rows, in an open addressing table
+  private final class Groups {
+    private final int depth; // how many times these rows have been partitioned
+    private int[] slots = new int[64]; // group number + 1, 0 where empty
+    private int count;
+    private Key[] keys = new Key[32];
+    private String[][] values = new String[32][]; // each group's values as first seen
+    private long bytes;
+
+    // running values, [aggregate][group]
+    private final long[][] counts = new long[calls.size()][32];
+    private final long[][] longSums = new long[calls.size()][];
+    private final double[][] doubleSums = new double[calls.size()][];
+    private final boolean[][] inexact = new boolean[calls.size()][]; // the sum is in doubleSums
+    private final double[][] bestNumbers = new double[calls.size()][];
+    private final String[][] best = new String[calls.size()][]; // MIN or MAX value as written
+
+    Groups(int depth) {
+      this.depth = depth;
+      for (int c = 0; c < calls.size(); c++) {
+        switch (calls.get(c).function()) {
+          case SUM, AVG -> {
+            longSums[c] = new long[32];
+            doubleSums[c] = new double[32];
+            inexact[c] = new boolean[32];
+          }
+          case MIN, MAX -> {
+            bestNumbers[c] = new double[32];
+            best[c] = new String[32];
+          }
+          default -> {}
+        }
+      }
+    }
+
+    // add every row, spilling those of new groups once over budget, then return this pass's groups
+    Iterator<List<String>> aggregate(
+        Iterator<List<String>> rows, Deque<Supplier<Iterator<List<String>>>> passes) {
+      SpillFiles spills = null;
+      String[] parts = new String[groups.length];
+      try {
+        while (rows.hasNext()) {
+          List<String> row = rows.next();
+          for (int i = 0; i < parts.length; i++) {
+            parts[i] = row.get(i);
+          }
+          Key key = new Key(parts.clone(), numeric);
+          int hash = key.hashCode();
+          int group = find(key, hash);
+          if (group < 0) {
+            if (spills != null) {
+              spills.write(partition(hash), row);
+              continue;
+            }
+            group = insert(key, hash, row);
+            if (bytes > budget.memory() && depth < MAX_DEPTH) {
+              spills = new SpillFiles(PARTITIONS, "aggregate", budget.directory());
+            }
+          }
+          add(group, row);
+        }
+      } catch (RuntimeException e) {
+        if (spills != null) {
+          spills.close(); // nothing will read them back
+        }
+        throw e;
+      }
+      if (count == 0 && groups.length == 0 && depth == 0) {
+        insert(new Key(new String[0], numeric), 0, List.of());
+      }
+      if (spills != null) {
+        SpillFiles spilled = spills;
+        for (int p = 0; p < PARTITIONS; p++) {
+          int partition = p;
+          passes.add(() -> new Groups(depth + 1).aggregate(spilled.read(partition), passes));
+        }
+      }
+      return results();
+    }
+
+    private int partition(int hash) {
+      return Math.floorMod(Integer.rotateLeft(hash * 0x9E3779B9, 4 * depth) >>> 28, PARTITIONS);
+    }
+
+    private int slot(int hash) {
+      int mixed = hash * 0x9E3779B9;
+      return (mixed ^ (mixed >>> 16)) & (slots.length - 1);
+    }
+
+    // the group a key is in, or -1
+    private int find(Key key, int hash) {
+      for (int s = slot(hash); slots[s] != 0; s = (s + 1) & (slots.length - 1)) {
+        if (keys[slots[s] - 1].equals(key)) {
+          return slots[s] - 1;
+        }
+      }
+      return -1;
+    }
+
+    private int insert(Key key, int hash, List<String> row) {
+      if (count == keys.length) {
+        grow();
+      }
+      if ((count + 1) * 2 > slots.length) {
+        rehash();
+      }
+      int group = count++;
+      keys[group] = key;
+      values[group] = row.subList(0, groups.length).toArray(new String[0]);
+      int s = slot(hash);
+      while (slots[s] != 0) {
+        s = (s + 1) & (slots.length - 1);
+      }
+      slots[s] = group + 1;
+      bytes += GROUP_OVERHEAD + 24L * calls.size();
+      for (String value : values[group]) {
+        bytes += 40 + 2L * value.length();
+      }
+      return group;
+    }
+
+    private void rehash() {
+      slots = new int[slots.length * 2];
+      for (int group = 0; group < count; group++) {
+        int s = slot(keys[group].hashCode());
+        while (slots[s] != 0) {
+          s = (s + 1) & (slots.length - 1);
+        }
+        slots[s] = group + 1;
+      }
+    }
+
+    private void grow() {
+      int size = keys.length * 2;
+      keys = Arrays.copyOf(keys, size);
+      values = Arrays.copyOf(values, size);
+      for (int c = 0; c < calls.size(); c++) {
+        counts[c] = Arrays.copyOf(counts[c], size);
+        if (longSums[c] != null) {
+          longSums[c] = Arrays.copyOf(longSums[c], size);
+          doubleSums[c] = Arrays.copyOf(doubleSums[c], size);
+          inexact[c] = Arrays.copyOf(inexact[c], size);
+        }
+        if (best[c] != null) {
+          bestNumbers[c] = Arrays.copyOf(bestNumbers[c], size);
+          best[c] = Arrays.copyOf(best[c], size);
+        }
+      }
+    }
+
+    private void add(int group, List<String> row) {
+      for (int c = 0; c < calls.size(); c++) {
+        Call call = calls.get(c);
+        if (call.input() < 0) {
+          counts[c][group]++;
+          continue;
+        }
+        String value = row.get(groups.length + c);
+        if (value.isEmpty()) {
+          continue;
+        }
+        counts[c][group] +=
+            call.count() < 0 ? 1 : Long.parseLong(row.get(groups.length + calls.size() + c));
+        switch (call.function()) {
+          case SUM, AVG -> sum(c, group, value);
+          case MIN, MAX -> {
+            boolean better;
+            double number = 0;
+            if (call.numeric()) {
+              number = number(value);
+              better =
+                  counts[c][group] == 1
+                      || (call.function() == Function.MIN
+                          ? number < bestNumbers[c][group]
+                          : number > bestNumbers[c][group]);
+            } else {
+              better =
+                  counts[c][group] == 1
+                      || (call.function() == Function.MIN
+                          ? value.compareTo(best[c][group]) < 0
+                          : value.compareTo(best[c][group]) > 0);
+            }
+            if (better) {
+              bestNumbers[c][group] = number;
+              best[c][group] = value;
+            }
+          }
+          default -> {}
+        }
+      }
+    }
+
+    private void sum(int c, int group, String value) {
+      doubleSums[c][group] += number(value);
+      if (inexact[c][group]) {
+        return;
+      }
+      if (HeapRowStore.isLong(value)) {
+        try {
+          longSums[c][group] = Math.addExact(longSums[c][group], Long.parseLong(value));
+          return;
+        } catch (ArithmeticException | NumberFormatException e) {
+          // carried on as a double
+        }
+      }
+      inexact[c][group] = true;
+    }
+
+    private static double number(String value) {
+      try {
+        return Double.parseDouble(value);
+      } catch (NumberFormatException e) {
+        throw new RuntimeException("[AGGREGATE] Value " + value + " is not a number");
+      }
+    }
+
+    private Iterator<List<String>> results() {
+      return new Iterator<>() {
+        private int group;
+
+        @Override
+        public boolean hasNext() {
+          return group < count;
+        }
+
+        @Override
+        public List<String> next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          List<String> row = new ArrayList<>(columns.size());
+          Collections.addAll(row, values[group]);
+          for (int c = 0; c < calls.size(); c++) {
+            row.add(result(c, group));
+          }
+          group++;
+          return row;
+        }
+      };
+    }
+
+    private String result(int c, int group) {
+      long n = counts[c][group];
+      return switch (calls.get(c).function()) {
+        case COUNT -> Long.toString(n);
+        case SUM ->
+            n == 0
+                ? ""
+                : inexact[c][group]
+                    ? text(doubleSums[c][group])
+                    : Long.toString(longSums[c][group]);
+        case AVG ->
+            n == 0
+                ? ""
+                : text(
+                    (inexact[c][group] ? doubleSums[c][group] : (double) longSums[c][group]) / n);
+        case MIN, MAX -> n == 0 ? "" : best[c][group];
+      };
+    }
+  }
+
+  // a number worked out by an aggregate, written without a fraction when it is whole
+  private static String text(double value) {
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+}
@@ -0,0 +1,62 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/** Secondary index kept in a hash map, answering equality lookups. */
+final class HashIndex implements Index {
+
+  private final String name;
+  private final List<String> columns;
+  private final boolean unique;
+  private final HashMap<Key, List<Key>> entries = new HashMap<>();
+
+  HashIndex(String name, List<String> columns, boolean unique) {
+    this.name = name;
+    this.columns = List.copyOf(columns);
+    this.unique = unique;
+  }
+
+  @Override
+  public String name() {
+    return name;
+  }
+
+  @Override
+  public List<String> columns() {
+    return columns;
+  }
+
+  @Override
+  public boolean unique() {
+    return unique;
+  }
+
+  @Override
+  public Kind kind() {
+    return Kind.HASH;
+  }
+
+  @Override
+  public void add(Key value, Key pk) {
+    entries.computeIfAbsent(value, v -> new ArrayList<>(1)).add(pk);
+  }
+
+  @Override
+  public void remove(Key value, Key pk) {
+    List<Key> pks = entries.get(value);
+    if (pks != null) {
+      pks.remove(pk);
+      if (pks.isEmpty()) {
+        entries.remove(value);
+      }
+    }
+  }
+
+  @Override
+  public Collection<Key> find(Key value) {
+    return entries.getOrDefault(value, List.of());
+  }
+}
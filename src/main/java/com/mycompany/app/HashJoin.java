@@ -0,0 +1,232 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A join that puts the rows of one input, the build side, in a hash table on their key, then reads
+ * the other input, the probe side, once, looking each row up. The planner builds on whichever input
+ * it guesses is smaller. When a LEFT JOIN builds on its left input, those rows remember whether
+ * they matched and the ones that did not are returned after the probe side runs out.
+ *
+ * <p>If the build side turns out to take more than the memory budget, both inputs are written out
+ * to {@link #PARTITIONS} spill files each by the hash of their key, and the join is done a
+ * partition at a time, so only one partition of the build side is held at once.
+ */
+final class HashJoin extends JoinPlan {
+
+  static final int PARTITIONS = 16;
+
+  private static final int ROW_OVERHEAD = 64; // guessed bytes a held row costs besides its values
+
+  final Plan right;
+  final boolean buildLeft; // if the left input goes into the hash table
+  private final SpillFiles.Budget budget; // what the build side may take before spilling
+
+  HashJoin(
+      Plan left,
+      Plan right,
+      List<String> columns,
+      Keys keys,
+      Condition residual,
+      boolean outer,
+      boolean buildLeft,
+      SpillFiles.Budget budget,
+      double rows,
+      double cost) {
+    super(left, columns, keys, residual, outer, rows, cost);
+    this.right = right;
+    this.buildLeft = buildLeft;
+    this.budget = budget;
+  }
+
+  @Override
+  List<Plan> inputs() {
+    return List.of(left, right);
+  }
+
+  @Override
+  String describe() {
+    return (outer ? "hash left join" : "hash join") + " build " + (buildLeft ? "left" : "right");
+  }
+
+  @Override
+  Iterator<List<String>> iterator() {
+    return new Joiner();
+  }
+
+  // a row of the build side in the hash table
+  private static final class Built {
+    final List<String> row;
+    boolean matched;
+
+    Built(List<String> row) {
+      this.row = row;
+    }
+  }
+
+  private static long size(List<String> row) {
+    long bytes = ROW_OVERHEAD;
+    for (String value : row) {
+      bytes += 40 + 2L * value.length();
+    }
+    return bytes;
+  }
+
+  private static int partition(Key key) {
+    return Math.floorMod(key == null ? 0 : key.hashCode() * 0x9E3779B9, PARTITIONS);
+  }
+
+  // the rows of the join, one hash table at a time
+  private final class Joiner implements Iterator<List<String>> {
+    private final int[] buildKeys = buildLeft ? keys.left() : keys.right();
+    private final int[] probeKeys = buildLeft ? keys.right() : keys.left();
+
+    private Map<Key, List<Built>> table;
+    private Iterator<List<String>> probe;
+    private Iterator<Built> unmatched; // build rows left over once the probe side is read
+    private final ArrayList<List<String>> pending = new ArrayList<>(); // joined rows ready
+    private int taken;
+
+    private SpillFiles buildSpills; // once the build side has been spilled
+    private SpillFiles probeSpills;
+    private int partition;
+
+    Joiner() {
+      Iterator<List<String>> build = (buildLeft ? left : right).iterator();
+      table = new HashMap<>();
+      long bytes = 0;
+      while (build.hasNext()) {
+        List<String> row = build.next();
+        if (add(table, row)) {
+          bytes += size(row);
+          if (bytes > budget.memory()) {
+            spill(build);
+            return;
+          }
+        }
+      }
+      probe = (buildLeft ? right : left).iterator();
+    }
+
+    // put a build row in the hash table, unless it can never be returned
+    private boolean add(Map<Key, List<Built>> into, List<String> row) {
+      Key key = key(row, buildKeys);
+      if (key == null && !(outer && buildLeft)) {
+        return false;
+      }
+      into.computeIfAbsent(key, k -> new ArrayList<>(1)).add(new Built(row));
+      return true;
+    }
+
+    private void spill(Iterator<List<String>> build) {
+      buildSpills = new SpillFiles(PARTITIONS, "join", budget.directory());
+      probeSpills = new SpillFiles(PARTITIONS, "join", budget.directory());
+      try {
+        for (List<Built> rows : table.values()) {
+          for (Built built : rows) {
+            buildSpills.write(partition(key(built.row, buildKeys)), built.row);
+          }
+        }
+        table = null;
+        while (build.hasNext()) {
+          List<String> row = build.next();
+          Key key = key(row, buildKeys);
+          if (key != null || (outer && buildLeft)) {
+            buildSpills.write(partition(key), row);
+          }
+        }
+        Iterator<List<String>> rows = (buildLeft ? right : left).iterator();
+        while (rows.hasNext()) {
+          List<String> row = rows.next();
+          Key key = key(row, probeKeys);
+          if (key != null || (outer && !buildLeft)) {
+            probeSpills.write(partition(key), row);
+          }
+        }
+      } catch (RuntimeException e) {
+        buildSpills.close();
+        probeSpills.close();
+        throw e;
+      }
+      partition = -1;
+      nextPartition();
+    }
+
+    // load the next spilled partition of the build side, false when there are none left
+    private boolean nextPartition() {
+      if (partition >= PARTITIONS - 1) {
+        partition = PARTITIONS;
+        buildSpills.close();
+        probeSpills.close();
+        return false;
+      }
+      partition++;
+      table = new HashMap<>();
+      buildSpills.read(partition).forEachRemaining(row -> add(table, row));
+      probe = probeSpills.read(partition);
+      return true;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (taken == pending.size()) {
+        pending.clear();
+        taken = 0;
+        if (probe != null && probe.hasNext()) {
+          probeRow(probe.next());
+        } else if (unmatched == null && outer && buildLeft && table != null) {
+          List<Built> rows = new ArrayList<>();
+          for (List<Built> chain : table.values()) {
+            rows.addAll(chain);
+          }
+          unmatched = rows.iterator();
+          probe = null;
+        } else if (unmatched != null && unmatched.hasNext()) {
+          Built built = unmatched.next();
+          if (!built.matched) {
+            pending.add(joined(built.row, null));
+          }
+        } else if (buildSpills != null && nextPartition()) {
+          unmatched = null;
+        } else {
+          table = null;
+          probe = null;
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public List<String> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return pending.get(taken++);
+    }
+
+    private void probeRow(List<String> row) {
+      Key key = key(row, probeKeys);
+      List<Built> matches = key == null ? null : table.get(key);
+      boolean matched = false;
+      if (matches != null) {
+        for (Built built : matches) {
+          List<String> joined = buildLeft ? joined(built.row, row) : joined(row, built.row);
+          if (passes(joined)) {
+            pending.add(joined);
+            built.matched = true;
+            matched = true;
+          }
+        }
+      }
+      if (!matched && outer && !buildLeft) {
+        pending.add(joined(row, null));
+      }
+    }
+  }
+}
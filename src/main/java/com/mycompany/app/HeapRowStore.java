@@ -0,0 +1,358 @@
+package com.mycompany.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rows held on the java heap in a typed layout, with a B+ tree from primary key to row number.
+ *
+ * <p>Every row takes one 8 byte slot per column. Number columns keep their value in the slot as a
+ * {@code long} or the bits of a {@code double}, string columns keep the offset and length of their
+ * UTF-8 bytes in a byte arena shared by every row. Bitmaps mark null values, doubles, and values of
+ * number columns kept as text because they are not written as a plain number, so every value reads
+ * back exactly as it was inserted. The primary key copy is not stored, it comes from the row's key.
+ *
+ * <p>Rows are handed out as copies of their slots that decode values when asked. The arena is only
+ * ever appended to or replaced by a new one, never written over, so a copy reads its strings from
+ * the arena it was made from and stays as it was however the row changes later.
+ */
+final class HeapRowStore implements RowStore {
+
+  private static final int MIN_COMPACT =
+      1 << 16; // arena bytes wasted before it is worth compacting
+
+  private final int width; // columns per row
+  private final boolean[] numeric; // which columns are number columns
+  private long[] slots; // row r, column c is at r * width + c
+  private Key[] keys; // key of each row number, null if the row number is free
+  private final BitSet nulls = new BitSet();
+  private final BitSet doubles = new BitSet();
+  private final BitSet texts = new BitSet(); // number column values stored in the arena
+  private byte[] arena = new byte[1024];
+  private int arenaEnd = 0;
+  private int garbage = 0; // arena bytes of values that were replaced or removed
+  private int rowCount = 0; // row numbers handed out
+  private int[] free = new int[16]; // row numbers of removed rows, reused first
+  private int freeCount = 0;
+  private BPlusTree<Key, Integer> directory;
+
+  /**
+   * Create an empty store.
+   *
+   * @param numeric if each column, in column order, is a number column
+   */
+  HeapRowStore(boolean[] numeric) {
+    this.width = numeric.length;
+    this.numeric = numeric.clone();
+    this.slots = new long[Math.max(width, 1) * 16];
+    this.keys = new Key[16];
+    this.directory = new BPlusTree<>();
+  }
+
+  /**
+   * Load rows read back from disk. Tables are written in primary key order, so sorting them is a
+   * single pass and the tree is built bottom up rather than one insert at a time.
+   *
+   * @param numeric if each column, in column order, is a number column
+   * @param rows each row by its primary key, later rows replacing earlier ones with the same key
+   */
+  HeapRowStore(boolean[] numeric, List<Map.Entry<Key, List<String>>> rows) {
+    this(numeric);
+    List<Map.Entry<Key, List<String>>> sorted = BPlusTree.sortUnique(rows);
+    List<Map.Entry<Key, Integer>> numbers = new ArrayList<>(sorted.size());
+    for (Map.Entry<Key, List<String>> entry : sorted) {
+      int row = allocate();
+      write(row, entry.getValue());
+      keys[row] = entry.getKey();
+      numbers.add(Map.entry(entry.getKey(), row));
+    }
+    directory = BPlusTree.bulkLoad(BPlusTree.DEFAULT_ORDER, numbers);
+  }
+
+  @Override
+  public List<String> get(Key key) {
+    Integer row = directory.get(key);
+    return row == null ? null : new Row(row);
+  }
+
+  @Override
+  public List<String> put(Key key, List<String> row) {
+    Integer existing = directory.get(key);
+    if (existing != null) {
+      List<String> previous = new Row(existing);
+      release(existing);
+      write(existing, row);
+      keys[existing] = key;
+      compactIfWasteful();
+      return previous;
+    }
+    int number = allocate();
+    write(number, row);
+    keys[number] = key;
+    directory.put(key, number);
+    return null;
+  }
+
+  @Override
+  public void reserve(int rows) {
+    int needed = rowCount + rows - freeCount;
+    if (needed > keys.length) {
+      keys = Arrays.copyOf(keys, needed);
+      slots = Arrays.copyOf(slots, needed * Math.max(width, 1));
+    }
+  }
+
+  @Override
+  public void remove(Key key) {
+    Integer row = directory.remove(key);
+    if (row == null) {
+      return;
+    }
+    release(row);
+    keys[row] = null;
+    if (freeCount == free.length) {
+      free = Arrays.copyOf(free, free.length * 2);
+    }
+    free[freeCount++] = row;
+    compactIfWasteful();
+  }
+
+  @Override
+  public Collection<Key> keys() {
+    return directory.keys();
+  }
+
+  @Override
+  public int size() {
+    return directory.size();
+  }
+
+  @Override
+  public Iterable<List<String>> range(
+      Key low, boolean lowInclusive, Key high, boolean highInclusive) {
+    Iterable<Map.Entry<Key, Integer>> entries =
+        directory.range(low, lowInclusive, high, highInclusive);
+    return () -> rows(entries.iterator());
+  }
+
+  @Override
+  public Iterator<List<String>> iterator() {
+    return rows(directory.iterator());
+  }
+
+  private Iterator<List<String>> rows(Iterator<Map.Entry<Key, Integer>> entries) {
+    return new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      }
+
+      @Override
+      public List<String> next() {
+        return new Row(entries.next().getValue());
+      }
+    };
+  }
+
+  private int allocate() {
+    if (freeCount > 0) {
+      return free[--freeCount];
+    }
+    int row = rowCount++;
+    if (row == keys.length) {
+      keys = Arrays.copyOf(keys, keys.length * 2);
+      slots = Arrays.copyOf(slots, keys.length * Math.max(width, 1));
+    }
+    return row;
+  }
+
+  // store the attribute values of a row, slot 0 of the internal layout is skipped
+  private void write(int row, List<String> values) {
+    if (values.size() != width + 1) {
+      throw new RuntimeException(
+          "Row has " + (values.size() - 1) + " values but the table has " + width + " columns");
+    }
+    for (int c = 0; c < width; c++) {
+      int pos = row * width + c;
+      String value = values.get(c + 1);
+      nulls.clear(pos);
+      doubles.clear(pos);
+      texts.clear(pos);
+      if (value == null) {
+        nulls.set(pos);
+      } else if (numeric[c] && isLong(value)) {
+        slots[pos] = Long.parseLong(value);
+      } else if (numeric[c] && isDouble(value)) {
+        doubles.set(pos);
+        slots[pos] = Double.doubleToRawLongBits(Double.parseDouble(value));
+      } else {
+        if (numeric[c]) {
+          texts.set(pos);
+        }
+        slots[pos] = append(value.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  // a whole number that reads back the same, so 7 but not 007 or +7
+  static boolean isLong(String value) {
+    int length = value.length();
+    if (length == 0 || length > 20) {
+      return false;
+    }
+    int start = value.charAt(0) == '-' ? 1 : 0;
+    if (start == length || (value.charAt(start) == '0' && length > start + 1)) {
+      return false;
+    }
+    for (int i = start; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    try {
+      return Long.toString(Long.parseLong(value)).equals(value); // rules out -0
+    } catch (NumberFormatException e) {
+      return false; // out of range
+    }
+  }
+
+  // a finite double that java writes back the same way, so 2.5 but not 2.50 or 1e3
+  static boolean isDouble(String value) {
+    if (value.isEmpty() || !Character.isDigit(value.charAt(value.length() - 1))) {
+      return false;
+    }
+    try {
+      double parsed = Double.parseDouble(value);
+      return Double.isFinite(parsed) && Double.toString(parsed).equals(value);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private long append(byte[] bytes) {
+    if (arenaEnd + bytes.length > arena.length) {
+      long wanted = Math.max((long) arena.length * 2, (long) arenaEnd + bytes.length);
+      if (wanted > Integer.MAX_VALUE - 8) {
+        throw new RuntimeException("[TABLE] Table strings do not fit in memory");
+      }
+      arena = Arrays.copyOf(arena, (int) wanted);
+    }
+    System.arraycopy(bytes, 0, arena, arenaEnd, bytes.length);
+    long slot = ((long) arenaEnd << 32) | bytes.length;
+    arenaEnd += bytes.length;
+    return slot;
+  }
+
+  private boolean inArena(int pos, int column) {
+    return !nulls.get(pos) && (!numeric[column] || texts.get(pos));
+  }
+
+  // the row's strings are no longer needed
+  private void release(int row) {
+    for (int c = 0; c < width; c++) {
+      int pos = row * width + c;
+      if (inArena(pos, c)) {
+        garbage += (int) slots[pos];
+      }
+    }
+  }
+
+  // copy the live strings into a fresh arena once most of it is unused
+  private void compactIfWasteful() {
+    if (garbage < MIN_COMPACT || garbage < arenaEnd / 2) {
+      return;
+    }
+    byte[] old = arena;
+    arena = new byte[Math.max(arenaEnd - garbage, 1024)];
+    arenaEnd = 0;
+    for (int row = 0; row < rowCount; row++) {
+      if (keys[row] == null) {
+        continue;
+      }
+      for (int c = 0; c < width; c++) {
+        int pos = row * width + c;
+        if (inArena(pos, c)) {
+          int offset = (int) (slots[pos] >>> 32);
+          int length = (int) slots[pos];
+          slots[pos] = append(Arrays.copyOfRange(old, offset, offset + length));
+        }
+      }
+    }
+    garbage = 0;
+  }
+
+  /**
+   * A copy of a row of the store in the table's internal layout, decoding each value when it is
+   * read.
+   */
+  final class Row extends AbstractList<String> implements TypedRow {
+    private static final byte NULL = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte TEXT = 3; // the slot is the offset and length in the arena
+
+    private final Key key;
+    private final long[] values;
+    private final byte[] kinds;
+    private final byte[] bytes; // the arena when the copy was made
+
+    private Row(int row) {
+      this.key = keys[row];
+      this.values = Arrays.copyOfRange(slots, row * width, row * width + width);
+      this.kinds = new byte[width];
+      this.bytes = arena;
+      for (int c = 0; c < width; c++) {
+        int pos = row * width + c;
+        kinds[c] =
+            nulls.get(pos) ? NULL : inArena(pos, c) ? TEXT : doubles.get(pos) ? DOUBLE : LONG;
+      }
+    }
+
+    @Override
+    public String get(int index) {
+      if (index == 0) {
+        return key.toString();
+      }
+      long slot = values[index - 1];
+      return switch (kinds[index - 1]) {
+        case NULL -> null;
+        case TEXT -> new String(bytes, (int) (slot >>> 32), (int) slot, StandardCharsets.UTF_8);
+        case DOUBLE -> Double.toString(Double.longBitsToDouble(slot));
+        default -> Long.toString(slot);
+      };
+    }
+
+    @Override
+    public int size() {
+      return width + 1;
+    }
+
+    @Override
+    public boolean isLong(int index) {
+      return index > 0 && kinds[index - 1] == LONG;
+    }
+
+    @Override
+    public boolean isDouble(int index) {
+      return index > 0 && kinds[index - 1] == DOUBLE;
+    }
+
+    @Override
+    public long longAt(int index) {
+      return values[index - 1];
+    }
+
+    @Override
+    public double doubleAt(int index) {
+      return Double.longBitsToDouble(values[index - 1]);
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package com.mycompany.app;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A secondary index over some of a table's columns, from their values to the primary keys of the
+ * rows holding them. The table keeps its indexes up to date as rows are inserted.
+ */
+interface Index {
+
+  /** How an index organises its values. */
+  enum Kind {
+    /** Hash map, for equality lookups only. */
+    HASH,
+    /** B+ tree, for equality lookups and range scans. */
+    TREE
+  }
+
+  String name();
+
+  /**
+   * The indexed columns, in the order their values make up the index key.
+   *
+   * @return column names
+   */
+  List<String> columns();
+
+  boolean unique();
+
+  Kind kind();
+
+  /**
+   * Record that a row holds a value.
+   *
+   * @param value the row's values of the indexed columns
+   * @param pk the row's primary key
+   */
+  void add(Key value, Key pk);
+
+  /**
+   * Forget that a row holds a value.
+   *
+   * @param value the row's values of the indexed columns
+   * @param pk the row's primary key
+   */
+  void remove(Key value, Key pk);
+
+  /**
+   * Primary keys of the rows holding a value.
+   *
+   * @param value values of the indexed columns
+   * @return the primary keys, empty if no row holds the value
+   */
+  Collection<Key> find(Key value);
+}
@@ -0,0 +1,96 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A join that reads its left input once and, for each row, fetches the right table's rows with the
+ * same first key value through the table's primary key or an index. Joining a few rows against a
+ * large table costs a lookup per row rather than reading the whole table. Rows come out in the
+ * order of the left input.
+ */
+final class IndexJoin extends JoinPlan {
+
+  final Table table;
+  private final Table.Lookup lookup;
+  private final Condition filter; // the part of the query only about the right table, or null
+
+  IndexJoin(
+      Plan left,
+      Table table,
+      Table.Lookup lookup,
+      Condition filter,
+      List<String> columns,
+      Keys keys,
+      Condition residual,
+      boolean outer,
+      double rows,
+      double cost) {
+    super(left, columns, keys, residual, outer, rows, cost);
+    this.table = table;
+    this.lookup = lookup;
+    this.filter = filter;
+  }
+
+  @Override
+  List<Plan> inputs() {
+    return List.of(left);
+  }
+
+  @Override
+  String describe() {
+    return (outer ? "index nested loop left join " : "index nested loop join ")
+        + lookup.description()
+        + " on "
+        + table.getName();
+  }
+
+  @Override
+  Iterator<List<String>> iterator() {
+    Iterator<List<String>> lefts = left.iterator();
+    return new Iterator<>() {
+      private final List<List<String>> pending = new ArrayList<>(); // joined rows ready
+      private int taken;
+
+      @Override
+      public boolean hasNext() {
+        while (taken == pending.size()) {
+          pending.clear();
+          taken = 0;
+          if (!lefts.hasNext()) {
+            return false;
+          }
+          List<String> row = lefts.next();
+          Key key = key(row, keys.left());
+          boolean matched = false;
+          if (key != null) {
+            for (List<String> candidate : lookup.rows().apply(row.get(keys.left()[0]))) {
+              if (candidate == null || (filter != null && !filter.test(candidate))) {
+                continue;
+              }
+              List<String> joined = joined(row, candidate);
+              if (key.equals(key(candidate, keys.right())) && passes(joined)) {
+                pending.add(joined);
+                matched = true;
+              }
+            }
+          }
+          if (!matched && outer) {
+            pending.add(joined(row, null));
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public List<String> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return pending.get(taken++);
+      }
+    };
+  }
+}
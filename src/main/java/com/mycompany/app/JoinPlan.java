@@ -0,0 +1,103 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A step that joins the rows of its left input with rows of a right table whose join keys are
+ * equal, returning each pair as the left row followed by the right row. A LEFT JOIN also returns
+ * each left row that matched nothing, with empty values for the right row.
+ *
+ * <p>Keys are compared the way primary keys are, and a row with an empty (null) key value matches
+ * nothing. The ways of finding the matching rows are {@link HashJoin}, {@link MergeJoin} and {@link
+ * IndexJoin}.
+ */
+abstract class JoinPlan extends Plan {
+
+  /**
+   * Where the join key values sit in the rows of each side.
+   *
+   * @param left index of each key value in a left row
+   * @param right index of each key value in a right row
+   * @param numeric if each key value compares as a number
+   */
+  record Keys(int[] left, int[] right, boolean[] numeric) {}
+
+  final Plan left;
+  final Keys keys;
+  final boolean outer; // a LEFT JOIN
+  private final List<String> columns;
+  private final int leftWidth;
+  private final int rightWidth;
+  private final Condition residual; // the rest of ON, tested on a joined row, or null
+
+  JoinPlan(
+      Plan left,
+      List<String> columns,
+      Keys keys,
+      Condition residual,
+      boolean outer,
+      double rows,
+      double cost) {
+    super(rows, cost);
+    this.left = left;
+    this.columns = List.copyOf(columns);
+    this.keys = keys;
+    this.residual = residual;
+    this.outer = outer;
+    this.leftWidth = left.columns().size();
+    this.rightWidth = columns.size() - leftWidth;
+  }
+
+  @Override
+  List<String> columns() {
+    return columns;
+  }
+
+  /**
+   * The join key of a row.
+   *
+   * @param row a row of one side
+   * @param at where the key values sit in the row, {@code keys.left()} or {@code keys.right()}
+   * @return the key, or null if any key value is empty
+   */
+  Key key(List<String> row, int[] at) {
+    String[] parts = new String[at.length];
+    for (int i = 0; i < at.length; i++) {
+      parts[i] = row.get(at[i]);
+      if (parts[i] == null || parts[i].isEmpty()) {
+        return null;
+      }
+    }
+    return new Key(parts, keys.numeric());
+  }
+
+  /**
+   * A left row followed by a right row.
+   *
+   * @param leftRow the left row
+   * @param rightRow the right row, or null for empty values
+   * @return the joined row
+   */
+  List<String> joined(List<String> leftRow, List<String> rightRow) {
+    List<String> joined = new ArrayList<>(leftWidth + rightWidth);
+    joined.addAll(leftRow);
+    if (rightRow == null) {
+      joined.addAll(Collections.nCopies(rightWidth, ""));
+    } else {
+      joined.addAll(rightRow);
+    }
+    return joined;
+  }
+
+  /**
+   * Check if a pair with equal keys passes the rest of the ON clause.
+   *
+   * @param joined the pair as one row
+   * @return if it is returned
+   */
+  boolean passes(List<String> joined) {
+    return residual == null || residual.test(joined);
+  }
+}
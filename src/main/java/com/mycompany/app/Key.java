@@ -0,0 +1,135 @@
+package com.mycompany.app;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The primary key of a row, one value per key column.
+ *
+ * <p>Keys are compared by the type of their columns, so values of a number column sort numerically
+ * rather than as text. A value in a number column that is not a number sorts after every number.
+ * Composite keys compare column by column.
+ */
+final class Key implements Comparable<Key> {
+
+  private final String[] parts;
+  private final Object[] values; // BigDecimal for numbers, otherwise the text
+
+  /**
+   * Build a key from the values of the key columns.
+   *
+   * @param parts the value of each key column
+   * @param numeric if each key column is a number column
+   */
+  Key(String[] parts, boolean[] numeric) {
+    this.parts = parts;
+    this.values = new Object[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      values[i] = numeric[i] ? number(parts[i]) : parts[i];
+    }
+  }
+
+  static Object number(String text) {
+    if (text == null) {
+      return null;
+    }
+    try {
+      return new BigDecimal(text);
+    } catch (NumberFormatException e) {
+      return text;
+    }
+  }
+
+  @Override
+  public int compareTo(Key other) {
+    int length = Math.min(values.length, other.values.length);
+    for (int i = 0; i < length; i++) {
+      int compared = compare(values[i], other.values[i]);
+      if (compared != 0) {
+        return compared;
+      }
+    }
+    return Integer.compare(values.length, other.values.length);
+  }
+
+  // nulls first, then numbers, then text
+  static int compare(Object a, Object b) {
+    if (a == null || b == null) {
+      return a == null ? (b == null ? 0 : -1) : 1;
+    }
+    if (a instanceof BigDecimal x) {
+      return b instanceof BigDecimal y ? x.compareTo(y) : -1;
+    }
+    return b instanceof BigDecimal ? 1 : ((String) a).compareTo((String) b);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Key key && compareTo(key) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 1;
+    for (Object value : values) {
+      // 1.0 and 1 are the same key, so hash the number without its scale
+      Object part = value instanceof BigDecimal number ? number.stripTrailingZeros() : value;
+      hash = 31 * hash + (part == null ? 0 : part.hashCode());
+    }
+    return hash;
+  }
+
+  /**
+   * The key as it is written in the primary key copy at the start of each row, the key column
+   * values separated by commas. In a composite key a comma or backslash inside a value is escaped
+   * with a backslash, so {@link #split} gives back the values.
+   *
+   * @return the key text
+   */
+  @Override
+  public String toString() {
+    if (parts.length == 1) {
+      return parts[0];
+    }
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < parts.length; i++) {
+      if (i > 0) {
+        text.append(',');
+      }
+      String part = String.valueOf(parts[i]);
+      for (int c = 0; c < part.length(); c++) {
+        char ch = part.charAt(c);
+        if (ch == ',' || ch == '\\') {
+          text.append('\\');
+        }
+        text.append(ch);
+      }
+    }
+    return text.toString();
+  }
+
+  /**
+   * Split the text of a composite key, as written by {@link #toString}, back into its values.
+   *
+   * @param text the key text
+   * @return the value of each key column
+   */
+  static String[] split(String text) {
+    List<String> parts = new ArrayList<>();
+    StringBuilder part = new StringBuilder();
+    for (int c = 0; c < text.length(); c++) {
+      char ch = text.charAt(c);
+      if (ch == '\\' && c + 1 < text.length()) {
+        part.append(text.charAt(++c));
+      } else if (ch == ',') {
+        parts.add(part.toString());
+        part.setLength(0);
+      } else {
+        part.append(ch);
+      }
+    }
+    parts.add(part.toString());
+    return parts.toArray(new String[0]);
+  }
+}
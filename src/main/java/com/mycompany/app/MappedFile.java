@@ -0,0 +1,57 @@
+package com.mycompany.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only memory map of a database file. The file is mapped in regions because a single {@link
+ * MappedByteBuffer} cannot cover more than 2GB.
+ */
+final class MappedFile {
+
+  // a whole number of pages so no page straddles two regions
+  private static final long REGION = (1L << 30) / PageFile.PAGE_SIZE * PageFile.PAGE_SIZE;
+
+  private final MappedByteBuffer[] regions;
+  private final int pageCount;
+
+  private MappedFile(MappedByteBuffer[] regions, int pageCount) {
+    this.regions = regions;
+    this.pageCount = pageCount;
+  }
+
+  /**
+   * Map the pages of an open file. The mapping stays valid after the channel is closed.
+   *
+   * @param channel the database file
+   * @param pageCount number of pages in use
+   * @return the mapped file
+   */
+  static MappedFile map(FileChannel channel, int pageCount) throws IOException {
+    long size = Math.min(channel.size(), (long) pageCount * PageFile.PAGE_SIZE);
+    int count = (int) ((size + REGION - 1) / REGION);
+    MappedByteBuffer[] regions = new MappedByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      long start = i * REGION;
+      regions[i] =
+          channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION, size - start));
+    }
+    return new MappedFile(regions, (int) (size / PageFile.PAGE_SIZE));
+  }
+
+  /**
+   * View of a single page, no bytes are copied.
+   *
+   * @param pageNo the page to view
+   * @return buffer of the page positioned at 0
+   */
+  ByteBuffer page(int pageNo) {
+    if (pageNo <= 0 || pageNo >= pageCount) {
+      throw new RuntimeException("[DISK OPERATION] Page " + pageNo + " is out of range");
+    }
+    long position = (long) pageNo * PageFile.PAGE_SIZE;
+    return regions[(int) (position / REGION)].slice((int) (position % REGION), PageFile.PAGE_SIZE);
+  }
+}
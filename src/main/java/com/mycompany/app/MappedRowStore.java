@@ -0,0 +1,165 @@
+package com.mycompany.app;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Rows read straight out of a memory mapped data page chain. Nothing is copied onto the heap until
+ * a row is asked for, and the operating system's page cache holds the hot pages.
+ */
+final class MappedRowStore implements RowStore {
+
+  private final MappedFile file;
+  private final PageChain chain;
+  private final Function<List<String>, Key> keyOf;
+
+  // primary key -> {page number} {offset in page}, built on the first point lookup by whichever of
+  // the readers sharing the table gets there first
+  private volatile BPlusTree<Key, Long> directory;
+
+  /**
+   * Serve a table's rows from a mapped file.
+   *
+   * @param file the mapped database file
+   * @param chain the table's saved page chain
+   * @param keyOf how the table works out the primary key of a row's attributes
+   */
+  MappedRowStore(MappedFile file, PageChain chain, Function<List<String>, Key> keyOf) {
+    this.file = file;
+    this.chain = chain;
+    this.keyOf = keyOf;
+  }
+
+  @Override
+  public List<String> get(Key key) {
+    Long location = directory().get(key);
+    return location == null ? null : read(location);
+  }
+
+  private List<String> read(long location) {
+    return withKey(DataPage.row(file.page((int) (location >>> 32)), (int) location));
+  }
+
+  // pages hold only the attributes, put the primary key copy back in front
+  private List<String> withKey(List<String> stored) {
+    List<String> row = new ArrayList<>(stored.size() + 1);
+    row.add(keyOf.apply(stored).toString());
+    row.addAll(stored);
+    return row;
+  }
+
+  @Override
+  public List<String> put(Key key, List<String> row) {
+    throw new RuntimeException("[DISK OPERATION] Memory mapped tables are read only");
+  }
+
+  @Override
+  public void remove(Key key) {
+    throw new RuntimeException("[DISK OPERATION] Memory mapped tables are read only");
+  }
+
+  @Override
+  public Collection<Key> keys() {
+    return directory().keys();
+  }
+
+  @Override
+  public int size() {
+    BPlusTree<Key, Long> built = directory;
+    if (built != null) {
+      return built.size();
+    }
+    // only the page headers need to be touched to count the rows
+    int size = 0;
+    for (int pageNo = chain.first; pageNo != PageFile.NO_PAGE; ) {
+      ByteBuffer page = file.page(pageNo);
+      size += chain.rowsOn(pageNo, page);
+      pageNo = chain.next(pageNo, page);
+    }
+    return size;
+  }
+
+  private BPlusTree<Key, Long> directory() {
+    BPlusTree<Key, Long> built = directory;
+    if (built != null) {
+      return built;
+    }
+    synchronized (this) {
+      if (directory != null) {
+        return directory;
+      }
+      List<Map.Entry<Key, Long>> locations = new ArrayList<>();
+      for (int pageNo = chain.first; pageNo != PageFile.NO_PAGE; ) {
+        ByteBuffer page = file.page(pageNo);
+        for (int offset : DataPage.offsets(page, chain.rowsOn(pageNo, page))) {
+          long location = ((long) pageNo << 32) | offset;
+          locations.add(Map.entry(keyOf.apply(DataPage.row(page, offset)), location));
+        }
+        pageNo = chain.next(pageNo, page);
+      }
+      // later rows replace earlier ones, the same as inserting them in order
+      directory = BPlusTree.load(BPlusTree.DEFAULT_ORDER, locations);
+      return directory;
+    }
+  }
+
+  @Override
+  public Iterable<List<String>> range(
+      Key low, boolean lowInclusive, Key high, boolean highInclusive) {
+    Iterable<Map.Entry<Key, Long>> locations =
+        directory().range(low, lowInclusive, high, highInclusive);
+    return () -> {
+      Iterator<Map.Entry<Key, Long>> entries = locations.iterator();
+      return new Iterator<>() {
+        @Override
+        public boolean hasNext() {
+          return entries.hasNext();
+        }
+
+        @Override
+        public List<String> next() {
+          return read(entries.next().getValue());
+        }
+      };
+    };
+  }
+
+  @Override
+  public Iterator<List<String>> iterator() {
+    return new Iterator<>() {
+      private int pageNo = chain.first;
+      private ByteBuffer page = pageNo == PageFile.NO_PAGE ? null : file.page(pageNo);
+      private int[] offsets =
+          page == null ? new int[0] : DataPage.offsets(page, chain.rowsOn(pageNo, page));
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        while (index >= offsets.length) {
+          if (page == null || chain.next(pageNo, page) == PageFile.NO_PAGE) {
+            return false;
+          }
+          pageNo = chain.next(pageNo, page);
+          page = file.page(pageNo);
+          offsets = DataPage.offsets(page, chain.rowsOn(pageNo, page));
+          index = 0;
+        }
+        return true;
+      }
+
+      @Override
+      public List<String> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return withKey(DataPage.row(page, offsets[index++]));
+      }
+    };
+  }
+}
@@ -0,0 +1,126 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A join of two inputs that both come sorted on the first join key, such as rows read in primary
+ * key order or through a tree index. Both inputs are read once side by side. The right rows sharing
+ * a key are held while the left rows with that key are paired with them, so nothing else is kept in
+ * memory and no hash table is built. Rows come out in the order of the left input.
+ */
+final class MergeJoin extends JoinPlan {
+
+  final Plan right;
+
+  MergeJoin(
+      Plan left,
+      Plan right,
+      List<String> columns,
+      Keys keys,
+      Condition residual,
+      boolean outer,
+      double rows,
+      double cost) {
+    super(left, columns, keys, residual, outer, rows, cost);
+    this.right = right;
+  }
+
+  @Override
+  List<Plan> inputs() {
+    return List.of(left, right);
+  }
+
+  @Override
+  String describe() {
+    return outer ? "merge left join" : "merge join";
+  }
+
+  // the first key value of a row, which both inputs are sorted on, or null if it is empty
+  private Key first(List<String> row, int[] at) {
+    String value = row.get(at[0]);
+    if (value == null || value.isEmpty()) {
+      return null;
+    }
+    return new Key(new String[] {value}, new boolean[] {keys.numeric()[0]});
+  }
+
+  @Override
+  Iterator<List<String>> iterator() {
+    Iterator<List<String>> lefts = left.iterator();
+    Iterator<List<String>> rights = right.iterator();
+    return new Iterator<>() {
+      private List<String> nextRight = advance(); // first right row past the current run
+      private Key runKey; // the key of the right rows held
+      private final List<List<String>> run = new ArrayList<>();
+      private final List<List<String>> pending = new ArrayList<>(); // joined rows ready
+      private int taken;
+
+      // the next right row that can match anything
+      private List<String> advance() {
+        while (rights.hasNext()) {
+          List<String> row = rights.next();
+          if (first(row, keys.right()) != null) {
+            return row;
+          }
+        }
+        return null;
+      }
+
+      // hold the right rows whose key is the given one, passing over smaller keys
+      private void seek(Key key) {
+        if (key.equals(runKey)) {
+          return;
+        }
+        run.clear();
+        runKey = key;
+        while (nextRight != null && first(nextRight, keys.right()).compareTo(key) < 0) {
+          nextRight = advance();
+        }
+        while (nextRight != null && first(nextRight, keys.right()).equals(key)) {
+          run.add(nextRight);
+          nextRight = advance();
+        }
+      }
+
+      @Override
+      public boolean hasNext() {
+        while (taken == pending.size()) {
+          pending.clear();
+          taken = 0;
+          if (!lefts.hasNext()) {
+            return false;
+          }
+          List<String> row = lefts.next();
+          Key key = first(row, keys.left());
+          boolean matched = false;
+          if (key != null) {
+            seek(key);
+            Key whole = key(row, keys.left());
+            for (List<String> candidate : run) {
+              List<String> joined = joined(row, candidate);
+              if (whole != null && whole.equals(key(candidate, keys.right())) && passes(joined)) {
+                pending.add(joined);
+                matched = true;
+              }
+            }
+          }
+          if (!matched && outer) {
+            pending.add(joined(row, null));
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public List<String> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return pending.get(taken++);
+      }
+    };
+  }
+}
@@ -0,0 +1,67 @@
+package com.mycompany.app;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/** Where a table's rows live in the page file, and which rows have not been written yet. */
+final class PageChain {
+
+  int first = PageFile.NO_PAGE;
+  int last = PageFile.NO_PAGE;
+  int lastRows = 0; // rows on the last page when it was saved, anything after is uncommitted
+
+  // primary keys of rows inserted since the last save, appended to the end of the chain in the
+  // order they were inserted, a set so a rolled back insert is taken out without a search
+  final Set<Key> pending = new LinkedHashSet<>();
+
+  // an existing row was replaced so the whole chain has to be written again
+  boolean rewrite = false;
+
+  /**
+   * Check if anything in the table has changed since it was last saved.
+   *
+   * @return if there are pages to write
+   */
+  boolean isDirty() {
+    return first == PageFile.NO_PAGE || rewrite || !pending.isEmpty();
+  }
+
+  /** Mark the chain as matching what is on disk. */
+  void clean() {
+    pending.clear();
+    rewrite = false;
+  }
+
+  /** Forget the location on disk so the next save writes the table from scratch. */
+  void detach() {
+    first = PageFile.NO_PAGE;
+    last = PageFile.NO_PAGE;
+    lastRows = 0;
+    clean();
+  }
+
+  /**
+   * Number of saved rows on a page of the chain. Pages can be written ahead of a save, so rows past
+   * the saved count on the last page are ignored.
+   *
+   * @param pageNo page number in the chain
+   * @param page the page contents
+   * @return how many rows to read from the start of the page
+   */
+  int rowsOn(int pageNo, ByteBuffer page) {
+    int count = DataPage.rowCount(page);
+    return pageNo == last ? Math.min(count, lastRows) : count;
+  }
+
+  /**
+   * The page after this one in the chain, stopping at the saved last page.
+   *
+   * @param pageNo page number in the chain
+   * @param page the page contents
+   * @return next page number or {@link PageFile#NO_PAGE}
+   */
+  int next(int pageNo, ByteBuffer page) {
+    return pageNo == last ? PageFile.NO_PAGE : DataPage.next(page);
+  }
+}
@@ -0,0 +1,343 @@
+package com.mycompany.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed size page access to a database file.
+ *
+ * <p>Page 0 is the header page, every other page is either part of the catalog chain, part of a
+ * table's data chain, part of the chain listing the free pages, or free. Chains are linked through
+ * the first four bytes of each page.
+ *
+ * <p>What the header points to is the file's contents, and pages it refers to are never written
+ * over before {@link #force} swaps in a new header. Pages freed in the meantime are only reused
+ * after that, so a crash part way through a save leaves the file as it was at the last one.
+ */
+final class PageFile implements Closeable {
+
+  static final int PAGE_SIZE = 4096;
+  static final int NO_PAGE = -1;
+
+  private static final byte[] MAGIC = "DBENGINE".getBytes(StandardCharsets.US_ASCII);
+  // 2 added index definitions, 3 table layouts, 4 the free pages listed in a chain of their own
+  private static final int VERSION = 4;
+
+  // header page layout
+  private static final int PAGE_COUNT_OFFSET = 16;
+  private static final int CATALOG_OFFSET = 20;
+  private static final int FREE_LIST_OFFSET = 24;
+  private static final int NAME_OFFSET = 28;
+
+  // chain page layout {next page} {payload length} {payload}
+  private static final int CHAIN_HEADER = 6;
+
+  private final FileChannel channel;
+  private final String name;
+  private int pageCount;
+  private int catalogPage;
+  private int freeList; // first page of the chain listing the free pages
+  private final List<Integer> free = new ArrayList<>(); // free on disk, may be reused at once
+  private final List<Integer> released = new ArrayList<>(); // in use on disk until the next force
+
+  private PageFile(FileChannel channel, String name) {
+    this.channel = channel;
+    this.name = name;
+  }
+
+  /**
+   * Create a new, empty page file, replacing anything at the path.
+   *
+   * @param path location of the file
+   * @param name name of the database stored in the header
+   * @return the opened file
+   */
+  static PageFile create(Path path, String name) throws IOException {
+    FileChannel channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    PageFile file = new PageFile(channel, name);
+    file.pageCount = 1;
+    file.catalogPage = NO_PAGE;
+    file.freeList = NO_PAGE;
+    file.writeHeader();
+    return file;
+  }
+
+  /**
+   * Open an existing page file, checking that it is a database file.
+   *
+   * @param path location of the file
+   * @param writable open for writing as well as reading
+   * @return the opened file
+   */
+  static PageFile open(Path path, boolean writable) throws IOException {
+    FileChannel channel =
+        writable
+            ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+            : FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+      channel.read(header, 0);
+      header.flip();
+      if (!isHeader(header)) {
+        throw new IOException("Not a database file: " + path);
+      }
+      short nameLength = header.getShort(NAME_OFFSET);
+      byte[] nameBytes = new byte[nameLength];
+      header.get(NAME_OFFSET + 2, nameBytes);
+      PageFile file = new PageFile(channel, new String(nameBytes, StandardCharsets.UTF_8));
+      file.pageCount = header.getInt(PAGE_COUNT_OFFSET);
+      file.catalogPage = header.getInt(CATALOG_OFFSET);
+      file.freeList = header.getInt(FREE_LIST_OFFSET);
+      if (file.freeList != NO_PAGE) {
+        ByteBuffer pages = ByteBuffer.wrap(file.readChain(file.freeList));
+        while (pages.remaining() >= 4) {
+          file.free.add(pages.getInt());
+        }
+        file.released.addAll(file.chainPages(file.freeList));
+      }
+      return file;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Check if a buffer holding the first page of a file is a valid header page.
+   *
+   * @param header the first page of the file
+   * @return if the magic number and page size match
+   */
+  static boolean isHeader(ByteBuffer header) {
+    if (header.limit() < NAME_OFFSET + 2) {
+      return false;
+    }
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (header.get(i) != MAGIC[i]) {
+        return false;
+      }
+    }
+    return header.getInt(8) == VERSION && header.getInt(12) == PAGE_SIZE;
+  }
+
+  String name() {
+    return name;
+  }
+
+  int pageCount() {
+    return pageCount;
+  }
+
+  int catalogPage() {
+    return catalogPage;
+  }
+
+  void setCatalogPage(int page) {
+    this.catalogPage = page;
+  }
+
+  FileChannel channel() {
+    return channel;
+  }
+
+  /**
+   * Read a page into a fresh buffer.
+   *
+   * @param pageNo the page to read
+   * @return buffer positioned at 0 with the page contents
+   */
+  ByteBuffer read(int pageNo) throws IOException {
+    ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+    read(pageNo, page);
+    return page;
+  }
+
+  /**
+   * Read a page into the given buffer.
+   *
+   * @param pageNo the page to read
+   * @param page buffer of at least {@link #PAGE_SIZE} bytes
+   */
+  void read(int pageNo, ByteBuffer page) throws IOException {
+    if (pageNo <= 0 || pageNo >= pageCount) {
+      throw new IOException("Page " + pageNo + " is out of range");
+    }
+    page.clear();
+    long position = (long) pageNo * PAGE_SIZE;
+    while (page.hasRemaining()) {
+      if (channel.read(page, position + page.position()) < 0) {
+        break; // a page that was allocated but never written reads as zeroes
+      }
+    }
+    page.clear();
+  }
+
+  /**
+   * Write a full page to the file.
+   *
+   * @param pageNo the page to write
+   * @param page buffer holding the page contents
+   */
+  void write(int pageNo, ByteBuffer page) throws IOException {
+    ByteBuffer src = page.duplicate();
+    src.clear();
+    long position = (long) pageNo * PAGE_SIZE;
+    while (src.hasRemaining()) {
+      channel.write(src, position + src.position());
+    }
+  }
+
+  /**
+   * Allocate a page, reusing a free page if one exists.
+   *
+   * @return the page number
+   */
+  int allocate() {
+    if (!free.isEmpty()) {
+      return free.remove(free.size() - 1);
+    }
+    return pageCount++;
+  }
+
+  /**
+   * Give up a page. It is still in use on disk, so it is only reused after the next {@link #force}.
+   *
+   * @param pageNo the page no longer in use
+   */
+  void free(int pageNo) {
+    released.add(pageNo);
+  }
+
+  /**
+   * Give up every page of a chain, see {@link #free}.
+   *
+   * @param first first page of the chain
+   */
+  void freeChain(int first) throws IOException {
+    released.addAll(chainPages(first));
+  }
+
+  // every page of a chain, in order
+  private List<Integer> chainPages(int first) throws IOException {
+    List<Integer> pages = new ArrayList<>();
+    for (int page = first; page != NO_PAGE; page = read(page).getInt(0)) {
+      pages.add(page);
+    }
+    return pages;
+  }
+
+  /**
+   * Write a byte stream across a freshly allocated chain of pages.
+   *
+   * @param bytes the payload
+   * @return the first page of the chain
+   */
+  int writeChain(byte[] bytes) throws IOException {
+    return writeChain(bytes, false);
+  }
+
+  // with appended pages only, rather than free ones, when the free pages are what is being written
+  private int writeChain(byte[] bytes, boolean append) throws IOException {
+    int capacity = PAGE_SIZE - CHAIN_HEADER;
+    int chunks = Math.max(1, (bytes.length + capacity - 1) / capacity);
+    int[] pages = new int[chunks];
+    for (int i = 0; i < chunks; i++) {
+      pages[i] = append ? pageCount++ : allocate();
+    }
+    ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+    for (int i = 0; i < chunks; i++) {
+      int offset = i * capacity;
+      int length = Math.min(capacity, bytes.length - offset);
+      page.clear();
+      page.putInt(i + 1 < chunks ? pages[i + 1] : NO_PAGE);
+      page.putShort((short) length);
+      page.put(bytes, offset, length);
+      write(pages[i], page);
+    }
+    return pages[0];
+  }
+
+  /**
+   * Read back a byte stream written by {@link #writeChain}.
+   *
+   * @param first first page of the chain
+   * @return the payload
+   */
+  byte[] readChain(int first) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int pageNo = first;
+    while (pageNo != NO_PAGE) {
+      ByteBuffer page = read(pageNo);
+      pageNo = page.getInt(0);
+      int length = Short.toUnsignedInt(page.getShort(4));
+      out.write(page.array(), CHAIN_HEADER, length);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Make what has been written the file's contents. The pages are flushed to the storage device,
+   * then the list of free pages is written to pages of its own and flushed, and only then is the
+   * header pointing to the new catalog and free list written and flushed. Pages given up since the
+   * last force may be reused from then on.
+   */
+  void force() throws IOException {
+    channel.force(false);
+    List<Integer> nowFree = new ArrayList<>(free);
+    nowFree.addAll(released);
+    int list = NO_PAGE;
+    if (!nowFree.isEmpty()) {
+      ByteBuffer pages = ByteBuffer.allocate(4 * nowFree.size());
+      for (int page : nowFree) {
+        pages.putInt(page);
+      }
+      list = writeChain(pages.array(), true);
+      channel.force(false);
+    }
+    freeList = list;
+    writeHeader();
+    channel.force(false);
+    free.clear();
+    free.addAll(nowFree);
+    released.clear();
+    if (list != NO_PAGE) {
+      released.addAll(chainPages(list)); // the list itself is in use until the next force
+    }
+  }
+
+  private void writeHeader() throws IOException {
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    if (NAME_OFFSET + 2 + nameBytes.length > PAGE_SIZE) {
+      throw new IOException("Database name is too long");
+    }
+    ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+    header.put(MAGIC);
+    header.putInt(VERSION);
+    header.putInt(PAGE_SIZE);
+    header.putInt(pageCount);
+    header.putInt(catalogPage);
+    header.putInt(freeList);
+    header.putShort((short) nameBytes.length);
+    header.put(nameBytes);
+    write(0, header);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
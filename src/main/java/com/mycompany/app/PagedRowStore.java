@@ -0,0 +1,292 @@
+package com.mycompany.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Rows kept in the table's data pages and reached through a {@link BufferPool}, so only the pages
+ * in use take up memory. The heap holds just a directory from primary key to row location.
+ *
+ * <p>Rows are only ever appended. Replacing a row appends the new version and points the directory
+ * at it, leaving the old version on its page to be skipped by scans, and removing a row leaves it
+ * on its page the same way. Before a save {@link #compact} writes the live rows to a fresh chain,
+ * so the saved pages hold no row that another way of reading them would take as live.
+ */
+final class PagedRowStore implements RowStore {
+
+  private final BufferPool pool;
+  private final PageChain chain;
+  private final Function<List<String>, Key> keyOf;
+  private BPlusTree<Key, Long> directory; // primary key -> {page number} {offset}
+  private int dead; // replaced or removed rows still on the pages
+
+  /**
+   * Open a table's page chain through the pool, dropping rows that were written after the last
+   * save.
+   *
+   * @param pool the database's buffer pool
+   * @param chain the table's saved page chain, kept up to date as pages are added
+   * @param keyOf how the table works out the primary key of a row's attributes
+   */
+  PagedRowStore(BufferPool pool, PageChain chain, Function<List<String>, Key> keyOf)
+      throws IOException {
+    this.pool = pool;
+    this.chain = chain;
+    this.keyOf = keyOf;
+
+    List<Map.Entry<Key, Long>> locations = new ArrayList<>();
+    for (int pageNo = chain.first; pageNo != PageFile.NO_PAGE; ) {
+      ByteBuffer page = pool.pin(pageNo);
+      boolean changed = false;
+      try {
+        int rows = chain.rowsOn(pageNo, page);
+        if (pageNo == chain.last && rows < DataPage.rowCount(page)) {
+          DataPage.truncate(page, rows);
+          DataPage.setNext(page, PageFile.NO_PAGE);
+          changed = true;
+        }
+        for (int offset : DataPage.offsets(page, rows)) {
+          locations.add(
+              Map.entry(keyOf.apply(DataPage.row(page, offset)), location(pageNo, offset)));
+        }
+        int next = chain.next(pageNo, page);
+        if (pageNo == chain.last && DataPage.next(page) != PageFile.NO_PAGE) {
+          DataPage.setNext(page, PageFile.NO_PAGE);
+          changed = true;
+        }
+        pool.unpin(pageNo, changed);
+        pageNo = next;
+      } catch (RuntimeException e) {
+        pool.unpin(pageNo, changed);
+        throw e;
+      }
+    }
+    // later versions of a row replace earlier ones, the same as inserting them in order
+    directory = BPlusTree.load(BPlusTree.DEFAULT_ORDER, locations);
+  }
+
+  private static long location(int pageNo, int offset) {
+    return ((long) pageNo << 32) | offset;
+  }
+
+  @Override
+  public List<String> get(Key key) {
+    Long location = directory.get(key);
+    return location == null ? null : read(location);
+  }
+
+  private List<String> read(long location) {
+    int pageNo = (int) (location >>> 32);
+    try {
+      ByteBuffer page = pool.pin(pageNo);
+      try {
+        return withKey(DataPage.row(page, (int) location));
+      } finally {
+        pool.unpin(pageNo, false);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("[BUFFER POOL] Failed to read page " + pageNo, e);
+    }
+  }
+
+  // pages hold only the attributes, put the primary key copy back in front
+  private List<String> withKey(List<String> stored) {
+    List<String> row = new ArrayList<>(stored.size() + 1);
+    row.add(keyOf.apply(stored).toString());
+    row.addAll(stored);
+    return row;
+  }
+
+  @Override
+  public List<String> put(Key key, List<String> row) {
+    List<String> previous = get(key);
+    byte[] bytes = RowCodec.encode(row.subList(1, row.size()));
+    if (bytes.length > DataPage.MAX_ROW) {
+      throw new RuntimeException(
+          "[DISK OPERATION] Row of " + bytes.length + " bytes does not fit in a page");
+    }
+    try {
+      int pageNo;
+      if (chain.last == PageFile.NO_PAGE) {
+        pageNo = pool.pinNew();
+        chain.first = pageNo;
+        chain.last = pageNo;
+      } else {
+        pageNo = chain.last;
+        pool.pin(pageNo);
+      }
+      ByteBuffer page = pool.pinned(pageNo);
+      int offset = DataPage.freeOffset(page);
+      if (!DataPage.append(page, bytes)) {
+        // link a fresh page on to the end of the chain
+        int next = pool.pinNew();
+        DataPage.setNext(page, next);
+        pool.unpin(pageNo, true);
+        pageNo = next;
+        chain.last = next;
+        page = pool.pinned(pageNo);
+        offset = DataPage.freeOffset(page);
+        DataPage.append(page, bytes);
+      }
+      pool.unpin(pageNo, true);
+      if (directory.put(key, location(pageNo, offset)) != null) {
+        dead++;
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("[BUFFER POOL] Failed to append row", e);
+    }
+    return previous;
+  }
+
+  @Override
+  public void remove(Key key) {
+    if (directory.remove(key) != null) {
+      dead++; // the row stays on its page but nothing points at it
+    }
+  }
+
+  /**
+   * Copy the live rows, in key order, to a fresh chain and give the pages of the old one back to
+   * the file, if any row on them has been replaced or removed. The old pages stay as they are on
+   * disk until the file's next header is written, so a crash before then loses nothing.
+   */
+  void compact() {
+    if (dead == 0) {
+      return;
+    }
+    try {
+      List<Integer> old = new ArrayList<>();
+      for (int pageNo = chain.first; pageNo != PageFile.NO_PAGE; ) {
+        old.add(pageNo);
+        ByteBuffer page = pool.pin(pageNo);
+        int next = pageNo == chain.last ? PageFile.NO_PAGE : DataPage.next(page);
+        pool.unpin(pageNo, false);
+        pageNo = next;
+      }
+      List<Map.Entry<Key, Long>> locations = new ArrayList<>(directory.size());
+      int first = PageFile.NO_PAGE;
+      int pageNo = PageFile.NO_PAGE;
+      for (Map.Entry<Key, Long> entry : directory) {
+        List<String> row = read(entry.getValue());
+        byte[] bytes = RowCodec.encode(row.subList(1, row.size()));
+        ByteBuffer page = pageNo == PageFile.NO_PAGE ? null : pool.pinned(pageNo);
+        int offset = page == null ? 0 : DataPage.freeOffset(page);
+        if (page == null || !DataPage.append(page, bytes)) {
+          int next = pool.pinNew();
+          if (page == null) {
+            first = next;
+          } else {
+            DataPage.setNext(page, next);
+            pool.unpin(pageNo, true);
+          }
+          pageNo = next;
+          page = pool.pinned(pageNo);
+          offset = DataPage.freeOffset(page);
+          DataPage.append(page, bytes);
+        }
+        locations.add(Map.entry(entry.getKey(), location(pageNo, offset)));
+      }
+      if (pageNo != PageFile.NO_PAGE) {
+        pool.unpin(pageNo, true);
+      }
+      for (int page : old) {
+        pool.discard(page);
+        pool.file().free(page);
+      }
+      chain.first = first;
+      chain.last = pageNo;
+      directory = BPlusTree.load(BPlusTree.DEFAULT_ORDER, locations);
+      dead = 0;
+    } catch (IOException e) {
+      throw new RuntimeException("[BUFFER POOL] Failed to compact rows", e);
+    }
+  }
+
+  @Override
+  public Collection<Key> keys() {
+    return directory.keys();
+  }
+
+  @Override
+  public int size() {
+    return directory.size();
+  }
+
+  @Override
+  public Iterable<List<String>> range(
+      Key low, boolean lowInclusive, Key high, boolean highInclusive) {
+    Iterable<Map.Entry<Key, Long>> locations =
+        directory.range(low, lowInclusive, high, highInclusive);
+    return () -> {
+      Iterator<Map.Entry<Key, Long>> entries = locations.iterator();
+      return new Iterator<>() {
+        @Override
+        public boolean hasNext() {
+          return entries.hasNext();
+        }
+
+        @Override
+        public List<String> next() {
+          return read(entries.next().getValue());
+        }
+      };
+    };
+  }
+
+  @Override
+  public Iterator<List<String>> iterator() {
+    // one page of live rows is decoded at a time, the page is unpinned before they are returned
+    return new Iterator<>() {
+      private int pageNo = chain.first;
+      private List<List<String>> rows = new ArrayList<>();
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        while (index >= rows.size()) {
+          if (pageNo == PageFile.NO_PAGE) {
+            return false;
+          }
+          rows = new ArrayList<>();
+          index = 0;
+          try {
+            ByteBuffer page = pool.pin(pageNo);
+            try {
+              for (int offset : DataPage.offsets(page)) {
+                List<String> stored = DataPage.row(page, offset);
+                Long current = directory.get(keyOf.apply(stored));
+                if (current != null && current == location(pageNo, offset)) {
+                  rows.add(withKey(stored));
+                }
+              }
+              int next = pageNo == chain.last ? PageFile.NO_PAGE : DataPage.next(page);
+              pool.unpin(pageNo, false);
+              pageNo = next;
+            } catch (RuntimeException e) {
+              pool.unpin(pageNo, false);
+              throw e;
+            }
+          } catch (IOException e) {
+            throw new RuntimeException("[BUFFER POOL] Failed to read page " + pageNo, e);
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public List<String> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return rows.get(index++);
+      }
+    };
+  }
+}
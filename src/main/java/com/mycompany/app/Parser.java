@@ -6,7 +6,10 @@ import java.util.List;
 /** Allow for reading in sql and converting to an AST. */
 public class Parser {
   private final List<Token> tokens;
+  private final Scanner source; // scanner tokens are pulled from as they are needed, or null
   private int current = 0;
+  private int parameters = 0; // ? placeholders seen so far, numbered in the order they appear
+  private boolean verbose = true; // print what is being parsed
 
   /**
    * allow for reading in sql and converting to an AST.
@@ -15,18 +18,43 @@ public class Parser {
    */
   Parser(List<Token> tokens) {
     this.tokens = tokens;
+    this.source = null;
+  }
+
+  /**
+   * Parse tokens as they are scanned, keeping only those of the statement being parsed.
+   *
+   * @param source scanner to take tokens from
+   */
+  Parser(Scanner source) {
+    this.tokens = new ArrayList<>();
+    this.source = source;
   }
 
   Parser() {
     this.tokens = new ArrayList<>();
+    this.source = null;
     // for testing purposes
   }
 
+  // make sure the token at index has been scanned, if the input has one
+  private boolean available(int index) {
+    while (index >= tokens.size() && source != null) {
+      Token token = source.nextToken();
+      if (token == null) {
+        return false;
+      }
+      tokens.add(token);
+    }
+    return index < tokens.size();
+  }
+
   private boolean isAtEnd() {
-    return current >= tokens.size();
+    return !available(current);
   }
 
   private Token peek() {
+    available(current);
     return tokens.get(current);
   }
 
@@ -41,13 +69,60 @@ public class Parser {
     return previous();
   }
 
+  /**
+   * Number of ? placeholders in the statements parsed so far.
+   *
+   * @return the placeholder count
+   */
+  int parameterCount() {
+    return parameters;
+  }
+
   List<Expr> parse() {
+    return parse(true);
+  }
+
+  /**
+   * Parse every statement of a script, the statements separated by semicolons.
+   *
+   * @param verbose if what is being parsed should be printed
+   * @return the statements in the order they appear
+   */
+  List<Expr> parse(boolean verbose) {
     List<Expr> statements = new ArrayList<>();
-    // TODO FOR NOW JUST PARSING FIRST STATEMENT
-    statements.add(statement(true));
+    for (Expr statement = next(verbose); statement != null; statement = next(verbose)) {
+      statements.add(statement);
+    }
     return statements;
   }
 
+  /**
+   * Parse the next statement of a script. Tokens of statements already returned are let go, so a
+   * parser reading from a {@link Scanner} holds only one statement at a time.
+   *
+   * @param verbose if what is being parsed should be printed
+   * @return the statement, or null once there are no more
+   */
+  Expr next(boolean verbose) {
+    this.verbose = verbose;
+    if (source != null && current > 1) {
+      tokens.subList(0, current - 1).clear(); // keep the last token for previous()
+      current = 1;
+    }
+    while (match(TokenType.SEMICOLON)) {
+      // empty statement, or the end of one that does not take its own semicolon
+    }
+    if (isAtEnd()) {
+      return null;
+    }
+    Expr statement = statement(verbose);
+    if (statement == null) {
+      throw new RuntimeException(
+          "Unsupported statement starting with " + peek().lexeme + " on line " + peek().line);
+    }
+    return statement;
+  }
+
   protected Expr.EngineExpr parseEngineExpr() {
     if (peek().type == TokenType.CREATE) {
       return createDatabase();
@@ -102,6 +177,9 @@ public class Parser {
       if (verbose) {
         System.out.println("Parsing CREATE statement");
       }
+      if (checkNext(TokenType.INDEX) || checkNext(TokenType.UNIQUE)) {
+        return createIndex();
+      }
       return createTable();
     } else if (check(TokenType.SELECT)) {
       if (verbose) {
@@ -113,10 +191,65 @@ public class Parser {
         System.out.println("Parsing INSERT statement");
       }
       return insertStatement();
+    } else if (check(TokenType.COPY)) {
+      if (verbose) {
+        System.out.println("Parsing COPY statement");
+      }
+      return copyStatement();
+    } else if (match(TokenType.ANALYZE)) {
+      if (verbose) {
+        System.out.println("Parsing ANALYZE statement");
+      }
+      // ANALYZE [table]
+      return new Expr.Analyze(match(TokenType.IDENTIFIER) ? previous().lexeme : null);
     }
     return null; // Unimplemented everything else
   }
 
+  /**
+   * Parse {@code COPY table FROM | TO 'file' [WITH (format = csv | binary)]}.
+   *
+   * @return the copy statement
+   */
+  protected Expr copyStatement() {
+    if (!match(TokenType.COPY)) {
+      throw new RuntimeException("Requires Copy Statement");
+    }
+    if (!match(TokenType.IDENTIFIER)) {
+      throw new RuntimeException("Expected table name after COPY");
+    }
+    String table = previous().lexeme;
+    if (!match(TokenType.FROM, TokenType.TO)) {
+      throw new RuntimeException("Expected FROM or TO after COPY " + table);
+    }
+    boolean export = previous().type == TokenType.TO;
+    if (!match(TokenType.STRING_LITERAL)) {
+      throw new RuntimeException("Expected a quoted file name after " + previous().lexeme);
+    }
+    String path = (String) previous().literal;
+
+    boolean binary = false;
+    if (match(TokenType.WITH)) {
+      if (!match(TokenType.LEFT_PAR)
+          || !match(TokenType.IDENTIFIER)
+          || !previous().lexeme.equalsIgnoreCase("format")
+          || !match(TokenType.EQUALS)
+          || !match(TokenType.IDENTIFIER)) {
+        throw new RuntimeException("Expected (format = csv) or (format = binary) after WITH");
+      }
+      String chosen = previous().lexeme.toLowerCase();
+      if (chosen.equals("binary")) {
+        binary = true;
+      } else if (!chosen.equals("csv")) {
+        throw new RuntimeException("Unknown copy format " + previous().lexeme);
+      }
+      if (!match(TokenType.RIGHT_PAR)) {
+        throw new RuntimeException("Expected ')' after copy options");
+      }
+    }
+    return new Expr.Copy(table, path, binary, export);
+  }
+
   protected Expr alias() {
     Token identifier = new Token(null, null, tokens, current);
     if (match(TokenType.IDENTIFIER)) {
@@ -181,8 +314,19 @@ public class Parser {
       return new Expr.Literal(previous().literal);
     }
 
+    if (match(TokenType.STRING_LITERAL)) {
+      return new Expr.Literal(previous().literal);
+    }
+
     if (match(TokenType.IDENTIFIER)) {
-      return new Expr.Literal(previous().lexeme);
+      if (check(TokenType.LEFT_PAR)) {
+        return aggregate();
+      }
+      return new Expr.Variable(previous().lexeme);
+    }
+
+    if (match(TokenType.PARAMETER)) {
+      return new Expr.Parameter(parameters++);
     }
 
     if (match(TokenType.LEFT_PAR)) {
@@ -233,11 +377,89 @@ public class Parser {
       throw new RuntimeException("Expected ')' after columns");
     }
 
+    // WITH (layout = row | columnar)
+    Table.Layout layout = Table.Layout.ROW;
+    if (match(TokenType.WITH)) {
+      if (!match(TokenType.LEFT_PAR)) {
+        throw new RuntimeException("Expected '(' after WITH");
+      }
+      if (!match(TokenType.IDENTIFIER) || !previous().lexeme.equalsIgnoreCase("layout")) {
+        throw new RuntimeException("Expected layout = row or layout = columnar after WITH");
+      }
+      if (!match(TokenType.EQUALS) || !match(TokenType.IDENTIFIER)) {
+        throw new RuntimeException("Expected layout = row or layout = columnar after WITH");
+      }
+      String chosen = previous().lexeme.toLowerCase();
+      if (chosen.equals("columnar")) {
+        layout = Table.Layout.COLUMNAR;
+      } else if (!chosen.equals("row")) {
+        throw new RuntimeException("Unknown table layout " + previous().lexeme);
+      }
+      if (!match(TokenType.RIGHT_PAR)) {
+        throw new RuntimeException("Expected ')' after table options");
+      }
+    }
+
     if (!match(TokenType.SEMICOLON)) {
       throw new RuntimeException("Expected ';' after table definition");
     }
 
-    return new Expr.Create(tablename, columns);
+    return new Expr.Create(tablename, columns, layout);
+  }
+
+  protected Expr createIndex() {
+    // CREATE [UNIQUE] INDEX name ON table (col, ...) [USING hash | btree];
+    match(TokenType.CREATE);
+    boolean unique = match(TokenType.UNIQUE);
+
+    if (!match(TokenType.INDEX)) {
+      throw new RuntimeException("Expected INDEX keyword after CREATE UNIQUE");
+    }
+    if (!match(TokenType.IDENTIFIER)) {
+      throw new RuntimeException("Expected index name after CREATE INDEX");
+    }
+    String indexName = previous().lexeme;
+
+    if (!match(TokenType.ON)) {
+      throw new RuntimeException("Expected ON after index name");
+    }
+    if (!match(TokenType.IDENTIFIER)) {
+      throw new RuntimeException("Expected table name after ON");
+    }
+    String tableName = previous().lexeme;
+
+    if (!match(TokenType.LEFT_PAR)) {
+      throw new RuntimeException("Expected '(' after table name, e.g. table(column)");
+    }
+    List<String> columns = new ArrayList<>();
+    do {
+      if (!match(TokenType.IDENTIFIER)) {
+        throw new RuntimeException("Expected column name in index definition");
+      }
+      columns.add(previous().lexeme);
+    } while (match(TokenType.COMMA));
+    if (!match(TokenType.RIGHT_PAR)) {
+      throw new RuntimeException("Expected ')' after indexed columns");
+    }
+
+    Index.Kind kind = Index.Kind.TREE;
+    if (match(TokenType.USING)) {
+      if (!match(TokenType.IDENTIFIER)) {
+        throw new RuntimeException("Expected HASH or BTREE after USING");
+      }
+      String method = previous().lexeme.toLowerCase();
+      if (method.equals("hash")) {
+        kind = Index.Kind.HASH;
+      } else if (!method.equals("btree")) {
+        throw new RuntimeException("Unknown index method " + previous().lexeme);
+      }
+    }
+
+    if (!match(TokenType.SEMICOLON)) {
+      throw new RuntimeException("Expected ';' after index definition");
+    }
+
+    return new Expr.CreateIndex(indexName, tableName, columns, unique, kind);
   }
 
   protected Column column() {
@@ -320,7 +542,11 @@ public class Parser {
 
     // parse the variables
     while (match(TokenType.STAR, TokenType.IDENTIFIER)) {
-      variables.add(new Expr.Literal(previous().literal)); // give just the name of the column
+      if (previous().type == TokenType.IDENTIFIER && check(TokenType.LEFT_PAR)) {
+        variables.add(aggregate());
+      } else {
+        variables.add(new Expr.Literal(previous().lexeme)); // give just the name of the column
+      }
 
       if (!match(TokenType.COMMA)) {
         break; // if no comma continue to next variable by doing loop again
@@ -339,6 +565,26 @@ public class Parser {
       throw new RuntimeException("Expected table name after SELECT");
     }
 
+    // parse any [LEFT | INNER] JOIN table ON condition
+    List<Expr.Join> joins = new ArrayList<>();
+    while (check(TokenType.JOIN) || check(TokenType.LEFT) || check(TokenType.INNER)) {
+      boolean left = match(TokenType.LEFT);
+      if (!left) {
+        match(TokenType.INNER);
+      }
+      if (!match(TokenType.JOIN)) {
+        throw new RuntimeException("Expected JOIN after " + previous().lexeme);
+      }
+      if (!match(TokenType.IDENTIFIER)) {
+        throw new RuntimeException("Expected table name after JOIN");
+      }
+      Token joined = previous();
+      if (!match(TokenType.ON)) {
+        throw new RuntimeException("Expected ON after JOIN " + joined.lexeme);
+      }
+      joins.add(new Expr.Join(joined, left, orExpression()));
+    }
+
     // parse optional WHERE clause
     Expr whereCondition = whereClause();
     List<Expr> whereList = new ArrayList<>();
@@ -346,7 +592,75 @@ public class Parser {
       whereList.add(whereCondition);
     }
 
-    return new Expr.Select(variables, table, whereList);
+    // parse optional GROUP BY and HAVING
+    List<String> groupBy = new ArrayList<>();
+    if (match(TokenType.GROUP_BY)) {
+      if (!match(TokenType.IDENTIFIER) || !previous().lexeme.equalsIgnoreCase("by")) {
+        throw new RuntimeException("Expected BY after GROUP");
+      }
+      do {
+        if (!match(TokenType.IDENTIFIER)) {
+          throw new RuntimeException("Expected column name in GROUP BY");
+        }
+        groupBy.add(previous().lexeme);
+      } while (match(TokenType.COMMA));
+    }
+    Expr having = match(TokenType.HAVING) ? orExpression() : null;
+
+    // parse optional ORDER BY column [ASC | DESC], ...
+    List<Expr.OrderBy> orderBy = new ArrayList<>();
+    if (match(TokenType.ORDER_BY)) {
+      if (!match(TokenType.IDENTIFIER) || !previous().lexeme.equalsIgnoreCase("by")) {
+        throw new RuntimeException("Expected BY after ORDER");
+      }
+      do {
+        if (!match(TokenType.IDENTIFIER)) {
+          throw new RuntimeException("Expected column name in ORDER BY");
+        }
+        Expr.Variable column =
+            check(TokenType.LEFT_PAR) ? aggregate() : new Expr.Variable(previous().lexeme);
+        boolean descending = false;
+        if (check(TokenType.IDENTIFIER)
+            && (peek().lexeme.equalsIgnoreCase("asc") || peek().lexeme.equalsIgnoreCase("desc"))) {
+          descending = advance().lexeme.equalsIgnoreCase("desc");
+        }
+        orderBy.add(new Expr.OrderBy(column, descending));
+      } while (match(TokenType.COMMA));
+    }
+
+    // parse optional LIMIT
+    Integer limit = null;
+    if (match(TokenType.LIMIT)) {
+      if (!match(TokenType.NUMBER)) {
+        throw new RuntimeException("Expected number of rows after LIMIT");
+      }
+      try {
+        limit = Integer.parseInt(previous().lexeme);
+      } catch (NumberFormatException e) {
+        throw new RuntimeException("LIMIT must be a whole number of rows");
+      }
+    }
+
+    return new Expr.Select(variables, table, joins, whereList, groupBy, having, orderBy, limit);
+  }
+
+  // the rest of count(*), sum(column) and the like, the function name just matched
+  private Expr.Aggregate aggregate() {
+    String function = previous().lexeme.toLowerCase();
+    if (!List.of("count", "sum", "min", "max", "avg").contains(function)) {
+      throw new RuntimeException("Unknown function " + previous().lexeme);
+    }
+    match(TokenType.LEFT_PAR);
+    String column = null;
+    if (match(TokenType.IDENTIFIER)) {
+      column = previous().lexeme;
+    } else if (!function.equals("count") || !match(TokenType.STAR)) {
+      throw new RuntimeException("Expected column name in " + function + "()");
+    }
+    if (!match(TokenType.RIGHT_PAR)) {
+      throw new RuntimeException("Expected ')' after " + function + "(" + previous().lexeme);
+    }
+    return new Expr.Aggregate(function, column);
   }
 
   private Expr whereClause() {
@@ -427,7 +741,9 @@ public class Parser {
     }
 
     if (match(TokenType.INTO)) {
-      System.out.println("Matched into");
+      if (verbose) {
+        System.out.println("Matched into");
+      }
     } else {
       throw new RuntimeException("Requires INTO after Insert");
     }
@@ -440,15 +756,18 @@ public class Parser {
     }
 
     List<Expr> columns = new ArrayList<Expr>();
-    List<Expr> values = new ArrayList<Expr>();
 
     // parse the list of columns to insert into
     if (check(TokenType.STAR)) {
       match(TokenType.STAR);
       columns.add(new Expr.Literal(previous()));
-      System.out.println("Inserting into all columns of table " + table.lexeme);
+      if (verbose) {
+        System.out.println("Inserting into all columns of table " + table.lexeme);
+      }
     } else {
-      System.out.println("Inserting Some/Specific columns of table " + table.lexeme);
+      if (verbose) {
+        System.out.println("Inserting Some/Specific columns of table " + table.lexeme);
+      }
       if (!match(TokenType.LEFT_PAR)) {
         throw new RuntimeException(
             "Missing opening bracket, Columns to be inserted need to be of form `(col, col2, col3)`"
@@ -477,25 +796,51 @@ public class Parser {
       throw new RuntimeException("Missing Values");
     }
 
+    // one or more rows of values, separated by commas
+    List<List<Expr>> rows = new ArrayList<>();
+    do {
+      rows.add(valueRow());
+    } while (match(TokenType.COMMA));
+
+    return new Expr.Insert(columns, table, rows);
+  }
+
+  // a bracketed row of values for an insert
+  private List<Expr> valueRow() {
     if (!match(TokenType.LEFT_PAR)) {
       throw new RuntimeException("Missing opening bracket");
     }
 
-    while (!check(TokenType.RIGHT_PAR) && (check(TokenType.COMMA) || check(TokenType.IDENTIFIER))) {
+    List<Expr> values = new ArrayList<Expr>();
+    while (!check(TokenType.RIGHT_PAR)
+        && (check(TokenType.COMMA)
+            || check(TokenType.IDENTIFIER)
+            || check(TokenType.NUMBER)
+            || check(TokenType.MINUS)
+            || check(TokenType.STRING_LITERAL)
+            || check(TokenType.PARAMETER))) {
       if (check(TokenType.COMMA)) {
         match(TokenType.COMMA);
-      } else if (!match(TokenType.IDENTIFIER)) {
+      } else if (match(TokenType.PARAMETER)) {
+        values.add(new Expr.Parameter(parameters++));
+      } else if (match(TokenType.STRING_LITERAL)) {
+        values.add(new Expr.Literal(previous().literal));
+      } else if (match(TokenType.MINUS)) {
+        if (!match(TokenType.NUMBER)) {
+          throw new RuntimeException("[Parser] Insert Parsing: Expected a number after '-'");
+        }
+        values.add(new Expr.Literal("-" + previous().lexeme));
+      } else if (!match(TokenType.IDENTIFIER, TokenType.NUMBER)) {
         throw new RuntimeException("Error gl");
       } else {
-        values.add(new Expr.Literal(previous().lexeme));
+        values.add(new Expr.Literal(previous().lexeme)); // numbers as written, 7 not 7.0
       }
     }
 
     if (!match(TokenType.RIGHT_PAR)) {
       throw new RuntimeException("[Parser] Insert Parsing: Missing Closing Bracket");
     }
-
-    return new Expr.Insert(columns, table, values);
+    return values;
   }
 
   private boolean match(TokenType... types) {
@@ -508,6 +853,13 @@ public class Parser {
     return false;
   }
 
+  private boolean checkNext(TokenType type) {
+    if (!available(current + 1)) {
+      return false;
+    }
+    return tokens.get(current + 1).type == type;
+  }
+
   private boolean check(TokenType type) {
     if (isAtEnd()) {
       return false;
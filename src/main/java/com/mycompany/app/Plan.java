@@ -0,0 +1,303 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * A physical plan: a tree of steps that together produce the rows of a query. Leaves read rows from
+ * a table, and each other step takes the rows of its input and filters, reshapes or cuts them
+ * short.
+ *
+ * <p>Every step carries the {@link Planner}'s guess of how many rows it returns and how much work
+ * it takes to return them, in units of rows read from a table in order. Rows are produced lazily,
+ * one at a time as they are asked for.
+ */
+abstract class Plan {
+
+  final double rows; // estimated rows returned
+  final double cost; // estimated work to return every row
+
+  Plan(double rows, double cost) {
+    this.rows = rows;
+    this.cost = cost;
+  }
+
+  /**
+   * Names of the values in each row this step returns.
+   *
+   * @return the column names
+   */
+  abstract List<String> columns();
+
+  /**
+   * Start producing the rows.
+   *
+   * @return the rows, read as they are asked for
+   */
+  abstract Iterator<List<String>> iterator();
+
+  /**
+   * The steps this one takes its rows from.
+   *
+   * @return the inputs, empty for a leaf
+   */
+  abstract List<Plan> inputs();
+
+  /**
+   * What this step does, on one line.
+   *
+   * @return the description
+   */
+  abstract String describe();
+
+  /**
+   * A cursor over the rows of the plan.
+   *
+   * @return the cursor
+   */
+  Cursor cursor() {
+    List<Table> tables = tables();
+    return Table.reading(tables, () -> new Cursor(columns(), iterator(), tables));
+  }
+
+  /**
+   * The tables the plan reads rows from on the calling thread, leaving out those the workers of a
+   * {@link Gather} lock for themselves.
+   *
+   * @return each table once
+   */
+  List<Table> tables() {
+    List<Table> tables = new ArrayList<>();
+    if (this instanceof Scan scan) {
+      tables.add(scan.table);
+    } else if (this instanceof IndexJoin join) {
+      tables.add(join.table);
+    } else if (this instanceof Gather) {
+      return tables;
+    }
+    for (Plan input : inputs()) {
+      for (Table table : input.tables()) {
+        if (!tables.contains(table)) {
+          tables.add(table);
+        }
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Describe the whole tree, a line per step, each input indented under the step using it.
+   *
+   * @return the description
+   */
+  String explain() {
+    StringBuilder text = new StringBuilder();
+    explain(text, 0);
+    return text.toString();
+  }
+
+  private void explain(StringBuilder text, int depth) {
+    text.append("  ".repeat(depth))
+        .append(describe())
+        .append(String.format(Locale.ROOT, " (rows=%.0f cost=%.0f)", rows, cost))
+        .append('\n');
+    for (Plan input : inputs()) {
+      input.explain(text, depth + 1);
+    }
+  }
+
+  /** Rows of a table, found by one of its access paths, in the table's internal layout. */
+  static final class Scan extends Plan {
+    final Table table;
+    final Table.AccessPath path;
+
+    Scan(Table table, Table.AccessPath path, double rows, double cost) {
+      super(rows, cost);
+      this.table = table;
+      this.path = path;
+    }
+
+    @Override
+    List<String> columns() {
+      return table.internalColumns();
+    }
+
+    @Override
+    Iterator<List<String>> iterator() {
+      return path.rows().iterator();
+    }
+
+    @Override
+    List<Plan> inputs() {
+      return List.of();
+    }
+
+    @Override
+    String describe() {
+      return path.description() + " on " + table.getName();
+    }
+  }
+
+  /** Rows of its input that pass a WHERE clause. */
+  static final class Filter extends Plan {
+    final Plan input;
+    final Condition condition;
+
+    Filter(Plan input, Condition condition, double rows) {
+      super(rows, input.cost);
+      this.input = input;
+      this.condition = condition;
+    }
+
+    @Override
+    List<String> columns() {
+      return input.columns();
+    }
+
+    @Override
+    Iterator<List<String>> iterator() {
+      Iterator<List<String>> rows = input.iterator();
+      return new Iterator<>() {
+        private List<String> next;
+
+        @Override
+        public boolean hasNext() {
+          while (next == null && rows.hasNext()) {
+            List<String> row = rows.next();
+            if (condition.test(row)) {
+              next = row;
+            }
+          }
+          return next != null;
+        }
+
+        @Override
+        public List<String> next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          List<String> row = next;
+          next = null;
+          return row;
+        }
+      };
+    }
+
+    @Override
+    List<Plan> inputs() {
+      return List.of(input);
+    }
+
+    @Override
+    String describe() {
+      return "filter";
+    }
+  }
+
+  /** Some of the values of each row of its input. */
+  static final class Project extends Plan {
+    final Plan input;
+    final List<String> names;
+    final int[] indexes; // where each kept value sits in a row of the input
+
+    Project(Plan input, List<String> names, int[] indexes) {
+      super(input.rows, input.cost);
+      this.input = input;
+      this.names = List.copyOf(names);
+      this.indexes = indexes;
+    }
+
+    @Override
+    List<String> columns() {
+      return names;
+    }
+
+    @Override
+    Iterator<List<String>> iterator() {
+      Iterator<List<String>> rows = input.iterator();
+      return new Iterator<>() {
+        @Override
+        public boolean hasNext() {
+          return rows.hasNext();
+        }
+
+        @Override
+        public List<String> next() {
+          List<String> row = rows.next();
+          List<String> projected = new ArrayList<>(indexes.length);
+          for (int index : indexes) {
+            projected.add(row.get(index));
+          }
+          return projected;
+        }
+      };
+    }
+
+    @Override
+    List<Plan> inputs() {
+      return List.of(input);
+    }
+
+    @Override
+    String describe() {
+      return "project " + String.join(", ", names);
+    }
+  }
+
+  /** The first few rows of its input, which is not read past them. */
+  static final class Limit extends Plan {
+    final Plan input;
+    final int limit;
+
+    Limit(Plan input, int limit) {
+      super(
+          Math.min(input.rows, limit),
+          input.rows <= limit ? input.cost : input.cost * limit / input.rows);
+      if (limit < 0) {
+        throw new RuntimeException("LIMIT must not be negative");
+      }
+      this.input = input;
+      this.limit = limit;
+    }
+
+    @Override
+    List<String> columns() {
+      return input.columns();
+    }
+
+    @Override
+    Iterator<List<String>> iterator() {
+      Iterator<List<String>> rows = input.iterator();
+      return new Iterator<>() {
+        private int remaining = limit;
+
+        @Override
+        public boolean hasNext() {
+          return remaining > 0 && rows.hasNext();
+        }
+
+        @Override
+        public List<String> next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          remaining--;
+          return rows.next();
+        }
+      };
+    }
+
+    @Override
+    List<Plan> inputs() {
+      return List.of(input);
+    }
+
+    @Override
+    String describe() {
+      return "limit " + limit;
+    }
+  }
+}
@@ -0,0 +1,880 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns a query into a {@link Plan}, choosing how to find its rows by what each way is guessed to
+ * cost.
+ *
+ * <p>Every access path a table offers for a WHERE clause is costed: reading rows in order costs one
+ * unit a row, and fetching a row through an index costs {@link #LOOKUP_COST}. How many rows a path
+ * reads comes from the comparisons it uses and the table's {@link Statistics}, or from fixed
+ * guesses if the table has not been analyzed. Comparisons on different columns are taken to be
+ * independent.
+ *
+ * <p>Joins are done left to right in the order written, each the cheapest of a {@link HashJoin}
+ * that builds on whichever side is guessed to return fewer rows, a {@link MergeJoin} when both
+ * sides can be read sorted on the join key, and an {@link IndexJoin} that looks up the joined
+ * table's rows through its primary key or an index for each left row. Parts of the WHERE and ON
+ * clauses that only look at one table are pushed down to filter that table before it is joined.
+ *
+ * <p>A large table read in full is split into ranges of primary keys, or runs of chunks for a
+ * columnar table, that {@link Gather} workers filter, project or partially aggregate in parallel,
+ * when that is guessed to cost less than reading it on the calling thread and no LIMIT would stop
+ * the reading early. A columnar table queried on its own only has the columns the query reads
+ * decoded.
+ *
+ * <p>ORDER BY is a {@link Sort}, unless a single table can be read in the order wanted for less,
+ * which with a LIMIT means reading only the first rows.
+ */
+final class Planner {
+
+  static final double LOOKUP_COST = 4; // fetching a row through an index, against reading in order
+
+  private Planner() {}
+
+  /**
+   * Plan a query on a single table.
+   *
+   * @param table the table queried
+   * @param columns the selected columns, {@code *} already expanded
+   * @param where the WHERE clause, or null for every row
+   * @param limit most rows to return, or null for no limit
+   * @param workers most ranges a large table is split into to filter in parallel, 1 to read it on
+   *     the calling thread
+   * @return the plan
+   */
+  static Plan plan(Table table, List<String> columns, Condition where, Integer limit, int workers) {
+    int[] indexes = new int[columns.size()];
+    BitSet needed = where == null ? new BitSet() : where.columns();
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = table.columnIndex(columns.get(i));
+      needed.set(indexes[i]);
+    }
+    Plan plan = rows(table, where, needed);
+    List<Plan> parts = where == null || limit != null ? null : split(table, plan, where, workers);
+    if (pays(parts, plan)) {
+      List<Plan> projected = new ArrayList<>(parts.size());
+      for (Plan part : parts) {
+        projected.add(new Plan.Project(part, columns, indexes));
+      }
+      return new Gather(projected);
+    }
+    plan = new Plan.Project(plan, columns, indexes);
+    if (limit != null) {
+      plan = new Plan.Limit(plan, limit);
+    }
+    return plan;
+  }
+
+  /**
+   * Choose the cheapest way to find the rows that might satisfy a WHERE clause.
+   *
+   * @param table the table queried
+   * @param where the clause
+   * @return a leaf of a plan reading the rows
+   */
+  static Plan.Scan access(Table table, Condition where) {
+    Plan.Scan best = null;
+    for (Table.AccessPath path : table.accessPaths(where)) {
+      Plan.Scan scan = scan(table, path);
+      if (best == null || scan.cost < best.cost) {
+        best = scan;
+      }
+    }
+    return best;
+  }
+
+  // a leaf reading the rows an access path finds, with its guessed rows and cost
+  private static Plan.Scan scan(Table table, Table.AccessPath path) {
+    double total = table.primaryKeys().size();
+    double rows = path.unique() ? Math.min(1, total) : estimate(table, path.uses());
+    double cost = (path.uses().isEmpty() ? total : rows) * (path.lookup() ? LOOKUP_COST : 1);
+    return new Plan.Scan(table, path, rows, cost);
+  }
+
+  /**
+   * Plan a SELECT that joins tables or works out aggregates.
+   *
+   * @param tables the FROM table followed by each joined table
+   * @param select the statement, with every placeholder given a value
+   * @param budget what each join, aggregate or sort may hold before spilling to disk
+   * @param workers most ranges a large table is split into to read in parallel, 1 to read it on the
+   *     calling thread
+   * @return the plan
+   */
+  static Plan select(
+      List<Table> tables, Expr.Select select, SpillFiles.Budget budget, int workers) {
+    Expr where = select.whereClause.isEmpty() ? null : select.whereClause.get(0);
+    if (!aggregates(where).isEmpty()) {
+      throw new RuntimeException("Aggregates cannot be used in WHERE, use HAVING");
+    }
+    Schema schema;
+    Plan plan;
+    List<String> all = new ArrayList<>(); // what * stands for
+    List<Plan> parts = null; // copies of the plan over ranges of the table, to run in parallel
+    if (tables.size() == 1) {
+      Table table = tables.get(0);
+      schema = table;
+      Condition condition = where == null ? null : new Condition(table, where);
+      plan = rows(table, condition, needed(table, select, condition));
+      parts = split(table, plan, condition, workers);
+      all.addAll(table.internalColumns().subList(1, table.internalColumns().size()));
+    } else {
+      Joined joined = new Joined(tables);
+      schema = joined;
+      plan = join(joined, select.joins, where, budget);
+      for (String name : joined.names) {
+        if (!name.endsWith(".primary_key")) {
+          all.add(name);
+        }
+      }
+    }
+
+    List<Expr.Aggregate> aggregates = new ArrayList<>();
+    for (Expr variable : select.variables) {
+      if (variable instanceof Expr.Aggregate aggregate) {
+        aggregates.add(aggregate);
+      }
+    }
+    aggregates.addAll(aggregates(select.having));
+    for (Expr.OrderBy order : select.orderBy) {
+      if (order.column instanceof Expr.Aggregate aggregate) {
+        aggregates.add(aggregate);
+      }
+    }
+    if (!aggregates.isEmpty() || !select.groupBy.isEmpty()) {
+      HashAggregate aggregate = aggregate(plan, schema, select.groupBy, aggregates, budget);
+      HashAggregate parallel = parts == null ? null : aggregate.parallel(parts);
+      plan = parallel != null && parallel.cost < aggregate.cost ? parallel : aggregate;
+      parts = null;
+      List<String> names = plan.columns();
+      boolean[] numeric = new boolean[names.size()];
+      for (int i = 0; i < numeric.length; i++) {
+        numeric[i] =
+            i < select.groupBy.size()
+                ? schema.isNumeric(names.get(i))
+                : ((HashAggregate) plan).numeric(i - select.groupBy.size());
+      }
+      schema = Schema.of(names, numeric);
+      all = null;
+    }
+    if (select.having != null) {
+      if (all != null) {
+        throw new RuntimeException("HAVING needs GROUP BY or an aggregate");
+      }
+      plan =
+          new Plan.Filter(
+              plan, new Condition(schema, select.having), plan.rows * Statistics.DEFAULT_RANGE);
+    }
+    if (parts != null
+        && (where == null // nothing to filter, so no work to share out
+            || select.limit != null && select.orderBy.isEmpty() // read serially it stops early
+            || !pays(parts, plan))) {
+      parts = null;
+    }
+    if (!select.orderBy.isEmpty()) {
+      if (parts != null) {
+        plan = new Gather(parts);
+        parts = null;
+      }
+      Plan sorted = sort(plan, schema, select.orderBy, select.limit, all == null, budget);
+      Expr.OrderBy first = select.orderBy.get(0);
+      if (tables.size() == 1
+          && all != null
+          && select.orderBy.size() == 1
+          && !first.descending
+          && tables.get(0).hasColumn(first.column.name)) {
+        // reading the table in order needs no sort, and a LIMIT stops it early
+        Plan ordered = ordered(tables.get(0), conjuncts(where), first.column.name);
+        if (ordered != null && cost(ordered, select.limit) < sorted.cost) {
+          sorted = ordered;
+        }
+      }
+      plan = sorted;
+    }
+
+    List<String> selected = new ArrayList<>();
+    for (Expr variable : select.variables) {
+      String name =
+          variable instanceof Expr.Aggregate aggregate
+              ? aggregate.name
+              : ((Expr.Literal) variable).value.toString();
+      if (!name.equals("*")) {
+        selected.add(name);
+      } else if (all == null) {
+        throw new RuntimeException("SELECT * cannot be used with GROUP BY or aggregates");
+      } else {
+        selected.addAll(all);
+      }
+    }
+    int[] indexes = new int[selected.size()];
+    for (int i = 0; i < indexes.length; i++) {
+      if (!schema.hasColumn(selected.get(i))) {
+        throw new RuntimeException(
+            all == null
+                ? "Column " + selected.get(i) + " must be in GROUP BY or an aggregate"
+                : "Column " + selected.get(i) + " does not exist");
+      }
+      indexes[i] = schema.columnIndex(selected.get(i));
+    }
+    if (parts == null) {
+      plan = new Plan.Project(plan, selected, indexes);
+    } else {
+      List<Plan> projected = new ArrayList<>(parts.size());
+      for (Plan part : parts) {
+        projected.add(new Plan.Project(part, selected, indexes));
+      }
+      plan = new Gather(projected);
+    }
+    if (select.limit != null) {
+      plan = new Plan.Limit(plan, select.limit);
+    }
+    return plan;
+  }
+
+  // if reading the copies in parallel is guessed to cost less than reading the plan here
+  private static boolean pays(List<Plan> parts, Plan plan) {
+    return parts != null && new Gather(parts).cost < plan.cost;
+  }
+
+  // copies of a plan that reads a whole large table, each over its own range of primary keys, or
+  // null if the table is too small to be worth splitting or is not read in full
+  private static List<Plan> split(Table table, Plan plan, Condition where, int workers) {
+    Plan leaf = plan instanceof Plan.Filter filter ? filter.input : plan;
+    double total = table.primaryKeys().size();
+    int count = (int) Math.min(workers, total / Gather.ROWS_PER_WORKER);
+    if (count < 2 || !(leaf instanceof Plan.Scan scan)) {
+      return null;
+    }
+    List<Iterable<List<String>>> ranges;
+    String description;
+    if (scan.path.rows() instanceof ColumnarRowStore.Scan columnar) {
+      // runs of chunks, each still skipping chunks and decoding only the columns needed
+      ranges = new ArrayList<>(columnar.split(count));
+      description = "columnar range scan";
+    } else if (scan.path.rows() == table.fullScan().rows()) {
+      ranges = table.ranges(count); // only a scan of the store itself
+      description = "range scan";
+    } else {
+      return null;
+    }
+    List<Plan> parts = new ArrayList<>(ranges.size());
+    for (Iterable<List<String>> range : ranges) {
+      double rows = total / ranges.size();
+      Plan part =
+          new Plan.Scan(
+              table,
+              new Table.AccessPath(description, range, List.of(), false, false, null),
+              rows,
+              rows);
+      if (where != null) {
+        part = new Plan.Filter(part, where, plan.rows / ranges.size());
+      }
+      parts.add(part);
+    }
+    return parts;
+  }
+
+  // the rows sorted on the ORDER BY columns, or only the first few with a LIMIT
+  private static Sort sort(
+      Plan input,
+      Schema schema,
+      List<Expr.OrderBy> orderBy,
+      Integer limit,
+      boolean grouped,
+      SpillFiles.Budget budget) {
+    List<Sort.Order> order = new ArrayList<>(orderBy.size());
+    for (Expr.OrderBy by : orderBy) {
+      String name = by.column.name;
+      if (!schema.hasColumn(name)) {
+        throw new RuntimeException(
+            grouped
+                ? "Column " + name + " must be in GROUP BY or an aggregate"
+                : "Column " + name + " does not exist");
+      }
+      order.add(new Sort.Order(schema.columnIndex(name), schema.isNumeric(name), by.descending));
+    }
+    return new Sort(input, order, limit, budget);
+  }
+
+  // the work to return the rows of a plan that stops after a LIMIT
+  private static double cost(Plan plan, Integer limit) {
+    return limit == null ? plan.cost : new Plan.Limit(plan, limit).cost;
+  }
+
+  // the rows of a table that pass a WHERE clause, in the table's internal layout with at least the
+  // needed columns filled in, or every column if needed is null
+  private static Plan rows(Table table, Condition where, BitSet needed) {
+    if (where == null) {
+      double rows = table.primaryKeys().size();
+      return new Plan.Scan(table, narrow(table.fullScan(), needed), rows, rows);
+    }
+    Plan.Scan scan = access(table, where);
+    Plan plan = new Plan.Scan(table, narrow(scan.path, needed), scan.rows, scan.cost);
+    return new Plan.Filter(plan, where, estimate(table, where.comparisons()));
+  }
+
+  // a scan of a columnar table decoding only the needed columns, other paths read whole rows
+  private static Table.AccessPath narrow(Table.AccessPath path, BitSet needed) {
+    if (needed == null || !(path.rows() instanceof ColumnarRowStore.Scan columnar)) {
+      return path;
+    }
+    return new Table.AccessPath(
+        path.description(),
+        columnar.only(needed),
+        path.uses(),
+        path.lookup(),
+        path.unique(),
+        path.order());
+  }
+
+  // the columns of its table a single table SELECT reads, or null if it reads every one
+  private static BitSet needed(Table table, Expr.Select select, Condition where) {
+    BitSet needed = where == null ? new BitSet() : where.columns();
+    List<String> names = new ArrayList<>(select.groupBy);
+    List<Expr.Aggregate> aggregates = new ArrayList<>(aggregates(select.having));
+    for (Expr variable : select.variables) {
+      if (variable instanceof Expr.Aggregate aggregate) {
+        aggregates.add(aggregate);
+      } else if (((Expr.Literal) variable).value.toString().equals("*")) {
+        return null;
+      } else {
+        names.add(((Expr.Literal) variable).value.toString());
+      }
+    }
+    for (Expr.OrderBy order : select.orderBy) {
+      if (order.column instanceof Expr.Aggregate aggregate) {
+        aggregates.add(aggregate);
+      } else {
+        names.add(order.column.name);
+      }
+    }
+    for (Expr.Aggregate aggregate : aggregates) {
+      if (aggregate.column != null) {
+        names.add(aggregate.column);
+      }
+    }
+    for (String name : names) {
+      if (table.hasColumn(name)) {
+        needed.set(table.columnIndex(name));
+      }
+    }
+    return needed;
+  }
+
+  // the groups of the rows and the aggregates worked out for each
+  private static HashAggregate aggregate(
+      Plan input,
+      Schema schema,
+      List<String> groupBy,
+      List<Expr.Aggregate> aggregates,
+      SpillFiles.Budget budget) {
+    List<String> names = new ArrayList<>(groupBy);
+    int[] groups = new int[groupBy.size()];
+    boolean[] numeric = new boolean[groupBy.size()];
+    for (int i = 0; i < groups.length; i++) {
+      if (!schema.hasColumn(groupBy.get(i))) {
+        throw new RuntimeException("Column " + groupBy.get(i) + " does not exist");
+      }
+      groups[i] = schema.columnIndex(groupBy.get(i));
+      numeric[i] = schema.isNumeric(groupBy.get(i));
+    }
+    List<HashAggregate.Call> calls = new ArrayList<>();
+    for (Expr.Aggregate aggregate : aggregates) {
+      if (names.contains(aggregate.name)) {
+        continue;
+      }
+      var function = HashAggregate.Function.valueOf(aggregate.function.toUpperCase());
+      if (aggregate.column == null) {
+        calls.add(new HashAggregate.Call(function, -1, true));
+      } else {
+        if (!schema.hasColumn(aggregate.column)) {
+          throw new RuntimeException("Column " + aggregate.column + " does not exist");
+        }
+        boolean number = schema.isNumeric(aggregate.column);
+        if (!number
+            && (function == HashAggregate.Function.SUM || function == HashAggregate.Function.AVG)) {
+          throw new RuntimeException(aggregate.name + " needs a number column");
+        }
+        calls.add(new HashAggregate.Call(function, schema.columnIndex(aggregate.column), number));
+      }
+      names.add(aggregate.name);
+    }
+    double rows = groups.length == 0 ? 1 : Math.max(1, input.rows * Statistics.DEFAULT_EQUALS);
+    return new HashAggregate(input, names, groups, numeric, calls, budget, rows);
+  }
+
+  // the aggregates a clause uses
+  private static List<Expr.Aggregate> aggregates(Expr e) {
+    List<Expr.Aggregate> found = new ArrayList<>();
+    if (e instanceof Expr.Aggregate aggregate) {
+      found.add(aggregate);
+    } else if (e instanceof Expr.Grouping grouping) {
+      found.addAll(aggregates(grouping.expression));
+    } else if (e instanceof Expr.Unary unary) {
+      found.addAll(aggregates(unary.right));
+    } else if (e instanceof Expr.Binary binary) {
+      found.addAll(aggregates(binary.left));
+      found.addAll(aggregates(binary.right));
+    } else if (e instanceof Expr.Logical logical) {
+      found.addAll(aggregates(logical.left));
+      found.addAll(aggregates(logical.right));
+    }
+    return found;
+  }
+
+  // the rows of joined tables, in the layout of the schema
+  private static Plan join(
+      Joined schema, List<Expr.Join> joins, Expr where, SpillFiles.Budget budget) {
+    List<Table> tables = schema.tables;
+    // conjuncts filtering each table before it is joined
+    List<List<Expr>> pushed = new ArrayList<>();
+    for (int t = 0; t < tables.size(); t++) {
+      pushed.add(new ArrayList<>());
+    }
+    List<Expr> remaining = new ArrayList<>();
+    for (Expr conjunct : conjuncts(where)) {
+      BitSet uses = schema.tables(conjunct);
+      int only = uses.cardinality() == 1 ? uses.nextSetBit(0) : -1;
+      // a filter on the optional side of a LEFT JOIN would drop the rows it keeps
+      if (only == 0 || (only > 0 && !joins.get(only - 1).left)) {
+        pushed.get(only).add(conjunct);
+      } else {
+        remaining.add(conjunct);
+      }
+    }
+
+    List<List<Expr.Binary>> keys = new ArrayList<>();
+    List<List<Expr>> residuals = new ArrayList<>();
+    for (int j = 0; j < joins.size(); j++) {
+      int joined = j + 1;
+      List<Expr.Binary> equalities = new ArrayList<>();
+      List<Expr> residual = new ArrayList<>();
+      for (Expr conjunct : conjuncts(joins.get(j).on)) {
+        BitSet uses = schema.tables(conjunct);
+        if (uses.length() > joined + 1) {
+          throw new RuntimeException(
+              "[JOIN] ON clause of " + tables.get(joined).getName() + " uses a later table");
+        }
+        if (uses.cardinality() == 1 && uses.get(joined)) {
+          pushed.get(joined).add(conjunct);
+        } else if (isEquiJoin(conjunct, schema, joined)) {
+          equalities.add((Expr.Binary) conjunct);
+        } else {
+          residual.add(conjunct);
+        }
+      }
+      keys.add(equalities);
+      residuals.add(residual);
+    }
+
+    Plan plan = filtered(tables.get(0), pushed.get(0));
+    int order = sortedOn(plan, schema, 0); // where the column the rows are sorted on sits, or -1
+    for (int j = 0; j < joins.size(); j++) {
+      int joined = j + 1;
+      Table table = tables.get(joined);
+      Plan right = filtered(table, pushed.get(joined));
+      List<Expr.Binary> equalities = keys.get(j);
+      int[] leftKeys = new int[equalities.size()];
+      int[] rightKeys = new int[equalities.size()];
+      boolean[] numeric = new boolean[equalities.size()];
+      int offset = schema.offset(joined);
+      double rows = plan.rows * right.rows;
+      String leftName = null;
+      String rightName = null;
+      for (int k = 0; k < equalities.size(); k++) {
+        Expr.Binary equality = equalities.get(k);
+        String a = ((Expr.Variable) equality.left).name;
+        String b = ((Expr.Variable) equality.right).name;
+        if (k == 0) {
+          leftName = schema.table(a) == joined ? b : a;
+          rightName = schema.table(a) == joined ? a : b;
+          rows /= Math.max(1, matching(schema, leftName, plan.rows, rightName, right.rows));
+        }
+        leftKeys[k] = schema.columnIndex(schema.table(a) == joined ? b : a);
+        rightKeys[k] = schema.columnIndex(schema.table(a) == joined ? a : b) - offset;
+        numeric[k] = schema.isNumeric(a); // compared by the type of the column written first
+      }
+      Condition residual = null;
+      if (!residuals.get(j).isEmpty()) {
+        residual = new Condition(schema, and(residuals.get(j)));
+        rows *= Statistics.DEFAULT_RANGE;
+      }
+      boolean outer = joins.get(j).left;
+      if (outer) {
+        rows = Math.max(rows, plan.rows);
+      }
+      List<String> names = schema.names.subList(0, schema.offset(joined + 1));
+      JoinPlan.Keys joinKeys = new JoinPlan.Keys(leftKeys, rightKeys, numeric);
+
+      // building the hash table costs about as much again as reading its rows
+      JoinPlan best =
+          new HashJoin(
+              plan,
+              right,
+              names,
+              joinKeys,
+              residual,
+              outer,
+              plan.rows < right.rows,
+              budget,
+              rows,
+              plan.cost + right.cost + plan.rows + right.rows + Math.min(plan.rows, right.rows));
+      String leftColumn = leftName == null ? null : schema.column(leftName);
+      String rightColumn = rightName == null ? null : schema.column(rightName);
+      // the other ways find matches through the tables' own order, so the types must agree
+      if (rightColumn != null
+          && table.isNumeric(rightColumn) == numeric[0]
+          && schema.isNumeric(leftName) == numeric[0]) {
+        Table.Lookup lookup = table.lookup(rightColumn);
+        if (lookup != null) {
+          double total = table.primaryKeys().size();
+          double perRow = lookup.unique() ? 1 : total / distinct(schema, rightName, total);
+          if (Double.isNaN(perRow)) {
+            perRow = total * Statistics.DEFAULT_EQUALS;
+          }
+          double cost = plan.cost + plan.rows * LOOKUP_COST * Math.max(1, perRow);
+          if (cost < best.cost) {
+            Condition filter =
+                pushed.get(joined).isEmpty()
+                    ? null
+                    : new Condition(
+                        table, unqualify(and(pushed.get(joined)), table.getName() + "."));
+            best =
+                new IndexJoin(
+                    plan, table, lookup, filter, names, joinKeys, residual, outer, rows, cost);
+          }
+        }
+
+        Plan sortedLeft =
+            order == leftKeys[0]
+                ? plan
+                : j == 0 ? ordered(tables.get(0), pushed.get(0), leftColumn) : null;
+        Plan sortedRight = ordered(table, pushed.get(joined), rightColumn);
+        if (sortedLeft != null && sortedRight != null) {
+          double cost = sortedLeft.cost + sortedRight.cost + sortedLeft.rows + sortedRight.rows;
+          if (cost < best.cost) {
+            best =
+                new MergeJoin(
+                    sortedLeft, sortedRight, names, joinKeys, residual, outer, rows, cost);
+          }
+        }
+      }
+      // the hash join may spill, so only the other two keep the left rows' order
+      if (best instanceof MergeJoin) {
+        order = leftKeys[0];
+      } else if (best instanceof HashJoin) {
+        order = -1;
+      }
+      plan = best;
+    }
+
+    if (!remaining.isEmpty()) {
+      plan =
+          new Plan.Filter(
+              plan, new Condition(schema, and(remaining)), plan.rows * Statistics.DEFAULT_RANGE);
+    }
+    return plan;
+  }
+
+  // a table's rows passing the conjuncts pushed down to it
+  private static Plan filtered(Table table, List<Expr> conjuncts) {
+    if (conjuncts.isEmpty()) {
+      double rows = table.primaryKeys().size();
+      return new Plan.Scan(table, table.fullScan(), rows, rows);
+    }
+    Condition where = new Condition(table, unqualify(and(conjuncts), table.getName() + "."));
+    Plan.Scan scan = access(table, where);
+    return new Plan.Filter(scan, where, Math.min(scan.rows, estimate(table, where.comparisons())));
+  }
+
+  // a table's rows passing the conjuncts pushed down to it, sorted on a column, or null if they
+  // cannot be read in that order
+  private static Plan ordered(Table table, List<Expr> conjuncts, String column) {
+    Condition where =
+        conjuncts.isEmpty()
+            ? null
+            : new Condition(table, unqualify(and(conjuncts), table.getName() + "."));
+    List<Table.AccessPath> paths = new ArrayList<>();
+    if (where != null) {
+      paths.addAll(table.accessPaths(where));
+    }
+    Table.AccessPath all = table.orderedBy(column);
+    if (all != null) {
+      paths.add(all);
+    }
+    Plan.Scan best = null;
+    for (Table.AccessPath path : paths) {
+      if (column.equals(path.order())) {
+        Plan.Scan scan = scan(table, path);
+        if (best == null || scan.cost < best.cost) {
+          best = scan;
+        }
+      }
+    }
+    if (best == null || where == null) {
+      return best;
+    }
+    return new Plan.Filter(best, where, Math.min(best.rows, estimate(table, where.comparisons())));
+  }
+
+  // where in a joined row the column a table's rows are read sorted on sits, or -1
+  private static int sortedOn(Plan leaf, Joined schema, int table) {
+    Plan input = leaf instanceof Plan.Filter filter ? filter.input : leaf;
+    if (input instanceof Plan.Scan scan && scan.path.order() != null) {
+      return schema.columnIndex(schema.tables.get(table).getName() + "." + scan.path.order());
+    }
+    return -1;
+  }
+
+  // how many different values the join key is guessed to have, the most of the two sides
+  private static double matching(
+      Joined schema, String leftName, double leftRows, String rightName, double rightRows) {
+    double left = distinct(schema, leftName, leftRows);
+    double right = distinct(schema, rightName, rightRows);
+    if (Double.isNaN(left) && Double.isNaN(right)) {
+      return Math.max(leftRows, rightRows);
+    }
+    return Double.isNaN(left) ? right : Double.isNaN(right) ? left : Math.max(left, right);
+  }
+
+  // distinct values of a column among the rows of one side of a join, NaN if not known
+  private static double distinct(Joined schema, String name, double rows) {
+    Table table = schema.tables.get(schema.table(name));
+    String column = schema.column(name);
+    if (table.isUnique(column)) {
+      return rows;
+    }
+    Statistics statistics = table.statistics();
+    if (statistics != null && statistics.column(column) != null) {
+      return Math.min(rows, statistics.column(column).distinct());
+    }
+    return Double.NaN;
+  }
+
+  private static boolean isEquiJoin(Expr conjunct, Joined schema, int joined) {
+    if (!(conjunct instanceof Expr.Binary binary)
+        || binary.operator.type != TokenType.EQUALS
+        || !(binary.left instanceof Expr.Variable a)
+        || !(binary.right instanceof Expr.Variable b)
+        || !schema.hasColumn(a.name)
+        || !schema.hasColumn(b.name)) {
+      return false;
+    }
+    int first = schema.table(a.name);
+    int second = schema.table(b.name);
+    return (first == joined && second < joined) || (second == joined && first < joined);
+  }
+
+  // the parts of a clause joined by its top level ANDs
+  private static List<Expr> conjuncts(Expr clause) {
+    List<Expr> conjuncts = new ArrayList<>();
+    if (clause == null) {
+      return conjuncts;
+    }
+    Expr e = clause;
+    while (e instanceof Expr.Grouping grouping) {
+      e = grouping.expression;
+    }
+    if (e instanceof Expr.Logical logical && logical.operator.type == TokenType.AND) {
+      conjuncts.addAll(conjuncts(logical.left));
+      conjuncts.addAll(conjuncts(logical.right));
+    } else {
+      conjuncts.add(clause);
+    }
+    return conjuncts;
+  }
+
+  private static Expr and(List<Expr> conjuncts) {
+    Expr clause = conjuncts.get(0);
+    for (int i = 1; i < conjuncts.size(); i++) {
+      clause = new Expr.Logical(clause, new Token(TokenType.AND, "and", null, 0), conjuncts.get(i));
+    }
+    return clause;
+  }
+
+  // a copy of the clause with a table's prefix taken off its column names
+  private static Expr unqualify(Expr e, String prefix) {
+    if (e instanceof Expr.Variable variable && variable.name.startsWith(prefix)) {
+      return new Expr.Variable(variable.name.substring(prefix.length()));
+    } else if (e instanceof Expr.Grouping grouping) {
+      return new Expr.Grouping(unqualify(grouping.expression, prefix));
+    } else if (e instanceof Expr.Unary unary) {
+      return new Expr.Unary(unary.operator, unqualify(unary.right, prefix));
+    } else if (e instanceof Expr.Binary binary) {
+      return new Expr.Binary(
+          unqualify(binary.left, prefix), binary.operator, unqualify(binary.right, prefix));
+    } else if (e instanceof Expr.Logical logical) {
+      return new Expr.Logical(
+          unqualify(logical.left, prefix), logical.operator, unqualify(logical.right, prefix));
+    } else if (e instanceof Expr.VariableList list) {
+      List<Expr> variables = new ArrayList<>(list.variables.size());
+      for (Expr variable : list.variables) {
+        variables.add(unqualify(variable, prefix));
+      }
+      return new Expr.VariableList(variables);
+    }
+    return e;
+  }
+
+  /**
+   * The layout of a joined row: the internal layout of each table in turn. A column is named {@code
+   * table.column}, or just by its column name when no other table has a column called that.
+   */
+  static final class Joined implements Schema {
+    final List<Table> tables;
+    final List<String> names = new ArrayList<>(); // qualified, in row order
+    private final int[] offsets; // where each table's values start in a row
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final Set<String> ambiguous = new HashSet<>();
+
+    Joined(List<Table> tables) {
+      this.tables = tables;
+      this.offsets = new int[tables.size() + 1];
+      Set<String> seen = new HashSet<>();
+      for (int t = 0; t < tables.size(); t++) {
+        Table table = tables.get(t);
+        if (!seen.add(table.getName())) {
+          throw new RuntimeException("[JOIN] Table " + table.getName() + " is joined twice");
+        }
+        offsets[t] = names.size();
+        for (String column : table.internalColumns()) {
+          String qualified = table.getName() + "." + column;
+          positions.put(qualified, names.size());
+          if (positions.containsKey(column) || ambiguous.contains(column)) {
+            positions.remove(column);
+            ambiguous.add(column);
+          } else {
+            positions.put(column, names.size());
+          }
+          names.add(qualified);
+        }
+      }
+      offsets[tables.size()] = names.size();
+    }
+
+    /**
+     * Where a table's values start in a joined row.
+     *
+     * @param table position of the table in the join, or the number of tables for the row length
+     * @return index into the row
+     */
+    int offset(int table) {
+      return offsets[table];
+    }
+
+    /**
+     * Which table a column belongs to.
+     *
+     * @param columnName the column name
+     * @return position of the table in the join
+     */
+    int table(String columnName) {
+      int index = columnIndex(columnName);
+      int t = 0;
+      while (offsets[t + 1] <= index) {
+        t++;
+      }
+      return t;
+    }
+
+    /**
+     * The tables whose columns a clause looks at.
+     *
+     * @param e the clause
+     * @return positions of the tables in the join
+     */
+    BitSet tables(Expr e) {
+      BitSet uses = new BitSet();
+      if (e instanceof Expr.Variable variable && hasColumn(variable.name)) {
+        uses.set(table(variable.name));
+      } else if (e instanceof Expr.Grouping grouping) {
+        uses.or(tables(grouping.expression));
+      } else if (e instanceof Expr.Unary unary) {
+        uses.or(tables(unary.right));
+      } else if (e instanceof Expr.Binary binary) {
+        uses.or(tables(binary.left));
+        uses.or(tables(binary.right));
+      } else if (e instanceof Expr.Logical logical) {
+        uses.or(tables(logical.left));
+        uses.or(tables(logical.right));
+      } else if (e instanceof Expr.VariableList list) {
+        for (Expr variable : list.variables) {
+          uses.or(tables(variable));
+        }
+      }
+      return uses;
+    }
+
+    @Override
+    public boolean hasColumn(String columnName) {
+      if (ambiguous.contains(columnName)) {
+        throw new RuntimeException(
+            "[JOIN] Column " + columnName + " is in more than one table, name it as table.column");
+      }
+      return positions.containsKey(columnName);
+    }
+
+    @Override
+    public int columnIndex(String columnName) {
+      return positions.get(columnName);
+    }
+
+    /**
+     * The name a column has in its own table.
+     *
+     * @param columnName the column name, qualified or not
+     * @return the name without the table
+     */
+    String column(String columnName) {
+      String qualified = names.get(columnIndex(columnName));
+      return qualified.substring(qualified.indexOf('.') + 1);
+    }
+
+    @Override
+    public boolean isNumeric(String columnName) {
+      return tables.get(table(columnName)).isNumeric(column(columnName));
+    }
+  }
+
+  // rows of the table that pass every comparison
+  private static double estimate(Table table, List<Condition.Comparison> comparisons) {
+    Statistics statistics = table.statistics();
+    // the fraction passing each column's tightest equality, lower bound and upper bound
+    Map<String, double[]> columns = new LinkedHashMap<>();
+    for (var comparison : comparisons) {
+      double[] fractions =
+          columns.computeIfAbsent(comparison.column(), column -> new double[] {1, 1, 1});
+      int slot =
+          switch (comparison.operator()) {
+            case EQUALS -> 0;
+            case GREATER_THAN, GREATER_OR_EQ -> 1;
+            default -> 2;
+          };
+      fractions[slot] =
+          Math.min(fractions[slot], Statistics.selectivity(statistics, table, comparison));
+    }
+    double fraction = 1;
+    for (var entry : columns.entrySet()) {
+      double[] fractions = entry.getValue();
+      double range = fractions[1] * fractions[2];
+      if (fractions[1] < 1
+          && fractions[2] < 1
+          && statistics != null
+          && statistics.column(entry.getKey()) != null) {
+        // measured bounds on one column overlap rather than being independent
+        range = Math.max(0, fractions[1] + fractions[2] - 1);
+      }
+      fraction *= Math.min(fractions[0], range);
+    }
+    return table.primaryKeys().size() * fraction;
+  }
+}
@@ -0,0 +1,151 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A statement that has been scanned and parsed once so it can be run any number of times.
+ *
+ * <p>Values are left out of the SQL as {@code ?} placeholders and given each time the statement is
+ * run, in the order the placeholders appear. A SELECT without placeholders also keeps its compiled
+ * WHERE clause between runs.
+ */
+public final class PreparedStatement {
+
+  private final Database db;
+  private final List<Expr> statements;
+  private final int parameterCount;
+  private Table plannedFor; // table the cached WHERE clause was bound to
+  private int plannedAt; // the table's version when it was bound
+  private Condition plan;
+
+  PreparedStatement(Database db, List<Expr> statements, int parameterCount) {
+    this.db = db;
+    this.statements = statements;
+    this.parameterCount = parameterCount;
+  }
+
+  /**
+   * Number of {@code ?} placeholders that need a value.
+   *
+   * @return the placeholder count
+   */
+  public int parameterCount() {
+    return parameterCount;
+  }
+
+  /**
+   * Run the statement as a query.
+   *
+   * @param values a value for each placeholder
+   * @return a cursor over the selected rows, or null if the query was invalid
+   */
+  public Cursor query(String... values) {
+    List<Expr> bound = bind(values);
+    if (bound.isEmpty() || !(bound.get(0) instanceof Expr.Select select)) {
+      throw new RuntimeException("Expected a SELECT statement");
+    }
+    return db.executeSelect(select, this);
+  }
+
+  /**
+   * Run the statement, committing it unless a transaction is open.
+   *
+   * @param values a value for each placeholder
+   */
+  public void execute(String... values) {
+    db.execute(bind(values), this);
+  }
+
+  List<Expr> statements() {
+    return statements;
+  }
+
+  /**
+   * The compiled WHERE clause of a SELECT, kept from an earlier run when it has no placeholders and
+   * the table's indexes and statistics have not changed since.
+   *
+   * @param table the table being queried
+   * @param clause the WHERE clause with every placeholder filled in
+   * @return the clause bound to the table
+   */
+  synchronized Condition plan(Table table, Expr clause) {
+    if (parameterCount > 0) {
+      return new Condition(table, clause);
+    }
+    int version = table.version();
+    if (plannedFor != table || plannedAt != version) {
+      plan = new Condition(table, clause);
+      plannedFor = table;
+      plannedAt = version;
+    }
+    return plan;
+  }
+
+  private List<Expr> bind(String[] values) {
+    if (values.length != parameterCount) {
+      throw new RuntimeException(
+          "Statement has " + parameterCount + " placeholders but " + values.length + " values");
+    }
+    if (parameterCount == 0) {
+      return statements;
+    }
+    List<Expr> bound = new ArrayList<>(statements.size());
+    for (Expr statement : statements) {
+      if (statement instanceof Expr.Select select) {
+        List<Expr> where = new ArrayList<>(select.whereClause.size());
+        for (Expr clause : select.whereClause) {
+          where.add(bind(clause, values));
+        }
+        List<Expr.Join> joins = new ArrayList<>(select.joins.size());
+        for (Expr.Join join : select.joins) {
+          joins.add(new Expr.Join(join.table, join.left, bind(join.on, values)));
+        }
+        bound.add(
+            new Expr.Select(
+                select.variables,
+                select.table,
+                joins,
+                where,
+                select.groupBy,
+                select.having == null ? null : bind(select.having, values),
+                select.orderBy,
+                select.limit));
+      } else if (statement instanceof Expr.Insert insert) {
+        List<List<Expr>> rows = new ArrayList<>(insert.rows.size());
+        for (List<Expr> given : insert.rows) {
+          List<Expr> row = new ArrayList<>(given.size());
+          for (Expr value : given) {
+            row.add(bind(value, values));
+          }
+          rows.add(row);
+        }
+        bound.add(new Expr.Insert(insert.columns, insert.table, rows));
+      } else {
+        bound.add(statement);
+      }
+    }
+    return bound;
+  }
+
+  // a copy of the expression with its placeholders replaced by their values
+  private static Expr bind(Expr e, String[] values) {
+    if (e instanceof Expr.Parameter parameter) {
+      if (values[parameter.index] == null) {
+        throw new RuntimeException("Value for placeholder " + (parameter.index + 1) + " is null");
+      }
+      return new Expr.Literal(values[parameter.index]);
+    } else if (e instanceof Expr.Grouping grouping) {
+      return new Expr.Grouping(bind(grouping.expression, values));
+    } else if (e instanceof Expr.Unary unary) {
+      return new Expr.Unary(unary.operator, bind(unary.right, values));
+    } else if (e instanceof Expr.Binary binary) {
+      return new Expr.Binary(
+          bind(binary.left, values), binary.operator, bind(binary.right, values));
+    } else if (e instanceof Expr.Logical logical) {
+      return new Expr.Logical(
+          bind(logical.left, values), logical.operator, bind(logical.right, values));
+    }
+    return e;
+  }
+}
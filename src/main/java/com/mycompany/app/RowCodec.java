@@ -0,0 +1,75 @@
+package com.mycompany.app;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Compact binary encoding of a row, {value count} then {length}{utf-8 bytes} per value. */
+final class RowCodec {
+
+  private RowCodec() {}
+
+  /**
+   * Encode a row of attribute values.
+   *
+   * @param row the values, without the internal primary key copy
+   * @return the encoded bytes
+   */
+  static byte[] encode(List<String> row) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(16 * row.size());
+    writeVarInt(out, row.size());
+    for (String value : row) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(out, bytes.length);
+      out.write(bytes, 0, bytes.length);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decode a row that was encoded with {@link #encode}.
+   *
+   * @param buf buffer holding the row
+   * @param offset absolute offset of the row in the buffer
+   * @param length encoded length of the row
+   * @return the row values
+   */
+  static List<String> decode(ByteBuffer buf, int offset, int length) {
+    int[] pos = {offset};
+    int count = readVarInt(buf, pos);
+    List<String> row = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int size = readVarInt(buf, pos);
+      byte[] bytes = new byte[size];
+      buf.get(pos[0], bytes);
+      pos[0] += size;
+      row.add(new String(bytes, StandardCharsets.UTF_8));
+    }
+    if (pos[0] != offset + length) {
+      throw new RuntimeException("[DISK OPERATION] Corrupt row at offset " + offset);
+    }
+    return row;
+  }
+
+  static void writeVarInt(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  static int readVarInt(ByteBuffer buf, int[] pos) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buf.get(pos[0]++);
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+}
@@ -0,0 +1,68 @@
+package com.mycompany.app;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Where a table keeps its rows. Rows are in the table's internal layout, the primary key followed
+ * by each attribute in column order.
+ */
+interface RowStore extends Iterable<List<String>> {
+
+  /**
+   * Find a row by its primary key.
+   *
+   * @param key the primary key of the row
+   * @return the row, or null if there is none
+   */
+  List<String> get(Key key);
+
+  /**
+   * Insert or replace the row with the given primary key.
+   *
+   * @param key the primary key of the row
+   * @param row the row including its primary key
+   * @return the row that was replaced, or null if the key is new
+   */
+  List<String> put(Key key, List<String> row);
+
+  /**
+   * Make room for a number of rows about to be inserted, so a large batch does not grow the store a
+   * step at a time.
+   *
+   * @param rows how many more rows are coming
+   */
+  default void reserve(int rows) {}
+
+  /**
+   * Remove the row with the given primary key.
+   *
+   * @param key the primary key of the row
+   */
+  void remove(Key key);
+
+  /**
+   * Primary keys of every row in the store, in key order.
+   *
+   * @return the keys
+   */
+  Collection<Key> keys();
+
+  /**
+   * Number of rows in the store.
+   *
+   * @return row count
+   */
+  int size();
+
+  /**
+   * Rows whose primary key falls between two bounds, in key order.
+   *
+   * @param low lowest key, or null to start from the first row
+   * @param lowInclusive if the row with key {@code low} is included
+   * @param high highest key, or null to carry on to the last row
+   * @param highInclusive if the row with key {@code high} is included
+   * @return the rows
+   */
+  Iterable<List<String>> range(Key low, boolean lowInclusive, Key high, boolean highInclusive);
+}
@@ -1,11 +1,21 @@
 package com.mycompany.app;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-/** takes in a raw string and returns a list of tokens. */
+/**
+ * takes in a raw string and returns a list of tokens.
+ *
+ * <p>A scanner can also read from a {@link Reader}, a chunk at a time, and hand out one token at a
+ * time with {@link #nextToken}, so an input of any size is scanned in the memory of its longest
+ * token.
+ */
 public class Scanner {
 
   // for checking if an identifier is a reserved word
@@ -52,10 +62,43 @@ public class Scanner {
     keywords.put("null", TokenType.NULL);
     keywords.put("show", TokenType.SHOW);
     keywords.put("into", TokenType.INTO);
+    keywords.put("index", TokenType.INDEX);
+    keywords.put("using", TokenType.USING);
+    keywords.put("with", TokenType.WITH);
+    keywords.put("copy", TokenType.COPY);
+    keywords.put("to", TokenType.TO);
+    keywords.put("analyze", TokenType.ANALYZE);
+    keywords.put("left", TokenType.LEFT);
+    keywords.put("inner", TokenType.INNER);
   }
 
-  private final String input;
-  private final List<Token> tokens = new ArrayList<>();
+  // the text of tokens that are always spelt the same, shared rather than copied from the input
+  private static final Map<TokenType, String> symbols = new EnumMap<>(TokenType.class);
+
+  static {
+    symbols.put(TokenType.RIGHT_PAR, ")");
+    symbols.put(TokenType.LEFT_PAR, "(");
+    symbols.put(TokenType.SEMICOLON, ";");
+    symbols.put(TokenType.EQUALS, "=");
+    symbols.put(TokenType.LESS_THAN_OR_EQ, "<=");
+    symbols.put(TokenType.LESS_THAN, "<");
+    symbols.put(TokenType.GREATER_OR_EQ, ">=");
+    symbols.put(TokenType.GREATER_THAN, ">");
+    symbols.put(TokenType.COMMA, ",");
+    symbols.put(TokenType.PLUS, "+");
+    symbols.put(TokenType.MINUS, "-");
+    symbols.put(TokenType.STAR, "*");
+    symbols.put(TokenType.SLASH, "/");
+    symbols.put(TokenType.PARAMETER, "?");
+  }
+
+  private static final int CHUNK_SIZE = 8192; // characters read from a reader at a time
+
+  private final Reader reader; // null when the whole input was given up front
+  private char[] input;
+  private int length; // characters of input held
+  private long base = 0; // offset in the whole input of input[0]
+  private Token token; // the token the last scanToken() produced, if any
 
   // store data about the current position of the parser
   private int line = 1;
@@ -63,12 +106,51 @@ public class Scanner {
   private int start = 0;
 
   public Scanner(String in) {
-    this.input = in;
+    this.reader = null;
+    this.input = in.toCharArray();
+    this.length = input.length;
+  }
+
+  /**
+   * Scan from a reader, holding only the part of the input that the current token is in.
+   *
+   * @param reader the SQL to scan
+   */
+  public Scanner(Reader reader) {
+    this.reader = reader;
+    this.input = new char[CHUNK_SIZE];
   }
 
   // determine if finished going through entire input string.
   private boolean atEnd() {
-    return current >= input.length();
+    return current >= length && !fill();
+  }
+
+  // read the next chunk, keeping the token being scanned, and return whether any more was read
+  private boolean fill() {
+    if (reader == null) {
+      return false;
+    }
+    if (start > 0) {
+      System.arraycopy(input, start, input, 0, length - start);
+      base += start;
+      length -= start;
+      current -= start;
+      start = 0;
+    }
+    if (length == input.length) {
+      input = Arrays.copyOf(input, input.length * 2); // a token longer than a chunk
+    }
+    try {
+      int read = reader.read(input, length, input.length - length);
+      if (read <= 0) {
+        return false;
+      }
+      length += read;
+      return true;
+    } catch (IOException e) {
+      throw new RuntimeException("[Scanner] Failed to read input", e);
+    }
   }
 
   /**
@@ -77,19 +159,33 @@ public class Scanner {
    * @return List of the tokens gathered
    */
   public List<Token> scanTokens() {
-    while (!atEnd()) {
+    List<Token> tokens = new ArrayList<>();
+    for (Token t = nextToken(); t != null; t = nextToken()) {
+      tokens.add(t);
+    }
+    return tokens;
+  }
+
+  /**
+   * Scan the next token.
+   *
+   * @return the token, or null at the end of the input
+   */
+  public Token nextToken() {
+    token = null;
+    while (token == null && !atEnd()) {
       start = current;
       scanToken();
     }
-    return this.tokens;
+    return token;
   }
 
   private char advance() {
-    return input.charAt(current++);
+    return input[current++];
   }
 
   private boolean match(char nextchar) {
-    if (atEnd() || input.charAt(current) != nextchar) {
+    if (atEnd() || input[current] != nextchar) {
       return false;
     }
     current++;
@@ -118,7 +214,8 @@ public class Scanner {
         addToken(match('=') ? TokenType.GREATER_OR_EQ : TokenType.GREATER_THAN);
         break;
       case '"':
-        scanString();
+      case '\'':
+        scanString(c);
         break;
       case ' ':
         break;
@@ -129,7 +226,14 @@ public class Scanner {
         addToken(TokenType.PLUS);
         break;
       case '-':
-        addToken(TokenType.MINUS);
+        if (match('-')) {
+          // a comment running to the end of the line
+          while (lookahead() != '\n' && !atEnd()) {
+            advance();
+          }
+        } else {
+          addToken(TokenType.MINUS);
+        }
         break;
       case '*':
         addToken(TokenType.STAR);
@@ -137,7 +241,14 @@ public class Scanner {
       case '/':
         addToken(TokenType.SLASH);
         break;
+      case '?':
+        addToken(TokenType.PARAMETER);
+        break;
       case '\t':
+      case '\r':
+        break;
+      case '\n':
+        line++;
         break;
       default:
         if (isDigit(c)) {
@@ -156,14 +267,14 @@ public class Scanner {
     if (atEnd()) {
       return '\0';
     }
-    return input.charAt(current);
+    return input[current];
   }
 
   private char lookaheadTwice() {
-    if (current + 1 >= input.length()) {
+    if (current + 1 >= length && (!fill() || current + 1 >= length)) {
       return '\0';
     }
-    return input.charAt(current + 1);
+    return input[current + 1];
   }
 
   private boolean isDigit(char c) {
@@ -186,11 +297,12 @@ public class Scanner {
       }
     }
 
-    addToken(TokenType.NUMBER, Double.parseDouble(input.substring(start, current)));
+    String text = text(start, current);
+    addToken(TokenType.NUMBER, text, Double.parseDouble(text));
   }
 
-  private void scanString() {
-    while (lookahead() != '"' && !atEnd()) {
+  private void scanString(char quote) {
+    while (lookahead() != quote && !atEnd()) {
       if (lookahead() == '\n') {
         line++;
       }
@@ -203,31 +315,38 @@ public class Scanner {
 
     advance(); // advance to the closing quote mark
 
-    String value = input.substring(start + 1, current - 1);
-    addToken(TokenType.STRING_LITERAL, value);
+    String text = text(start, current);
+    addToken(TokenType.STRING_LITERAL, text, text.substring(1, text.length() - 1));
   }
 
   private void scanIdentifier() {
-    while ((isDigit(lookahead()) || isLetter(lookahead())) && !atEnd()) {
+    // a dot followed by a letter qualifies a column with its table, as in orders.id
+    while ((isDigit(lookahead())
+            || isLetter(lookahead())
+            || (lookahead() == '.' && isLetter(lookaheadTwice())))
+        && !atEnd()) {
       advance();
     }
-    String value = input.substring(start, current);
+    String value = text(start, current);
 
     // determine token type ID vs Reserved Word
-    TokenType t = keywords.get(value.toLowerCase());
+    TokenType t = keywords.get(value);
     if (t == null) {
-      t = TokenType.IDENTIFIER;
+      t = keywords.getOrDefault(value.toLowerCase(), TokenType.IDENTIFIER);
     }
 
-    addToken(t, value);
+    addToken(t, value, value);
+  }
+
+  private String text(int from, int to) {
+    return new String(input, from, to - from);
   }
 
   private void addToken(TokenType type) {
-    addToken(type, null);
+    addToken(type, symbols.get(type), null);
   }
 
-  private void addToken(TokenType type, Object literal) {
-    String text = input.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+  private void addToken(TokenType type, String text, Object literal) {
+    token = new Token(type, text, literal, line, base + start);
   }
 }
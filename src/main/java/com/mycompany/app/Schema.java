@@ -0,0 +1,66 @@
+package com.mycompany.app;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The names and types of the values in the rows a {@link Condition} is tested against: a table's
+ * internal layout, or the rows of a join.
+ */
+interface Schema {
+
+  /**
+   * Check if rows have a value with the given name.
+   *
+   * @param columnName the column name
+   * @return if the column exists
+   */
+  boolean hasColumn(String columnName);
+
+  /**
+   * Where a column's value sits in a row.
+   *
+   * @param columnName the column name
+   * @return index into the row
+   */
+  int columnIndex(String columnName);
+
+  /**
+   * Check if a column's values compare as numbers.
+   *
+   * @param columnName the column name
+   * @return if it is a number column
+   */
+  boolean isNumeric(String columnName);
+
+  /**
+   * The layout of rows made up of named values, such as the rows of an aggregate.
+   *
+   * @param names the name of each value, in row order
+   * @param numeric if each value compares as a number
+   * @return the layout
+   */
+  static Schema of(List<String> names, boolean[] numeric) {
+    Map<String, Integer> positions = new HashMap<>();
+    for (int i = 0; i < names.size(); i++) {
+      positions.putIfAbsent(names.get(i), i);
+    }
+    return new Schema() {
+      @Override
+      public boolean hasColumn(String columnName) {
+        return positions.containsKey(columnName);
+      }
+
+      @Override
+      public int columnIndex(String columnName) {
+        return positions.get(columnName);
+      }
+
+      @Override
+      public boolean isNumeric(String columnName) {
+        return numeric[positions.get(columnName)];
+      }
+    };
+  }
+}
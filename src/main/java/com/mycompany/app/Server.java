@@ -0,0 +1,343 @@
+package com.mycompany.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves the engine over TCP, with a virtual thread for each connection.
+ *
+ * <p>Every message either way is a frame: {type} {length} {payload}. A client sends {@link #QUERY}
+ * frames holding the same text that would be typed at the prompt, as UTF-8. The server answers each
+ * with any number of {@link #ROW} frames followed by one {@link #DONE} or {@link #ERROR} frame, and
+ * answers in the order the queries arrived, so a client may send many before reading any replies. A
+ * row is its value count followed by each value as {length} {UTF-8 bytes}, with a length of -1 for
+ * a null.
+ *
+ * <p>Each connection is a session with its own current database. Until it enters one, queries are
+ * engine commands such as {@code CREATE DATABASE name;}. Sessions in the same database share one
+ * open copy of it, each with a {@link Database.Session} of its own, so one connection's commit or
+ * rollback only takes in its own changes. Whatever a connection has not committed when it closes is
+ * rolled back.
+ */
+public final class Server implements Closeable {
+
+  static final byte QUERY = 'Q';
+  static final byte ROW = 'R';
+  static final byte DONE = 'D';
+  static final byte ERROR = 'E';
+
+  private static final int MAX_FRAME = 16 << 20;
+
+  /**
+   * A single frame.
+   *
+   * @param type one of {@link #QUERY}, {@link #ROW}, {@link #DONE} or {@link #ERROR}
+   * @param payload the frame contents
+   */
+  record Frame(byte type, byte[] payload) {}
+
+  private final Engine engine;
+  private final ServerSocket socket;
+  private final ExecutorService sessions = Executors.newVirtualThreadPerTaskExecutor();
+  private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+  // a lock rather than a monitor, so a virtual thread waiting on the disk frees its carrier
+  private final ReentrantLock lock = new ReentrantLock(); // guards the engine and open
+  private final Map<String, Database> open = new ConcurrentHashMap<>();
+
+  /**
+   * Listen for connections, which are only accepted once {@link #serve()} is running.
+   *
+   * @param engine the engine whose databases are served
+   * @param address where to listen
+   * @throws IOException if the address could not be bound
+   */
+  public Server(Engine engine, InetSocketAddress address) throws IOException {
+    this.engine = engine;
+    this.socket = new ServerSocket();
+    socket.bind(address);
+  }
+
+  /**
+   * Parse a listen address such as {@code :5433} or {@code 127.0.0.1:5433}. Without a host the
+   * server listens on every interface.
+   *
+   * @param listen the address
+   * @return the socket address
+   */
+  public static InetSocketAddress address(String listen) {
+    int colon = listen.lastIndexOf(':');
+    try {
+      int port = Integer.parseInt(listen.substring(colon + 1));
+      String host = colon <= 0 ? "" : listen.substring(0, colon);
+      return host.isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(host, port);
+    } catch (IllegalArgumentException e) {
+      throw new RuntimeException("Expected an address of the form [host]:port, got " + listen, e);
+    }
+  }
+
+  /**
+   * Port the server is listening on, useful when it was bound to port 0.
+   *
+   * @return the local port
+   */
+  public int getPort() {
+    return socket.getLocalPort();
+  }
+
+  /** Accept connections until the server is closed, starting a session for each. */
+  public void serve() {
+    while (!socket.isClosed()) {
+      Socket connection;
+      try {
+        connection = socket.accept();
+      } catch (IOException e) {
+        if (socket.isClosed()) {
+          return;
+        }
+        throw new RuntimeException("[SERVER] Failed to accept a connection", e);
+      }
+      connections.add(connection);
+      try {
+        sessions.execute(() -> session(connection));
+      } catch (RejectedExecutionException e) {
+        // closed while accepting this one
+        connections.remove(connection);
+        try {
+          connection.close();
+        } catch (IOException ignored) {
+          // it was never served
+        }
+        return;
+      }
+    }
+  }
+
+  /** Stop listening, end every session and close the databases they had open. */
+  @Override
+  public void close() {
+    try {
+      socket.close();
+      for (Socket connection : connections) {
+        connection.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("[SERVER] Failed to close", e);
+    }
+    sessions.close(); // waits for the sessions to see their sockets closed
+    lock.lock();
+    try {
+      for (Database db : open.values()) {
+        db.close();
+      }
+      open.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void session(Socket connection) {
+    try (connection;
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+      connection.setTcpNoDelay(true);
+      Session session = new Session();
+      try {
+        for (Frame frame = readFrame(in); frame != null; frame = readFrame(in)) {
+          if (frame.type() != QUERY) {
+            writeFrame(out, ERROR, message("Expected a query frame"));
+            break;
+          }
+          session.run(new String(frame.payload(), StandardCharsets.UTF_8), out);
+          if (in.available() == 0) {
+            out.flush(); // replies to pipelined queries go out together once the last one is run
+          }
+        }
+        out.flush();
+      } finally {
+        session.end();
+      }
+    } catch (SocketException | EOFException e) {
+      // the client went away or the server is closing, the session ends with the connection
+    } catch (IOException e) {
+      System.err.println("[SERVER] Session failed: " + e.getMessage());
+    } finally {
+      connections.remove(connection);
+    }
+  }
+
+  /** What one connection is doing. */
+  private final class Session {
+    private String name;
+    private Database current;
+    private Database.Session changes; // what this connection has done in the current database
+    private final ByteArrayOutputStream row = new ByteArrayOutputStream();
+
+    void run(String text, DataOutputStream out) throws IOException {
+      String done;
+      try {
+        done = current == null ? command(text) : current.within(changes, () -> query(text, out));
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      } catch (RuntimeException e) {
+        writeFrame(out, ERROR, message(String.valueOf(e.getMessage())));
+        return;
+      }
+      writeFrame(out, DONE, message(done));
+    }
+
+    // roll back whatever was not committed, unless the database was dropped from under it
+    void end() {
+      if (current != null && open.get(name) == current) {
+        current.within(
+            changes,
+            () -> {
+              current.rollback();
+              return null;
+            });
+      }
+    }
+
+    private String query(String text, DataOutputStream out) {
+      if (open.get(name) != current) {
+        current = null;
+        throw new RuntimeException("Database " + name + " was dropped.");
+      }
+      PreparedStatement prepared = current.prepare(text);
+      List<Expr> statements = prepared.statements();
+      if (statements.size() != 1 || !(statements.get(0) instanceof Expr.Select)) {
+        prepared.execute();
+        return "OK";
+      }
+      Cursor rows = prepared.query();
+      if (rows == null) {
+        throw new RuntimeException("Invalid query");
+      }
+      long count = 0;
+      try {
+        while (rows.hasNext()) {
+          writeRow(out, rows.next());
+          count++;
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return count + (count == 1 ? " row" : " rows");
+    }
+
+    private void writeRow(DataOutputStream out, List<String> values) throws IOException {
+      row.reset();
+      DataOutputStream encoded = new DataOutputStream(row);
+      encoded.writeInt(values.size());
+      for (String value : values) {
+        if (value == null) {
+          encoded.writeInt(-1);
+        } else {
+          byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+          encoded.writeInt(bytes.length);
+          encoded.write(bytes);
+        }
+      }
+      out.writeByte(ROW);
+      out.writeInt(row.size());
+      row.writeTo(out);
+    }
+
+    // engine mode, the same commands as at the prompt
+    private String command(String text) {
+      Expr.EngineExpr command = new Parser(new Scanner(text).scanTokens()).parseEngineExpr();
+      String database = command.database;
+      lock.lock();
+      try {
+        if (command.create && !command.drop) {
+          if (engine.databases.contains(database)) {
+            throw new RuntimeException("Database " + database + " already exists.");
+          }
+          engine.createDatabase(database);
+          return "Database " + database + " created.";
+        } else if (command.drop && !command.create) {
+          if (!engine.databases.remove(database)) {
+            throw new RuntimeException("Database " + database + " not found.");
+          }
+          Database dropped = open.remove(database);
+          if (dropped != null) {
+            dropped.close();
+          }
+          Disk.deleteDatabase(database + ".db");
+          return "Database " + database + " dropped.";
+        } else if (!command.create && !command.drop) {
+          if (!engine.databases.contains(database)) {
+            throw new RuntimeException("Database " + database + " not found.");
+          }
+          current = open.computeIfAbsent(database, engine::open);
+          changes = new Database.Session();
+          name = database;
+          return "Entered database " + database + ".";
+        }
+      } finally {
+        lock.unlock();
+      }
+      throw new RuntimeException("Unknown command in engine mode.");
+    }
+  }
+
+  private static byte[] message(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write a frame, leaving it in the stream's buffer.
+   *
+   * @param out the stream
+   * @param type the frame type
+   * @param payload the frame contents
+   * @throws IOException if the frame could not be written
+   */
+  static void writeFrame(DataOutputStream out, byte type, byte[] payload) throws IOException {
+    out.writeByte(type);
+    out.writeInt(payload.length);
+    out.write(payload);
+  }
+
+  /**
+   * Read the next frame.
+   *
+   * @param in the stream
+   * @return the frame, or null if the stream ended between frames
+   * @throws IOException if the frame could not be read or is too large
+   */
+  static Frame readFrame(DataInputStream in) throws IOException {
+    int type = in.read();
+    if (type < 0) {
+      return null;
+    }
+    int length = in.readInt();
+    if (length < 0 || length > MAX_FRAME) {
+      throw new IOException("Frame of " + length + " bytes is too large");
+    }
+    byte[] payload = new byte[length];
+    in.readFully(payload);
+    return new Frame((byte) type, payload);
+  }
+}
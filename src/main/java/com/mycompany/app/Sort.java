@@ -0,0 +1,259 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * The rows of its input sorted on some of their values, each ascending or descending. Values are
+ * compared the way primary keys are, and empty values sort before any other.
+ *
+ * <p>With a LIMIT only the first rows are wanted, so they are kept in a heap bounded by the limit
+ * while the input is read, taking O(rows log limit) time and memory for the limit's rows alone.
+ * Otherwise rows are held until they take more than the memory budget, then sorted and written out
+ * as a run to a spill file. The runs are merged {@link #MERGE_WIDTH} at a time until one merge of
+ * them and the rows still held returns every row in order. A run's file is only opened for reading
+ * once it goes into a merge, so no more than {@link #MERGE_WIDTH} are open at once.
+ */
+final class Sort extends Plan {
+
+  static final int MERGE_WIDTH = 64; // most runs read from at once
+
+  private static final int ROW_OVERHEAD = 64; // guessed bytes a held row costs besides its values
+
+  /**
+   * A value rows are sorted on.
+   *
+   * @param index where the value sits in a row of the input
+   * @param numeric if the value compares as a number
+   * @param descending if larger values come first
+   */
+  record Order(int index, boolean numeric, boolean descending) {}
+
+  final Plan input;
+  final Integer limit; // most rows wanted, or null for every row
+  private final List<Order> order;
+  private final SpillFiles.Budget budget; // what the held rows may take before spilling
+  private final Comparator<Entry> comparator = this::compare;
+
+  Sort(Plan input, List<Order> order, Integer limit, SpillFiles.Budget budget) {
+    super(
+        limit == null ? input.rows : Math.min(input.rows, limit),
+        input.cost + input.rows * log2(limit == null ? input.rows : Math.min(input.rows, limit)));
+    this.input = input;
+    this.order = List.copyOf(order);
+    this.limit = limit;
+    this.budget = budget;
+  }
+
+  private static double log2(double rows) {
+    return Math.log(Math.max(2, rows)) / Math.log(2);
+  }
+
+  @Override
+  List<String> columns() {
+    return input.columns();
+  }
+
+  @Override
+  List<Plan> inputs() {
+    return List.of(input);
+  }
+
+  @Override
+  String describe() {
+    List<String> names = new ArrayList<>(order.size());
+    for (Order value : order) {
+      names.add(input.columns().get(value.index()) + (value.descending() ? " desc" : ""));
+    }
+    return (limit == null ? "sort on " : "top " + limit + " sort on ") + String.join(", ", names);
+  }
+
+  // a row with the values it is sorted on, worked out once
+  private record Entry(Object[] values, List<String> row) {}
+
+  private Entry entry(List<String> row) {
+    Object[] values = new Object[order.size()];
+    for (int i = 0; i < values.length; i++) {
+      String value = row.get(order.get(i).index());
+      if (value != null && !value.isEmpty()) {
+        values[i] = order.get(i).numeric() ? Key.number(value) : value;
+      }
+    }
+    return new Entry(values, row);
+  }
+
+  private int compare(Entry a, Entry b) {
+    for (int i = 0; i < a.values.length; i++) {
+      int compared = Key.compare(a.values[i], b.values[i]);
+      if (compared != 0) {
+        return order.get(i).descending() ? -compared : compared;
+      }
+    }
+    return 0;
+  }
+
+  private static long size(List<String> row) {
+    long bytes = ROW_OVERHEAD;
+    for (String value : row) {
+      bytes += 40 + 2L * value.length();
+    }
+    return bytes;
+  }
+
+  @Override
+  Iterator<List<String>> iterator() {
+    Iterator<List<String>> rows = input.iterator();
+    List<Entry> held = new ArrayList<>();
+    long bytes = 0;
+    if (limit != null) {
+      // the heap's head is the last row kept, the first to go when a better row is read
+      PriorityQueue<Entry> top =
+          new PriorityQueue<>(Math.min(Math.max(1, limit), 1024), comparator.reversed());
+      while (limit > 0 && rows.hasNext()) {
+        Entry entry = entry(rows.next());
+        if (top.size() < limit) {
+          top.add(entry);
+          bytes += size(entry.row);
+          if (bytes > budget.memory()) {
+            // the limit is too large to hold, so sort every row on disk instead
+            held.addAll(top);
+            return external(rows, held, bytes);
+          }
+        } else if (compare(entry, top.peek()) < 0) {
+          bytes += size(entry.row) - size(top.poll().row);
+          top.add(entry);
+        }
+      }
+      held.addAll(top);
+      held.sort(comparator);
+      return rows(held.iterator(), List.of());
+    }
+    return external(rows, held, bytes);
+  }
+
+  // sort the rows held and the rest of the input, writing runs to disk when over budget
+  private Iterator<List<String>> external(
+      Iterator<List<String>> rows, List<Entry> held, long bytes) {
+    List<SpillFiles> runs = new ArrayList<>(); // only opened for reading once merged
+    List<SpillFiles> files = new ArrayList<>();
+    while (rows.hasNext()) {
+      Entry entry = entry(rows.next());
+      held.add(entry);
+      bytes += size(entry.row);
+      if (bytes > budget.memory()) {
+        held.sort(comparator);
+        runs.add(run(held.iterator(), files));
+        held.clear();
+        bytes = 0;
+      }
+    }
+    held.sort(comparator);
+    while (runs.size() >= MERGE_WIDTH) {
+      List<SpillFiles> merged = new ArrayList<>(runs.subList(0, MERGE_WIDTH));
+      runs.subList(0, MERGE_WIDTH).clear();
+      runs.add(run(merge(read(merged)), files));
+      merged.forEach(SpillFiles::close);
+      files.removeAll(merged);
+    }
+    List<Iterator<Entry>> last = read(runs);
+    last.add(held.iterator());
+    return rows(merge(last), files);
+  }
+
+  // write sorted rows out as a run, closing its file until it is merged
+  private SpillFiles run(Iterator<Entry> entries, List<SpillFiles> files) {
+    SpillFiles file = new SpillFiles(1, "sort", budget.directory());
+    files.add(file);
+    while (entries.hasNext()) {
+      file.write(0, entries.next().row);
+    }
+    file.finish(0);
+    return file;
+  }
+
+  // open runs for a merge, each read back in the order it was written
+  private List<Iterator<Entry>> read(List<SpillFiles> runs) {
+    List<Iterator<Entry>> entries = new ArrayList<>(runs.size() + 1);
+    for (SpillFiles run : runs) {
+      Iterator<List<String>> read = run.read(0);
+      entries.add(
+          new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+              return read.hasNext();
+            }
+
+            @Override
+            public Entry next() {
+              return entry(read.next());
+            }
+          });
+    }
+    return entries;
+  }
+
+  // the rows of sorted runs in order, taking the least next row of any run each time
+  private Iterator<Entry> merge(List<Iterator<Entry>> runs) {
+    if (runs.size() == 1) {
+      return runs.get(0);
+    }
+    record Head(Entry entry, Iterator<Entry> run) {}
+    PriorityQueue<Head> heads =
+        new PriorityQueue<>(runs.size(), (a, b) -> compare(a.entry, b.entry));
+    for (Iterator<Entry> run : runs) {
+      if (run.hasNext()) {
+        heads.add(new Head(run.next(), run));
+      }
+    }
+    return new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return !heads.isEmpty();
+      }
+
+      @Override
+      public Entry next() {
+        Head head = heads.poll();
+        if (head == null) {
+          throw new NoSuchElementException();
+        }
+        if (head.run.hasNext()) {
+          heads.add(new Head(head.run.next(), head.run));
+        }
+        return head.entry;
+      }
+    };
+  }
+
+  // the rows, up to the limit, deleting the runs once the last row wanted is returned
+  private Iterator<List<String>> rows(Iterator<Entry> entries, List<SpillFiles> files) {
+    return new Iterator<>() {
+      private int returned;
+
+      @Override
+      public boolean hasNext() {
+        if ((limit == null || returned < limit) && entries.hasNext()) {
+          return true;
+        }
+        files.forEach(SpillFiles::close);
+        return false;
+      }
+
+      @Override
+      public List<String> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        List<String> row = entries.next().row;
+        if (limit != null && ++returned == limit) {
+          files.forEach(SpillFiles::close); // a LIMIT above does not ask for more
+        }
+        return row;
+      }
+    };
+  }
+}
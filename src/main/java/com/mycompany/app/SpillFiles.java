@@ -0,0 +1,190 @@
+package com.mycompany.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Rows that did not fit in memory, written to temporary files a partition each and read back one
+ * partition at a time. Each row is kept as its length followed by its {@link RowCodec} encoding. A
+ * partition's file is deleted once it has been read to the end, and whatever is left by {@link
+ * #close}, which the step holding the rows calls once it is done with them.
+ */
+final class SpillFiles implements AutoCloseable {
+
+  /**
+   * What a step that holds rows may use.
+   *
+   * @param memory bytes the held rows may take before they are spilled
+   * @param directory where spill files go, or null for the system's temporary directory
+   */
+  record Budget(long memory, Path directory) {}
+
+  private final String prefix; // start of the temporary file names
+  private final Path directory; // null for the system's temporary directory
+  private final Path[] paths; // null until a row is written to the partition
+  private final DataOutputStream[] out;
+  private final DataInputStream[] in; // null until the partition is read back
+
+  /**
+   * Set up partitions, creating a file for each only when a row is first written to it.
+   *
+   * @param partitions number of partitions
+   * @param prefix start of the temporary file names, e.g. join
+   * @param directory where the files go, or null for the system's temporary directory
+   */
+  SpillFiles(int partitions, String prefix, Path directory) {
+    this.prefix = prefix;
+    this.directory = directory;
+    this.paths = new Path[partitions];
+    this.out = new DataOutputStream[partitions];
+    this.in = new DataInputStream[partitions];
+  }
+
+  /**
+   * Add a row to the end of a partition.
+   *
+   * @param partition the partition
+   * @param row the row
+   */
+  void write(int partition, List<String> row) {
+    try {
+      if (paths[partition] == null) {
+        paths[partition] =
+            directory == null
+                ? Files.createTempFile(prefix, ".spill")
+                : Files.createTempFile(directory, prefix, ".spill");
+        out[partition] =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(paths[partition])));
+      }
+      byte[] bytes = RowCodec.encode(row);
+      out[partition].writeInt(bytes.length);
+      out[partition].write(bytes);
+    } catch (IOException e) {
+      close();
+      throw new RuntimeException("[SPILL] Could not write rows to disk", e);
+    }
+  }
+
+  /**
+   * Close a partition's file until it is read back, so that it holds no file handle in the
+   * meantime. No more rows may be written to it.
+   *
+   * @param partition the partition
+   */
+  void finish(int partition) {
+    if (out[partition] == null) {
+      return;
+    }
+    try {
+      out[partition].close();
+    } catch (IOException e) {
+      close();
+      throw new RuntimeException("[SPILL] Could not write rows to disk", e);
+    }
+    out[partition] = null;
+  }
+
+  /**
+   * Read back the rows of a partition, in the order they were written. No more rows may be written
+   * to it.
+   *
+   * @param partition the partition
+   * @return the rows, read from the file as they are asked for
+   */
+  Iterator<List<String>> read(int partition) {
+    if (paths[partition] == null) {
+      return Collections.emptyIterator();
+    }
+    finish(partition);
+    DataInputStream in;
+    try {
+      in = new DataInputStream(new BufferedInputStream(Files.newInputStream(paths[partition])));
+      this.in[partition] = in;
+    } catch (IOException e) {
+      close();
+      throw new RuntimeException("[SPILL] Could not read rows back from disk", e);
+    }
+    return new Iterator<>() {
+      private List<String> next;
+      private boolean done;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null && !done) {
+          try {
+            next = read(in);
+            if (next == null) {
+              done = true;
+              delete(partition);
+            }
+          } catch (IOException e) {
+            close();
+            throw new RuntimeException("[SPILL] Could not read rows back from disk", e);
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public List<String> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        List<String> row = next;
+        next = null;
+        return row;
+      }
+    };
+  }
+
+  // the next row of a file, or null at its end
+  private static List<String> read(DataInputStream in) throws IOException {
+    int length;
+    try {
+      length = in.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return RowCodec.decode(ByteBuffer.wrap(bytes), 0, length);
+  }
+
+  private void delete(int partition) {
+    try {
+      if (out[partition] != null) {
+        out[partition].close();
+      }
+      if (in[partition] != null) {
+        in[partition].close();
+      }
+    } catch (IOException e) {
+      // the file is going anyway
+    }
+    if (paths[partition] != null) {
+      paths[partition].toFile().delete();
+    }
+    out[partition] = null;
+    in[partition] = null;
+    paths[partition] = null;
+  }
+
+  /** Delete every file that is left. */
+  @Override
+  public void close() {
+    for (int i = 0; i < paths.length; i++) {
+      delete(i);
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What ANALYZE found out about a table's rows, used by the {@link Planner} to guess how many rows a
+ * WHERE clause keeps.
+ *
+ * <p>Each column has its number of distinct values and an equi-depth histogram: the column's values
+ * in sorted order cut into {@link #BUCKETS} runs of the same number of rows, recording the value
+ * each run ends on. A value that covers many rows ends many runs, so skew in the data shows up in
+ * the estimates. Estimates are kept as fractions of the table, so they stay useful as rows are
+ * added after the table was analyzed.
+ */
+final class Statistics {
+
+  static final int BUCKETS = 64;
+
+  // guesses for a column that has not been analyzed
+  static final double DEFAULT_EQUALS = 0.1;
+  static final double DEFAULT_RANGE = 0.3;
+
+  /**
+   * What is known about one column.
+   *
+   * @param distinct number of different values, counting null (empty) as one
+   * @param nulls fraction of rows with no value
+   * @param bounds the last value of each run of the histogram, in sorted order
+   */
+  record ColumnStatistics(long distinct, double nulls, Key[] bounds) {}
+
+  private final long rows; // rows in the table when it was analyzed
+  private final Map<String, ColumnStatistics> columns = new HashMap<>();
+
+  /**
+   * Gather statistics over every row of a table.
+   *
+   * @param table the table being analyzed
+   * @param rows the rows of the table in its internal layout
+   */
+  Statistics(Table table, Iterable<List<String>> rows) {
+    List<Column> cols = table.getColumns();
+    List<List<Key>> values = new ArrayList<>(cols.size());
+    List<Set<String>> distinct = new ArrayList<>(cols.size());
+    boolean[][] numeric = new boolean[cols.size()][];
+    int[] nulls = new int[cols.size()];
+    for (int c = 0; c < cols.size(); c++) {
+      values.add(new ArrayList<>());
+      distinct.add(new HashSet<>());
+      numeric[c] = new boolean[] {table.isNumeric(cols.get(c).name())};
+    }
+    long count = 0;
+    for (List<String> row : rows) {
+      count++;
+      for (int c = 0; c < cols.size(); c++) {
+        String value = row.get(c + 1);
+        distinct.get(c).add(value);
+        if (value.isEmpty()) {
+          nulls[c]++;
+        } else {
+          values.get(c).add(new Key(new String[] {value}, numeric[c]));
+        }
+      }
+    }
+    this.rows = count;
+    for (int c = 0; c < cols.size(); c++) {
+      List<Key> sorted = values.get(c);
+      sorted.sort(null);
+      Key[] bounds = new Key[Math.min(BUCKETS, sorted.size())];
+      for (int b = 0; b < bounds.length; b++) {
+        bounds[b] = sorted.get((int) ((long) (b + 1) * sorted.size() / bounds.length) - 1);
+      }
+      columns.put(
+          cols.get(c).name(),
+          new ColumnStatistics(
+              distinct.get(c).size(), count == 0 ? 0 : (double) nulls[c] / count, bounds));
+    }
+  }
+
+  /**
+   * Number of rows in the table when it was analyzed.
+   *
+   * @return row count
+   */
+  long rows() {
+    return rows;
+  }
+
+  /**
+   * What is known about a column.
+   *
+   * @param column the column name
+   * @return its statistics, or null if the column was not analyzed
+   */
+  ColumnStatistics column(String column) {
+    return columns.get(column);
+  }
+
+  /**
+   * Guess the fraction of rows that pass a comparison.
+   *
+   * @param statistics what is known about the table, or null if it has not been analyzed
+   * @param table the table the comparison is on
+   * @param comparison a column compared with a constant
+   * @return a fraction between 0 and 1
+   */
+  static double selectivity(Statistics statistics, Table table, Condition.Comparison comparison) {
+    ColumnStatistics column = statistics == null ? null : statistics.column(comparison.column());
+    boolean equals = comparison.operator() == TokenType.EQUALS;
+    if (column == null || statistics.rows == 0) {
+      return equals ? DEFAULT_EQUALS : DEFAULT_RANGE;
+    }
+    if (comparison.value().isEmpty()) {
+      return equals ? column.nulls() : 0; // nothing compares with null but null itself
+    }
+    Key[] bounds = column.bounds();
+    if (bounds.length == 0) {
+      return 0; // every value is null
+    }
+    double present = 1 - column.nulls();
+    Key value =
+        new Key(
+            new String[] {comparison.value()},
+            new boolean[] {table.isNumeric(comparison.column())});
+    int first = firstAtLeast(bounds, value);
+    int after = firstAbove(bounds, value);
+    double perValue = present / Math.max(1, column.distinct());
+    if (equals) {
+      // a value that ends several runs covers at least all but one of them
+      return Math.max(perValue, present * Math.max(0, after - first - 1) / bounds.length);
+    }
+    double below = present * first / bounds.length; // runs that end before the value
+    double atOrBelow = present * after / bounds.length;
+    return switch (comparison.operator()) {
+      case LESS_THAN -> Math.max(below, perValue);
+      case LESS_THAN_OR_EQ -> Math.max(atOrBelow, perValue);
+      case GREATER_THAN -> Math.max(present - atOrBelow, perValue);
+      case GREATER_OR_EQ -> Math.max(present - below, perValue);
+      default -> DEFAULT_RANGE;
+    };
+  }
+
+  // index of the first bound at or above value, or bounds.length
+  private static int firstAtLeast(Key[] bounds, Key value) {
+    int low = 0;
+    int high = bounds.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (bounds[middle].compareTo(value) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  // index of the first bound above value, or bounds.length
+  private static int firstAbove(Key[] bounds, Key value) {
+    int low = 0;
+    int high = bounds.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (bounds[middle].compareTo(value) <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder(rows + " rows");
+    for (var entry : columns.entrySet()) {
+      text.append(", ")
+          .append(entry.getKey())
+          .append(": ")
+          .append(entry.getValue().distinct())
+          .append(" distinct");
+    }
+    return text.toString();
+  }
+}
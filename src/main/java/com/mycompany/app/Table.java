@@ -1,13 +1,35 @@
 package com.mycompany.app;
 
-import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-/** A representation of a Database table to interact with it using java. */
-public class Table implements Serializable {
+/**
+ * A representation of a Database table to interact with it using java.
+ *
+ * <p>A table may be used by many threads at once. Changes to its rows or indexes take the table's
+ * write lock, so one thread changes a table at a time while other tables carry on. Queries take the
+ * read lock while they plan and then for each batch of rows they find, never between batches, so a
+ * long query lets writers in as it goes. Rows are handed out as copies and scans find their place
+ * again by key after a write, so a query that carries on returns each row it would have returned
+ * anyway exactly once. Looking up a single row by its primary key in memory takes no lock at all:
+ * it reads optimistically and only locks if a write got in the way.
+ */
+public class Table implements Schema {
+
+  // the tables each thread holds the read lock of, so nested reads do not lock twice
+  private static final ThreadLocal<Set<Table>> READING = ThreadLocal.withInitial(HashSet::new);
 
   private final ArrayList<Column> columns; // the 'schema' of the table
   private final HashMap<String, Integer> columnLocationMap; // where in the row a specific column is
@@ -16,8 +38,43 @@ public class Table implements Serializable {
   private final String name; // table name
 
   private final ArrayList<Integer> pkIndexes;
+  private final boolean[] pkNumeric; // which parts of the primary key compare as numbers
+
+  private RowStore data; // hold the primary key and the row
+
+  private volatile Statistics statistics; // from the last ANALYZE, or null if never analyzed
+  private volatile int version; // bumped whenever the indexes or statistics change
+
+  private final StampedLock lock = new StampedLock(); // guards the rows and indexes
+
+  private final Layout layout;
 
-  private final HashMap<String, List<String>> data; // hold the primary key and the row
+  private final PageChain pages; // location of the table in the database file
+
+  private InsertListener listener; // the owning database, recording changes for its transaction
+
+  private final List<Index> indexes =
+      new ArrayList<>(); // secondary indexes, kept in sync by insert
+
+  /** How a table keeps its rows in memory. */
+  public enum Layout {
+    /** Each row held together, the default. */
+    ROW,
+    /** Each column held together, for scans that read a few columns of many rows. */
+    COLUMNAR
+  }
+
+  /** Told about every row inserted into a table. */
+  interface InsertListener {
+    /**
+     * A row was inserted.
+     *
+     * @param table the table that changed
+     * @param row the inserted attribute values, without the primary key copy
+     * @param previous the attribute values of the row it replaced, or null
+     */
+    void inserted(Table table, List<String> row, List<String> previous);
+  }
 
   /**
    * Check if the table has a column with the given name.
@@ -39,7 +96,31 @@ public class Table implements Serializable {
   }
 
   public Column getColumn(String columnName) {
-    return columns.get(columnLocationMap.get(columnName));
+    return columns.get(columnLocationMap.get(columnName) - 1);
+  }
+
+  /**
+   * Where a column's value sits in a row of the internal layout.
+   *
+   * @param columnName the column, or primary_key for the primary key copy
+   * @return index into the row
+   */
+  public int columnIndex(final String columnName) {
+    return columnLocationMap.get(columnName);
+  }
+
+  /**
+   * Check if a column's values compare as numbers.
+   *
+   * @param columnName the column, or primary_key for the primary key copy
+   * @return if it is a number column
+   */
+  public boolean isNumeric(final String columnName) {
+    int index = columnLocationMap.get(columnName);
+    if (index == 0) {
+      return pkNumeric.length == 1 && pkNumeric[0];
+    }
+    return columns.get(index - 1).type() == TokenType.NUMBER;
   }
 
   /**
@@ -49,6 +130,17 @@ public class Table implements Serializable {
    * @param cols - List of Columns to defin the schema
    */
   public Table(final String tableName, final List<Column> cols) {
+    this(tableName, cols, Layout.ROW);
+  }
+
+  /**
+   * Creation of a Database Table with a chosen layout.
+   *
+   * @param tableName - Name of the table
+   * @param cols - List of Columns to defin the schema
+   * @param layout - how the rows are kept in memory
+   */
+  public Table(final String tableName, final List<Column> cols, final Layout layout) {
     this.columns = new ArrayList<>(cols.size());
     for (var col : cols) {
       this.columns.add(col);
@@ -68,13 +160,23 @@ public class Table implements Serializable {
       }
     }
 
+    this.pkNumeric = new boolean[pkIndexes.size()];
+    for (int i = 0; i < pkNumeric.length; i++) {
+      pkNumeric[i] = cols.get(pkIndexes.get(i)).type() == TokenType.NUMBER;
+    }
+
     columnLocationMap.put("primary_key", 0);
     /*
      * the internal primary key will be copied into row 0 regardless, also works
      * with composite keys
      */
 
-    data = new HashMap<>();
+    this.layout = layout;
+    data =
+        layout == Layout.COLUMNAR
+            ? new ColumnarRowStore(numeric(getColumnNames()))
+            : new HeapRowStore(numeric(getColumnNames()));
+    pages = new PageChain();
   }
 
   /**
@@ -86,6 +188,70 @@ public class Table implements Serializable {
     return name;
   }
 
+  public Layout getLayout() {
+    return layout;
+  }
+
+  /**
+   * Names of the values in a row of the internal layout, the primary key copy first.
+   *
+   * @return primary_key followed by every column name
+   */
+  List<String> internalColumns() {
+    List<String> names = new ArrayList<>(columns.size() + 1);
+    names.add("primary_key");
+    names.addAll(getColumnNames());
+    return names;
+  }
+
+  /**
+   * Check if no two rows can hold the same value in a column, because it is the whole primary key
+   * or has a unique index of its own.
+   *
+   * @param columnName the column, or primary_key for the primary key copy
+   * @return if the column's values are unique
+   */
+  boolean isUnique(final String columnName) {
+    Integer index = columnLocationMap.get(columnName);
+    if (index == null) {
+      return false;
+    }
+    if (index == 0 || (pkIndexes.size() == 1 && pkIndexes.get(0) == index - 1)) {
+      return true;
+    }
+    for (var idx : indexes) {
+      if (idx.unique() && idx.columns().equals(List.of(columnName))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Gather fresh statistics about the table's rows for the planner. */
+  public void analyze() {
+    statistics = reading(List.of(this), () -> new Statistics(this, data));
+    version++;
+  }
+
+  /**
+   * Changes whenever an index is created or dropped or the table is analyzed, so a plan made for
+   * the table can tell it may no longer be the best one.
+   *
+   * @return the current version
+   */
+  int version() {
+    return version;
+  }
+
+  /**
+   * What the last ANALYZE found out about the table.
+   *
+   * @return the statistics, or null if the table has not been analyzed
+   */
+  Statistics statistics() {
+    return statistics;
+  }
+
   private List<String> getColumnNames() {
     List<String> columnNames = new ArrayList<>(this.columns.size());
     for (int i = 0; i < this.columns.size(); i++) {
@@ -98,31 +264,500 @@ public class Table implements Serializable {
    * Select Data from table.
    *
    * @param colmns which columns you want to get
-   * @param limit maximum number of rows
+   * @param limit maximum number of rows, or null for every row
    * @return the data as list of list of strings
    */
   public List<List<String>> select(final List<String> colmns, final Integer limit) {
+    if (data instanceof ColumnarRowStore columnar) {
+      return reading(
+          List.of(this),
+          () -> columnar.project(locations(selected(colmns)), limit == null ? -1 : limit));
+    }
+    return cursor(colmns, limit).fetchAll();
+  }
 
-    ArrayList<String> cols = new ArrayList<>(colmns.size());
-    cols.addAll(colmns);
-    if (cols.contains("*")) {
-      cols.addAll(getColumnNames());
+  /**
+   * Read the table's rows one at a time instead of building the whole result.
+   *
+   * @param colmns which columns you want to get
+   * @param limit maximum number of rows, or null for every row
+   * @return a cursor over the rows
+   */
+  public Cursor cursor(final List<String> colmns, final Integer limit) {
+    return plan(colmns, null, limit).cursor();
+  }
+
+  /**
+   * Split the table into ranges of primary keys, each read by its own cursor in key order, so the
+   * ranges can be read in parallel. Joined in order the cursors return every row once.
+   *
+   * @param colmns which columns you want to get
+   * @param count most ranges to split the table into
+   * @return a cursor for each range, in key order
+   */
+  List<Cursor> partitions(final List<String> colmns, final int count) {
+    List<String> cols = selected(colmns);
+    int[] indexes = locations(cols);
+    List<Cursor> cursors = new ArrayList<>();
+    for (Iterable<List<String>> rows : ranges(count)) {
+      cursors.add(new Cursor(cols, indexes, rows.iterator(), row -> true, null, List.of(this)));
     }
+    return cursors;
+  }
 
-    ArrayList<Integer> indexes = new ArrayList<>();
-    for (var col : cols) {
-      indexes.add(columnLocationMap.get(col));
+  /**
+   * Split the rows into ranges of primary keys holding about as many rows each.
+   *
+   * @param count most ranges to split the table into
+   * @return the rows of each range in the table's internal layout, the ranges in key order
+   */
+  List<Iterable<List<String>>> ranges(final int count) {
+    return reading(List.of(this), () -> split(count));
+  }
+
+  private List<Iterable<List<String>>> split(final int count) {
+    int size = data.size();
+    int per = Math.max(1, (size + count - 1) / Math.max(count, 1)); // rows in each range
+    List<Key> bounds = new ArrayList<>(); // the first key of every range but the first
+    int seen = 0;
+    for (Key key : data.keys()) {
+      if (seen > 0 && seen % per == 0) {
+        bounds.add(key);
+      }
+      seen++;
     }
+    List<Iterable<List<String>>> ranges = new ArrayList<>(bounds.size() + 1);
+    for (int i = 0; i <= bounds.size(); i++) {
+      Key low = i == 0 ? null : bounds.get(i - 1);
+      Key high = i == bounds.size() ? null : bounds.get(i);
+      ranges.add(data.range(low, true, high, false));
+    }
+    return ranges;
+  }
+
+  /**
+   * Read the rows that satisfy a WHERE clause one at a time, finding them through an index when the
+   * clause allows it.
+   *
+   * @param colmns which columns you want to get
+   * @param where the clause the rows must satisfy
+   * @param limit maximum number of rows, or null for every row
+   * @return a cursor over the matching rows
+   */
+  Cursor cursor(final List<String> colmns, final Condition where, final Integer limit) {
+    return plan(colmns, where, limit).cursor();
+  }
+
+  /**
+   * Plan how to read the rows that satisfy a WHERE clause.
+   *
+   * @param colmns which columns you want to get
+   * @param where the clause the rows must satisfy, or null for every row
+   * @param limit maximum number of rows, or null for every row
+   * @return the plan
+   */
+  Plan plan(final List<String> colmns, final Condition where, final Integer limit) {
+    return plan(colmns, where, limit, 1);
+  }
+
+  /**
+   * Plan how to read the rows that satisfy a WHERE clause, filtering a large table in parallel when
+   * that is guessed to pay.
+   *
+   * @param colmns which columns you want to get
+   * @param where the clause the rows must satisfy, or null for every row
+   * @param limit maximum number of rows, or null for every row
+   * @param workers most workers the table may be split among
+   * @return the plan
+   */
+  Plan plan(
+      final List<String> colmns, final Condition where, final Integer limit, final int workers) {
+    return reading(
+        List.of(this), () -> Planner.plan(this, selected(colmns), where, limit, workers));
+  }
+
+  /**
+   * Select the rows that satisfy a WHERE clause, finding them through an index when the clause
+   * allows it.
+   *
+   * @param colmns which columns you want to get
+   * @param where the clause the rows must satisfy
+   * @return the data as list of list of strings
+   */
+  List<List<String>> selectWhere(final List<String> colmns, final Condition where) {
+    return cursor(colmns, where, null).fetchAll();
+  }
+
+  /**
+   * Describe how the rows for a WHERE clause would be found.
+   *
+   * @param where the clause
+   * @return e.g. {@code index email_idx}, {@code primary key}, {@code scan} or {@code columnar
+   *     scan}
+   */
+  String explain(final Condition where) {
+    return Planner.access(this, where).path.description();
+  }
+
+  /**
+   * A way to find the rows that might satisfy a clause. Every row it finds still has to be tested
+   * against the clause.
+   *
+   * @param description e.g. {@code index email_idx}, {@code primary key} or {@code scan}
+   * @param rows the rows, read as they are asked for
+   * @param uses the comparisons of the clause that narrow down the rows, empty for a scan
+   * @param lookup if each row is fetched on its own through an index rather than read in order
+   * @param unique if at most one row can be found
+   * @param order the column the rows come sorted on, or null
+   */
+  record AccessPath(
+      String description,
+      Iterable<List<String>> rows,
+      List<Condition.Comparison> uses,
+      boolean lookup,
+      boolean unique,
+      String order) {}
+
+  /**
+   * A way to fetch the rows holding a value in one column.
+   *
+   * @param description e.g. {@code primary key} or {@code index email_idx}
+   * @param rows the rows holding each value, fetched as they are read
+   * @param unique if at most one row holds a value
+   */
+  record Lookup(
+      String description, Function<String, Iterable<List<String>>> rows, boolean unique) {}
 
-    List<List<String>> res = new ArrayList<>();
-    for (var r : data.values()) {
-      ArrayList<String> row = new ArrayList<>();
+  /**
+   * Every way of finding the rows that might satisfy a clause, from the most to the least specific.
+   * The last is always a scan of the whole table.
+   *
+   * @param where the clause
+   * @return the access paths
+   */
+  List<AccessPath> accessPaths(final Condition where) {
+    List<AccessPath> paths = new ArrayList<>();
+    List<Condition.Comparison> comparisons = where.comparisons();
+    if (!comparisons.isEmpty()) {
+      // a value for every primary key column finds at most one row
+      List<String> pkColumns = new ArrayList<>(pkIndexes.size());
+      for (var index : pkIndexes) {
+        pkColumns.add(columns.get(index).name());
+      }
+      String[] pkValues = equalities(comparisons, pkColumns);
+      if (pkValues != null) {
+        Key key = new Key(pkValues, pkNumeric);
+        paths.add(
+            new AccessPath(
+                "primary key",
+                () -> {
+                  List<String> row = data.get(key);
+                  return (row == null ? List.<List<String>>of() : List.of(row)).iterator();
+                },
+                uses(comparisons, pkColumns),
+                false,
+                true,
+                null));
+      }
+
+      // an index whose every column is tested for equality
       for (var index : indexes) {
-        row.add(r.get(index));
+        String[] values = equalities(comparisons, index.columns());
+        if (values != null) {
+          Key value = new Key(values, numeric(index.columns()));
+          paths.add(
+              new AccessPath(
+                  "index " + index.name(),
+                  rowsFor(() -> List.copyOf(index.find(value)).iterator()),
+                  uses(comparisons, index.columns()),
+                  true,
+                  index.unique(),
+                  null));
+        }
+      }
+
+      // a range over the primary key or a single column tree index
+      if (pkColumns.size() == 1) {
+        AccessPath range = range(comparisons, pkColumns.get(0), null);
+        if (range != null) {
+          paths.add(range);
+        }
+      }
+      for (var index : indexes) {
+        if (index instanceof TreeIndex tree && index.columns().size() == 1) {
+          AccessPath range = range(comparisons, index.columns().get(0), tree);
+          if (range != null) {
+            paths.add(range);
+          }
+        }
+      }
+    }
+    paths.add(scan(where, comparisons));
+    return paths;
+  }
+
+  /**
+   * Read every row of the table in key order.
+   *
+   * @return the access path
+   */
+  AccessPath fullScan() {
+    if (data instanceof ColumnarRowStore columnar) {
+      // a scan of the column vectors, so a query can decode just the columns it reads
+      return new AccessPath(
+          "scan", columnar.scan(List.of(), name -> 0, List.of()), List.of(), false, false, null);
+    }
+    // only rows kept in memory are read in key order, pages are read in the order they were written
+    String order = data instanceof HeapRowStore ? primaryKeyColumn() : null;
+    return new AccessPath("scan", data, List.of(), false, false, order);
+  }
+
+  /**
+   * Read every row of the table sorted on a column, through the primary key or a tree index on just
+   * that column.
+   *
+   * @param column the column
+   * @return the access path, or null if the rows cannot be read in that order
+   */
+  AccessPath orderedBy(final String column) {
+    if (column.equals(primaryKeyColumn())) {
+      AccessPath scan = fullScan();
+      return scan.order() != null
+          ? scan
+          : new AccessPath(
+              "primary key order",
+              data.range(null, true, null, true),
+              List.of(),
+              false,
+              false,
+              column);
+    }
+    for (var index : indexes) {
+      if (index instanceof TreeIndex tree && index.columns().equals(List.of(column))) {
+        return new AccessPath(
+            "index " + index.name() + " order",
+            rowsFor(tree.range(null, true, null, true)),
+            List.of(),
+            true,
+            false,
+            column);
       }
-      res.add(row);
     }
-    return res;
+    return null;
+  }
+
+  /**
+   * A way to fetch the rows holding a value in a column, through the primary key or an index on
+   * just that column.
+   *
+   * @param column the column
+   * @return the lookup, or null if the column has neither
+   */
+  Lookup lookup(final String column) {
+    boolean[] numeric = numeric(List.of(column));
+    if (column.equals(primaryKeyColumn())) {
+      return new Lookup(
+          "primary key",
+          value -> {
+            List<String> row = data.get(new Key(new String[] {value}, numeric));
+            return row == null ? List.of() : List.of(row);
+          },
+          true);
+    }
+    for (var index : indexes) {
+      if (index.columns().equals(List.of(column))) {
+        return new Lookup(
+            "index " + index.name(),
+            value ->
+                rowsFor(
+                    () ->
+                        List.copyOf(index.find(new Key(new String[] {value}, numeric))).iterator()),
+            index.unique());
+      }
+    }
+    return null;
+  }
+
+  // the one primary key column, or null for a composite key
+  private String primaryKeyColumn() {
+    return pkIndexes.size() == 1 ? columns.get(pkIndexes.get(0)).name() : null;
+  }
+
+  // every row, or for a columnar table the rows a chunk at a time that the clause does not rule out
+  private AccessPath scan(final Condition where, List<Condition.Comparison> comparisons) {
+    if (data instanceof ColumnarRowStore columnar) {
+      return new AccessPath(
+          "columnar scan",
+          columnar.scan(comparisons, this::columnIndex, where.numberFilters()),
+          List.of(),
+          false,
+          false,
+          null);
+    }
+    return fullScan();
+  }
+
+  // the comparisons on some columns
+  private static List<Condition.Comparison> uses(
+      List<Condition.Comparison> comparisons, List<String> cols) {
+    List<Condition.Comparison> used = new ArrayList<>();
+    for (var comparison : comparisons) {
+      if (cols.contains(comparison.column())) {
+        used.add(comparison);
+      }
+    }
+    return used;
+  }
+
+  // the value each column is tested to equal, or null if any of them is not
+  private static String[] equalities(List<Condition.Comparison> comparisons, List<String> cols) {
+    String[] values = new String[cols.size()];
+    for (int i = 0; i < values.length; i++) {
+      for (var comparison : comparisons) {
+        if (comparison.operator() == TokenType.EQUALS && comparison.column().equals(cols.get(i))) {
+          values[i] = comparison.value();
+        }
+      }
+      if (values[i] == null) {
+        return null;
+      }
+    }
+    return values;
+  }
+
+  // rows with a column between the bounds the comparisons put on it, through the index or pk
+  private AccessPath range(List<Condition.Comparison> comparisons, String column, TreeIndex index) {
+    boolean[] numeric = numeric(List.of(column));
+    Key low = null;
+    Key high = null;
+    boolean lowInclusive = true;
+    boolean highInclusive = true;
+    for (var comparison : comparisons) {
+      if (!comparison.column().equals(column)) {
+        continue;
+      }
+      Key value = new Key(new String[] {comparison.value()}, numeric);
+      TokenType op = comparison.operator();
+      if (op == TokenType.EQUALS || op == TokenType.GREATER_THAN || op == TokenType.GREATER_OR_EQ) {
+        if (low == null || value.compareTo(low) > 0) {
+          low = value;
+          lowInclusive = op != TokenType.GREATER_THAN;
+        } else if (value.equals(low) && op == TokenType.GREATER_THAN) {
+          lowInclusive = false;
+        }
+      }
+      if (op == TokenType.EQUALS || op == TokenType.LESS_THAN || op == TokenType.LESS_THAN_OR_EQ) {
+        if (high == null || value.compareTo(high) < 0) {
+          high = value;
+          highInclusive = op != TokenType.LESS_THAN;
+        } else if (value.equals(high) && op == TokenType.LESS_THAN) {
+          highInclusive = false;
+        }
+      }
+    }
+    if (low == null && high == null) {
+      return null;
+    }
+    List<Condition.Comparison> used = uses(comparisons, List.of(column));
+    if (index == null) {
+      return new AccessPath(
+          "primary key range",
+          data.range(low, lowInclusive, high, highInclusive),
+          used,
+          false,
+          false,
+          column);
+    }
+    return new AccessPath(
+        "index " + index.name() + " range",
+        rowsFor(index.range(low, lowInclusive, high, highInclusive)),
+        used,
+        true,
+        false,
+        column);
+  }
+
+  // looked up as they are read, so a cursor that stops early does not fetch the rest
+  private Iterable<List<String>> rowsFor(final Iterable<Key> pks) {
+    return () -> {
+      Iterator<Key> keys = pks.iterator();
+      return new Iterator<>() {
+        private List<String> next;
+
+        @Override
+        public boolean hasNext() {
+          // a row may have been removed since its key was found
+          while (next == null && keys.hasNext()) {
+            next = data.get(keys.next());
+          }
+          return next != null;
+        }
+
+        @Override
+        public List<String> next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          List<String> row = next;
+          next = null;
+          return row;
+        }
+      };
+    };
+  }
+
+  private boolean[] numeric(final List<String> cols) {
+    boolean[] numeric = new boolean[cols.size()];
+    for (int i = 0; i < numeric.length; i++) {
+      numeric[i] = isNumeric(cols.get(i));
+    }
+    return numeric;
+  }
+
+  /**
+   * Select the rows whose primary key falls between two keys, in primary key order. Only the rows
+   * in the range are read.
+   *
+   * @param colmns which columns you want to get
+   * @param from lowest primary key to include, or null to start from the first row
+   * @param to highest primary key to include, or null to carry on to the last row
+   * @return the data as list of list of strings
+   */
+  public List<List<String>> selectRange(
+      final List<String> colmns, final String from, final String to) {
+    Key low = from == null ? null : key(from);
+    Key high = to == null ? null : key(to);
+    List<String> cols = selected(colmns);
+    return new Cursor(
+            cols,
+            locations(cols),
+            data.range(low, true, high, true).iterator(),
+            row -> true,
+            null,
+            List.of(this))
+        .fetchAll();
+  }
+
+  // the selected column names with * standing for every column
+  private List<String> selected(final List<String> colmns) {
+    List<String> cols = new ArrayList<>(colmns.size());
+    for (var col : colmns) {
+      if (col.equals("*")) {
+        cols.addAll(getColumnNames());
+      } else {
+        cols.add(col);
+      }
+    }
+    return cols;
+  }
+
+  // where each column sits in the internal layout
+  private int[] locations(final List<String> cols) {
+    int[] indexes = new int[cols.size()];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = columnLocationMap.get(cols.get(i));
+    }
+    return indexes;
   }
 
   /**
@@ -137,13 +772,109 @@ public class Table implements Serializable {
       throw new RuntimeException("Column " + columnName + " does not exist in table " + name);
     }
     int index = columnLocationMap.get(columnName);
-    return data.get(rowPkey).get(index);
+    List<String> row = row(key(rowPkey));
+    if (row == null) {
+      throw new RuntimeException("Row " + rowPkey + " does not exist in table " + name);
+    }
+    return row.get(index);
+  }
+
+  /**
+   * Get the values of a row by its primary key.
+   *
+   * @param rowPkey the primary key of the row
+   * @return the values in column order, or null if there is no such row
+   */
+  public List<String> getRow(final String rowPkey) {
+    List<String> row = row(key(rowPkey));
+    return row == null ? null : row.subList(1, row.size());
+  }
+
+  // a copy of a row in the internal layout, or null, read without locking when nothing is written
+  private List<String> row(final Key key) {
+    // rows kept in memory can be read while a write moves them, then checked and read again
+    if (data instanceof HeapRowStore) {
+      long stamp = lock.tryOptimisticRead();
+      if (stamp != 0) {
+        try {
+          List<String> row = data.get(key);
+          List<String> copy = row == null ? null : new ArrayList<>(row);
+          if (lock.validate(stamp)) {
+            return copy;
+          }
+        } catch (RuntimeException e) {
+          // a write got in the way, read again under the lock
+        }
+      }
+    }
+    return reading(
+        List.of(this),
+        () -> {
+          List<String> row = data.get(key);
+          return row == null ? null : new ArrayList<>(row);
+        });
+  }
+
+  /**
+   * Run some work holding the read lock of each table, so no write changes them meanwhile. The
+   * locks are taken in the order of the table names, and tables this thread already reads are not
+   * locked again.
+   *
+   * @param tables the tables read
+   * @param work what reads them
+   * @return what the work returned
+   */
+  static <T> T reading(final Collection<Table> tables, final Supplier<T> work) {
+    Set<Table> held = READING.get();
+    List<Table> locking = new ArrayList<>();
+    for (Table table : tables) {
+      if (!held.contains(table) && !locking.contains(table)) {
+        locking.add(table);
+      }
+    }
+    locking.sort(Comparator.comparing(Table::getName));
+    long[] stamps = new long[locking.size()];
+    int locked = 0;
+    try {
+      for (; locked < stamps.length; locked++) {
+        stamps[locked] = locking.get(locked).lock.readLock();
+        held.add(locking.get(locked));
+      }
+      return work.get();
+    } finally {
+      while (locked-- > 0) {
+        held.remove(locking.get(locked));
+        locking.get(locked).lock.unlockRead(stamps[locked]);
+      }
+    }
+  }
+
+  // run a change holding the write lock
+  private void writing(final Runnable change) {
+    writing(
+        () -> {
+          change.run();
+          return null;
+        });
+  }
+
+  // run a change holding the write lock, returning what it made
+  private <T> T writing(final Supplier<T> change) {
+    if (READING.get().contains(this)) {
+      throw new RuntimeException("Table " + name + " cannot be changed while it is being read");
+    }
+    long stamp = lock.writeLock();
+    try {
+      return change.get();
+    } finally {
+      lock.unlockWrite(stamp);
+    }
   }
 
   /** Print the entire table's data. */
   public void printData() {
-    for (var key : data.keySet()) {
-      printRow(key);
+    for (var row : data) {
+      printValues(row);
     }
   }
 
@@ -153,7 +884,11 @@ public class Table implements Serializable {
    * @param pkey the primary key of the row
    */
   public void printRow(final String pkey) {
-    for (var attr : data.get(pkey)) {
+    printValues(data.get(key(pkey)));
+  }
+
+  private void printValues(final List<String> row) {
+    for (var attr : row) {
       System.out.printf("%s, ", attr);
     }
     System.out.println();
@@ -173,17 +908,140 @@ public class Table implements Serializable {
   }
 
   /**
-   * Generate the primary key for a row based on the indexes of the primary keys.
+   * Add a secondary index over some of the table's columns, filling it from the existing rows.
    *
-   * @param row the row to generate the primary key
-   * @return the primary key as a string
+   * @param indexName name of the index
+   * @param indexColumns the columns to index
+   * @param unique if two rows may not hold the same values
+   * @param kind hash for equality lookups only, tree for range scans as well
+   * @return the new index
    */
-  private String getPk(final List<String> row) {
-    String pk = "";
-    for (var index : pkIndexes) {
-      pk = String.join(pk, row.get(index));
+  Index createIndex(
+      final String indexName,
+      final List<String> indexColumns,
+      final boolean unique,
+      final Index.Kind kind) {
+    return writing(
+        () -> {
+          if (getIndex(indexName) != null) {
+            throw new RuntimeException("Index " + indexName + " already exists on table " + name);
+          }
+          for (var col : indexColumns) {
+            if (!columnLocationMap.containsKey(col) || col.equals("primary_key")) {
+              throw new RuntimeException("Column " + col + " does not exist in table " + name);
+            }
+          }
+          Index index =
+              kind == Index.Kind.HASH
+                  ? new HashIndex(indexName, indexColumns, unique)
+                  : new TreeIndex(indexName, indexColumns, unique);
+          for (var row : data) {
+            Key pk = keyOf(row.subList(1, row.size()));
+            Key value = indexKey(index, row);
+            checkUnique(index, value, pk);
+            index.add(value, pk);
+          }
+          indexes.add(index);
+          version++;
+          return index;
+        });
+  }
+
+  /**
+   * Remove a secondary index, e.g. when its creation is rolled back.
+   *
+   * @param indexName name of the index
+   */
+  void dropIndex(final String indexName) {
+    writing(
+        () -> {
+          if (indexes.removeIf(index -> index.name().equals(indexName))) {
+            version++;
+          }
+        });
+  }
+
+  /**
+   * Find a secondary index by name.
+   *
+   * @param indexName name of the index
+   * @return the index, or null if there is none
+   */
+  Index getIndex(final String indexName) {
+    for (var index : indexes) {
+      if (index.name().equals(indexName)) {
+        return index;
+      }
+    }
+    return null;
+  }
+
+  List<Index> getIndexes() {
+    return new ArrayList<>(indexes);
+  }
+
+  // the values of an index's columns in a row of the internal layout
+  private Key indexKey(final Index index, final List<String> row) {
+    String[] parts = new String[index.columns().size()];
+    for (int i = 0; i < parts.length; i++) {
+      parts[i] = row.get(columnLocationMap.get(index.columns().get(i)));
+    }
+    return new Key(parts, numeric(index.columns()));
+  }
+
+  // empty values stand in for null, and any number of rows may hold null
+  private static void checkUnique(final Index index, final Key value, final Key pk) {
+    if (!index.unique() || value.toString().isEmpty()) {
+      return;
+    }
+    for (var other : index.find(value)) {
+      if (!other.equals(pk)) {
+        throw new RuntimeException(
+            "Duplicate value " + value + " for unique index " + index.name());
+      }
+    }
+  }
+
+  private void updateIndexes(final Key pk, final List<String> removed, final List<String> added) {
+    for (var index : indexes) {
+      if (removed != null) {
+        index.remove(indexKey(index, removed), pk);
+      }
+      if (added != null) {
+        index.add(indexKey(index, added), pk);
+      }
     }
-    return pk;
+  }
+
+  /**
+   * Work out the primary key of a row from the values of its key columns.
+   *
+   * @param row the attribute values of the row, without the primary key copy
+   * @return the typed primary key
+   */
+  Key keyOf(final List<String> row) {
+    String[] parts = new String[pkIndexes.size()];
+    for (int i = 0; i < parts.length; i++) {
+      parts[i] = row.get(pkIndexes.get(i));
+    }
+    return new Key(parts, pkNumeric);
+  }
+
+  /**
+   * Parse a primary key as written in the primary key copy of a row. Composite keys have the value
+   * of each key column separated by commas, in column order, with a comma or backslash inside a
+   * value escaped by a backslash.
+   *
+   * @param pkey the primary key text
+   * @return the typed primary key
+   */
+  Key key(final String pkey) {
+    String[] parts = pkNumeric.length == 1 ? new String[] {pkey} : Key.split(pkey);
+    if (parts.length != pkNumeric.length) {
+      throw new RuntimeException(
+          "Primary key " + pkey + " of table " + name + " needs " + pkNumeric.length + " values");
+    }
+    return new Key(parts, pkNumeric);
   }
 
   /**
@@ -192,9 +1050,198 @@ public class Table implements Serializable {
    * @param r the row to insert as list of string
    */
   public void insert(final List<String> r) {
-    List<String> row = new ArrayList<>(r.size() + 1);
-    row.add(getPk(r));
-    row.addAll(r);
-    data.put(row.get(0), row); // this cannot be row.getfirst()
+    writing(
+        () -> {
+          Key key = keyOf(r);
+          List<String> row = new ArrayList<>(r.size() + 1);
+          row.add(key.toString());
+          row.addAll(r);
+          for (var index : indexes) {
+            checkUnique(index, indexKey(index, row), key);
+          }
+          List<String> previous = data.put(key, row);
+          updateIndexes(key, previous, row);
+          if (previous == null) {
+            pages.pending.add(key);
+          } else {
+            pages.rewrite = true;
+          }
+          if (listener != null) {
+            listener.inserted(
+                this,
+                row.subList(1, row.size()),
+                previous == null ? null : previous.subList(1, previous.size()));
+          }
+        });
+  }
+
+  /**
+   * Insert many rows at once. Room is made for the rows up front, and each secondary index is
+   * checked and then updated in one pass over the batch. Unique indexes are checked against the
+   * table and the rest of the batch before any row goes in, so a batch that would break one changes
+   * nothing. Later rows replace earlier ones with the same primary key, as separate inserts would.
+   *
+   * @param rows the rows to insert, each a list of values in column order
+   */
+  public void insertBatch(final List<List<String>> rows) {
+    writing(
+        () -> {
+          Key[] keys = new Key[rows.size()];
+          List<List<String>> added = new ArrayList<>(rows.size());
+          for (int i = 0; i < keys.length; i++) {
+            List<String> r = rows.get(i);
+            keys[i] = keyOf(r);
+            List<String> row = new ArrayList<>(r.size() + 1);
+            row.add(keys[i].toString());
+            row.addAll(r);
+            added.add(row);
+          }
+          for (var index : indexes) {
+            if (!index.unique()) {
+              continue;
+            }
+            Map<Key, Key> batch =
+                new HashMap<>(); // index value to the key of the row that holds it
+            for (int i = 0; i < keys.length; i++) {
+              Key value = indexKey(index, added.get(i));
+              checkUnique(index, value, keys[i]);
+              Key other = value.toString().isEmpty() ? null : batch.put(value, keys[i]);
+              if (other != null && !other.equals(keys[i])) {
+                throw new RuntimeException(
+                    "Duplicate value " + value + " for unique index " + index.name());
+              }
+            }
+          }
+
+          data.reserve(keys.length);
+          List<List<String>> replaced = new ArrayList<>(keys.length);
+          for (int i = 0; i < keys.length; i++) {
+            List<String> previous = data.put(keys[i], added.get(i));
+            replaced.add(previous);
+            if (previous == null) {
+              pages.pending.add(keys[i]);
+            } else {
+              pages.rewrite = true;
+            }
+            if (listener != null) { // straight away, so a failure part way can still be rolled back
+              List<String> row = added.get(i);
+              listener.inserted(
+                  this,
+                  row.subList(1, row.size()),
+                  previous == null ? null : previous.subList(1, previous.size()));
+            }
+          }
+          for (var index : indexes) {
+            for (int i = 0; i < keys.length; i++) {
+              if (replaced.get(i) != null) {
+                index.remove(indexKey(index, replaced.get(i)), keys[i]);
+              }
+              index.add(indexKey(index, added.get(i)), keys[i]);
+            }
+          }
+        });
+  }
+
+  /**
+   * Fill the table with rows read back from disk, building the primary key index in one go instead
+   * of inserting each row.
+   *
+   * @param rows the attribute values of each row, later rows replacing earlier ones with the same
+   *     key
+   */
+  void load(final List<List<String>> rows) {
+    writing(
+        () -> {
+          List<Map.Entry<Key, List<String>>> entries = new ArrayList<>(rows.size());
+          for (var r : rows) {
+            Key key = keyOf(r);
+            List<String> row = new ArrayList<>(r.size() + 1);
+            row.add(key.toString());
+            row.addAll(r);
+            entries.add(Map.entry(key, row));
+          }
+          data =
+              layout == Layout.COLUMNAR
+                  ? new ColumnarRowStore(numeric(getColumnNames()), entries)
+                  : new HeapRowStore(numeric(getColumnNames()), entries);
+        });
+  }
+
+  /**
+   * Take back an insert that was rolled back, restoring the row it replaced if there was one.
+   *
+   * @param row the inserted attribute values
+   * @param previous the attribute values of the replaced row, or null
+   */
+  void undoInsert(final List<String> row, final List<String> previous) {
+    writing(
+        () -> {
+          Key key = keyOf(row);
+          updateIndexes(key, data.get(key), null); // the index entries of the row being undone
+          if (previous == null) {
+            data.remove(key);
+            pages.pending.remove(key);
+          } else {
+            List<String> restored = new ArrayList<>(previous.size() + 1);
+            restored.add(key.toString());
+            restored.addAll(previous);
+            data.put(key, restored);
+            updateIndexes(key, null, restored);
+          }
+        });
+  }
+
+  void setListener(final InsertListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * The attribute values of a row as stored on disk, without the primary key copy.
+   *
+   * @param key the primary key of the row
+   * @return the row values in column order
+   */
+  List<String> storedRow(final Key key) {
+    List<String> row = data.get(key);
+    return row.subList(1, row.size());
+  }
+
+  /**
+   * Primary keys of every row in the table, in key order.
+   *
+   * @return view of the keys
+   */
+  Collection<Key> primaryKeys() {
+    return data.keys();
+  }
+
+  /**
+   * Replace where the table's rows are kept, e.g. with pages of a memory mapped file.
+   *
+   * @param store the new row store
+   */
+  void setStore(final RowStore store) {
+    writing(
+        () -> {
+          this.data = store;
+        });
+  }
+
+  RowStore store() {
+    return data;
+  }
+
+  /** Leave only live rows on the table's pages when they are kept through a buffer pool. */
+  void compactPages() {
+    writing(
+        () -> {
+          if (data instanceof PagedRowStore paged) {
+            paged.compact();
+          }
+        });
+  }
+
+  PageChain pageChain() {
+    return pages;
   }
 }
@@ -6,6 +6,7 @@ public class Token {
   final String lexeme;
   final Object literal;
   final int line;
+  final long offset; // where the token starts in the input, or -1 if unknown
 
   /**
    * Constructor for token objects.
@@ -16,10 +17,24 @@ public class Token {
    * @param line Line number of the token
    */
   public Token(TokenType type, String lexeme, Object literal, Integer line) {
+    this(type, lexeme, literal, line, -1);
+  }
+
+  /**
+   * Constructor for a token scanned from a known place in the input.
+   *
+   * @param type enum of tokentype
+   * @param lexeme the actual character/characters that were parsed into this token
+   * @param literal the literal that is represented e.g. "7" -> Int 7
+   * @param line Line number of the token
+   * @param offset number of characters in the input before the token
+   */
+  Token(TokenType type, String lexeme, Object literal, int line, long offset) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
     this.line = line;
+    this.offset = offset;
   }
 
   /** String represenation of a token. */
@@ -16,6 +16,7 @@ enum TokenType {
   MINUS,
   STAR,
   SLASH,
+  PARAMETER,
 
   // literals
   IDENTIFIER,
@@ -61,6 +62,14 @@ enum TokenType {
   NULL,
   SHOW,
   INTO,
+  INDEX,
+  USING,
+  WITH,
+  COPY,
+  TO,
+  ANALYZE,
+  LEFT,
+  INNER,
 
   EOF
 }
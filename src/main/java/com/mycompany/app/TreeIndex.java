@@ -0,0 +1,107 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/** Secondary index kept in a B+ tree, answering equality lookups and range scans. */
+final class TreeIndex implements Index {
+
+  private final String name;
+  private final List<String> columns;
+  private final boolean unique;
+  private final BPlusTree<Key, List<Key>> entries = new BPlusTree<>();
+
+  TreeIndex(String name, List<String> columns, boolean unique) {
+    this.name = name;
+    this.columns = List.copyOf(columns);
+    this.unique = unique;
+  }
+
+  @Override
+  public String name() {
+    return name;
+  }
+
+  @Override
+  public List<String> columns() {
+    return columns;
+  }
+
+  @Override
+  public boolean unique() {
+    return unique;
+  }
+
+  @Override
+  public Kind kind() {
+    return Kind.TREE;
+  }
+
+  @Override
+  public void add(Key value, Key pk) {
+    List<Key> pks = entries.get(value);
+    if (pks == null) {
+      pks = new ArrayList<>(1);
+      entries.put(value, pks);
+    }
+    pks.add(pk);
+  }
+
+  @Override
+  public void remove(Key value, Key pk) {
+    List<Key> pks = entries.get(value);
+    if (pks != null) {
+      pks.remove(pk);
+      if (pks.isEmpty()) {
+        entries.remove(value);
+      }
+    }
+  }
+
+  @Override
+  public Collection<Key> find(Key value) {
+    List<Key> pks = entries.get(value);
+    return pks == null ? Collections.emptyList() : pks;
+  }
+
+  /**
+   * Primary keys of the rows whose value falls between two bounds, in value order.
+   *
+   * @param low lowest value, or null to start from the smallest
+   * @param lowInclusive if rows holding {@code low} are included
+   * @param high highest value, or null to carry on to the largest
+   * @param highInclusive if rows holding {@code high} are included
+   * @return the primary keys
+   */
+  Iterable<Key> range(Key low, boolean lowInclusive, Key high, boolean highInclusive) {
+    Iterable<Map.Entry<Key, List<Key>>> values =
+        entries.range(low, lowInclusive, high, highInclusive);
+    return () ->
+        new Iterator<>() {
+          private final Iterator<Map.Entry<Key, List<Key>>> entry = values.iterator();
+          private Iterator<Key> pks = Collections.emptyIterator();
+
+          @Override
+          public boolean hasNext() {
+            while (!pks.hasNext() && entry.hasNext()) {
+              // copied, as rows may be added under the value before the scan carries on
+              pks = List.copyOf(entry.next().getValue()).iterator();
+            }
+            return pks.hasNext();
+          }
+
+          @Override
+          public Key next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            return pks.next();
+          }
+        };
+  }
+}
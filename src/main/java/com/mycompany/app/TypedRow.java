@@ -0,0 +1,30 @@
+package com.mycompany.app;
+
+import java.util.List;
+
+/**
+ * A row in the table's internal layout whose number values can be read without decoding them into
+ * strings.
+ */
+interface TypedRow extends List<String> {
+
+  /**
+   * Check if a value is held as a {@code long}.
+   *
+   * @param index position in the internal layout
+   * @return if {@link #longAt} can be used
+   */
+  boolean isLong(int index);
+
+  /**
+   * Check if a value is held as a {@code double}.
+   *
+   * @param index position in the internal layout
+   * @return if {@link #doubleAt} can be used
+   */
+  boolean isDouble(int index);
+
+  long longAt(int index);
+
+  double doubleAt(int index);
+}
@@ -0,0 +1,242 @@
+package com.mycompany.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of committed changes, kept next to the database file until the next save.
+ *
+ * <p>Each record is {length} {crc32} {type} {payload}. A transaction is its change records followed
+ * by a commit record, and only transactions whose commit record made it to disk are replayed.
+ * Committers that arrive while a flush is in progress wait for the next one, so many commits share
+ * a single {@code fsync}.
+ */
+final class WriteAheadLog implements Closeable {
+
+  static final byte CREATE = 1;
+  static final byte INSERT = 2;
+  static final byte COMMIT = 3;
+  static final byte INDEX = 4;
+
+  private static final int RECORD_HEADER = 9;
+
+  /**
+   * A single log record.
+   *
+   * @param type one of {@link #CREATE}, {@link #INSERT}, {@link #INDEX} or {@link #COMMIT}
+   * @param payload the encoded change
+   */
+  record Record(byte type, byte[] payload) {}
+
+  private final FileChannel channel;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition flushed = lock.newCondition();
+
+  private ByteArrayOutputStream buffer = new ByteArrayOutputStream(); // appended, not yet written
+  private long base; // log position at the start of the file, positions never go back
+  private long appended; // log position after everything appended
+  private long durable; // log position known to be on disk
+  private boolean flushing;
+  private IOException failure; // a failed flush loses its batch, so nothing after it is durable
+  private long syncs; // number of fsyncs issued, for seeing how well commits are grouped
+
+  private WriteAheadLog(FileChannel channel, long end) {
+    this.channel = channel;
+    this.appended = end;
+    this.durable = end;
+  }
+
+  /**
+   * Path of the log belonging to a database file.
+   *
+   * @param filepath the database file
+   * @return path of its log
+   */
+  static Path pathFor(String filepath) {
+    return Path.of(filepath + "-wal");
+  }
+
+  /**
+   * Open a log for appending, dropping any torn record left at the end by a crash.
+   *
+   * @param path location of the log
+   * @return the opened log
+   */
+  static WriteAheadLog open(Path path) throws IOException {
+    long end = Files.exists(path) ? scan(path, new ArrayList<>()) : 0;
+    FileChannel channel =
+        FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    channel.truncate(end);
+    return new WriteAheadLog(channel, end);
+  }
+
+  /**
+   * Read back every committed transaction in a log.
+   *
+   * @param path location of the log
+   * @return the transactions in commit order, each without its commit record
+   */
+  static List<List<Record>> replay(Path path) throws IOException {
+    List<List<Record>> committed = new ArrayList<>();
+    if (Files.exists(path)) {
+      scan(path, committed);
+    }
+    return committed;
+  }
+
+  // collect committed transactions, returning the log position after the last of them
+  private static long scan(Path path, List<List<Record>> committed) throws IOException {
+    ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(path));
+    List<Record> transaction = new ArrayList<>();
+    long end = 0;
+    CRC32 crc = new CRC32();
+    while (log.remaining() >= RECORD_HEADER) {
+      int length = log.getInt();
+      int checksum = log.getInt();
+      if (length < 1 || length > log.remaining()) {
+        break; // torn write
+      }
+      byte[] body = new byte[length];
+      log.get(body);
+      crc.reset();
+      crc.update(body);
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+      byte[] payload = new byte[length - 1];
+      System.arraycopy(body, 1, payload, 0, payload.length);
+      if (body[0] == COMMIT) {
+        committed.add(transaction);
+        transaction = new ArrayList<>();
+        end = log.position();
+      } else {
+        transaction.add(new Record(body[0], payload));
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Append a transaction to the log buffer. Nothing is durable until {@link #sync} is called.
+   *
+   * @param records the changes made by the transaction, a commit record is added after them
+   * @return the log position that must be synced for the transaction to be durable
+   */
+  long append(List<Record> records) {
+    lock.lock();
+    try {
+      for (Record record : records) {
+        write(record);
+      }
+      write(new Record(COMMIT, new byte[0]));
+      return appended;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void write(Record record) {
+    CRC32 crc = new CRC32();
+    crc.update(record.type());
+    crc.update(record.payload());
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+    header.putInt(record.payload().length + 1);
+    header.putInt((int) crc.getValue());
+    header.put(record.type());
+    buffer.write(header.array(), 0, RECORD_HEADER);
+    buffer.write(record.payload(), 0, record.payload().length);
+    appended += RECORD_HEADER + record.payload().length;
+  }
+
+  /**
+   * Wait until the log is on disk up to the given position. The first waiter writes and syncs
+   * everything appended so far on behalf of all of them, the rest wait for it to finish.
+   *
+   * @param position log position returned by {@link #append}
+   */
+  void sync(long position) throws IOException {
+    lock.lock();
+    try {
+      while (durable < position) {
+        if (failure != null) {
+          throw new IOException("Write ahead log is unusable after a failed flush", failure);
+        }
+        if (flushing) {
+          flushed.awaitUninterruptibly();
+          continue;
+        }
+        flushing = true;
+        ByteBuffer batch = ByteBuffer.wrap(buffer.toByteArray());
+        buffer = new ByteArrayOutputStream();
+        long start = appended - base - batch.remaining();
+        long end = appended;
+        IOException error = null;
+        lock.unlock();
+        try {
+          while (batch.hasRemaining()) {
+            channel.write(batch, start + batch.position());
+          }
+          channel.force(false);
+        } catch (IOException e) {
+          error = e;
+          throw e;
+        } finally {
+          lock.lock();
+          failure = error;
+          flushing = false;
+          flushed.signalAll();
+        }
+        durable = end;
+        syncs++;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Throw away the whole log once its changes have been saved into the database file. Committers
+   * still waiting in {@link #sync} return, as what they appended is now in that file.
+   */
+  void truncate() throws IOException {
+    lock.lock();
+    try {
+      while (flushing) {
+        flushed.awaitUninterruptibly();
+      }
+      buffer = new ByteArrayOutputStream();
+      channel.truncate(0);
+      channel.force(false);
+      base = appended;
+      durable = appended;
+      flushed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  long syncCount() {
+    lock.lock();
+    try {
+      return syncs;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,119 @@
+package com.mycompany.app;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+public class AggregateTest {
+
+  private static List<String> files = new ArrayList<>();
+
+  @AfterAll
+  public static void cleanup() {
+    for (String file : files) {
+      new File(file).delete();
+      new File(file + "-wal").delete();
+    }
+  }
+
+  // 1000 sales, item i sold in store i % 10 for i % 100
+  private static Database sales(String name) {
+    String path = "./" + name + ".db";
+    files.add(path);
+    var db = new Database(name, path);
+    db.runQuery("create table stores ( id number primary key, city string );");
+    db.runQuery("create table sales ( id number primary key, store number, price number );");
+    List<List<String>> stores = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      stores.add(List.of(String.valueOf(i), i < 5 ? "paris" : "rome"));
+    }
+    db.getTable("stores").insertBatch(stores);
+    List<List<String>> sales = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      sales.add(List.of(String.valueOf(i), String.valueOf(i % 10), String.valueOf(i % 100)));
+    }
+    db.getTable("sales").insertBatch(sales);
+    db.commit();
+    return db;
+  }
+
+  private static List<List<String>> sorted(List<List<String>> rows) {
+    List<List<String>> copy = new ArrayList<>(rows);
+    copy.sort(Comparator.comparing(Object::toString));
+    return copy;
+  }
+
+  @Test
+  public void testGroupByAndHaving() {
+    var db = sales("aggregategroup");
+    var rows =
+        sorted(
+            db.query(
+                "select store, count(*), sum(price), min(price), max(price), avg(price)"
+                    + " from sales group by store"));
+    assert rows.size() == 10;
+    // store 3 sells at 3, 13, ... 93, ten times each
+    assert rows.get(3).equals(List.of("3", "100", "4800", "3", "93", "48")) : rows.get(3);
+
+    rows = sorted(db.query("select store from sales group by store having sum(price) > 4800"));
+    assert rows.size() == 6;
+    assert rows.get(0).get(0).equals("4");
+
+    rows = db.query("select count(*) from sales where price < 10");
+    assert rows.equals(List.of(List.of("100")));
+
+    boolean failed = false;
+    try {
+      db.query("select price from sales group by store");
+    } catch (RuntimeException e) {
+      failed = true;
+    }
+    assert failed;
+  }
+
+  @Test
+  public void testGlobalAggregateOfNoRows() {
+    var db = sales("aggregateempty");
+    var rows = db.query("select count(*), max(price) from sales where price > 1000");
+    assert rows.size() == 1;
+    assert rows.get(0).get(0).equals("0");
+    assert rows.get(0).get(1).isEmpty();
+  }
+
+  @Test
+  public void testAggregateOverJoin() {
+    var db = sales("aggregatejoin");
+    var rows =
+        sorted(
+            db.query(
+                "select city, count(*) from sales join stores on store = stores.id group by"
+                    + " city"));
+    assert rows.equals(List.of(List.of("paris", "500"), List.of("rome", "500"))) : rows;
+  }
+
+  @Test
+  public void testSpillsToDiskPastTheMemoryBudget() throws Exception {
+    var db = sales("aggregatespill");
+    String query = "select id, count(*), sum(price) from sales group by id having count(*) = 1";
+    var inMemory = sorted(db.query(query));
+    Path directory = Files.createTempDirectory("aggregatetest");
+    try {
+      db.setWorkMemory(1000);
+      db.setSpillDirectory(directory.toString());
+      var spilled = sorted(db.query(query));
+      assert inMemory.size() == 1000;
+      assert spilled.equals(inMemory);
+      try (var left = Files.list(directory)) {
+        assert left.count() == 0;
+      }
+    } finally {
+      db.setSpillDirectory(null);
+      directory.toFile().delete();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package com.mycompany.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+public class BPlusTreeTest {
+
+  private static List<Integer> keys(Iterable<Map.Entry<Integer, String>> entries) {
+    List<Integer> keys = new ArrayList<>();
+    for (var entry : entries) {
+      keys.add(entry.getKey());
+    }
+    return keys;
+  }
+
+  @Test
+  public void testMatchesTreeMap() {
+    BPlusTree<Integer, String> tree = new BPlusTree<>(4);
+    TreeMap<Integer, String> expected = new TreeMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 5000; i++) {
+      int key = random.nextInt(2000);
+      assert Objects.equals(tree.put(key, "v" + i), expected.put(key, "v" + i));
+      if (i % 7 == 0) {
+        int removed = random.nextInt(2000);
+        assert Objects.equals(tree.remove(removed), expected.remove(removed));
+      }
+    }
+
+    assert tree.size() == expected.size();
+    assert keys(tree).equals(new ArrayList<>(expected.keySet()));
+    for (int key = 0; key < 2000; key++) {
+      assert Objects.equals(tree.get(key), expected.get(key));
+    }
+  }
+
+  @Test
+  public void testRange() {
+    BPlusTree<Integer, String> tree = new BPlusTree<>(3);
+    for (int i = 0; i < 100; i += 2) {
+      tree.put(i, "v" + i);
+    }
+
+    assert keys(tree.range(10, true, 16, true)).equals(List.of(10, 12, 14, 16));
+    assert keys(tree.range(10, false, 16, false)).equals(List.of(12, 14));
+    assert keys(tree.range(11, true, 15, true)).equals(List.of(12, 14));
+    assert keys(tree.range(null, true, 4, true)).equals(List.of(0, 2, 4));
+    assert keys(tree.range(94, true, null, true)).equals(List.of(94, 96, 98));
+    assert keys(tree.range(200, true, null, true)).isEmpty();
+  }
+
+  @Test
+  public void testBulkLoad() {
+    List<Map.Entry<Integer, String>> sorted = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      sorted.add(Map.entry(i, "v" + i));
+    }
+    BPlusTree<Integer, String> tree = BPlusTree.bulkLoad(8, sorted);
+
+    assert tree.size() == 1000;
+    assert tree.get(537).equals("v537");
+    assert keys(tree.range(995, true, null, true)).equals(List.of(995, 996, 997, 998, 999));
+
+    // a loaded tree keeps working as an ordinary one
+    tree.put(-1, "first");
+    tree.put(2000, "last");
+    assert keys(tree).get(0) == -1;
+    assert tree.size() == 1002;
+
+    boolean threw = false;
+    try {
+      BPlusTree.bulkLoad(8, List.of(Map.entry(2, "b"), Map.entry(1, "a")));
+    } catch (RuntimeException e) {
+      threw = true;
+    }
+    assert threw : "unsorted input should be rejected";
+  }
+
+  @Test
+  public void testLoadKeepsLatestDuplicate() {
+    var tree =
+        BPlusTree.load(4, List.of(Map.entry(3, "old"), Map.entry(1, "a"), Map.entry(3, "new")));
+    assert tree.size() == 2;
+    assert tree.get(3).equals("new");
+  }
+}
@@ -0,0 +1,197 @@
+package com.mycompany.app;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+public class BufferPoolTest {
+
+  private static List<String> files = new ArrayList<>();
+
+  @AfterAll
+  public static void cleanup() {
+    for (String file : files) {
+      new File(file).delete();
+      new File(file + "-wal").delete();
+    }
+  }
+
+  private static Database usersDatabase(String name, int rows) {
+    String path = "./" + name + ".db";
+    files.add(path);
+    var db = new Database(name, path);
+    db.createTable(
+        "Users",
+        List.of(
+            new Column("id", TokenType.NUMBER, false, true, null),
+            new Column("name", TokenType.STRING_TYPE, true, false, null)));
+    for (int i = 0; i < rows; i++) {
+      db.getTable("Users").insert(List.of(String.valueOf(i), "user" + i));
+    }
+    Disk.writeDatabase(db);
+    return db;
+  }
+
+  @Test
+  public void testScanResistantEviction() throws Exception {
+    String path = "./evictiontest.db";
+    files.add(path);
+    try (PageFile file = PageFile.create(Path.of(path), "evictiontest")) {
+      int[] pages = new int[6];
+      for (int i = 0; i < pages.length; i++) {
+        pages[i] = file.allocate();
+        file.write(pages[i], ByteBuffer.allocate(PageFile.PAGE_SIZE));
+      }
+      BufferPool pool = new BufferPool(file, 3);
+
+      // two hot pages used repeatedly
+      for (int round = 0; round < 2; round++) {
+        for (int hot = 0; hot < 2; hot++) {
+          pool.pin(pages[hot]);
+          pool.unpin(pages[hot], false);
+        }
+      }
+      // a scan over the remaining pages only touches each once
+      for (int cold = 2; cold < pages.length; cold++) {
+        pool.pin(pages[cold]);
+        pool.unpin(pages[cold], false);
+      }
+      long reads = pool.readCount();
+      pool.pin(pages[0]);
+      pool.unpin(pages[0], false);
+      pool.pin(pages[1]);
+      pool.unpin(pages[1], false);
+      assert pool.readCount() == reads : "hot pages should survive the scan";
+    }
+  }
+
+  @Test
+  public void testPinnedPagesAreNotEvicted() throws Exception {
+    String path = "./pinnedtest.db";
+    files.add(path);
+    try (PageFile file = PageFile.create(Path.of(path), "pinnedtest")) {
+      BufferPool pool = new BufferPool(file, 2);
+      int first = pool.pinNew();
+      int second = pool.pinNew();
+      boolean threw = false;
+      try {
+        pool.pinNew();
+      } catch (RuntimeException e) {
+        threw = true;
+      }
+      assert threw : "every frame is pinned";
+      pool.unpin(first, true);
+      int third = pool.pinNew(); // evicts the first page, writing it back
+      pool.unpin(second, true);
+      pool.unpin(third, true);
+      pool.flush();
+      assert DataPage.rowCount(file.read(first)) == 0;
+    }
+  }
+
+  @Test
+  public void testQueryLargerThanPool() {
+    usersDatabase("pooled", 5000);
+
+    var db = Disk.openDatabase("./pooled.db", 4);
+    var users = db.getTable("Users");
+    assert users.select(List.of("id", "name"), 5000).size() == 5000;
+    assert users.getRowCol("4321", "name").equals("user4321");
+    assert db.getBufferPool().readCount() > 4;
+    var range = users.selectRange(List.of("name"), "4998", null);
+    assert range.equals(List.of(List.of("user4998"), List.of("user4999")));
+    db.close();
+  }
+
+  @Test
+  public void testInsertsThroughPoolAreSaved() {
+    usersDatabase("pooledwrites", 10);
+
+    var db = Disk.openDatabase("./pooledwrites.db", 4);
+    for (int i = 10; i < 3000; i++) {
+      db.getTable("Users").insert(List.of(String.valueOf(i), "user" + i));
+    }
+    db.getTable("Users").insert(List.of("5", "replaced"));
+    assert db.getTable("Users").select(List.of("id"), 3000).size() == 3000;
+    Disk.writeDatabase(db);
+    db.runQuery("create table orders ( orderId number primary key );");
+    db.runQuery("insert into orders (orderId) values (o1);");
+    db.close();
+
+    var read = Disk.readDatabase("./pooledwrites.db");
+    assert read.getTable("Users").primaryKeys().size() == 3000;
+    assert read.getTable("Users").getRowCol("5", "name").equals("replaced");
+    assert read.getTable("Users").getRowCol("2999", "name").equals("user2999");
+    assert read.getTable("orders").getRowCol("o1", "orderId").equals("o1");
+  }
+
+  @Test
+  public void testRolledBackAndReplacedRowsAreNotSaved() {
+    usersDatabase("pooledrollback", 1);
+
+    var db = Disk.openDatabase("./pooledrollback.db", 4);
+    db.startTransaction();
+    db.runQuery("insert into Users (id, name) values (2, Bob);");
+    db.rollback();
+    db.getTable("Users").insert(List.of("0", "replaced"));
+    assert db.query("select id, name from Users").equals(List.of(List.of("0", "replaced")));
+    Disk.writeDatabase(db);
+    assert db.query("select id, name from Users").equals(List.of(List.of("0", "replaced")));
+    db.close();
+
+    var read = Disk.readDatabase("./pooledrollback.db");
+    assert read.query("select id, name from Users").equals(List.of(List.of("0", "replaced")));
+    var mapped = Disk.mapDatabase("./pooledrollback.db");
+    assert mapped.query("select id, name from Users").equals(List.of(List.of("0", "replaced")));
+    assert mapped.getTable("Users").store().size() == 1;
+    var reopened = Disk.openDatabase("./pooledrollback.db", 4);
+    assert reopened.query("select id, name from Users").equals(List.of(List.of("0", "replaced")));
+    reopened.close();
+  }
+
+  @Test
+  public void testUnsavedPagesAreDropped() {
+    usersDatabase("pooledcrash", 10);
+
+    var db = Disk.openDatabase("./pooledcrash.db", 2);
+    for (int i = 10; i < 2000; i++) {
+      db.getTable("Users").insert(List.of(String.valueOf(i), "user" + i));
+    }
+    // pages were evicted to the file, but nothing was committed or saved
+    db.close();
+
+    var reopened = Disk.openDatabase("./pooledcrash.db", 2);
+    assert reopened.getTable("Users").primaryKeys().size() == 10;
+    assert reopened.getTable("Users").select(List.of("id"), 100).size() == 10;
+    reopened.close();
+    assert Disk.readDatabase("./pooledcrash.db").getTable("Users").primaryKeys().size() == 10;
+  }
+
+  @Test
+  public void testCursorReadsOnlyWhatItReturns() {
+    usersDatabase("pooledcursor", 2000);
+    var db = Disk.openDatabase("./pooledcursor.db", 4);
+    long reads = db.getBufferPool().readCount();
+
+    assert db.query("select name from Users limit 5")
+        .equals(
+            List.of(
+                List.of("user0"),
+                List.of("user1"),
+                List.of("user2"),
+                List.of("user3"),
+                List.of("user4")));
+    assert db.getBufferPool().readCount() - reads == 1 : "a limit should stop at the first page";
+
+    Cursor cursor = db.cursor("select id from Users where id > 10");
+    assert cursor.columns().equals(List.of("id"));
+    assert cursor.fetch(3).equals(List.of(List.of("11"), List.of("12"), List.of("13")));
+    assert cursor.fetchAll().size() == 1986;
+    assert !cursor.hasNext();
+    db.close();
+  }
+}
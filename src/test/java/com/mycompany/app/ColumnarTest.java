@@ -0,0 +1,218 @@
+package com.mycompany.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+public class ColumnarTest {
+
+  private static List<String> files = new ArrayList<>();
+
+  @AfterAll
+  public static void cleanup() {
+    for (String file : files) {
+      new File(file).delete();
+      new File(file + "-wal").delete();
+    }
+  }
+
+  // 5000 sales added in day order, so each chunk covers a narrow run of days
+  private static Database sales(String name) {
+    String path = "./" + name + ".db";
+    files.add(path);
+    var db = new Database(name, path);
+    db.runQuery(
+        "create table sales ( id number primary key, day number, region string, amount number,"
+            + " note string ) with (layout = columnar);");
+    for (int i = 0; i < 5000; i++) {
+      db.getTable("sales")
+          .insert(
+              List.of(
+                  String.valueOf(i),
+                  String.valueOf(i / 10),
+                  i % 2 == 0 ? "north" : "south",
+                  i % 7 == 0 ? "2.5" : String.valueOf(i % 100),
+                  "note " + i));
+    }
+    db.commit();
+    return db;
+  }
+
+  private static Condition where(Table table, String clause) {
+    Parser parser = new Parser(new Scanner("select id from t where " + clause).scanTokens());
+    return new Condition(table, ((Expr.Select) parser.selectStatement()).whereClause.get(0));
+  }
+
+  @Test
+  public void testParseLayout() {
+    var columnar =
+        (Expr.Create)
+            new Parser(
+                    new Scanner(
+                            "create table t ( id number primary key ) with (layout = columnar);")
+                        .scanTokens())
+                .createTable();
+    assert columnar.layout == Table.Layout.COLUMNAR;
+
+    var plain =
+        (Expr.Create)
+            new Parser(new Scanner("create table t ( id number primary key );").scanTokens())
+                .createTable();
+    assert plain.layout == Table.Layout.ROW;
+  }
+
+  @Test
+  public void testProjectionMatchesRowLayout() {
+    var db = sales("columnarproject");
+    var sales = db.getTable("sales");
+    assert sales.getLayout() == Table.Layout.COLUMNAR;
+
+    var rows = new Table("sales", sales.getColumns());
+    for (var row : sales.selectRange(List.of("*"), null, null)) {
+      rows.insert(row);
+    }
+    assert sales
+        .select(List.of("region", "amount"), null)
+        .equals(rows.select(List.of("region", "amount"), null));
+    assert sales.select(List.of("*"), null).size() == 5000;
+    assert db.query("select note from sales where id = 4321").equals(List.of(List.of("note 4321")));
+  }
+
+  @Test
+  public void testScanSkipsChunks() {
+    var db = sales("columnarskip");
+    var sales = db.getTable("sales");
+    var store = (ColumnarRowStore) sales.store();
+    assert sales.explain(where(sales, "day >= 480")).equals("columnar scan");
+
+    long before = store.skippedChunks();
+    assert db.query("select id from sales where day >= 480").size() == 200;
+    assert store.skippedChunks() - before == 4; // only the last of the five chunks is read
+
+    before = store.skippedChunks();
+    assert db.query("select id from sales where region = east").isEmpty();
+    assert store.skippedChunks() - before == 5;
+
+    // replaced values widen the bounds of their chunk so they are still found
+    sales.insert(List.of("3", "900", "west", "1", "moved"));
+    assert db.query("select id from sales where day = 900").equals(List.of(List.of("3")));
+    assert db.query("select id from sales where amount < 2 and day < 1").size() == 1;
+  }
+
+  @Test
+  public void testSkippedChunksAreCountedAcrossConcurrentScans() throws Exception {
+    var db = sales("columnarcount");
+    var store = (ColumnarRowStore) db.getTable("sales").store();
+    long before = store.skippedChunks();
+    List<Thread> readers = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      Thread reader =
+          new Thread(
+              () -> {
+                for (int i = 0; i < 50; i++) {
+                  assert db.query("select id from sales where day >= 480").size() == 200;
+                }
+              });
+      readers.add(reader);
+      reader.start();
+    }
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assert store.skippedChunks() - before == 8 * 50 * 4;
+  }
+
+  @Test
+  public void testBatchFiltersAgreeWithRowLayout() {
+    var db = sales("columnarfilter");
+    var sales = db.getTable("sales");
+    sales.insert(List.of("5000", "1", "north", "abc", "odd"));
+    sales.insert(List.of("5001", "1", "north", "007", "odd"));
+    sales.insert(List.of("5002", "1", "north", "-0.0", "odd"));
+    var rows = new Table("sales", sales.getColumns());
+    for (var row : sales.selectRange(List.of("*"), null, null)) {
+      rows.insert(row);
+    }
+
+    for (String clause :
+        List.of(
+            "amount > 50",
+            "amount <= 2.5 and day < 100",
+            "amount = 7 and region = south",
+            "amount < 0.1",
+            "amount >= 9999999999999999999",
+            "amount > 49.5 or day = 3",
+            "(amount = 2.5) and id > 4000",
+            "10 > amount and amount > 5")) {
+      var columnar = sales.selectWhere(List.of("id"), where(sales, clause));
+      var expected = rows.selectWhere(List.of("id"), where(rows, clause));
+      columnar.sort(
+          (x, y) -> Integer.compare(Integer.parseInt(x.get(0)), Integer.parseInt(y.get(0))));
+      assert columnar.equals(expected) : clause;
+    }
+  }
+
+  @Test
+  public void testLayoutIsSaved() {
+    var db = sales("columnarsave");
+    Disk.writeDatabase(db);
+    db.runQuery("create table logged ( id number primary key ) with (layout = columnar);");
+    db.commit(); // only in the log
+
+    var read = Disk.readDatabase("./columnarsave.db");
+    assert read.getTable("sales").getLayout() == Table.Layout.COLUMNAR;
+    assert read.getTable("logged").getLayout() == Table.Layout.COLUMNAR;
+    assert read.query("select amount from sales where id = 14").equals(List.of(List.of("2.5")));
+    assert read.query("select id from sales where day < 2").size() == 20;
+  }
+
+  @Test
+  public void testLayoutSurvivesPooledAndMappedOpens() {
+    Disk.writeDatabase(sales("columnarpooled"));
+
+    var mapped = Disk.mapDatabase("./columnarpooled.db");
+    assert mapped.getTable("sales").getLayout() == Table.Layout.COLUMNAR;
+
+    var pooled = Disk.openDatabase("./columnarpooled.db", 8);
+    assert pooled.getTable("sales").getLayout() == Table.Layout.COLUMNAR;
+    Disk.writeDatabase(pooled); // the catalog is written again from the opened tables
+    pooled.close();
+
+    var read = Disk.readDatabase("./columnarpooled.db");
+    assert read.getTable("sales").getLayout() == Table.Layout.COLUMNAR;
+    assert read.query("select amount from sales where id = 14").equals(List.of(List.of("2.5")));
+  }
+
+  @Test
+  public void testQueriesDecodeOnlyTheColumnsTheyRead() {
+    var db = sales("columnarprune");
+    var sales = db.getTable("sales");
+    var rows = new Database("rowprune", null);
+    rows.runQuery(
+        "create table sales ( id number primary key, day number, region string, amount number,"
+            + " note string );");
+    rows.getTable("sales").insertBatch(sales.select(List.of("*"), null));
+
+    for (String query :
+        List.of(
+            "select region, sum(amount), count(*) from sales where day < 300 group by region"
+                + " order by region",
+            "select note from sales where amount > 90 order by note limit 5",
+            "select max(day), min(note) from sales where region = north",
+            "select id, note from sales where day = 7",
+            "select day from sales limit 3")) {
+      assert db.query(query).equals(rows.query(query)) : query;
+    }
+
+    // the scan under the filter fills in the columns read and leaves the rest out
+    Plan plan = sales.plan(List.of("id"), where(sales, "day = 7"), null);
+    while (!(plan instanceof Plan.Scan)) {
+      plan = plan.inputs().get(0);
+    }
+    List<String> row = plan.iterator().next();
+    assert row.get(0).equals("70") && row.get(2).equals("7") : row;
+    assert row.get(3).isEmpty() && row.get(5).isEmpty() : row;
+  }
+}
@@ -0,0 +1,204 @@
+package com.mycompany.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+public class ConcurrencyTest {
+
+  private static List<String> files = new ArrayList<>();
+
+  @AfterAll
+  public static void cleanup() {
+    for (String file : files) {
+      new File(file).delete();
+      new File(file + "-wal").delete();
+    }
+  }
+
+  private static Database accounts(String name, int rows) {
+    String path = "./" + name + ".db";
+    files.add(path);
+    var db = new Database(name, path);
+    db.runQuery("create table accounts ( id number primary key, owner string, balance number );");
+    List<List<String>> accounts = new ArrayList<>();
+    for (int i = 0; i < rows; i++) {
+      accounts.add(List.of(String.valueOf(i), "owner" + i, "100"));
+    }
+    db.getTable("accounts").insertBatch(accounts);
+    db.commit();
+    return db;
+  }
+
+  @Test
+  public void testReadersAndWritersShareATable() throws Exception {
+    var db = accounts("concurrentshare", 1000);
+    Table accounts = db.getTable("accounts");
+    int threads = 8;
+    int inserts = 500; // by each writer
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<?>> done = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      int thread = t;
+      if (thread % 2 == 0) {
+        done.add(
+            pool.submit(
+                () -> {
+                  for (int i = 0; i < inserts; i++) {
+                    int id = 1000 + thread * inserts + i;
+                    accounts.insert(List.of(String.valueOf(id), "new" + id, "5"));
+                  }
+                }));
+      } else {
+        done.add(
+            pool.submit(
+                () -> {
+                  for (int i = 0; i < 200; i++) {
+                    // rows from the start are never changed, whatever the writers do
+                    assert accounts.getRow(String.valueOf(i)).get(2).equals("100");
+                    var rows = db.query("select id from accounts where balance = 100");
+                    assert rows.size() == 1000 : rows.size();
+                  }
+                }));
+      }
+    }
+    for (Future<?> future : done) {
+      future.get(60, TimeUnit.SECONDS);
+    }
+    pool.shutdown();
+    assert db.query("select count(*) from accounts").equals(List.of(List.of("3000")));
+    assert accounts.getRow("4499").equals(List.of("4499", "new4499", "5"));
+  }
+
+  // nine lookups to each insert from every thread, returning how long the whole run took
+  private static long mixedWorkload(Table accounts, int rows, int threads, int ops)
+      throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<Long>> counts = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      counts.add(
+          pool.submit(
+              () -> {
+                // every insert replaces a row with the same values
+                var random = ThreadLocalRandom.current();
+                long done = 0;
+                for (; done < ops; done++) {
+                  String id = String.valueOf(random.nextInt(rows));
+                  if (done % 10 == 9) {
+                    accounts.insert(List.of(id, "owner" + id, "100"));
+                  } else {
+                    assert accounts.getRow(id).equals(List.of(id, "owner" + id, "100"));
+                  }
+                }
+                return done;
+              }));
+    }
+    for (Future<Long> count : counts) {
+      assert count.get(60, TimeUnit.SECONDS) == ops;
+    }
+    long elapsed = System.nanoTime() - start;
+    pool.shutdown();
+    assert accounts.primaryKeys().size() == rows;
+    return elapsed;
+  }
+
+  @Test
+  public void testMixedPointReadsAndWrites() throws Exception {
+    int rows = 100_000;
+    var db = accounts("concurrentmixed", rows);
+    int threads = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+    mixedWorkload(db.getTable("accounts"), rows, threads, 20_000);
+  }
+
+  /**
+   * Throughput of the mixed workload from one thread up to one per core. Only run when asked for,
+   * with {@code mvn test -Dtest=ConcurrencyTest -Dbenchmark=true}.
+   */
+  @Test
+  @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+  public void benchmarkMixedPointReadsAndWrites() throws Exception {
+    int rows = 100_000;
+    int ops = 200_000; // by each thread
+    var db = accounts("concurrentbenchmark", rows);
+    Table accounts = db.getTable("accounts");
+    mixedWorkload(accounts, rows, 1, ops); // warm up
+    int cores = Runtime.getRuntime().availableProcessors();
+    List<Integer> counts = new ArrayList<>();
+    for (int threads = 1; threads < cores; threads *= 2) {
+      counts.add(threads);
+    }
+    counts.add(cores);
+    double single = 0;
+    for (int threads : counts) {
+      long elapsed = mixedWorkload(accounts, rows, threads, ops);
+      double throughput = (double) threads * ops / elapsed * 1e9;
+      if (threads == 1) {
+        single = throughput;
+      }
+      System.out.printf(
+          "[BENCHMARK] %d threads: %.0f ops/s, %.2fx one thread%n",
+          threads, throughput, throughput / single);
+    }
+  }
+
+  @Test
+  public void testCursorCarriesOnAfterInserts() {
+    var db = accounts("concurrentcursor", 0);
+    Table accounts = db.getTable("accounts");
+    for (int i = 0; i < 100; i++) {
+      accounts.insert(List.of(String.valueOf(i * 10), "owner" + i, "100"));
+    }
+    Cursor cursor = db.cursor("select id from accounts");
+    List<List<String>> read = new ArrayList<>(cursor.fetch(5));
+    accounts.insert(List.of("1", "new1", "5"));
+    accounts.insert(List.of("2", "new2", "5"));
+    read.addAll(cursor.fetchAll());
+
+    // rows that were there all along come back once each, in key order
+    List<List<String>> original = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      original.add(List.of(String.valueOf(i * 10)));
+    }
+    assert read.equals(original) : read;
+
+    // enough new keys between batches that leaves split under the cursor
+    cursor = db.cursor("select id from accounts where balance = 100");
+    read = new ArrayList<>(cursor.fetch(5));
+    for (int i = 0; i < 1000; i++) {
+      accounts.insert(List.of(String.valueOf(1000 + i), "later" + i, "5"));
+    }
+    read.addAll(cursor.fetchAll());
+    assert read.equals(original) : read;
+  }
+
+  @Test
+  public void testRowsHeldByASortStayAsTheyWere() {
+    var db = accounts("concurrentsort", 3000);
+    Table accounts = db.getTable("accounts");
+    db.startTransaction();
+    for (int i = 3000; i < 3100; i++) {
+      accounts.insert(List.of(String.valueOf(i), "owner" + i, "100"));
+    }
+    Cursor cursor = db.cursor("select id, owner from accounts order by owner desc");
+    List<List<String>> read = new ArrayList<>(cursor.fetch(5));
+    db.rollback(); // removes the rows the sort is holding on to
+    for (int i = 0; i < 3000; i += 2) {
+      accounts.insert(List.of(String.valueOf(i), "changed", "0"));
+    }
+    read.addAll(cursor.fetchAll());
+
+    assert read.size() == 3100;
+    for (List<String> row : read) {
+      assert row.get(1).equals("owner" + row.get(0)) : row;
+    }
+  }
+}
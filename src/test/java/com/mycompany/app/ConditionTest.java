@@ -0,0 +1,62 @@
+package com.mycompany.app;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ConditionTest {
+
+  private static Table accounts() {
+    Table table =
+        new Table(
+            "accounts",
+            List.of(
+                new Column("id", TokenType.NUMBER, false, true, null),
+                new Column("balance", TokenType.NUMBER, true, false, null),
+                new Column("owner", TokenType.STRING_TYPE, true, false, null)));
+    for (int i = 0; i < 20; i++) {
+      table.insert(List.of(String.valueOf(i), String.valueOf(i * 10), i % 2 == 0 ? "ann" : "bob"));
+    }
+    return table;
+  }
+
+  private static Condition where(Table table, String clause) {
+    Parser parser = new Parser(new Scanner("select id from t where " + clause).scanTokens());
+    return new Condition(table, ((Expr.Select) parser.selectStatement()).whereClause.get(0));
+  }
+
+  private static int count(Table table, String clause) {
+    return table.selectWhere(List.of("id"), where(table, clause)).size();
+  }
+
+  @Test
+  public void testCompiledExpressions() {
+    Table table = accounts();
+    assert count(table, "balance = 2 * 5 + 10") == 1;
+    assert count(table, "-balance < -150") == 4;
+    assert count(table, "balance / 10 = id") == 20;
+    assert count(table, "balance > 100 = true and owner = ann") == 4;
+    assert count(table, "owner = bob or (id < 4 and id >= 2)") == 11;
+    assert count(table, "150 <= balance") == 5;
+  }
+
+  @Test
+  public void testErrorsOnlyWhenRowsAreTested() {
+    Table table = accounts();
+    Condition notCondition = where(table, "balance + 1");
+    Condition badNumber = where(table, "balance = owner + 1");
+    Condition badLogical = where(table, "id = 1 and balance");
+
+    for (Condition condition : List.of(notCondition, badNumber, badLogical)) {
+      boolean failed = false;
+      try {
+        table.selectWhere(List.of("id"), condition);
+      } catch (RuntimeException e) {
+        failed = true;
+      }
+      assert failed;
+    }
+    assert new Table("empty", table.getColumns())
+        .selectWhere(List.of("id"), where(table, "balance = owner + 1"))
+        .isEmpty();
+  }
+}
@@ -0,0 +1,173 @@
+package com.mycompany.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+public class CopyTest {
+
+  private static List<String> files = new ArrayList<>();
+
+  @AfterAll
+  public static void cleanup() {
+    for (String file : files) {
+      new File(file).delete();
+      new File(file + "-wal").delete();
+    }
+  }
+
+  private static Database products(String name) {
+    String path = "./" + name + ".db";
+    files.add(path);
+    var db = new Database(name, path);
+    db.runQuery(
+        "create table products ( id number primary key, name string not null, price number );");
+    db.runQuery("create unique index byName on products (name);");
+    return db;
+  }
+
+  private static Path file(String name, byte[] contents) throws Exception {
+    files.add("./" + name);
+    return Files.write(Path.of("./" + name), contents);
+  }
+
+  @Test
+  public void testCopyFromCsv() throws Exception {
+    var db = products("copycsv");
+    StringBuilder csv = new StringBuilder();
+    for (int i = 0; i < 100_000; i++) {
+      csv.append(i).append(",item").append(i).append(',').append(i % 50);
+      csv.append(i % 2 == 0 ? "\n" : "\r\n");
+    }
+    csv.append("100000,\"say \"\"hi\"\", ok\",2.5\n\n");
+    Path path = file("copycsv.csv", csv.toString().getBytes("UTF-8"));
+
+    db.runQuery("copy products from 'copycsv.csv';");
+    var products = db.getTable("products");
+    assert products.primaryKeys().size() == 100_001;
+    assert db.query("select name, price from products where id = 100000")
+        .equals(List.of(List.of("say \"hi\", ok", "2.5")));
+    assert db.query("select id from products where name = item77777")
+        .equals(List.of(List.of("77777")));
+    assert db.query("select id from products where price = 49").size() == 2000;
+
+    // a bad row anywhere stops the whole file, and nothing is loaded
+    Path bad = file("copybad.csv", "200000,new,1\n200001,item5,1\n".getBytes("UTF-8"));
+    for (String contents : List.of("200000,new,1\n200001,,1\n", "200000,new,x\n", "200000,new\n")) {
+      Files.write(bad, contents.getBytes("UTF-8"));
+      boolean threw = false;
+      try {
+        db.copyFrom("products", bad, false);
+      } catch (RuntimeException e) {
+        threw = true;
+      }
+      assert threw : contents;
+    }
+    Files.write(bad, "200000,new,1\n200001,item5,1\n".getBytes("UTF-8"));
+    boolean duplicate = false;
+    try {
+      db.copyFrom("products", bad, false);
+    } catch (RuntimeException e) {
+      duplicate = true;
+    }
+    assert duplicate : "the unique index is checked before anything is loaded";
+    assert products.primaryKeys().size() == 100_001;
+    assert path.toFile().exists();
+  }
+
+  @Test
+  public void testCopyFromBinary() throws Exception {
+    var db = products("copybinary");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(new byte[] {0x44, 0x42, 0x43, 0x50});
+    for (int i = 0; i < 5000; i++) {
+      byte[] row = RowCodec.encode(List.of(String.valueOf(i), "item" + i, String.valueOf(i * 2)));
+      RowCodec.writeVarInt(out, row.length);
+      out.write(row);
+    }
+    file("copybinary.bin", out.toByteArray());
+    Disk.writeDatabase(db);
+
+    db.runQuery("copy products from \"copybinary.bin\" with (format = binary);");
+    assert db.getTable("products").primaryKeys().size() == 5000;
+    assert db.query("select name from products where price = 9998")
+        .equals(List.of(List.of("item4999")));
+
+    // the rows were logged, so they survive reopening
+    db.close();
+    var read = Disk.readDatabase("./copybinary.db");
+    assert read.getTable("products").primaryKeys().size() == 5000;
+
+    boolean threw = false;
+    try {
+      read.copyFrom("products", Path.of("./copybinary.db-wal"), true);
+    } catch (RuntimeException e) {
+      threw = true;
+    }
+    assert threw : "a file without the header is not a copy file";
+  }
+
+  @Test
+  public void testCopyToRoundTrips() throws Exception {
+    var db = products("copyto");
+    var products = db.getTable("products");
+    List<List<String>> rows = new ArrayList<>();
+    for (int i = 0; i < 40_000; i++) {
+      rows.add(
+          List.of(
+              String.valueOf(i), i % 1000 == 0 ? "a, \"quoted\" name " + i : "item" + i, "1.5"));
+    }
+    products.insertBatch(rows);
+
+    List<Cursor> ranges = products.partitions(List.of("*"), 3);
+    assert ranges.size() == 3;
+    List<List<String>> all = new ArrayList<>();
+    for (Cursor range : ranges) {
+      List<List<String>> part = range.fetchAll();
+      assert part.size() >= 13_332 && part.size() <= 13_334;
+      all.addAll(part);
+    }
+    assert all.equals(products.select(List.of("*"), null));
+
+    files.add("./copyto.csv");
+    files.add("./copyto.bin");
+    db.runQuery("copy products to 'copyto.csv';");
+    assert db.copyTo("products", Path.of("./copyto.bin"), true) == 40_000;
+    assert !new File("./copyto.csv.part0").exists();
+
+    for (String copy :
+        List.of(
+            "copy products from 'copyto.csv';",
+            "copy products from 'copyto.bin' with (format = binary);")) {
+      var loaded = products(copy.contains("binary") ? "copytobinary" : "copytocsv");
+      loaded.runQuery(copy);
+      assert loaded
+          .getTable("products")
+          .select(List.of("*"), null)
+          .equals(products.select(List.of("*"), null));
+    }
+  }
+
+  @Test
+  public void testCopyInsideAFailedQueryIsRolledBack() throws Exception {
+    var db = products("copyrollback");
+    file("copyrollback.csv", "1,first,2\n2,second,3\n".getBytes("UTF-8"));
+
+    boolean threw = false;
+    try {
+      db.runQuery(
+          "insert into products (id, name, price) values (9, taken, 1);"
+              + " copy products from 'copyrollback.csv';"
+              + " insert into products (id, name, price) values (10, taken, 1);");
+    } catch (RuntimeException e) {
+      threw = true;
+    }
+    assert threw : "the second insert breaks the unique index";
+    assert db.getTable("products").primaryKeys().isEmpty();
+  }
+}
@@ -3,6 +3,7 @@ package com.mycompany.app;
 import java.io.File;
 import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Test;
@@ -19,6 +20,7 @@ public class FileTest {
       if (f.exists()) {
         f.delete();
       }
+      new File(file + "-wal").delete();
     }
   }
 
@@ -78,4 +80,189 @@ public class FileTest {
       assert false : "Test failed due to exception: " + e.getMessage();
     }
   }
+
+  @Test
+  public void testIncrementalSaveAppendsRows() {
+    var db = new Database("incremental", "./incremental.db");
+    files.add("./incremental.db");
+    db.createTable(
+        "Users",
+        List.of(
+            new Column("id", TokenType.NUMBER, false, true, null),
+            new Column("name", TokenType.STRING_TYPE, true, false, null)));
+    db.getTable("Users").insert(List.of("0", "user0"));
+    Disk.writeDatabase(db);
+    long firstSize = new File("./incremental.db").length();
+
+    // enough rows to spill over onto new pages
+    for (int i = 1; i < 1000; i++) {
+      db.getTable("Users").insert(List.of(String.valueOf(i), "user" + i));
+    }
+    assert db.getTable("Users").pageChain().isDirty();
+    Disk.writeDatabase(db);
+    assert !db.getTable("Users").pageChain().isDirty();
+    assert new File("./incremental.db").length() > firstSize;
+
+    var read = Disk.readDatabase("./incremental.db");
+    assert read.getTable("Users").primaryKeys().size() == 1000;
+    assert read.getTable("Users").getRowCol("999", "name").equals("user999");
+    assert read.getTable("Users").getRowCol("0", "name").equals("user0");
+  }
+
+  @Test
+  public void testReplacedRowRewritesTable() {
+    var db = new Database("rewrite", "./rewrite.db");
+    files.add("./rewrite.db");
+    db.createTable(
+        "Users",
+        List.of(
+            new Column("id", TokenType.NUMBER, false, true, null),
+            new Column("name", TokenType.STRING_TYPE, true, false, null)));
+    db.getTable("Users").insert(List.of("1", "Alice"));
+    Disk.writeDatabase(db);
+
+    var read = Disk.readDatabase("./rewrite.db");
+    read.getTable("Users").insert(List.of("1", "Bob"));
+    read.getTable("Users").insert(List.of("2", "Carol"));
+    Disk.writeDatabase(read);
+
+    var reread = Disk.readDatabase("./rewrite.db");
+    assert reread.getTable("Users").primaryKeys().size() == 2;
+    assert reread.getTable("Users").getRowCol("1", "name").equals("Bob");
+    assert reread.getTable("Users").getRowCol("2", "name").equals("Carol");
+  }
+
+  @Test
+  public void testUnfinishedSaveLeavesTheFileAsItWas() throws Exception {
+    var db = new Database("unfinished", "./unfinished.db");
+    files.add("./unfinished.db");
+    db.createTable(
+        "Users",
+        List.of(
+            new Column("id", TokenType.NUMBER, false, true, null),
+            new Column("name", TokenType.STRING_TYPE, true, false, null)));
+    for (int i = 0; i < 1000; i++) {
+      db.getTable("Users").insert(List.of(String.valueOf(i), "user" + i));
+    }
+    Disk.writeDatabase(db);
+
+    // a save that gives up the table's and catalog's pages and writes new ones, then crashes
+    // before the header is written
+    try (PageFile file = PageFile.open(java.nio.file.Path.of("./unfinished.db"), true)) {
+      file.freeChain(db.getTable("Users").pageChain().first);
+      file.freeChain(file.catalogPage());
+      var page = java.nio.ByteBuffer.allocate(PageFile.PAGE_SIZE);
+      for (int i = 0; i < 50; i++) {
+        file.write(file.allocate(), page);
+      }
+      file.writeChain(new byte[100]);
+    }
+    var read = Disk.readDatabase("./unfinished.db");
+    assert read.getTable("Users").primaryKeys().size() == 1000;
+    assert read.getTable("Users").getRowCol("999", "name").equals("user999");
+
+    // pages given up by one save are reused by the next, so rewriting does not grow the file
+    for (int round = 0; round < 2; round++) {
+      read.getTable("Users").insert(List.of("0", "round" + round));
+      Disk.writeDatabase(read);
+    }
+    long size = new File("./unfinished.db").length();
+    for (int round = 2; round < 6; round++) {
+      read.getTable("Users").insert(List.of("0", "round" + round));
+      Disk.writeDatabase(read);
+    }
+    assert new File("./unfinished.db").length() <= size + 2 * PageFile.PAGE_SIZE;
+    var reread = Disk.readDatabase("./unfinished.db");
+    assert reread.getTable("Users").primaryKeys().size() == 1000;
+    assert reread.getTable("Users").getRowCol("0", "name").equals("round5");
+  }
+
+  @Test
+  public void testMappedRead() {
+    var db = new Database("mapped", "./mapped.db");
+    files.add("./mapped.db");
+    db.createTable(
+        "Users",
+        List.of(
+            new Column("id", TokenType.NUMBER, false, true, null),
+            new Column("name", TokenType.STRING_TYPE, true, false, null)));
+    for (int i = 0; i < 1000; i++) {
+      db.getTable("Users").insert(List.of(String.valueOf(i), "user" + i));
+    }
+    Disk.writeDatabase(db);
+
+    var mapped = Disk.mapDatabase("./mapped.db");
+    var users = mapped.getTable("Users");
+    assert users.select(List.of("id", "name"), 1000).size() == 1000;
+    assert users.getRowCol("500", "name").equals("user500");
+    assert users.getRowCol("500", "primary_key").equals("500");
+    assert users.primaryKeys().size() == 1000;
+
+    boolean threw = false;
+    try {
+      users.insert(List.of("1000", "user1000"));
+    } catch (RuntimeException e) {
+      threw = true;
+    }
+    assert threw : "memory mapped tables are read only";
+    mapped.close();
+
+    // a commit only in the log would be missing from the mapped pages
+    db.getTable("Users").insert(List.of("1000", "user1000"));
+    db.commit();
+    threw = false;
+    try {
+      Disk.mapDatabase("./mapped.db");
+    } catch (RuntimeException e) {
+      threw = true;
+    }
+    assert threw : "a database with committed changes in its log cannot be mapped";
+    Disk.writeDatabase(db);
+    db.close();
+    mapped = Disk.mapDatabase("./mapped.db");
+    assert mapped.getTable("Users").getRowCol("1000", "name").equals("user1000");
+    mapped.close();
+  }
+
+  @Test
+  public void testMappedLookupsFromManyThreads() throws Exception {
+    var db = new Database("mappedthreads", "./mappedthreads.db");
+    files.add("./mappedthreads.db");
+    db.createTable(
+        "Users",
+        List.of(
+            new Column("id", TokenType.NUMBER, false, true, null),
+            new Column("name", TokenType.STRING_TYPE, true, false, null)));
+    for (int i = 0; i < 5000; i++) {
+      db.getTable("Users").insert(List.of(String.valueOf(i), "user" + i));
+    }
+    Disk.writeDatabase(db);
+    db.close();
+
+    // the first lookups all race to build the directory
+    var mapped = Disk.mapDatabase("./mappedthreads.db");
+    var users = mapped.getTable("Users");
+    List<Thread> readers = new ArrayList<>();
+    List<String> wrong = Collections.synchronizedList(new ArrayList<>());
+    for (int t = 0; t < 8; t++) {
+      int start = t;
+      Thread reader =
+          new Thread(
+              () -> {
+                for (int i = start; i < 5000; i += 8) {
+                  if (!users.getRowCol(String.valueOf(i), "name").equals("user" + i)) {
+                    wrong.add(String.valueOf(i));
+                  }
+                }
+              });
+      readers.add(reader);
+      reader.start();
+    }
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assert wrong.isEmpty() : wrong;
+    assert users.primaryKeys().size() == 5000;
+    mapped.close();
+  }
 }
@@ -0,0 +1,171 @@
+package com.mycompany.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+public class IndexTest {
+
+  private static List<String> files = new ArrayList<>();
+
+  @AfterAll
+  public static void cleanup() {
+    for (String file : files) {
+      new File(file).delete();
+      new File(file + "-wal").delete();
+    }
+  }
+
+  private static Database customers(String name) {
+    String path = "./" + name + ".db";
+    files.add(path);
+    var db = new Database(name, path);
+    db.runQuery(
+        "create table customers ( id number primary key, email string not null, age number );");
+    for (int i = 0; i < 200; i++) {
+      db.getTable("customers")
+          .insert(List.of(String.valueOf(i), "user" + i, String.valueOf(i % 50)));
+    }
+    db.commit();
+    return db;
+  }
+
+  private static Condition where(Table table, String clause) {
+    Parser parser = new Parser(new Scanner("select id from t where " + clause).scanTokens());
+    return new Condition(table, ((Expr.Select) parser.selectStatement()).whereClause.get(0));
+  }
+
+  @Test
+  public void testEqualityUsesHashIndex() {
+    var db = customers("hashindex");
+    var customers = db.getTable("customers");
+    assert customers.explain(where(customers, "email = user42")).equals("scan");
+
+    db.runQuery("create unique index byEmail on customers (email) using hash;");
+    assert customers.getIndex("byEmail").kind() == Index.Kind.HASH;
+    assert customers.explain(where(customers, "email = user42")).equals("index byEmail");
+    assert db.query("select id from customers where email = user42").equals(List.of(List.of("42")));
+    assert db.query("select id from customers where email = \"user42\" and age = 1").isEmpty();
+  }
+
+  @Test
+  public void testRangeUsesTreeIndex() {
+    var db = customers("treeindex");
+    var customers = db.getTable("customers");
+    db.runQuery("create index byAge on customers (age);");
+
+    var byAge = where(customers, "age >= 48 and 49 >= age");
+    assert customers.explain(byAge).equals("index byAge range");
+    assert customers.selectWhere(List.of("id"), byAge).size() == 8;
+    assert db.query("select id from customers where age = 3").size() == 4;
+    assert db.query("select id from customers where age < 2 or age > 48").size() == 12;
+  }
+
+  @Test
+  public void testPrimaryKeyLookups() {
+    var db = customers("pkindex");
+    var customers = db.getTable("customers");
+
+    assert customers.explain(where(customers, "id = 7")).equals("primary key");
+    assert db.query("select email from customers where id = 7").equals(List.of(List.of("user7")));
+    assert customers.explain(where(customers, "id > 195")).equals("primary key range");
+    assert db.query("select id from customers where id > 195").size() == 4;
+    assert db.query("select id from customers where id > 9 and id < 11")
+        .equals(List.of(List.of("10")));
+  }
+
+  @Test
+  public void testIndexesFollowInserts() {
+    var db = customers("indexsync");
+    var customers = db.getTable("customers");
+    db.runQuery("create unique index byEmail on customers (email);");
+
+    customers.insert(List.of("5", "changed", "5"));
+    assert db.query("select id from customers where email = user5").isEmpty();
+    assert db.query("select id from customers where email = changed").equals(List.of(List.of("5")));
+
+    boolean threw = false;
+    try {
+      customers.insert(List.of("500", "user6", "1"));
+    } catch (RuntimeException e) {
+      threw = true;
+    }
+    assert threw : "unique index should reject a duplicate";
+    assert customers.primaryKeys().size() == 200;
+
+    db.startTransaction();
+    customers.insert(List.of("600", "user600", "1"));
+    db.runQuery("create index byAge on customers (age) using hash;");
+    db.rollback();
+    assert customers.getIndex("byAge") == null;
+    assert db.query("select id from customers where email = user600").isEmpty();
+
+    boolean duplicate = false;
+    try {
+      db.runQuery("create unique index byAgeUnique on customers (age);");
+    } catch (RuntimeException e) {
+      duplicate = true;
+    }
+    assert duplicate : "existing duplicates should stop a unique index being created";
+  }
+
+  @Test
+  public void testBatchInsertKeepsIndexesInSync() {
+    var db = customers("indexbatch");
+    var customers = db.getTable("customers");
+    db.runQuery("create unique index byEmail on customers (email);");
+    db.runQuery("create index byAge on customers (age) using hash;");
+
+    db.runQuery(
+        "insert into customers (age, id, email) values (7, 300, new300), (-1, 301, new301),"
+            + " (7, 5, moved5);");
+    assert customers.primaryKeys().size() == 202;
+    assert db.query("select id from customers where email = moved5").equals(List.of(List.of("5")));
+    assert db.query("select id from customers where email = user5").isEmpty();
+    assert db.query("select id from customers where age = 7").size() == 6;
+    assert db.query("select email from customers where age = -1")
+        .equals(List.of(List.of("new301")));
+
+    // a duplicate within the batch, or against the table, stops the whole batch
+    for (String values : List.of("(400, a, 1), (401, a, 1)", "(400, a, 1), (401, user9, 1)")) {
+      boolean threw = false;
+      try {
+        db.runQuery("insert into customers (id, email, age) values " + values + ";");
+      } catch (RuntimeException e) {
+        threw = true;
+      }
+      assert threw : values;
+      assert db.query("select id from customers where email = a").isEmpty();
+    }
+    assert customers.primaryKeys().size() == 202;
+
+    db.startTransaction();
+    customers.insertBatch(List.of(List.of("700", "x700", "1"), List.of("1", "x1", "1")));
+    db.rollback();
+    assert db.query("select id from customers where email = user1").equals(List.of(List.of("1")));
+    assert db.query("select id from customers where email = x700").isEmpty();
+    assert customers.primaryKeys().size() == 202;
+  }
+
+  @Test
+  public void testIndexesAreSaved() {
+    var db = customers("indexsave");
+    db.runQuery("create index byAge on customers (age);");
+    Disk.writeDatabase(db);
+    db.runQuery("create index byEmail on customers (email) using hash;"); // only in the log
+
+    var read = Disk.readDatabase("./indexsave.db");
+    var customers = read.getTable("customers");
+    assert customers.getIndex("byAge").kind() == Index.Kind.TREE;
+    assert customers.getIndex("byEmail").kind() == Index.Kind.HASH;
+    assert read.query("select id from customers where email = user9").equals(List.of(List.of("9")));
+
+    var pooled = Disk.openDatabase("./indexsave.db", 4);
+    var pooledCustomers = pooled.getTable("customers");
+    assert pooledCustomers.explain(where(pooledCustomers, "age = 3")).equals("index byAge");
+    assert pooled.query("select id from customers where age = 3").size() == 4;
+    pooled.close();
+  }
+}
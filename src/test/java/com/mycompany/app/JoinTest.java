@@ -0,0 +1,210 @@
+package com.mycompany.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+public class JoinTest {
+
+  private static List<String> files = new ArrayList<>();
+
+  @AfterAll
+  public static void cleanup() {
+    for (String file : files) {
+      new File(file).delete();
+      new File(file + "-wal").delete();
+    }
+  }
+
+  // 50 customers, the first 40 with 25 orders each
+  private static Database shop(String name) {
+    String path = "./" + name + ".db";
+    files.add(path);
+    var db = new Database(name, path);
+    db.runQuery("create table customers ( id number primary key, name string, city string );");
+    db.runQuery("create table orders ( id number primary key, customer number, amount number );");
+    List<List<String>> customers = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      customers.add(List.of(String.valueOf(i), "c" + i, i % 2 == 0 ? "paris" : "rome"));
+    }
+    db.getTable("customers").insertBatch(customers);
+    List<List<String>> orders = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      orders.add(List.of(String.valueOf(i), String.valueOf(i % 40), String.valueOf(i % 100)));
+    }
+    db.getTable("orders").insertBatch(orders);
+    db.commit();
+    return db;
+  }
+
+  private static List<List<String>> sorted(List<List<String>> rows) {
+    List<List<String>> copy = new ArrayList<>(rows);
+    copy.sort(Comparator.comparing(Object::toString));
+    return copy;
+  }
+
+  @Test
+  public void testInnerAndLeftJoin() {
+    var db = shop("joininner");
+    var rows =
+        db.query(
+            "select orders.id, name from orders join customers on customer = customers.id"
+                + " where amount = 5 and city = rome");
+    assert rows.size() == 10;
+    for (List<String> row : rows) {
+      int order = Integer.parseInt(row.get(0));
+      assert order % 100 == 5;
+      assert row.get(1).equals("c" + order % 40);
+    }
+    assert db.query("select * from orders inner join customers on customer = customers.id").size()
+        == 1000;
+    assert db.query(
+            "select orders.id from orders join customers on customer = customers.id"
+                + " and customers.id > 100")
+        .isEmpty();
+
+    // customers without orders are kept by a LEFT JOIN, with empty order values
+    var left =
+        db.query(
+            "select customers.id, orders.id from customers left join orders"
+                + " on customers.id = customer and amount < 1 where customers.id >= 38");
+    assert sorted(left)
+        .equals(
+            List.of(
+                List.of("38", ""),
+                List.of("39", ""),
+                List.of("40", ""),
+                List.of("41", ""),
+                List.of("42", ""),
+                List.of("43", ""),
+                List.of("44", ""),
+                List.of("45", ""),
+                List.of("46", ""),
+                List.of("47", ""),
+                List.of("48", ""),
+                List.of("49", "")));
+    assert db.query(
+                "select customers.id from customers left join orders on customers.id = customer")
+            .size()
+        == 1010;
+
+    boolean threw = false;
+    try {
+      db.query("select id from orders join customers on customer = customers.id");
+    } catch (RuntimeException e) {
+      threw = true;
+    }
+    assert threw : "id is in both tables";
+  }
+
+  @Test
+  public void testBuildsOnTheSmallerSide() {
+    var db = shop("joinbuild");
+    String plan = db.explain("select name from orders join customers on customer = customers.id");
+    assert plan.startsWith("project name") : plan;
+    assert plan.contains("hash join build right") : plan;
+    plan = db.explain("select name from customers join orders on customer = customers.id");
+    assert plan.contains("hash join build left") : plan;
+
+    // a filter on the orders side makes it the smaller one
+    plan =
+        db.explain(
+            "select name from customers join orders on customer = customers.id where amount = 7"
+                + " and orders.id < 20");
+    assert plan.contains("hash join build right") : plan;
+    assert plan.contains("primary key range on orders") : plan;
+  }
+
+  @Test
+  public void testIndexAndMergeJoins() {
+    var db = shop("joinstrategies");
+    // a few orders against the customers by primary key are looked up, not hashed
+    String query =
+        "select name from orders join customers on customer = customers.id where orders.id = 7";
+    String plan = db.explain(query);
+    assert plan.contains("index nested loop join primary key on customers") : plan;
+    assert !plan.contains("scan on customers") : plan;
+    assert db.query(query).equals(List.of(List.of("c7")));
+
+    // and through a secondary index the other way round, keeping customers without orders
+    db.runQuery("create index byCustomer on orders (customer);");
+    query =
+        "select customers.id, orders.id from customers left join orders on customers.id ="
+            + " customer where customers.id = ";
+    plan = db.explain(query + "45");
+    assert plan.contains("index nested loop left join index byCustomer on orders") : plan;
+    assert db.query(query + "45").equals(List.of(List.of("45", "")));
+    var rows = db.query(query + "3");
+    assert rows.size() == 25 && rows.contains(List.of("3", "963"));
+
+    // two tables read in primary key order are merged without building a hash table
+    db.runQuery("create table accounts ( id number primary key, balance number );");
+    List<List<String>> accounts = new ArrayList<>();
+    for (int i = 0; i < 1000; i += 3) {
+      accounts.add(List.of(String.valueOf(i), String.valueOf(i * 10)));
+    }
+    db.getTable("accounts").insertBatch(accounts);
+    query = "select orders.id, balance from orders left join accounts on orders.id = accounts.id";
+    plan = db.explain(query);
+    assert plan.contains("merge left join") : plan;
+    rows = db.query(query);
+    assert rows.size() == 1000;
+    for (int i = 0; i < rows.size(); i++) {
+      assert rows.get(i)
+              .equals(List.of(String.valueOf(i), i % 3 == 0 ? String.valueOf(i * 10) : ""))
+          : rows.get(i);
+    }
+
+    // a merge pairs every left row with every right row holding its key
+    var customers = db.getTable("customers");
+    var orders = db.getTable("orders");
+    Plan merge =
+        new MergeJoin(
+            new Plan.Scan(customers, customers.fullScan(), 50, 50),
+            new Plan.Scan(orders, orders.orderedBy("customer"), 1000, 4000),
+            List.of("c", "id", "name", "city", "o", "oid", "customer", "amount"),
+            new JoinPlan.Keys(new int[] {1}, new int[] {2}, new boolean[] {true}),
+            null,
+            true,
+            1010,
+            5100);
+    List<List<String>> merged = new ArrayList<>();
+    merge
+        .iterator()
+        .forEachRemaining(
+            row ->
+                merged.add(
+                    List.of(
+                        row.get(1), row.get(2), row.get(3), row.get(5), row.get(6), row.get(7))));
+    assert sorted(merged)
+        .equals(
+            sorted(
+                db.query("select * from customers left join orders on customers.id = customer")));
+  }
+
+  @Test
+  public void testSpillsToDiskPastTheMemoryBudget() {
+    var db = shop("joinspill");
+    List<String> queries =
+        List.of(
+            "select orders.id, name from orders join customers on customer = customers.id",
+            "select orders.id, name from customers join orders on customer = customers.id",
+            "select customers.id, orders.id from customers left join orders"
+                + " on customers.id = customer and amount > 50",
+            "select customers.id, orders.id from orders left join customers"
+                + " on customers.id = customer and city = paris");
+    List<List<List<String>>> inMemory = new ArrayList<>();
+    for (String query : queries) {
+      inMemory.add(sorted(db.query(query)));
+    }
+    db.setWorkMemory(1000);
+    for (int i = 0; i < queries.size(); i++) {
+      assert sorted(db.query(queries.get(i))).equals(inMemory.get(i)) : queries.get(i);
+    }
+    assert inMemory.get(2).size() == 490 + 10;
+    assert inMemory.get(3).size() == 1000;
+  }
+}
@@ -0,0 +1,156 @@
+package com.mycompany.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+public class ParallelTest {
+
+  private static List<String> files = new ArrayList<>();
+
+  @AfterAll
+  public static void cleanup() {
+    for (String file : files) {
+      new File(file).delete();
+      new File(file + "-wal").delete();
+    }
+  }
+
+  // enough events to split among four workers, event i in region i % 5 worth i % 1000
+  private static Database events(String name) {
+    String path = "./" + name + ".db";
+    files.add(path);
+    var db = new Database(name, path);
+    db.runQuery("create table events ( id number primary key, region string, amount number );");
+    List<List<String>> events = new ArrayList<>();
+    for (int i = 0; i < 4 * Gather.ROWS_PER_WORKER; i++) {
+      events.add(List.of(String.valueOf(i), "r" + i % 5, String.valueOf(i % 1000)));
+    }
+    db.getTable("events").insertBatch(events);
+    db.commit();
+    return db;
+  }
+
+  private static List<List<String>> sorted(List<List<String>> rows) {
+    List<List<String>> copy = new ArrayList<>(rows);
+    copy.sort(Comparator.comparing(Object::toString));
+    return copy;
+  }
+
+  @Test
+  public void testParallelFilterMatchesSerial() {
+    var db = events("parallelfilter");
+    String query = "select id, region from events where amount = 7";
+    var serial = db.query(query);
+    db.setParallelism(4);
+    assert db.explain(query).contains("gather from 4 workers") : db.explain(query);
+    // ranges are gathered in key order, so the rows come back in the same order
+    assert db.query(query).equals(serial);
+    assert serial.size() == 4 * Gather.ROWS_PER_WORKER / 1000 + 1;
+  }
+
+  @Test
+  public void testParallelAggregateMatchesSerial() {
+    var db = events("parallelaggregate");
+    String query =
+        "select region, count(*), sum(amount), min(amount), max(amount), avg(amount)"
+            + " from events group by region";
+    var serial = sorted(db.query(query));
+    String global = "select count(*), avg(amount) from events where amount > 2000";
+    var serialGlobal = db.query(global);
+    db.setParallelism(4);
+    assert db.explain(query).contains("gather from 4 workers") : db.explain(query);
+    assert sorted(db.query(query)).equals(serial);
+    assert serial.size() == 5;
+    // every worker finds nothing, and the partial results still combine to one row
+    assert db.query(global).equals(serialGlobal);
+    assert serialGlobal.equals(List.of(List.of("0", "")));
+
+    boolean failed = false;
+    try {
+      db.setParallelism(0);
+    } catch (RuntimeException e) {
+      failed = true;
+    }
+    assert failed;
+  }
+
+  @Test
+  public void testOnlyWorthwhileQueriesRunInParallel() {
+    var db = events("parallelchoice");
+    db.analyze("events");
+    db.setParallelism(4);
+    // nearly every row passes, so handing them over costs more than reading them here
+    assert !db.explain("select id from events where amount > 1").contains("gather");
+    // a limit stops a serial read early
+    String limited = "select id from events where amount = 7 limit 3";
+    assert !db.explain(limited).contains("gather") : db.explain(limited);
+    assert db.query(limited).equals(List.of(List.of("7"), List.of("1007"), List.of("2007")));
+    // a sort reads every row anyway
+    assert db.explain("select id from events where amount = 7 order by id desc limit 3")
+        .contains("gather from 4 workers");
+  }
+
+  @Test
+  public void testParallelRowsAreHandedOverAsTheyAreFound() {
+    var db = events("parallelstream");
+    String query = "select id from events where amount < 10";
+    var serial = db.query(query);
+    db.setParallelism(4);
+    assert db.explain(query).contains("gather from 4 workers") : db.explain(query);
+    Cursor rows = db.cursor(query);
+    assert rows.next().equals(List.of("0"));
+    // the caller holds no lock between rows, so the table can still be changed
+    db.runQuery("insert into events (id, region, amount) values (-1, r0, 0);");
+    List<List<String>> rest = new ArrayList<>();
+    rows.forEachRemaining(rest::add);
+    assert rest.equals(serial.subList(1, serial.size()));
+
+    // a cursor left unread does not stop other queries running in parallel
+    for (int i = 0; i < 10; i++) {
+      db.cursor(query).next();
+    }
+    assert db.query(query).size() == serial.size() + 1;
+  }
+
+  @Test
+  public void testPreparedSelectKeepsItsPlanWhenSerial() {
+    var db = events("parallelprepared");
+    String query = "select id, amount from events where amount = 7";
+    var serial = db.query(query);
+    String small = "select id from events where id < 10 and amount = 7";
+    String serialPlan = db.explain(small);
+    db.setParallelism(4);
+    // a primary key range is not worth splitting, so the plan is the same as without workers
+    assert db.explain(small).equals(serialPlan) : db.explain(small);
+    var prepared = db.prepare(query);
+    for (int i = 0; i < 3; i++) {
+      assert prepared.query().fetchAll().equals(serial);
+    }
+    assert db.explain(query).contains("gather from 4 workers") : db.explain(query);
+  }
+
+  @Test
+  public void testColumnarScanIsSplitIntoChunkRuns() {
+    var db = events("parallelcolumnar");
+    db.runQuery(
+        "create table columns ( id number primary key, region string, amount number )"
+            + " with (layout = columnar);");
+    db.getTable("columns").insertBatch(db.getTable("events").select(List.of("*"), null));
+    String query = "select id, region from columns where amount = 7";
+    String aggregate =
+        "select region, count(*), sum(amount) from columns where amount < 500" + " group by region";
+    var serial = sorted(db.query(query));
+    var serialAggregate = sorted(db.query(aggregate));
+    db.setParallelism(4);
+    assert db.explain(query).contains("gather from 4 workers") : db.explain(query);
+    assert db.explain(query).contains("columnar range scan") : db.explain(query);
+    assert sorted(db.query(query)).equals(serial);
+    assert serial.size() == 4 * Gather.ROWS_PER_WORKER / 1000 + 1;
+    assert db.explain(aggregate).contains("gather from 4 workers") : db.explain(aggregate);
+    assert sorted(db.query(aggregate)).equals(serialAggregate);
+  }
+}
@@ -240,4 +240,22 @@ public class ParserInsertTest extends Parser {
     assert expr.columns.size() == 1;
     assert expr.values.size() == 0;
   }
+
+  @Test
+  public void testInsertManyRows() {
+    Scanner s =
+        new Scanner(
+            "INSERT INTO t (id, name, price) VALUES (1, ann, 2.5), (2, \"b c\", -3), (?, ?, ?);");
+    Parser p = new Parser(s.scanTokens());
+    Expr.Insert expr = (Expr.Insert) p.insertStatement();
+
+    assert expr.rows.size() == 3;
+    assert expr.values == expr.rows.get(0);
+    assert ((Expr.Literal) expr.rows.get(0).get(0)).value.equals("1");
+    assert ((Expr.Literal) expr.rows.get(0).get(2)).value.equals("2.5");
+    assert ((Expr.Literal) expr.rows.get(1).get(1)).value.equals("b c");
+    assert ((Expr.Literal) expr.rows.get(1).get(2)).value.equals("-3");
+    assert expr.rows.get(2).get(2) instanceof Expr.Parameter;
+    assert p.parameterCount() == 3;
+  }
 }
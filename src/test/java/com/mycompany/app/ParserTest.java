@@ -1,5 +1,8 @@
 package com.mycompany.app;
 
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 
 public class ParserTest extends Parser {
@@ -103,6 +106,93 @@ public class ParserTest extends Parser {
     assert select.table.lexeme.toString().equals("table1");
   }
 
+  @Test
+  public void testParseScript() {
+    String script =
+        "select a from t;\n\n-- a comment\ncreate table u ( id number primary key );"
+            + "insert into u (id) values (x);;";
+    List<Expr> statements = new Parser(new Scanner(script).scanTokens()).parse(false);
+    assert statements.size() == 3;
+    assert statements.get(0) instanceof Expr.Select;
+    assert statements.get(1) instanceof Expr.Create;
+    assert statements.get(2) instanceof Expr.Insert;
+  }
+
+  @Test
+  public void testStreamingScanner() {
+    String script =
+        "select a, \"b c\" from t where x >= 1.25 and y <> ?;\n-- note\n"
+            + "create table u ( id number primary key ) with (layout = columnar);";
+    // hand out three characters at a time so tokens are split across reads
+    Reader trickle =
+        new StringReader(script) {
+          @Override
+          public int read(char[] buffer, int offset, int length) throws java.io.IOException {
+            return super.read(buffer, offset, Math.min(length, 3));
+          }
+        };
+    List<Token> expected = new Scanner(script).scanTokens();
+    Scanner streaming = new Scanner(trickle);
+    for (Token token : expected) {
+      Token read = streaming.nextToken();
+      assert read.type == token.type && read.lexeme.equals(token.lexeme);
+      assert read.line == token.line && read.offset == token.offset;
+      assert script.startsWith(read.lexeme, (int) read.offset);
+    }
+    assert streaming.nextToken() == null;
+  }
+
+  @Test
+  public void testParseLargeScriptOneStatementAtATime() {
+    int statements = 200_000;
+    // generates the script as it is read rather than holding it
+    Reader script =
+        new Reader() {
+          private final StringBuilder pending = new StringBuilder();
+          private int written = 0;
+
+          @Override
+          public int read(char[] buffer, int offset, int length) {
+            while (pending.length() < length && written < statements) {
+              pending
+                  .append("insert into t (id, name) values (?, n")
+                  .append(written++)
+                  .append(");\n");
+            }
+            if (pending.length() == 0) {
+              return -1;
+            }
+            int count = Math.min(length, pending.length());
+            pending.getChars(0, count, buffer, offset);
+            pending.delete(0, count);
+            return count;
+          }
+
+          @Override
+          public void close() {}
+        };
+    Parser parser = new Parser(new Scanner(script));
+    int count = 0;
+    for (Expr e = parser.next(false); e != null; e = parser.next(false)) {
+      var insert = (Expr.Insert) e;
+      assert ((Expr.Literal) insert.values.get(1)).value.equals("n" + count);
+      count++;
+    }
+    assert count == statements;
+    assert parser.parameterCount() == statements;
+  }
+
+  @Test
+  public void testSelectWithLimit() {
+    Parser p = new Parser(new Scanner("select id from table1 where id > 5 limit 10;").scanTokens());
+    Expr.Select select = (Expr.Select) p.selectStatement();
+    assert select.whereClause.size() == 1;
+    assert select.limit == 10;
+
+    p = new Parser(new Scanner("select id from table1;").scanTokens());
+    assert ((Expr.Select) p.selectStatement()).limit == null;
+  }
+
   @Test
   public void testSelectWithSimpleWhere() {
     Scanner s = new Scanner("Select column1 from table1 where id = 5");
@@ -286,4 +376,21 @@ public class ParserTest extends Parser {
       current = logical.left;
     }
   }
+
+  @Test
+  public void testCreateIndex() {
+    Scanner s = new Scanner("create unique index byEmail on users (email, name) using hash;");
+    Parser p = new Parser(s.scanTokens());
+    Expr.CreateIndex index = (Expr.CreateIndex) p.parse().get(0);
+    assert index.indexName.equals("byEmail");
+    assert index.tableName.equals("users");
+    assert index.columns.equals(List.of("email", "name"));
+    assert index.unique;
+    assert index.kind == Index.Kind.HASH;
+
+    Scanner plain = new Scanner("create index byAge on users (age);");
+    Expr.CreateIndex tree = (Expr.CreateIndex) new Parser(plain.scanTokens()).parse().get(0);
+    assert !tree.unique;
+    assert tree.kind == Index.Kind.TREE;
+  }
 }
@@ -0,0 +1,94 @@
+package com.mycompany.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+public class PlannerTest {
+
+  private static List<String> files = new ArrayList<>();
+
+  @AfterAll
+  public static void cleanup() {
+    for (String file : files) {
+      new File(file).delete();
+      new File(file + "-wal").delete();
+    }
+  }
+
+  // 2000 orders, 95% of them done, amounts spread evenly from 0 to 999
+  private static Database orders(String name) {
+    String path = "./" + name + ".db";
+    files.add(path);
+    var db = new Database(name, path);
+    db.runQuery(
+        "create table orders ( id number primary key, status string, flag number, amount number"
+            + " );");
+    List<List<String>> rows = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      rows.add(
+          List.of(
+              String.valueOf(i),
+              i % 20 == 0 ? "open" + i : "done",
+              String.valueOf(i % 2),
+              String.valueOf(i % 1000)));
+    }
+    db.getTable("orders").insertBatch(rows);
+    db.runQuery("create index byStatus on orders (status) using hash;");
+    db.runQuery("create index byFlag on orders (flag) using hash;");
+    db.runQuery("create index byAmount on orders (amount);");
+    db.commit();
+    return db;
+  }
+
+  private static String explain(Table table, String clause) {
+    Parser parser = new Parser(new Scanner("select id from t where " + clause).scanTokens());
+    return table.explain(
+        new Condition(table, ((Expr.Select) parser.selectStatement()).whereClause.get(0)));
+  }
+
+  @Test
+  public void testStatisticsChooseBetweenIndexAndScan() {
+    var db = orders("plannerchoice");
+    var orders = db.getTable("orders");
+    assert orders.statistics() == null;
+    // without statistics an index is guessed to be worth using
+    assert explain(orders, "flag = 1").equals("index byFlag");
+    assert explain(orders, "status = done").equals("index byStatus");
+
+    db.runQuery("analyze orders;");
+    assert orders.statistics().rows() == 2000;
+    assert orders.statistics().column("status").distinct() == 101;
+    // half the table, or a value most rows hold, is cheaper to scan than to look up row by row
+    assert explain(orders, "flag = 1").equals("scan");
+    assert explain(orders, "status = done").equals("scan");
+    assert explain(orders, "status = open40").equals("index byStatus");
+    assert explain(orders, "amount > 990").equals("index byAmount range");
+    assert explain(orders, "amount > 10").equals("scan");
+    assert explain(orders, "amount >= 500 and amount < 510").equals("index byAmount range");
+    assert explain(orders, "id < 100 and amount > 10").equals("primary key range");
+    assert explain(orders, "id = 7 and status = done").equals("primary key");
+
+    // the chosen plan returns the same rows as any other
+    assert db.query("select id from orders where flag = 1 and amount < 3").size() == 2;
+    assert db.query("select id from orders where status = done").size() == 1900;
+  }
+
+  @Test
+  public void testExplainShowsPlanTree() {
+    var db = orders("plannerexplain");
+    db.analyze(null);
+    String plan = db.explain("select id, amount from orders where amount > 995 limit 3");
+    String[] lines = plan.split("\n");
+    assert lines.length == 4 : plan;
+    assert lines[0].startsWith("limit 3 (rows=3 ");
+    assert lines[1].startsWith("  project id, amount (rows=");
+    assert lines[2].startsWith("    filter (rows=");
+    assert lines[3].startsWith("      index byAmount range on orders ");
+    assert db.query("select id, amount from orders where amount > 995 limit 3").size() == 3;
+
+    assert db.explain("select * from orders").startsWith("project id, status, flag, amount");
+  }
+}
@@ -0,0 +1,102 @@
+package com.mycompany.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+public class PreparedStatementTest {
+
+  private static List<String> files = new ArrayList<>();
+
+  @AfterAll
+  public static void cleanup() {
+    for (String file : files) {
+      new File(file).delete();
+      new File(file + "-wal").delete();
+    }
+  }
+
+  private static Database people(String name) {
+    String path = "./" + name + ".db";
+    files.add(path);
+    var db = new Database(name, path);
+    db.runQuery("create table people ( id number primary key, name string, age number );");
+    return db;
+  }
+
+  @Test
+  public void testPlaceholders() {
+    var db = people("preparedplaceholders");
+    var insert = db.prepare("insert into people (id, name, age) values (?, ?, ?);");
+    assert insert.parameterCount() == 3;
+    for (int i = 0; i < 50; i++) {
+      insert.execute(String.valueOf(i), "person" + i, String.valueOf(i % 10));
+    }
+    assert db.getTable("people").primaryKeys().size() == 50;
+
+    var byAge = db.prepare("select id from people where age = ? and id < ?");
+    assert byAge.query("3", "20").fetchAll().equals(List.of(List.of("3"), List.of("13")));
+    assert byAge.query("9", "100").fetchAll().size() == 5;
+    assert db.prepare("select name from people where id = ? + 1")
+        .query("40")
+        .fetchAll()
+        .equals(List.of(List.of("person41")));
+
+    boolean failed = false;
+    try {
+      byAge.query("3");
+    } catch (RuntimeException e) {
+      failed = true;
+    }
+    assert failed : "every placeholder needs a value";
+  }
+
+  @Test
+  public void testStatementsAreCached() {
+    var db = people("preparedcache");
+    db.prepare("insert into people (id, name, age) values (?, ?, ?);").execute("1", "ann", "30");
+
+    var first = db.prepare("select name from people where age > 18");
+    assert db.prepare("  select name\tfrom people   where age > 18 ") == first;
+    assert db.prepare("select name from people where age > 19") != first;
+    assert db.prepare("select id from people where name = \"a  b\"")
+        != db.prepare("select id from people where name = \"a b\"");
+    assert db.prepare("select id from people where name = 'a  b'")
+        != db.prepare("select id from people where name = 'a b'");
+    assert db.prepare("select id from people where name = 'it\"s  here'")
+        != db.prepare("select id from people where name = 'it\"s here'");
+
+    var table = db.getTable("people");
+    Expr clause = ((Expr.Select) first.statements().get(0)).whereClause.get(0);
+    var plan = first.plan(table, clause);
+    assert first.plan(table, clause) == plan : "a query without placeholders is only planned once";
+    assert first.query().fetchAll().equals(List.of(List.of("ann")));
+  }
+
+  @Test
+  public void testPlanIsRedoneWhenIndexesOrStatisticsChange() {
+    var db = people("preparedreplan");
+    db.prepare("insert into people (id, name, age) values (?, ?, ?);").execute("1", "ann", "30");
+    var statement = db.prepare("select name from people where age = 30");
+    var table = db.getTable("people");
+    Expr clause = ((Expr.Select) statement.statements().get(0)).whereClause.get(0);
+
+    var plan = statement.plan(table, clause);
+    db.runQuery("create index byAge on people (age);");
+    var indexed = statement.plan(table, clause);
+    assert indexed != plan;
+    db.runQuery("analyze people;");
+    var analyzed = statement.plan(table, clause);
+    assert analyzed != indexed;
+    assert statement.plan(table, clause) == analyzed;
+
+    db.startTransaction();
+    db.runQuery("create index byName on people (name);");
+    var uncommitted = statement.plan(table, clause);
+    db.rollback(); // drops the index again
+    assert statement.plan(table, clause) != uncommitted;
+    assert statement.query().fetchAll().equals(List.of(List.of("ann")));
+  }
+}
@@ -0,0 +1,111 @@
+package com.mycompany.app;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+public class ServerTest {
+
+  private static List<String> files = new ArrayList<>();
+
+  @AfterAll
+  public static void cleanup() {
+    for (String file : files) {
+      new File(file).delete();
+      new File(file + "-wal").delete();
+    }
+  }
+
+  private static Server start() throws Exception {
+    Server server = new Server(new Engine(), new InetSocketAddress("127.0.0.1", 0));
+    Thread.ofVirtual().start(server::serve);
+    return server;
+  }
+
+  @Test
+  public void testSessionsHaveTheirOwnDatabase() throws Exception {
+    files.add("serversessions.db");
+    try (Server server = start();
+        Client first = new Client("127.0.0.1", server.getPort());
+        Client second = new Client("127.0.0.1", server.getPort())) {
+      assert first.run("create database serversessions;").message().contains("created");
+      assert first.run("serversessions").message().equals("Entered database serversessions.");
+      assert !first.run("create table users ( id number primary key, name string );").failed();
+      assert !first.run("insert into users (id, name) values (1, Alice);").failed();
+
+      // not in a database yet, so this is not a query
+      assert second.run("select name from users").failed();
+      assert second.run("missing").message().equals("Database missing not found.");
+      assert !second.run("serversessions").failed();
+      var reply = second.run("select id, name from users");
+      assert reply.rows().equals(List.of(List.of("1", "Alice")));
+      assert reply.message().equals("1 row");
+
+      var failed = second.run("select id from nothing");
+      assert failed.failed() && failed.rows().isEmpty();
+
+      assert first.run("drop database serversessions;").failed(); // a statement now, not a command
+      try (Client third = new Client("127.0.0.1", server.getPort())) {
+        assert !third.run("drop database serversessions;").failed();
+      }
+      assert second.run("select id from users").message().contains("was dropped");
+      assert !new File("serversessions.db").exists();
+    }
+  }
+
+  @Test
+  public void testPipelinedQueriesAreAnsweredInOrder() throws Exception {
+    files.add("serverpipeline.db");
+    int clients = 4;
+    int inserts = 2000; // by each client
+    try (Server server = start()) {
+      try (Client setup = new Client("127.0.0.1", server.getPort())) {
+        setup.run("create database serverpipeline;");
+        setup.run("serverpipeline");
+        setup.run("create table events ( id number primary key, source number );");
+      }
+      ExecutorService pool = Executors.newFixedThreadPool(clients);
+      List<Future<?>> done = new ArrayList<>();
+      for (int c = 0; c < clients; c++) {
+        int source = c;
+        done.add(
+            pool.submit(
+                () -> {
+                  try (Client client = new Client("127.0.0.1", server.getPort())) {
+                    client.send("serverpipeline");
+                    for (int i = 0; i < inserts; i++) {
+                      int id = source * inserts + i;
+                      client.send(
+                          "insert into events (id, source) values (" + id + ", " + source + ");");
+                    }
+                    client.send("select id from events where source = " + source);
+                    assert !client.receive().failed();
+                    for (int i = 0; i < inserts; i++) {
+                      var reply = client.receive();
+                      assert !reply.failed() : reply.message();
+                    }
+                    assert client.receive().rows().size() == inserts;
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : done) {
+        future.get(60, TimeUnit.SECONDS);
+      }
+      pool.shutdown();
+
+      try (Client check = new Client("127.0.0.1", server.getPort())) {
+        check.run("serverpipeline");
+        var count = check.run("select count(*) from events");
+        assert count.rows().equals(List.of(List.of(String.valueOf(clients * inserts))));
+      }
+    }
+  }
+}
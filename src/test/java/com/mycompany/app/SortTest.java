@@ -0,0 +1,97 @@
+package com.mycompany.app;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+public class SortTest {
+
+  private static List<String> files = new ArrayList<>();
+
+  @AfterAll
+  public static void cleanup() {
+    for (String file : files) {
+      new File(file).delete();
+      new File(file + "-wal").delete();
+    }
+  }
+
+  // 1000 people, person i aged i % 90 living in city i % 7, inserted out of order
+  private static Database people(String name) {
+    String path = "./" + name + ".db";
+    files.add(path);
+    var db = new Database(name, path);
+    db.runQuery("create table people ( id number primary key, age number, city string );");
+    List<List<String>> people = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      int id = (i * 373) % 1000;
+      people.add(List.of(String.valueOf(id), String.valueOf(id % 90), "city" + id % 7));
+    }
+    db.getTable("people").insertBatch(people);
+    db.commit();
+    return db;
+  }
+
+  @Test
+  public void testOrderBy() {
+    var db = people("sortorder");
+    var rows = db.query("select id, age from people where city = city3 order by age desc, id");
+    assert rows.size() == 143;
+    for (int i = 1; i < rows.size(); i++) {
+      int previousAge = Integer.parseInt(rows.get(i - 1).get(1));
+      int age = Integer.parseInt(rows.get(i).get(1));
+      assert previousAge > age
+          || (previousAge == age
+              && Integer.parseInt(rows.get(i - 1).get(0)) < Integer.parseInt(rows.get(i).get(0)));
+    }
+    // numbers sort as numbers, not text
+    assert rows.get(0).get(1).equals("89");
+
+    rows = db.query("select city, count(*) from people group by city order by count(*) desc, city");
+    assert rows.size() == 7;
+    assert rows.get(0).equals(List.of("city0", "143"));
+    assert rows.get(6).equals(List.of("city6", "142"));
+  }
+
+  @Test
+  public void testTopNWithLimit() {
+    var db = people("sorttop");
+    var rows = db.query("select id from people order by age desc, id desc limit 3");
+    assert rows.equals(List.of(List.of("989"), List.of("899"), List.of("809"))) : rows;
+    assert db.explain("select id from people order by age limit 3").contains("top 3 sort on age");
+
+    // a listing in primary key order reads the table in order instead of sorting it
+    String listing = "select id, city from people order by id limit 5";
+    assert !db.explain(listing).contains("sort") : db.explain(listing);
+    rows = db.query(listing);
+    assert rows.size() == 5;
+    for (int i = 0; i < 5; i++) {
+      assert rows.get(i).get(0).equals(String.valueOf(i));
+    }
+  }
+
+  @Test
+  public void testSortsOnDiskPastTheMemoryBudget() throws Exception {
+    var db = people("sortspill");
+    String query = "select id, city from people order by city, age desc, id";
+    var inMemory = db.query(query);
+    Path directory = Files.createTempDirectory("sorttest");
+    try {
+      db.setWorkMemory(1000);
+      db.setSpillDirectory(directory.toString());
+      assert db.query(query).equals(inMemory);
+      // a limit too large to hold sorts on disk too
+      assert db.query(query + " limit 900").equals(inMemory.subList(0, 900));
+      try (var left = Files.list(directory)) {
+        assert left.count() == 0;
+      }
+    } finally {
+      db.setSpillDirectory(null);
+      directory.toFile().delete();
+    }
+  }
+}
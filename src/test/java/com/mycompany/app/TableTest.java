@@ -64,4 +64,68 @@ public class TableTest {
     assert id.equals("1");
     assert name.equals("Alice");
   }
+
+  @Test
+  public void testNumberKeysAreOrderedNumerically() {
+    Table table =
+        new Table(
+            "TestTable",
+            List.of(
+                new Column("id", TokenType.NUMBER, false, true, null),
+                new Column("name", TokenType.STRING_TYPE, true, false, null)));
+    for (int i = 20; i > 0; i--) {
+      table.insert(List.of(String.valueOf(i), "user" + i));
+    }
+
+    var range = table.selectRange(List.of("id"), "9", "11");
+    assert range.equals(List.of(List.of("9"), List.of("10"), List.of("11")));
+    assert table.selectRange(List.of("id"), null, "2").size() == 2;
+    assert table.selectRange(List.of("id"), "19", null).size() == 2;
+    assert table.select(List.of("id"), 20).get(0).get(0).equals("1");
+  }
+
+  @Test
+  public void testCompositeKey() {
+    Table table =
+        new Table(
+            "TestTable",
+            List.of(
+                new Column("customer", TokenType.STRING_TYPE, false, true, null),
+                new Column("orderNo", TokenType.NUMBER, false, true, null),
+                new Column("item", TokenType.STRING_TYPE, true, false, null)));
+    table.insert(List.of("bob", "2", "pen"));
+    table.insert(List.of("alice", "10", "ink"));
+    table.insert(List.of("alice", "9", "pad"));
+
+    // rows with the same last key column no longer overwrite each other
+    table.insert(List.of("carol", "2", "cup"));
+    assert table.primaryKeys().size() == 4;
+    assert table.getRowCol("bob,2", "item").equals("pen");
+    assert table.getRowCol("carol,2", "primary_key").equals("carol,2");
+
+    var alice = table.selectRange(List.of("item"), "alice,0", "alice,99");
+    assert alice.equals(List.of(List.of("pad"), List.of("ink")));
+  }
+
+  @Test
+  public void testCompositeKeyValuesHoldingCommas() {
+    Table table =
+        new Table(
+            "TestTable",
+            List.of(
+                new Column("first", TokenType.STRING_TYPE, false, true, null),
+                new Column("second", TokenType.STRING_TYPE, false, true, null),
+                new Column("item", TokenType.STRING_TYPE, true, false, null)));
+    table.insert(List.of("a,b", "c", "one"));
+    table.insert(List.of("a", "b,c", "two"));
+    table.insert(List.of("back\\", "slash", "three"));
+
+    assert table.primaryKeys().size() == 3;
+    String one = table.getRowCol("a\\,b,c", "primary_key");
+    String two = table.getRowCol("a,b\\,c", "primary_key");
+    assert !one.equals(two);
+    assert table.getRowCol(one, "item").equals("one");
+    assert table.getRowCol(two, "item").equals("two");
+    assert table.getRowCol("back\\\\,slash", "item").equals("three");
+  }
 }
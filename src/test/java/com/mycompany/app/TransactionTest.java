@@ -0,0 +1,324 @@
+package com.mycompany.app;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+public class TransactionTest {
+
+  private static List<String> files = new ArrayList<>();
+
+  @AfterAll
+  public static void cleanup() {
+    for (String file : files) {
+      new File(file).delete();
+      new File(file + "-wal").delete();
+    }
+  }
+
+  private static Database savedDatabase(String name) {
+    String path = "./" + name + ".db";
+    files.add(path);
+    var db = new Database(name, path);
+    db.runQuery("create table users ( id number primary key, name string not null );");
+    Disk.writeDatabase(db);
+    return db;
+  }
+
+  @Test
+  public void testCommittedInsertsAreRecoveredFromLog() throws Exception {
+    var db = savedDatabase("walrecovery");
+    db.runQuery("insert into users (id, name) values (a1, Alice);");
+    db.getTable("users").insert(List.of("b2", "Bob"));
+    db.commit();
+    db.getTable("users").insert(List.of("c3", "Carol")); // never committed
+
+    assert Files.size(WriteAheadLog.pathFor("./walrecovery.db")) > 0;
+
+    // reopen without saving, the committed rows come back from the log
+    var read = Disk.readDatabase("./walrecovery.db");
+    assert read.getTable("users").primaryKeys().size() == 2;
+    assert read.getTable("users").getRowCol("a1", "name").equals("Alice");
+    assert read.getTable("users").getRowCol("b2", "name").equals("Bob");
+
+    // saving folds the log into the file
+    Disk.writeDatabase(read);
+    assert WriteAheadLog.replay(WriteAheadLog.pathFor("./walrecovery.db")).isEmpty();
+    assert Disk.readDatabase("./walrecovery.db").getTable("users").primaryKeys().size() == 2;
+  }
+
+  @Test
+  public void testCreateTableIsLogged() {
+    var db = savedDatabase("walcreate");
+    db.runQuery("create table orders ( orderId number primary key );");
+    db.runQuery("insert into orders (orderId) values (o1);");
+
+    var read = Disk.readDatabase("./walcreate.db");
+    assert read.getTable("orders") != null;
+    assert read.getTable("orders").getRowCol("o1", "orderId").equals("o1");
+  }
+
+  @Test
+  public void testRollback() {
+    var db = savedDatabase("walrollback");
+    db.getTable("users").insert(List.of("a1", "Alice"));
+    db.commit();
+
+    db.startTransaction();
+    db.runQuery("insert into users (id, name) values (a1, Alicia);");
+    db.runQuery("insert into users (id, name) values (b2, Bob);");
+    db.runQuery("create table orders ( orderId number primary key );");
+    assert db.getTable("users").primaryKeys().size() == 2;
+    db.rollback();
+
+    assert db.getTable("users").primaryKeys().size() == 1;
+    assert db.getTable("users").getRowCol("a1", "name").equals("Alice");
+    assert db.getTable("orders") == null;
+
+    var read = Disk.readDatabase("./walrollback.db");
+    assert read.getTable("users").primaryKeys().size() == 1;
+    assert read.getTable("orders") == null;
+  }
+
+  @Test
+  public void testSessionsCommitAndRollBackTheirOwnChanges() {
+    var db = savedDatabase("walsessions");
+    var first = new Database.Session();
+    var second = new Database.Session();
+    db.within(
+        first,
+        () -> {
+          db.startTransaction();
+          return db.runQuery("insert into users (id, name) values (a1, Alice);");
+        });
+    // the second session autocommits without taking the first one's insert along
+    assert !db.within(second, () -> db.runQuery("insert into users (id, name) values (b2, Bob);"));
+    assert db.getTable("users").primaryKeys().size() == 2;
+    var read = Disk.readDatabase("./walsessions.db");
+    assert read.getTable("users").primaryKeys().size() == 1;
+    assert read.getTable("users").getRowCol("b2", "name").equals("Bob");
+
+    boolean failed = false;
+    try {
+      db.within(second, () -> db.runQuery("insert into users (id, name) values (c3, Carol);"));
+      db.within(
+          first,
+          () -> {
+            db.startTransaction(); // still open
+            return null;
+          });
+    } catch (RuntimeException e) {
+      failed = true;
+    }
+    assert failed;
+
+    db.within(
+        first,
+        () -> {
+          db.rollback();
+          return null;
+        });
+    assert db.getTable("users").primaryKeys().size() == 2;
+    assert db.getTable("users").getRowCol("b2", "name").equals("Bob");
+    assert db.getTable("users").getRowCol("c3", "name").equals("Carol");
+  }
+
+  @Test
+  public void testNoSaveWhileATransactionIsOpen() {
+    var db = savedDatabase("walsave");
+    db.startTransaction();
+    db.runQuery("insert into users (id, name) values (a1, Alice);");
+    boolean refused = false;
+    try {
+      Disk.writeDatabase(db);
+    } catch (RuntimeException e) {
+      refused = true;
+    }
+    assert refused;
+    db.rollback();
+    Disk.writeDatabase(db);
+    assert Disk.readDatabase("./walsave.db").getTable("users").primaryKeys().isEmpty();
+  }
+
+  @Test
+  public void testFailedStatementLeavesNothingBehind() {
+    var db = savedDatabase("walfailed");
+    db.runQuery("create unique index byName on users (name);");
+    db.runQuery("insert into users (id, name) values (a1, Alice);");
+    boolean failed = false;
+    try {
+      // the second insert breaks the unique index after the first has gone in
+      db.runQuery(
+          "insert into users (id, name) values (b2, Bob); "
+              + "insert into users (id, name) values (c3, Alice);");
+    } catch (RuntimeException e) {
+      failed = true;
+    }
+    assert failed;
+    assert db.getTable("users").primaryKeys().size() == 1;
+    // nor is it committed along with the next statement
+    db.runQuery("insert into users (id, name) values (d4, Dave);");
+    var read = Disk.readDatabase("./walfailed.db");
+    assert read.getTable("users").primaryKeys().size() == 2;
+    assert read.getTable("users").getRowCol("d4", "name").equals("Dave");
+  }
+
+  @Test
+  public void testGroupCommitSharesOneSync() throws Exception {
+    String path = "./groupcommit.db";
+    files.add(path);
+    try (var wal = WriteAheadLog.open(WriteAheadLog.pathFor(path))) {
+      var record = new WriteAheadLog.Record(WriteAheadLog.INSERT, new byte[] {1, 2, 3});
+      long first = wal.append(List.of(record));
+      long second = wal.append(List.of(record));
+      long third = wal.append(List.of(record, record));
+
+      // the first sync writes everything appended so far
+      wal.sync(first);
+      wal.sync(second);
+      wal.sync(third);
+      assert wal.syncCount() == 1;
+
+      var committed = WriteAheadLog.replay(WriteAheadLog.pathFor(path));
+      assert committed.size() == 3;
+      assert committed.get(2).size() == 2;
+    }
+  }
+
+  @Test
+  public void testConcurrentCommitsAreGrouped() throws Exception {
+    String path = "./concurrentcommit.db";
+    files.add(path);
+    try (var wal = WriteAheadLog.open(WriteAheadLog.pathFor(path))) {
+      var record = new WriteAheadLog.Record(WriteAheadLog.INSERT, new byte[64]);
+      int threads = 8;
+      int commits = 50;
+      List<Thread> workers = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        Thread worker =
+            new Thread(
+                () -> {
+                  try {
+                    for (int i = 0; i < commits; i++) {
+                      wal.sync(wal.append(List.of(record)));
+                    }
+                  } catch (Exception e) {
+                    throw new RuntimeException(e);
+                  }
+                });
+        workers.add(worker);
+        worker.start();
+      }
+      for (Thread worker : workers) {
+        worker.join();
+      }
+      assert wal.syncCount() <= threads * commits;
+      assert WriteAheadLog.replay(WriteAheadLog.pathFor(path)).size() == threads * commits;
+    }
+  }
+
+  @Test
+  public void testTruncateReleasesWaitingCommits() throws Exception {
+    String path = "./truncatedlog.db";
+    files.add(path);
+    try (var wal = WriteAheadLog.open(WriteAheadLog.pathFor(path))) {
+      var record = new WriteAheadLog.Record(WriteAheadLog.INSERT, new byte[8]);
+      long position = wal.append(List.of(record));
+      wal.truncate(); // a save took the transaction in before it was synced
+      Thread committer =
+          new Thread(
+              () -> {
+                try {
+                  wal.sync(position);
+                } catch (Exception e) {
+                  throw new RuntimeException(e);
+                }
+              });
+      committer.setDaemon(true); // would spin for ever if the truncate rewound the log
+      committer.start();
+      committer.join(5000);
+      assert !committer.isAlive();
+
+      wal.sync(wal.append(List.of(record)));
+      assert WriteAheadLog.replay(WriteAheadLog.pathFor(path)).size() == 1;
+    }
+  }
+
+  @Test
+  public void testCommitDuringSaveIsNotCheckpointedAway() throws Exception {
+    var db = savedDatabase("commitduringsave");
+    db.startSave();
+    Thread writer =
+        new Thread(
+            () ->
+                db.within(
+                    new Database.Session(),
+                    () -> db.runQuery("insert into users (id, name) values (a1, Alice);")));
+    writer.start();
+    Thread.sleep(100); // the insert is applied and its commit waits for the save
+    db.checkpoint();
+    db.endSave();
+    writer.join();
+
+    var read = Disk.readDatabase("./commitduringsave.db");
+    assert read.getTable("users").getRowCol("a1", "name").equals("Alice");
+  }
+
+  @Test
+  public void testTornRecordIsIgnored() throws Exception {
+    String path = "./tornlog.db";
+    files.add(path);
+    try (var wal = WriteAheadLog.open(WriteAheadLog.pathFor(path))) {
+      wal.sync(wal.append(List.of(new WriteAheadLog.Record(WriteAheadLog.INSERT, new byte[8]))));
+    }
+    // half written record from a crash
+    Files.write(
+        WriteAheadLog.pathFor(path),
+        new byte[] {0, 0, 0, 20, 1, 2},
+        java.nio.file.StandardOpenOption.APPEND);
+    assert WriteAheadLog.replay(WriteAheadLog.pathFor(path)).size() == 1;
+    try (var wal = WriteAheadLog.open(WriteAheadLog.pathFor(path))) {
+      wal.sync(wal.append(List.of()));
+    }
+    assert WriteAheadLog.replay(WriteAheadLog.pathFor(path)).size() == 2;
+  }
+
+  @Test
+  public void testScriptRunsAsOneTransaction() throws Exception {
+    var db = savedDatabase("script");
+    String script =
+        """
+        -- people and their pets
+        create table pets ( id number primary key, owner string );
+        insert into users (id, name) values (u1, Ann);
+        insert into users (id, name) values (u2, Bob);
+
+        insert into pets (id, owner) values (p1, u1);
+        select name from users where id = u2
+        """;
+    assert db.runScript(new StringReader(script)) == 5;
+    assert db.getTable("users").primaryKeys().size() == 2;
+    assert db.getTable("pets").getRowCol("p1", "owner").equals("u1");
+
+    // the log holds one transaction for the whole script
+    var logged = WriteAheadLog.replay(WriteAheadLog.pathFor("./script.db"));
+    assert logged.size() == 1;
+    assert logged.get(0).size() == 4;
+
+    boolean failed = false;
+    try {
+      db.runScript(
+          new StringReader(
+              "insert into users (id, name) values (u3, Cat);\n"
+                  + "create table pets ( id number primary key );"));
+    } catch (RuntimeException e) {
+      failed = true;
+    }
+    assert failed : "creating a table twice should fail";
+    assert db.getTable("users").primaryKeys().size() == 2 : "the failed script is rolled back";
+  }
+}